@@ -0,0 +1,92 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws;
+
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SECURITY_GROUP_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SUBNET_ID;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TYPE;
+import static com.cloudera.director.spi.v2.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static com.cloudera.director.spi.v2.provider.Launcher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2TagHelper;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Tag;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building the tags for an instance, which happens for every instance allocated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AWSTagHelperBenchmark {
+
+  /**
+   * The number of user-defined tags on the template.
+   */
+  @Param({"3", "40"})
+  public int userDefinedTags;
+
+  private EC2TagHelper tagHelper;
+
+  private EC2InstanceTemplate template;
+
+  @Setup
+  public void setUp() {
+    tagHelper = new EC2TagHelper(new CustomTagMappings(ConfigFactory.empty()));
+
+    Map<String, String> config = new HashMap<>();
+    config.put(INSTANCE_NAME_PREFIX.unwrap().getConfigKey(), "benchmark");
+    config.put(IMAGE.unwrap().getConfigKey(), "ami-12345678");
+    config.put(SECURITY_GROUP_IDS.unwrap().getConfigKey(), "sg-12345678");
+    config.put(SUBNET_ID.unwrap().getConfigKey(), "subnet-12345678");
+    config.put(TYPE.unwrap().getConfigKey(), "m4.xlarge");
+    Map<String, String> tags = new LinkedHashMap<>();
+    for (int i = 0; i < userDefinedTags; i++) {
+      tags.put("tag-key-" + i, "tag-value-" + i);
+    }
+    template = new EC2InstanceTemplate("benchmark-template", new SimpleConfiguration(config),
+        tags, DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+  }
+
+  @Benchmark
+  public List<Tag> getInstanceTags() {
+    return tagHelper.getInstanceTags(template, "6d3b1e2c-7f8a-4b5c-9d0e-1f2a3b4c5d6e",
+        tagHelper.getUserDefinedTags(template));
+  }
+}
@@ -0,0 +1,102 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static com.cloudera.director.spi.v2.provider.Launcher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+
+import com.cloudera.director.aws.ec2.ebs.EBSDeviceMappings;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks generating device names and block device mappings for ephemeral drives and EBS
+ * volumes, which happens for every instance allocated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceMappingsBenchmark {
+
+  /**
+   * The instance type used for ephemeral device mappings.
+   */
+  private static final String INSTANCE_TYPE = "d2.8xlarge";
+
+  /**
+   * The number of devices to map.
+   */
+  @Param({"4", "24"})
+  public int devices;
+
+  private final DeviceNameUtils deviceNameUtils = new DeviceNameUtils();
+
+  private Set<String> excludeDeviceNames;
+
+  private EphemeralDeviceMappings ephemeralDeviceMappings;
+
+  private EBSDeviceMappings ebsDeviceMappings;
+
+  private EC2InstanceTemplate template;
+
+  @Setup
+  public void setUp() {
+    excludeDeviceNames = new HashSet<>();
+    excludeDeviceNames.add("/dev/sdb");
+    excludeDeviceNames.add("/dev/sdf");
+    ephemeralDeviceMappings = EphemeralDeviceMappings.getTestInstance(
+        Collections.singletonMap(INSTANCE_TYPE, devices), DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+    ebsDeviceMappings = EBSDeviceMappings.getDefaultInstance(
+        Collections.<String, String>emptyMap(), DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+    template = new EC2InstanceTemplate(EC2InstanceTemplateBenchmark.TEMPLATE_NAME,
+        new SimpleConfiguration(EC2InstanceTemplateBenchmark.createConfig(2)),
+        EC2InstanceTemplateBenchmark.createTags(), DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+  }
+
+  @Benchmark
+  public List<String> getDeviceNames() {
+    return deviceNameUtils.getDeviceNames("/dev/sd", 'b', devices, excludeDeviceNames);
+  }
+
+  @Benchmark
+  public List<BlockDeviceMapping> getEphemeralBlockDeviceMappings() {
+    return ephemeralDeviceMappings.getBlockDeviceMappings(INSTANCE_TYPE, excludeDeviceNames);
+  }
+
+  @Benchmark
+  public List<BlockDeviceMapping> getEbsBlockDeviceMappings() {
+    return ebsDeviceMappings.getBlockDeviceMappings(template, excludeDeviceNames);
+  }
+}
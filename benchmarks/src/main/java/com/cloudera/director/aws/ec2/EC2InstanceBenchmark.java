@@ -0,0 +1,92 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static com.cloudera.director.spi.v2.provider.Launcher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.GroupIdentifier;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceState;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Placement;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building the display properties of an EC2 instance, which happens for every
+ * instance whose state is reported.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EC2InstanceBenchmark {
+
+  private EC2Instance ec2Instance;
+
+  @Setup
+  public void setUp() {
+    EC2InstanceTemplate template = new EC2InstanceTemplate(
+        EC2InstanceTemplateBenchmark.TEMPLATE_NAME,
+        new SimpleConfiguration(EC2InstanceTemplateBenchmark.createConfig(0)),
+        EC2InstanceTemplateBenchmark.createTags(),
+        DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+    Instance instance = new Instance()
+        .withInstanceId("i-0123456789abcdef0")
+        .withArchitecture("x86_64")
+        .withEbsOptimized(true)
+        .withHypervisor("xen")
+        .withImageId("ami-12345678")
+        .withInstanceType("m4.xlarge")
+        .withKeyName("benchmark-key")
+        .withLaunchTime(new Date(1514764800000L))
+        .withPrivateDnsName("ip-10-0-0-10.us-west-2.compute.internal")
+        .withPrivateIpAddress("10.0.0.10")
+        .withPublicDnsName("ec2-54-0-0-10.us-west-2.compute.amazonaws.com")
+        .withPublicIpAddress("54.0.0.10")
+        .withRootDeviceName("/dev/sda1")
+        .withRootDeviceType("ebs")
+        .withSourceDestCheck(true)
+        .withSecurityGroups(
+            new GroupIdentifier().withGroupId("sg-12345678").withGroupName("default"),
+            new GroupIdentifier().withGroupId("sg-87654321").withGroupName("cluster"))
+        .withSubnetId("subnet-12345678")
+        .withPlacement(new Placement().withAvailabilityZone("us-west-2a").withTenancy("default"))
+        .withVirtualizationType("hvm")
+        .withVpcId("vpc-12345678")
+        .withState(new InstanceState().withCode(16).withName("running"));
+    ec2Instance = new EC2Instance(template, "benchmark-instance", instance);
+  }
+
+  @Benchmark
+  public Map<String, String> getProperties() {
+    return ec2Instance.getProperties();
+  }
+}
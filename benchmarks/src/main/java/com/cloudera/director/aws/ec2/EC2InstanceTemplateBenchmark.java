@@ -0,0 +1,137 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_COUNT;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_SIZE_GIB;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_TYPE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SECURITY_GROUP_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SUBNET_ID;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SYSTEM_DISKS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TYPE;
+import static com.cloudera.director.spi.v2.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static com.cloudera.director.spi.v2.provider.Launcher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+
+import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks constructing an EC2 instance template from its configuration, which happens for
+ * every template validated or used for allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EC2InstanceTemplateBenchmark {
+
+  /**
+   * The template name.
+   */
+  static final String TEMPLATE_NAME = "benchmark-template";
+
+  /**
+   * The system disks configuration format, taking the volume size of each disk.
+   */
+  private static final String SYSTEM_DISK_FORMAT =
+      "{ \"volumeType\": \"gp2\", \"volumeSize\": \"%d\", \"enableEncryption\": \"false\" }";
+
+  /**
+   * The number of system disks in the template configuration.
+   */
+  @Param({"0", "2"})
+  public int systemDisks;
+
+  private Map<String, String> config;
+
+  private Map<String, String> tags;
+
+  @Setup
+  public void setUp() {
+    config = createConfig(systemDisks);
+    tags = createTags();
+  }
+
+  @Benchmark
+  public EC2InstanceTemplate createTemplate() {
+    return new EC2InstanceTemplate(TEMPLATE_NAME, new SimpleConfiguration(config), tags,
+        DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+  }
+
+  /**
+   * Creates a template configuration with additional EBS volumes and the specified number of
+   * system disks.
+   *
+   * @param systemDisks the number of system disks
+   * @return the template configuration
+   */
+  static Map<String, String> createConfig(int systemDisks) {
+    Map<String, String> config = new LinkedHashMap<>();
+    putConfig(config, INSTANCE_NAME_PREFIX, TEMPLATE_NAME);
+    putConfig(config, IMAGE, "ami-12345678");
+    putConfig(config, SECURITY_GROUP_IDS, "sg-12345678,sg-87654321");
+    putConfig(config, SUBNET_ID, "subnet-12345678");
+    putConfig(config, TYPE, "m4.xlarge");
+    putConfig(config, EBS_VOLUME_COUNT, "4");
+    putConfig(config, EBS_VOLUME_SIZE_GIB, "500");
+    putConfig(config, EBS_VOLUME_TYPE, "st1");
+    if (systemDisks > 0) {
+      StringBuilder systemDisksConfig = new StringBuilder("[");
+      for (int i = 0; i < systemDisks; i++) {
+        systemDisksConfig.append(i == 0 ? "" : ",")
+            .append(String.format(SYSTEM_DISK_FORMAT, 100 + i));
+      }
+      putConfig(config, SYSTEM_DISKS, systemDisksConfig.append("]").toString());
+    }
+    return config;
+  }
+
+  /**
+   * Creates user-defined template tags.
+   *
+   * @return the template tags
+   */
+  static Map<String, String> createTags() {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("owner", "benchmark-user");
+    tags.put("project", "benchmarks");
+    tags.put("cost-center", "1234");
+    return tags;
+  }
+
+  private static void putConfig(Map<String, String> config,
+      ConfigurationPropertyToken propertyToken, String value) {
+    config.put(propertyToken.unwrap().getConfigKey(), value);
+  }
+}
@@ -0,0 +1,194 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.provider;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks host key fingerprint extraction from EC2 console output. The console outputs
+ * mimic a Linux boot log followed by cloud-init output, truncated to the size returned by
+ * EC2, with the fingerprint block near the end.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsoleOutputExtractorBenchmark {
+
+  /**
+   * The previous regular expression for the fingerprint block, kept as a baseline.
+   */
+  private static final Pattern FINGERPRINTS_BLOCK_PATTERN = Pattern.compile(
+      "(BEGIN SSH HOST KEY FINGERPRINTS)(.*)(END SSH HOST KEY FINGERPRINTS)", Pattern.DOTALL
+  );
+
+  /**
+   * The previous regular expression for a fingerprint, kept as a baseline.
+   */
+  private static final Pattern FINGERPRINT_PATTERN =
+      Pattern.compile("\\s(([0-9a-f]{2}:){15}[0-9a-f]{2})\\s");
+
+  /**
+   * The number of polls over which the console output grows to its full size.
+   */
+  private static final int POLLS = 16;
+
+  /**
+   * The size of the console output, in kilobytes.
+   */
+  @Param({"16", "64"})
+  public int outputKilobytes;
+
+  private final ConsoleOutputExtractor consoleOutputExtractor = new ConsoleOutputExtractor();
+
+  private String consoleOutput;
+
+  private String[] growingConsoleOutputs;
+
+  @Setup
+  public void setUp() {
+    consoleOutput = createConsoleOutput(outputKilobytes * 1024, new Random(42L));
+    growingConsoleOutputs = new String[POLLS];
+    for (int i = 0; i < POLLS; i++) {
+      growingConsoleOutputs[i] = consoleOutput.substring(0, consoleOutput.length() * (i + 1) / POLLS);
+    }
+  }
+
+  /**
+   * Extracts fingerprints the way the extractor used to, with two passes of the block
+   * regular expression followed by the fingerprint regular expression.
+   */
+  @Benchmark
+  public Set<String> regexExtraction() {
+    return extractWithRegex(consoleOutput);
+  }
+
+  /**
+   * Extracts fingerprints with a single pass over the console output.
+   */
+  @Benchmark
+  public Set<String> singlePassExtraction() {
+    return consoleOutputExtractor.getHostKeyFingerprints(consoleOutput);
+  }
+
+  /**
+   * Polls a growing console output, rescanning all of it with regular expressions each time.
+   */
+  @Benchmark
+  public void regexPolling(Blackhole blackhole) {
+    for (String output : growingConsoleOutputs) {
+      blackhole.consume(extractWithRegex(output));
+    }
+  }
+
+  /**
+   * Polls a growing console output, resuming the scan where the previous poll left off.
+   */
+  @Benchmark
+  public void resumedScanPolling(Blackhole blackhole) {
+    ConsoleOutputExtractor.Scan scan = consoleOutputExtractor.newScan();
+    for (String output : growingConsoleOutputs) {
+      blackhole.consume(scan.scan(output));
+    }
+  }
+
+  private static Set<String> extractWithRegex(String consoleOutput) {
+    if (!FINGERPRINTS_BLOCK_PATTERN.matcher(consoleOutput).find()) {
+      return null;
+    }
+    Matcher match = FINGERPRINTS_BLOCK_PATTERN.matcher(consoleOutput);
+    match.find();
+    String fingerprintBlock = match.group(2);
+
+    Set<String> hostKeyFingerprints = new HashSet<>();
+    match = FINGERPRINT_PATTERN.matcher(fingerprintBlock);
+    while (match.find()) {
+      hostKeyFingerprints.add(match.group(1));
+    }
+    return hostKeyFingerprints;
+  }
+
+  /**
+   * Creates a console output of roughly the specified size, ending with the cloud-init
+   * host key fingerprint block.
+   */
+  private static String createConsoleOutput(int size, Random random) {
+    StringBuilder fingerprintBlock = new StringBuilder()
+        .append("ec2: \n")
+        .append("ec2: #############################################################\n")
+        .append("ec2: -----BEGIN SSH HOST KEY FINGERPRINTS-----\n");
+    String[][] keys = {{"256", "ecdsa", "ECDSA"}, {"256", "ed25519", "ED25519"}, {"2048", "rsa", "RSA"}};
+    for (String[] key : keys) {
+      fingerprintBlock.append("ec2: ").append(key[0]).append(' ')
+          .append(randomFingerprint(random))
+          .append(" /etc/ssh/ssh_host_").append(key[1]).append("_key.pub (").append(key[2]).append(")\n");
+    }
+    fingerprintBlock
+        .append("ec2: -----END SSH HOST KEY FINGERPRINTS-----\n")
+        .append("ec2: #############################################################\n")
+        .append("-----BEGIN SSH HOST KEY KEYS-----\n")
+        .append("ecdsa-sha2-nistp256 AAAAE2VjZHNhLXNoYTItbmlzdHAyNTYAAAAIbmlzdHAyNTYAAABBBNE root@ip-10-0-0-1\n")
+        .append("-----END SSH HOST KEY KEYS-----\n")
+        .append("Cloud-init v. 0.7.9 finished. Datasource DataSourceEc2.  Up 24.51 seconds\n");
+
+    String[] bootLines = {
+        "[%10.6f] ACPI: PCI Interrupt Link [LNKC] enabled at IRQ %d\n",
+        "[%10.6f] xen_netfront: Initialising Xen virtual ethernet driver, irq %d\n",
+        "[%10.6f] EXT4-fs (xvda1): mounted filesystem with ordered data mode. Opts: (null) %d\n",
+        "[%10.6f] systemd[1]: Started Journal Service, pid %d.\n",
+        "ci-info: | %10.6f | eth0 | 10.0.0.%d | 255.255.255.0 | global |\n",
+    };
+    StringBuilder output = new StringBuilder(size + 1024);
+    double uptime = 0.0;
+    while (output.length() + fingerprintBlock.length() < size) {
+      uptime += random.nextDouble() / 10;
+      output.append(String.format(Locale.ROOT, bootLines[random.nextInt(bootLines.length)],
+          uptime, random.nextInt(256)));
+    }
+    return output.append(fingerprintBlock).toString();
+  }
+
+  private static String randomFingerprint(Random random) {
+    StringBuilder fingerprint = new StringBuilder();
+    for (int i = 0; i < 16; i++) {
+      if (i > 0) {
+        fingerprint.append(':');
+      }
+      fingerprint.append(String.format(Locale.ROOT, "%02x", random.nextInt(256)));
+    }
+    return fingerprint.toString();
+  }
+}
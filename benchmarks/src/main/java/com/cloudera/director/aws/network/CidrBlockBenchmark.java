@@ -0,0 +1,221 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks CIDR block parsing and containment when checking network rules against the IP
+ * ranges of large security group and network ACL rule sets. Each benchmark checks every rule
+ * against every IP range, the way network rules are evaluated during validation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CidrBlockBenchmark {
+
+  /**
+   * The number of network rules to check.
+   */
+  private static final int RULES = 16;
+
+  /**
+   * The number of IP ranges in the security group or network ACL rule set.
+   */
+  @Param({"100", "1000"})
+  public int ipRanges;
+
+  private String[] ruleNotations;
+
+  private String[] ipRangeNotations;
+
+  private CidrBlock[] ruleBlocks;
+
+  private CidrBlock[] ipRangeBlocks;
+
+  private BaselineCidrBlock[] baselineRuleBlocks;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    ruleNotations = new String[RULES];
+    ruleBlocks = new CidrBlock[RULES];
+    baselineRuleBlocks = new BaselineCidrBlock[RULES];
+    for (int i = 0; i < RULES; i++) {
+      ruleNotations[i] = createNotation(random);
+      ruleBlocks[i] = CidrBlock.fromString(ruleNotations[i]);
+      baselineRuleBlocks[i] = BaselineCidrBlock.fromString(ruleNotations[i]);
+    }
+    ipRangeNotations = new String[ipRanges];
+    ipRangeBlocks = new CidrBlock[ipRanges];
+    for (int i = 0; i < ipRanges; i++) {
+      ipRangeNotations[i] = createNotation(random);
+      ipRangeBlocks[i] = CidrBlock.fromString(ipRangeNotations[i]);
+    }
+  }
+
+  /**
+   * Parses every IP range for every rule and checks overlap with the previous
+   * {@code InetAddress}-based implementation, as network rules used to.
+   */
+  @Benchmark
+  public int baselineParseAndOverlap() {
+    int overlapping = 0;
+    for (BaselineCidrBlock rule : baselineRuleBlocks) {
+      for (String notation : ipRangeNotations) {
+        BaselineCidrBlock ipRange = BaselineCidrBlock.fromString(notation);
+        if (ipRange.contains(rule) || rule.contains(ipRange)) {
+          overlapping++;
+        }
+      }
+    }
+    return overlapping;
+  }
+
+  /**
+   * Looks up every IP range for every rule and checks overlap, as network rules do.
+   */
+  @Benchmark
+  public int parseAndOverlap() {
+    int overlapping = 0;
+    for (CidrBlock rule : ruleBlocks) {
+      for (String notation : ipRangeNotations) {
+        if (CidrBlock.fromString(notation).overlaps(rule)) {
+          overlapping++;
+        }
+      }
+    }
+    return overlapping;
+  }
+
+  /**
+   * Checks containment between already parsed CIDR blocks.
+   */
+  @Benchmark
+  public int contains() {
+    int containing = 0;
+    for (CidrBlock rule : ruleBlocks) {
+      for (CidrBlock ipRange : ipRangeBlocks) {
+        if (ipRange.contains(rule)) {
+          containing++;
+        }
+      }
+    }
+    return containing;
+  }
+
+  /**
+   * Checks overlap between already parsed CIDR blocks.
+   */
+  @Benchmark
+  public int overlaps() {
+    int overlapping = 0;
+    for (CidrBlock rule : ruleBlocks) {
+      for (CidrBlock ipRange : ipRangeBlocks) {
+        if (ipRange.overlaps(rule)) {
+          overlapping++;
+        }
+      }
+    }
+    return overlapping;
+  }
+
+  /**
+   * Creates a CIDR notation, mostly IPv4 within a few private ranges, so that some of the
+   * blocks overlap.
+   *
+   * @param random the source of randomness
+   * @return the CIDR notation
+   */
+  private static String createNotation(Random random) {
+    if (random.nextInt(4) == 0) {
+      return String.format("2001:db8:%x:%x::/%d",
+          random.nextInt(4), random.nextInt(65536), 32 + random.nextInt(97));
+    }
+    return String.format("10.%d.%d.%d/%d",
+        random.nextInt(4), random.nextInt(256), random.nextInt(256), 8 + random.nextInt(25));
+  }
+
+  /**
+   * The previous {@code InetAddress}-based CIDR block implementation, kept as a baseline.
+   */
+  private static final class BaselineCidrBlock {
+
+    private final InetAddress baseAddress;
+
+    private final int prefixLen;
+
+    static BaselineCidrBlock fromString(String notation) {
+      int idx = notation.indexOf('/');
+      InetAddress addr;
+      try {
+        addr = InetAddress.getByName(notation.substring(0, idx));
+      } catch (UnknownHostException e) {
+        throw new IllegalArgumentException("Invalid CIDR notation: " + notation, e);
+      }
+      return new BaselineCidrBlock(addr, Integer.parseInt(notation.substring(idx + 1)));
+    }
+
+    private BaselineCidrBlock(InetAddress ipAddress, int prefixLen) {
+      this.baseAddress = mask(ipAddress, prefixLen);
+      this.prefixLen = prefixLen;
+    }
+
+    private static InetAddress mask(InetAddress ipAddress, int prefixLen) {
+      byte[] bytes = ipAddress.getAddress();
+      int borderByte = (prefixLen == 0) ? 0 : (prefixLen - 1) / 8;
+      int numBits = prefixLen - (borderByte * 8);
+      int bitMask = (-1 << (8 - numBits));
+
+      bytes[borderByte] = (byte) (bytes[borderByte] & bitMask);
+      for (int i = borderByte + 1; i < bytes.length; i++) {
+        bytes[i] = 0;
+      }
+
+      try {
+        return InetAddress.getByAddress(bytes);
+      } catch (UnknownHostException e) {
+        throw new IllegalStateException("Failed to apply network mask", e);
+      }
+    }
+
+    boolean contains(InetAddress address) {
+      return (baseAddress.getClass() == address.getClass())
+          && baseAddress.equals(mask(address, prefixLen));
+    }
+
+    boolean contains(BaselineCidrBlock cidr) {
+      return prefixLen <= cidr.prefixLen && contains(cidr.baseAddress);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.network;
+
+import com.cloudera.director.aws.shaded.com.google.common.collect.Range;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks evaluating network rules against the permissions of a large security group,
+ * checking every rule against every permission as a baseline, and looking up the enforced and
+ * violated rules in a network rule index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NetworkRuleIndexBenchmark {
+
+  /**
+   * The protocols of the generated permissions.
+   */
+  private static final String[] PROTOCOLS = {"tcp", "tcp", "tcp", "udp", "-1"};
+
+  /**
+   * The number of network rules.
+   */
+  @Param({"16", "64"})
+  public int rules;
+
+  /**
+   * The number of security group permissions.
+   */
+  @Param({"100", "500"})
+  public int permissions;
+
+  private List<NetworkRule> allowRules;
+
+  private List<NetworkRule> denyRules;
+
+  private NetworkRuleIndex index;
+
+  private String[] permissionProtocols;
+
+  private List<Range<Integer>> permissionPorts;
+
+  private List<List<String>> permissionIpRanges;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    allowRules = new ArrayList<>();
+    denyRules = new ArrayList<>();
+    for (int i = 0; i < rules; i++) {
+      AccessType access = (i % 4 == 0) ? AccessType.DENY : AccessType.ALLOW;
+      Map<String, Object> config = new HashMap<>();
+      config.put("protocol", random.nextInt(8) == 0 ? "-1" : "tcp");
+      config.put("port", random.nextInt(4) == 0 ? -1 : 1000 + random.nextInt(1000));
+      config.put("ipRanges", Collections.singletonList(createNotation(random)));
+      for (NetworkRule rule : NetworkRule.fromConfig(ConfigFactory.parseMap(config), access)) {
+        (access == AccessType.ALLOW ? allowRules : denyRules).add(rule);
+      }
+    }
+    List<NetworkRule> allRules = new ArrayList<>(allowRules);
+    allRules.addAll(denyRules);
+    index = NetworkRuleIndex.of(allRules);
+
+    permissionProtocols = new String[permissions];
+    permissionPorts = new ArrayList<>(permissions);
+    permissionIpRanges = new ArrayList<>(permissions);
+    for (int i = 0; i < permissions; i++) {
+      permissionProtocols[i] = PROTOCOLS[random.nextInt(PROTOCOLS.length)];
+      int fromPort = 1000 + random.nextInt(1000);
+      permissionPorts.add(random.nextBoolean()
+          ? Range.singleton(fromPort)
+          : Range.closed(fromPort, fromPort + random.nextInt(50)));
+      permissionIpRanges.add(Arrays.asList(createNotation(random), createNotation(random)));
+    }
+  }
+
+  /**
+   * Checks every rule against every permission.
+   */
+  @Benchmark
+  public int baselineRuleChecks() {
+    int matches = 0;
+    for (int i = 0; i < permissions; i++) {
+      String protocol = permissionProtocols[i];
+      Range<Integer> ports = permissionPorts.get(i);
+      List<String> ipRanges = permissionIpRanges.get(i);
+      for (NetworkRule rule : allowRules) {
+        if (rule.isEnforced(protocol, ports, ipRanges, AccessType.ALLOW)) {
+          matches++;
+        }
+      }
+      for (NetworkRule rule : denyRules) {
+        if (rule.isViolated(protocol, ports, ipRanges, AccessType.ALLOW)) {
+          matches++;
+        }
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Looks up the enforced and violated rules for every permission in the index.
+   */
+  @Benchmark
+  public int indexLookups() {
+    int matches = 0;
+    for (int i = 0; i < permissions; i++) {
+      String protocol = permissionProtocols[i];
+      Range<Integer> ports = permissionPorts.get(i);
+      List<String> ipRanges = permissionIpRanges.get(i);
+      matches += index.getEnforcedRules(protocol, ports, ipRanges, AccessType.ALLOW).size();
+      matches += index.getViolatedRules(protocol, ports, ipRanges, AccessType.ALLOW).size();
+    }
+    return matches;
+  }
+
+  /**
+   * Creates a CIDR notation within a shared VPC address space, so that some of the blocks
+   * overlap.
+   *
+   * @param random the source of randomness
+   * @return the CIDR notation
+   */
+  private static String createNotation(Random random) {
+    if (random.nextInt(10) == 0) {
+      return String.format("2001:db8:%x:%x::/%d",
+          random.nextInt(4), random.nextInt(16), 48 + random.nextInt(17));
+    }
+    return String.format("10.%d.%d.0/%d",
+        random.nextInt(4), random.nextInt(256), 16 + random.nextInt(9));
+  }
+}
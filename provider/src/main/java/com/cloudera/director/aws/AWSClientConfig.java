@@ -50,19 +50,26 @@ public class AWSClientConfig {
   // always picks the maximum possible wait time.
   public static final int DEFAULT_MAX_ERROR_RETRIES = 15;
   public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 10000;
-  public static final ClientConfiguration DEFAULT_CLIENT_CONFIG = new ClientConfiguration()
-      .withMaxErrorRetry(DEFAULT_MAX_ERROR_RETRIES)
-      .withConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT_MILLIS);
 
-  // Custom retry policy that will log when retry attempts by the AWS client
+  // Custom retry policies that record, and optionally log, retry attempts by the AWS client
   private static final boolean DEFAULT_LOG_RETRY_ATTEMPTS = false;
   private static final boolean HONOR_MAX_ERROR_RETRY_IN_CLIENT_CONFIG = true;
   private static final RetryPolicy RETRY_POLICY_WITH_LOGGING = new RetryPolicy(
       PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
-      new DefaultBackoffStrategyWithLogging(),
+      new DefaultBackoffStrategyWithLogging(true),
+      PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY,
+      HONOR_MAX_ERROR_RETRY_IN_CLIENT_CONFIG);
+  private static final RetryPolicy RETRY_POLICY_WITHOUT_LOGGING = new RetryPolicy(
+      PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+      new DefaultBackoffStrategyWithLogging(false),
       PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY,
       HONOR_MAX_ERROR_RETRY_IN_CLIENT_CONFIG);
 
+  public static final ClientConfiguration DEFAULT_CLIENT_CONFIG = new ClientConfiguration()
+      .withMaxErrorRetry(DEFAULT_MAX_ERROR_RETRIES)
+      .withConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT_MILLIS)
+      .withRetryPolicy(RETRY_POLICY_WITHOUT_LOGGING);
+
   /**
    * AWS client configuration properties.
    *
@@ -246,11 +253,10 @@ public class AWSClientConfig {
         .withProxyDomain(httpProxyParameters.getDomain())
         .withProxyWorkstation(httpProxyParameters.getWorkstation())
         .withPreemptiveBasicProxyAuth(httpProxyParameters.isPreemptiveBasicProxyAuth())
-        .withNonProxyHosts(modifyProxyBypassList(httpProxyParameters.getProxyBypassHosts()));
-
-    if (isLogRetryAttempts()) {
-      clientConfig.withRetryPolicy(RETRY_POLICY_WITH_LOGGING);
-    }
+        .withNonProxyHosts(modifyProxyBypassList(httpProxyParameters.getProxyBypassHosts()))
+        .withRetryPolicy(isLogRetryAttempts()
+            ? RETRY_POLICY_WITH_LOGGING
+            : RETRY_POLICY_WITHOUT_LOGGING);
 
     return clientConfig;
   }
@@ -222,6 +222,32 @@ public class AWSExceptions {
     throw new TransientProviderException(e.getMessage(), e);
   }
 
+  /**
+   * Returns a fresh copy of the specified service exception, so that a failure shared between
+   * callers, such as a cached one, gives each caller its own exception with its own stack trace.
+   * The copy has the same class as the original whenever that class can be instantiated with
+   * just a message, as the service-specific exceptions of the SDK can, so that callers can
+   * still catch the specific type. The original exception is kept as the cause of the copy.
+   *
+   * @param e the service exception
+   * @return a copy of the service exception
+   */
+  public static AmazonServiceException copy(AmazonServiceException e) {
+    AmazonServiceException copy;
+    try {
+      copy = e.getClass().getConstructor(String.class).newInstance(e.getErrorMessage());
+      copy.initCause(e);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      copy = new AmazonServiceException(e.getErrorMessage(), e);
+    }
+    copy.setErrorCode(e.getErrorCode());
+    copy.setErrorType(e.getErrorType());
+    copy.setRequestId(e.getRequestId());
+    copy.setServiceName(e.getServiceName());
+    copy.setStatusCode(e.getStatusCode());
+    return copy;
+  }
+
   /**
    * Returns whether the specified throwable is an {@code AmazonServiceException} with
    * the specified error code.
@@ -204,6 +204,12 @@ public class AWSLauncher extends AbstractLauncher {
         null : config.getConfig(Configurations.AWS_TIMEOUTS_SECTION));
   }
 
+  private static AWSRequestLimits getAWSRequestLimits(Config config) {
+    return new AWSRequestLimits(config == null
+        || !config.hasPath(Configurations.AWS_REQUEST_LIMITS_SECTION)
+        ? null : config.getConfig(Configurations.AWS_REQUEST_LIMITS_SECTION));
+  }
+
   private static CustomTagMappings getCustomTagMappings(Config config) {
     return new CustomTagMappings(config == null || !config.hasPath(Configurations.CUSTOM_TAG_MAPPINGS_SECTION) ?
         null : config.getConfig(Configurations.CUSTOM_TAG_MAPPINGS_SECTION));
@@ -261,6 +267,9 @@ public class AWSLauncher extends AbstractLauncher {
   @VisibleForTesting
   AWSTimeouts awsTimeouts;
 
+  @VisibleForTesting
+  AWSRequestLimits awsRequestLimits;
+
   @VisibleForTesting
   CustomTagMappings customTagMappings;
 
@@ -309,6 +318,7 @@ public class AWSLauncher extends AbstractLauncher {
         cloudLocalizationContext);
     awsFilters = getAWSFilterConfig(config);
     awsTimeouts = getAWSTimeouts(config);
+    awsRequestLimits = getAWSRequestLimits(config);
     customTagMappings = getCustomTagMappings(config);
     networkRules = getNetworkRules(configurationDirectory);
     stsRoles = getRoleConfigurations(config);
@@ -338,7 +348,8 @@ public class AWSLauncher extends AbstractLauncher {
     }
     return new AWSProvider(configuration, ephemeralDeviceMappings, ebsDeviceMappings, ebsMetadata,
         virtualizationMappings, rdsEndpoints, rdsEncryptionInstanceClasses, awsClientConfig,
-        awsFilters, awsTimeouts, customTagMappings, networkRules, stsRoles, useTagOnCreate,
+        awsFilters, awsTimeouts, awsRequestLimits, customTagMappings, networkRules, stsRoles,
+        useTagOnCreate,
         getLocalizationContext(locale));
   }
 
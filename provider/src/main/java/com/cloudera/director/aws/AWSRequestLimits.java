@@ -0,0 +1,90 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws;
+
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValue;
+
+import java.util.Map;
+
+/**
+ * Limits on how many requests the AWS plugin keeps in flight, and how quickly it sends them,
+ * for different operations. Each limit has a string name and is stored as a positive,
+ * unit-less number.
+ */
+public class AWSRequestLimits {
+
+  private final ImmutableMap<String, Double> limits;
+
+  /**
+   * Creates a new request limits object from the given configuration. It is
+   * expected that every value in the recursive tree of the configuration is
+   * a positive number. Each (recursive) key in the config serves as the key
+   * for a limit.
+   *
+   * @param config config holding request limits
+   * @throws IllegalArgumentException if any configuration value is non-numeric or not positive
+   */
+  public AWSRequestLimits(Config config) {
+    ImmutableMap.Builder<String, Double> b = ImmutableMap.builder();
+
+    if (config != null) {
+      for (Map.Entry<String, ConfigValue> e : config.entrySet()) {
+        String key = e.getKey();
+        ConfigValue value = e.getValue();
+        switch (value.valueType()) {
+          case NUMBER:
+            double num = ((Number) value.unwrapped()).doubleValue();
+            if (num <= 0.0) {
+              throw new IllegalArgumentException("Request limit " + key + " is not positive: "
+                  + value);
+            }
+            b.put(key, num);
+            break;
+          default:
+            throw new IllegalArgumentException("Request limit " + key + " is not a number: "
+                + value);
+        }
+      }
+    }
+
+    limits = b.build();
+  }
+
+  /**
+   * Gets a whole-number limit, such as a maximum number of concurrent requests.
+   *
+   * @param key          limit key
+   * @param defaultValue the value to return if the limit is not configured
+   * @return the configured limit, truncated to an integer but never below one, or the default
+   */
+  public int getLimit(String key, int defaultValue) {
+    Double limit = limits.get(key);
+    return (limit == null) ? defaultValue : Math.max(1, limit.intValue());
+  }
+
+  /**
+   * Gets a fractional limit, such as a number of requests per second.
+   *
+   * @param key          limit key
+   * @param defaultValue the value to return if the limit is not configured
+   * @return the configured limit, or the default
+   */
+  public double getLimit(String key, double defaultValue) {
+    Double limit = limits.get(key);
+    return (limit == null) ? defaultValue : limit;
+  }
+}
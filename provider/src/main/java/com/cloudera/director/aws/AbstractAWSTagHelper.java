@@ -106,23 +106,35 @@ public abstract class AbstractAWSTagHelper<T> {
   }
 
   /**
-   * Returns the instance tags for an instance with the specified template and ID.
+   * Returns the tags that identify an instance with the specified template and ID. Unlike the
+   * other instance tags, they differ between the instances of a template.
    *
    * @param template          the instance template
    * @param virtualInstanceId the virtual instance ID as generated by Cloudera Altus Director
-   * @param userDefinedTags   the user-defined tags
-   * @return the instance tags for an instance with the specified template and ID
+   * @return the tags that identify an instance with the specified template and ID
    */
   @SuppressWarnings("unchecked")
-  public List<T> getInstanceTags(InstanceTemplate template, String virtualInstanceId,
-      List<T> userDefinedTags) {
-    List<T> tags = Lists.newArrayList(
+  public List<T> getInstanceIdentityTags(InstanceTemplate template, String virtualInstanceId) {
+    return Lists.newArrayList(
         createTag(
             Tags.ResourceTags.RESOURCE_NAME.getTagKey(),
             String.format("%s-%s", template.getInstanceNamePrefix(), virtualInstanceId)),
-        createClouderaDirectorIdTag(virtualInstanceId),
-        createClouderaDirectorTemplateNameTag(template.getName())
+        createClouderaDirectorIdTag(virtualInstanceId)
     );
+  }
+
+  /**
+   * Returns the instance tags for an instance with the specified template and ID.
+   *
+   * @param template          the instance template
+   * @param virtualInstanceId the virtual instance ID as generated by Cloudera Altus Director
+   * @param userDefinedTags   the user-defined tags
+   * @return the instance tags for an instance with the specified template and ID
+   */
+  public List<T> getInstanceTags(InstanceTemplate template, String virtualInstanceId,
+      List<T> userDefinedTags) {
+    List<T> tags = getInstanceIdentityTags(template, virtualInstanceId);
+    tags.add(createClouderaDirectorTemplateNameTag(template.getName()));
     tags.addAll(userDefinedTags);
     return tags;
   }
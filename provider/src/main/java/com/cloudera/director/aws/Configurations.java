@@ -85,6 +85,11 @@ public final class Configurations {
    */
   public static final String AWS_TIMEOUTS_SECTION = "awsTimeouts";
 
+  /**
+   * The HOCON path prefix for AWS request limits.
+   */
+  public static final String AWS_REQUEST_LIMITS_SECTION = "awsRequestLimits";
+
   /**
    * The HOCON path prefix for custom tag names.
    */
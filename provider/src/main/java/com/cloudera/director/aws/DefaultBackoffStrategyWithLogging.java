@@ -19,12 +19,14 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.retry.PredefinedRetryPolicies;
 import com.amazonaws.retry.RetryPolicy;
+import com.cloudera.director.aws.metrics.AWSCallMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This behaves the same as the default AWS backoff strategy but with additional
- * logging when backoff happens.
+ * logging when backoff happens. Every retry is also recorded in {@link AWSCallMetrics},
+ * whether it is logged or not.
  */
 public class DefaultBackoffStrategyWithLogging implements RetryPolicy.BackoffStrategy {
 
@@ -35,13 +37,34 @@ public class DefaultBackoffStrategyWithLogging implements RetryPolicy.BackoffStr
       "to exception : errorCode=%s, serviceRequest=%s, retriesAttempted=%s, " +
       "delayBeforeNextRetry(ms)=%s";
 
+  private final boolean logRetries;
+
+  /**
+   * Creates a backoff strategy that logs retries.
+   */
+  public DefaultBackoffStrategyWithLogging() {
+    this(true);
+  }
+
+  /**
+   * Creates a backoff strategy.
+   *
+   * @param logRetries whether to log retries
+   */
+  public DefaultBackoffStrategyWithLogging(boolean logRetries) {
+    this.logRetries = logRetries;
+  }
+
   @Override
   public long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest,
                                    AmazonClientException exception,
                                    int retriesAttempted) {
     long delayBeforeNextRetry = PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY
         .delayBeforeNextRetry(originalRequest, exception, retriesAttempted);
-    logBackoffInformation(originalRequest, exception, retriesAttempted, delayBeforeNextRetry);
+    AWSCallMetrics.getInstance().getOperationMetrics(originalRequest).recordRetry(exception);
+    if (logRetries) {
+      logBackoffInformation(originalRequest, exception, retriesAttempted, delayBeforeNextRetry);
+    }
     return delayBeforeNextRetry;
   }
 
@@ -14,6 +14,22 @@
 
 package com.cloudera.director.aws;
 
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.AmazonWebServiceResult;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.autoscaling.AmazonAutoScalingAsyncClient;
+import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
+import com.cloudera.director.aws.metrics.AWSCallMetrics;
+import com.cloudera.director.aws.metrics.OperationMetrics;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
@@ -23,12 +39,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Aspect to log rpc calls.
+ * Aspect to log rpc calls and record their metrics in {@link AWSCallMetrics}.
  */
 @Aspect
 public class LoggingAspect {
   private static final Logger LOG = LoggerFactory.getLogger(LoggingAspect.class);
   private static final int LOG_LENGTH_LIMIT = 200;
+  private static final String ASYNC_SUFFIX = "Async";
+
+  /**
+   * The asynchronous clients whose single-argument asynchronous methods only delegate to the
+   * overloads taking an {@link AsyncHandler}. Calls to them are redirected to the overloads so
+   * that their completion can be observed.
+   */
+  private static final Set<Class<?>> ASYNC_CLIENT_CLASSES = ImmutableSet.<Class<?>>of(
+      AmazonEC2AsyncClient.class, AmazonAutoScalingAsyncClient.class);
+
+  /**
+   * The metrics of the operation each client method calls, absent for methods that are not
+   * operations, such as {@code setEndpoint}.
+   */
+  private static final ConcurrentMap<Method, Optional<OperationMetrics>> OPERATION_METRICS =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The overload taking an {@link AsyncHandler} of each single-argument asynchronous method.
+   */
+  private static final ConcurrentMap<Method, Method> ASYNC_HANDLER_OVERLOADS =
+      new ConcurrentHashMap<>();
 
   /**
    * EC2 calls.
@@ -37,6 +75,27 @@ public class LoggingAspect {
   public void ec2Call() {
   }
 
+  /**
+   * Asynchronous EC2 calls.
+   */
+  @Pointcut("call(public java.util.concurrent.Future com.amazonaws.services.ec2.AmazonEC2AsyncClient.*Async(..))")
+  public void ec2AsyncCall() {
+  }
+
+  /**
+   * Auto Scaling calls.
+   */
+  @Pointcut("call(public * com.amazonaws.services.autoscaling.AmazonAutoScalingClient.*(..))")
+  public void autoScalingCall() {
+  }
+
+  /**
+   * Asynchronous Auto Scaling calls.
+   */
+  @Pointcut("call(public java.util.concurrent.Future com.amazonaws.services.autoscaling.AmazonAutoScalingAsyncClient.*Async(..))")
+  public void autoScalingAsyncCall() {
+  }
+
   /**
    * IAM calls.
    */
@@ -65,24 +124,163 @@ public class LoggingAspect {
    * @return original method returns.
    * @throws Throwable original method throwables.
    */
-  @Around("ec2Call() || iamCall() || kmsCall() || rdsCall()")
+  @Around("ec2Call() || autoScalingCall() || iamCall() || kmsCall() || rdsCall()")
   public Object log(ProceedingJoinPoint jp) throws Throwable {
     MethodSignature ms = MethodSignature.class.cast(jp.getSignature());
     String methodName = ms.getDeclaringType().getSimpleName() + "::" + ms.getMethod().getName();
+    OperationMetrics metrics = getOperationMetrics(ms.getMethod());
 
     LOG.debug("-> Calling {} with argument(s): {}", methodName, jp.getArgs());
 
+    long start = System.nanoTime();
     try {
       Object result = jp.proceed();
+      if (metrics != null) {
+        metrics.recordSuccess(System.nanoTime() - start);
+      }
       LOG.debug("<- {} returns: {}", methodName, truncate(result));
       return result;
 
     } catch (Throwable e) {
+      if (metrics != null) {
+        metrics.recordFailure(System.nanoTime() - start, e);
+      }
       LOG.debug("<- {} throws {}", methodName, e.getMessage());
       throw e;
     }
   }
 
+  /**
+   * Logging advice around asynchronous calls. The metrics of a call are recorded when it
+   * completes, through an {@link AsyncHandler} wrapped around the caller's handler, if any.
+   *
+   * @param jp join point.
+   * @return original method returns.
+   * @throws Throwable original method throwables.
+   */
+  @Around("ec2AsyncCall() || autoScalingAsyncCall()")
+  public Object logAsync(ProceedingJoinPoint jp) throws Throwable {
+    MethodSignature ms = MethodSignature.class.cast(jp.getSignature());
+    String methodName = ms.getDeclaringType().getSimpleName() + "::" + ms.getMethod().getName();
+    OperationMetrics metrics = getOperationMetrics(ms.getMethod());
+    Object[] args = jp.getArgs();
+
+    LOG.debug("-> Calling {} with argument(s): {}", methodName, args);
+
+    if (metrics == null) {
+      return jp.proceed();
+    }
+
+    if (args.length == 2 && args[1] instanceof AsyncHandler) {
+      @SuppressWarnings("unchecked")
+      AsyncHandler<AmazonWebServiceRequest, Object> handler =
+          (AsyncHandler<AmazonWebServiceRequest, Object>) args[1];
+      return jp.proceed(new Object[]{args[0], new RecordingAsyncHandler<>(metrics, handler)});
+    }
+
+    Object target = jp.getTarget();
+    if (args.length == 1 && target != null && ASYNC_CLIENT_CLASSES.contains(target.getClass())) {
+      Method overload = getAsyncHandlerOverload(ms.getMethod());
+      try {
+        return overload.invoke(target, args[0], new RecordingAsyncHandler<>(metrics, null));
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    // Other clients, such as test doubles, may not complete through handlers.
+    metrics.recordUntimedCall();
+    return jp.proceed();
+  }
+
+  /**
+   * Returns the metrics of the operation that a client method calls.
+   *
+   * @param method the client method
+   * @return the metrics of the operation, or {@code null} if the method is not an operation
+   */
+  private static OperationMetrics getOperationMetrics(Method method) {
+    Optional<OperationMetrics> metrics = OPERATION_METRICS.get(method);
+    if (metrics == null) {
+      metrics = isOperation(method)
+          ? Optional.of(AWSCallMetrics.getInstance().getOperationMetrics(
+          AWSCallMetrics.getServiceName(method.getDeclaringClass()), getOperationName(method)))
+          : Optional.<OperationMetrics>absent();
+      OPERATION_METRICS.putIfAbsent(method, metrics);
+    }
+    return metrics.orNull();
+  }
+
+  /**
+   * Returns whether a client method calls an operation: it either takes a request, or it is
+   * a convenience method that takes nothing and returns a result or a future result.
+   *
+   * @param method the client method
+   * @return whether the method calls an operation
+   */
+  private static boolean isOperation(Method method) {
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    if (parameterTypes.length == 0) {
+      return AmazonWebServiceResult.class.isAssignableFrom(method.getReturnType())
+          || method.getName().endsWith(ASYNC_SUFFIX);
+    }
+    return AmazonWebServiceRequest.class.isAssignableFrom(parameterTypes[0]);
+  }
+
+  private static String getOperationName(Method method) {
+    String name = method.getName();
+    if (name.endsWith(ASYNC_SUFFIX)) {
+      name = name.substring(0, name.length() - ASYNC_SUFFIX.length());
+    }
+    return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  private static Method getAsyncHandlerOverload(Method method) throws NoSuchMethodException {
+    Method overload = ASYNC_HANDLER_OVERLOADS.get(method);
+    if (overload == null) {
+      overload = method.getDeclaringClass().getMethod(method.getName(),
+          method.getParameterTypes()[0], AsyncHandler.class);
+      ASYNC_HANDLER_OVERLOADS.putIfAbsent(method, overload);
+    }
+    return overload;
+  }
+
+  /**
+   * An asynchronous handler that records the outcome of a call before passing it on to the
+   * caller's handler, if any.
+   *
+   * @param <R> the type of request
+   * @param <T> the type of result
+   */
+  private static final class RecordingAsyncHandler<R extends AmazonWebServiceRequest, T>
+      implements AsyncHandler<R, T> {
+
+    private final OperationMetrics metrics;
+    private final AsyncHandler<R, T> delegate;
+    private final long start = System.nanoTime();
+
+    private RecordingAsyncHandler(OperationMetrics metrics, AsyncHandler<R, T> delegate) {
+      this.metrics = metrics;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onError(Exception exception) {
+      metrics.recordFailure(System.nanoTime() - start, exception);
+      if (delegate != null) {
+        delegate.onError(exception);
+      }
+    }
+
+    @Override
+    public void onSuccess(R request, T result) {
+      metrics.recordSuccess(System.nanoTime() - start);
+      if (delegate != null) {
+        delegate.onSuccess(request, result);
+      }
+    }
+  }
+
   private String truncate(Object result) {
     if (result == null) {
       return null;
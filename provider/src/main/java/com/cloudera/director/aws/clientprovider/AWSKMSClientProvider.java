@@ -63,7 +63,8 @@ public class AWSKMSClientProvider extends AbstractConfiguredOnceClientProvider<A
       LocalizationContext providerLocalizationContext,
       boolean verify) {
 
-    AWSKMSClient client = new AWSKMSClient(awsCredentialsProvider, clientConfiguration);
+    AWSKMSClient client = withRequestHandlers(
+        new AWSKMSClient(awsCredentialsProvider, clientConfiguration));
 
     try {
       String regionEndpoint = configuration.getConfigurationValue(KMS_REGION_ENDPOINT, providerLocalizationContext);
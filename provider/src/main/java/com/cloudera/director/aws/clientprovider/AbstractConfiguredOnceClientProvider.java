@@ -16,12 +16,18 @@ package com.cloudera.director.aws.clientprovider;
 
 import static java.util.Objects.requireNonNull;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceClient;
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.cloudera.director.aws.metrics.CallMetricsRequestHandler;
 import com.cloudera.director.spi.v2.model.Configured;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
+import com.google.common.hash.Hashing;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 /**
@@ -34,6 +40,7 @@ public abstract class AbstractConfiguredOnceClientProvider<T> implements ClientP
   private boolean initialized = false;
   private Configured configuration;
   private T instance;
+  private String credentialsScope;
 
   /**
    * Creates an abstract configured once client provider with the specified parameters.
@@ -78,6 +85,29 @@ public abstract class AbstractConfiguredOnceClientProvider<T> implements ClientP
     return instance;
   }
 
+  /**
+   * {@inheritDoc}. The scope is a digest of the access key that the credentials provider first
+   * returns, so it stays the same when temporary credentials are refreshed.
+   */
+  @Override
+  synchronized public String getCredentialsScope() {
+    if (credentialsScope == null) {
+      AWSCredentials credentials;
+      try {
+        credentials = awsCredentialsProvider.getCredentials();
+      } catch (AmazonClientException e) {
+        return null;
+      }
+      if (credentials == null || credentials.getAWSAccessKeyId() == null) {
+        return null;
+      }
+      credentialsScope = Hashing.sha256()
+          .hashString(credentials.getAWSAccessKeyId(), StandardCharsets.UTF_8)
+          .toString();
+    }
+    return credentialsScope;
+  }
+
   /**
    * Configures the underlying object.
    * In this method, subclass can do some expensive verification,
@@ -96,6 +126,18 @@ public abstract class AbstractConfiguredOnceClientProvider<T> implements ClientP
       LocalizationContext providerLocalizationContext,
       boolean verify);
 
+  /**
+   * Adds the request handlers shared by all clients to a newly created client.
+   *
+   * @param client the client
+   * @param <C>    the type of client
+   * @return the client
+   */
+  protected static <C extends AmazonWebServiceClient> C withRequestHandlers(C client) {
+    client.addRequestHandler(CallMetricsRequestHandler.INSTANCE);
+    return client;
+  }
+
   /**
    * Returns whether the specified configurations are equal.
    *
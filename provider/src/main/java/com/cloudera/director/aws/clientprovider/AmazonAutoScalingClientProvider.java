@@ -64,8 +64,8 @@ public class AmazonAutoScalingClientProvider
       LocalizationContext providerLocalizationContext,
       boolean verify) {
 
-    AmazonAutoScalingAsyncClient client =
-        new AmazonAutoScalingAsyncClient(awsCredentialsProvider, clientConfiguration);
+    AmazonAutoScalingAsyncClient client = withRequestHandlers(
+        new AmazonAutoScalingAsyncClient(awsCredentialsProvider, clientConfiguration));
 
     try {
       String regionEndpoint = configuration.getConfigurationValue(AS_REGION_ENDPOINT, providerLocalizationContext);
@@ -26,6 +26,8 @@ import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.DescribeRegionsResult;
 import com.amazonaws.services.ec2.model.Region;
 import com.cloudera.director.aws.AWSExceptions;
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.ec2.ratelimit.EC2RateLimitingRequestHandler;
 import com.cloudera.director.spi.v2.model.Configured;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
@@ -48,16 +50,24 @@ public class AmazonEC2ClientProvider
     extends AbstractConfiguredOnceClientProvider<AmazonEC2AsyncClient> {
   private static final Logger LOG = LoggerFactory.getLogger(AmazonEC2ClientProvider.class);
 
+  /**
+   * The AWS request limits, which configure the rate limits of EC2 calls.
+   */
+  private final AWSRequestLimits awsRequestLimits;
+
   /**
    * Creates an Amazon EC2 client provider with the specified parameters.
    *
    * @param awsCredentialsProvider the AWS credentials provider
    * @param clientConfiguration    the client configuration
+   * @param awsRequestLimits       the AWS request limits
    */
   public AmazonEC2ClientProvider(
       AWSCredentialsProvider awsCredentialsProvider,
-      ClientConfiguration clientConfiguration) {
+      ClientConfiguration clientConfiguration,
+      AWSRequestLimits awsRequestLimits) {
     super(awsCredentialsProvider, clientConfiguration);
+    this.awsRequestLimits = requireNonNull(awsRequestLimits, "awsRequestLimits is null");
   }
 
   /**
@@ -70,7 +80,10 @@ public class AmazonEC2ClientProvider
       LocalizationContext providerLocalizationContext,
       boolean verify) {
 
-    AmazonEC2AsyncClient client = new AmazonEC2AsyncClient(awsCredentialsProvider, clientConfiguration);
+    AmazonEC2AsyncClient client = withRequestHandlers(
+        new AmazonEC2AsyncClient(awsCredentialsProvider, clientConfiguration));
+    client.addRequestHandler(
+        new EC2RateLimitingRequestHandler(getCredentialsScope(), awsRequestLimits));
 
     try {
       String regionEndpoint =
@@ -66,8 +66,8 @@ public class AmazonIdentityManagementClientProvider
       LocalizationContext providerLocalizationContext,
       boolean verify) {
 
-    AmazonIdentityManagementClient client = new AmazonIdentityManagementClient(
-        awsCredentialsProvider, clientConfiguration);
+    AmazonIdentityManagementClient client = withRequestHandlers(
+        new AmazonIdentityManagementClient(awsCredentialsProvider, clientConfiguration));
 
     try {
       String iamEndpoint =
@@ -76,7 +76,8 @@ public class AmazonRDSClientProvider extends AbstractConfiguredOnceClientProvide
       LocalizationContext providerLocalizationContext,
       boolean verify) {
 
-    AmazonRDSClient client = new AmazonRDSClient(awsCredentialsProvider, clientConfiguration);
+    AmazonRDSClient client = withRequestHandlers(
+        new AmazonRDSClient(awsCredentialsProvider, clientConfiguration));
 
     try {
       String regionEndpoint =
@@ -39,4 +39,16 @@ public interface ClientProvider<T> {
       PluginExceptionConditionAccumulator accumulator,
       LocalizationContext providerLocalizationContext,
       boolean verify);
+
+  /**
+   * Returns an opaque identifier for the credentials that clients from this provider
+   * authenticate with, so that what is learned about an account through one set of credentials
+   * is not reused for another. Providers return the same scope only if their clients use the
+   * same access key.
+   *
+   * @return an opaque identifier for the credentials, or {@code null} if they are not known
+   */
+  default String getCredentialsScope() {
+    return null;
+  }
 }
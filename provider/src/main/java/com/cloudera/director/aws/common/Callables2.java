@@ -15,9 +15,18 @@
 package com.cloudera.director.aws.common;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Provides utilities for manipulating callables.
@@ -83,6 +92,87 @@ public final class Callables2 {
     }
   }
 
+  /**
+   * Runs the specified callables on the specified executor, keeping at most the specified
+   * number of callables in flight at a time, and discards their results. Behaves like
+   * {@link #callConcurrently(Executor, int, Iterable, Consumer)} otherwise.
+   *
+   * @param executor       the executor on which to run the callables
+   * @param maxConcurrency the maximum number of callables in flight at a time
+   * @param callables      the callables to run
+   * @param <T>            the type of result
+   * @throws InterruptedException if the process is interrupted
+   */
+  public static <T> void callConcurrently(Executor executor, int maxConcurrency,
+      Iterable<? extends Callable<T>> callables) throws InterruptedException {
+    callConcurrently(executor, maxConcurrency, callables, result -> {
+    });
+  }
+
+  /**
+   * Runs the specified callables on the specified executor, keeping at most the specified
+   * number of callables in flight at a time, and passes each result to the specified handler
+   * on the calling thread as soon as it is available. Results are therefore handled in
+   * completion order rather than submission order. If there is only one callable, or the
+   * maximum concurrency is one, the callables are run sequentially on the calling thread.
+   * The first exception thrown by a callable cancels the callables that have not completed
+   * and is propagated if it is a RuntimeException, or wrapped in a RuntimeException otherwise.
+   *
+   * @param executor       the executor on which to run the callables
+   * @param maxConcurrency the maximum number of callables in flight at a time
+   * @param callables      the callables to run
+   * @param resultHandler  the handler for the results of the callables
+   * @param <T>            the type of result
+   * @throws InterruptedException if the process is interrupted
+   */
+  public static <T> void callConcurrently(Executor executor, int maxConcurrency,
+      Iterable<? extends Callable<T>> callables, Consumer<? super T> resultHandler)
+      throws InterruptedException {
+    List<? extends Callable<T>> callableList = Lists.newArrayList(callables);
+
+    if (maxConcurrency <= 1 || callableList.size() <= 1) {
+      for (Callable<T> callable : callableList) {
+        T result;
+        try {
+          result = callable.call();
+        } catch (InterruptedException | RuntimeException e) {
+          throw e;
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        resultHandler.accept(result);
+      }
+      return;
+    }
+
+    CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+    List<Future<T>> futures = Lists.newArrayListWithCapacity(callableList.size());
+    Iterator<? extends Callable<T>> iterator = callableList.iterator();
+    try {
+      while (iterator.hasNext() && futures.size() < maxConcurrency) {
+        futures.add(completionService.submit(iterator.next()));
+      }
+      for (int remaining = callableList.size(); remaining > 0; remaining--) {
+        T result;
+        try {
+          result = completionService.take().get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          Throwables.throwIfUnchecked(cause);
+          throw new RuntimeException(cause);
+        }
+        if (iterator.hasNext()) {
+          futures.add(completionService.submit(iterator.next()));
+        }
+        resultHandler.accept(result);
+      }
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
   /**
    * Private constructor to prevent instantiation.
    */
@@ -0,0 +1,167 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.common;
+
+import com.cloudera.director.spi.v2.model.exception.PluginExceptionCondition;
+import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
+import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
+import com.google.common.collect.Lists;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Runs independent validation checks concurrently. Since plugin exception condition
+ * accumulators are not thread-safe, each check accumulates its conditions into a private
+ * accumulator, and the private accumulators are merged into the caller's accumulator on the
+ * calling thread, in the order in which the checks were specified, once all checks have
+ * completed. The conditions reported are therefore the same as if the checks had been run
+ * sequentially. Callers that interleave concurrent checks with checks that run inline can
+ * merge each completed check themselves, in their original order.
+ */
+public final class ConcurrentValidations {
+
+  /**
+   * Runs the specified checks on the specified executor, keeping at most the specified number
+   * of checks in flight at a time, and merges their conditions into the specified accumulator.
+   * If a check throws an exception, the remaining checks are cancelled, no conditions are
+   * merged, and the exception is propagated.
+   *
+   * @param executor       the executor on which to run the checks
+   * @param maxConcurrency the maximum number of checks in flight at a time
+   * @param accumulator    the exception condition accumulator
+   * @param checks         the checks, each of which is passed its own accumulator
+   * @param <T>            the type of result of the checks
+   * @return the results of the checks, in the order in which the checks were specified
+   * @throws UnrecoverableProviderException if the calling thread is interrupted
+   */
+  public static <T> List<T> runChecks(Executor executor, int maxConcurrency,
+      PluginExceptionConditionAccumulator accumulator,
+      List<? extends Function<PluginExceptionConditionAccumulator, T>> checks) {
+    List<T> results = Lists.newArrayListWithCapacity(checks.size());
+    for (CompletedCheck<T> completedCheck : completeChecks(executor, maxConcurrency, checks)) {
+      results.add(completedCheck.mergeInto(accumulator));
+    }
+    return results;
+  }
+
+  /**
+   * Runs the specified checks on the specified executor, keeping at most the specified number
+   * of checks in flight at a time, without merging their conditions into any accumulator. The
+   * caller merges each completed check, on the calling thread, when its conditions are due.
+   * If a check throws an exception, the remaining checks are cancelled and the exception is
+   * propagated.
+   *
+   * @param executor       the executor on which to run the checks
+   * @param maxConcurrency the maximum number of checks in flight at a time
+   * @param checks         the checks, each of which is passed its own accumulator
+   * @param <T>            the type of result of the checks
+   * @return the completed checks, in the order in which the checks were specified
+   * @throws UnrecoverableProviderException if the calling thread is interrupted
+   */
+  public static <T> List<CompletedCheck<T>> completeChecks(Executor executor,
+      int maxConcurrency,
+      List<? extends Function<PluginExceptionConditionAccumulator, T>> checks) {
+    int checkCount = checks.size();
+    List<CompletedCheck<T>> completedChecks = Lists.newArrayListWithCapacity(checkCount);
+    List<Callable<Void>> callables = Lists.newArrayListWithCapacity(checkCount);
+    for (Function<PluginExceptionConditionAccumulator, T> check : checks) {
+      CompletedCheck<T> completedCheck = new CompletedCheck<>();
+      completedChecks.add(completedCheck);
+      callables.add(() -> {
+        // Completion is published to this thread by callConcurrently
+        completedCheck.result = check.apply(completedCheck.accumulator);
+        return null;
+      });
+    }
+
+    try {
+      Callables2.callConcurrently(executor, maxConcurrency, callables);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UnrecoverableProviderException("Interrupted while validating", e);
+    }
+    return completedChecks;
+  }
+
+  /**
+   * A check that has completed, holding its result and the conditions it accumulated.
+   *
+   * @param <T> the type of result of the check
+   */
+  public static final class CompletedCheck<T> {
+
+    /**
+     * The conditions accumulated by the check.
+     */
+    private final PluginExceptionConditionAccumulator accumulator =
+        new PluginExceptionConditionAccumulator();
+
+    /**
+     * The result of the check.
+     */
+    private T result;
+
+    /**
+     * Creates a check that has not yet completed.
+     */
+    private CompletedCheck() {
+    }
+
+    /**
+     * Adds the conditions accumulated by the check to the specified accumulator, and returns
+     * the result of the check.
+     *
+     * @param target the exception condition accumulator
+     * @return the result of the check
+     */
+    public T mergeInto(PluginExceptionConditionAccumulator target) {
+      merge(accumulator, target);
+      return result;
+    }
+  }
+
+  /**
+   * Adds the conditions of the specified source accumulator to the specified target
+   * accumulator.
+   *
+   * @param source the source accumulator
+   * @param target the target accumulator
+   */
+  private static void merge(PluginExceptionConditionAccumulator source,
+      PluginExceptionConditionAccumulator target) {
+    for (Map.Entry<String, ? extends Collection<PluginExceptionCondition>> entry
+        : source.getConditionsByKey().entrySet()) {
+      String key = entry.getKey();
+      for (PluginExceptionCondition condition : entry.getValue()) {
+        if (condition.isError()) {
+          target.addError(key, condition.getMessage());
+        } else {
+          target.addWarning(key, condition.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private ConcurrentValidations() {
+  }
+}
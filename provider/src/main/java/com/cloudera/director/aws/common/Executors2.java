@@ -0,0 +1,52 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides executors shared by the plugin.
+ */
+public final class Executors2 {
+
+  /**
+   * Shared executor used to fan out blocking AWS calls. Threads are daemon threads so that
+   * they never prevent the hosting process from exiting, and idle threads are reclaimed.
+   * Callers are responsible for bounding the number of tasks they have in flight.
+   */
+  private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("director-aws-%d")
+          .setDaemon(true)
+          .build());
+
+  /**
+   * Returns the shared executor used to fan out blocking AWS calls.
+   *
+   * @return the shared executor used to fan out blocking AWS calls
+   */
+  public static ExecutorService sharedExecutor() {
+    return SHARED_EXECUTOR;
+  }
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Executors2() {
+  }
+}
@@ -25,6 +25,9 @@ import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTempl
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_SIZE_GIB;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_TYPE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.ENCRYPT_ADDITIONAL_EBS_VOLUMES;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_INSTANCE_TYPES;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_ON_DEMAND_BASE_CAPACITY;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_SUBNET_IDS;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IAM_PROFILE_NAME;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.KEY_NAME;
@@ -40,6 +43,7 @@ import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTempl
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TYPE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USER_DATA;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USER_DATA_UNENCODED;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_EC2_FLEET;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_SPOT_INSTANCES;
 
 import com.cloudera.director.aws.ec2.ebs.SystemDisk;
@@ -459,6 +463,61 @@ public class EC2InstanceTemplate extends ComputeInstanceTemplate {
         .addValidValues("60", "120", "180", "240", "300", "360")
         .build()),
 
+    /**
+     * Whether to allocate instances with a single EC2 Fleet request. Default is
+     * <code>false</code>.
+     *
+     * @see <a href="https://docs.aws.amazon.com/AWSEC2/latest/UserGuide/ec2-fleet.html">EC2 Fleet</a>
+     */
+    USE_EC2_FLEET(new SimpleConfigurationPropertyBuilder()
+        .configKey("useEc2Fleet")
+        .name("Use EC2 Fleet")
+        .widget(ConfigurationProperty.Widget.CHECKBOX)
+        .defaultValue("false")
+        .type(Property.Type.BOOLEAN)
+        .defaultDescription("Whether to allocate instances with a single EC2 Fleet request, " +
+            "which can mix instance types, subnets, On-Demand Instances and Spot Instances.<br />" +
+            "<a target='_blank' href='https://docs.aws.amazon.com/AWSEC2/latest/UserGuide/ec2-fleet.html'>More Information</a>")
+        .build()),
+
+    /**
+     * Additional instance types that an EC2 Fleet may launch.
+     */
+    FLEET_INSTANCE_TYPES(new SimpleConfigurationPropertyBuilder()
+        .configKey("fleetInstanceTypes")
+        .name("EC2 Fleet instance types")
+        .widget(ConfigurationProperty.Widget.OPENMULTI)
+        .defaultDescription(
+            "Additional instance types that an EC2 Fleet may launch if the instance type " +
+                "does not have enough capacity. Only used with EC2 Fleet."
+        ).build()),
+
+    /**
+     * Additional subnet IDs that an EC2 Fleet may launch instances in.
+     */
+    FLEET_SUBNET_IDS(new SimpleConfigurationPropertyBuilder()
+        .configKey("fleetSubnetIds")
+        .name("EC2 Fleet subnet IDs")
+        .widget(ConfigurationProperty.Widget.OPENMULTI)
+        .defaultDescription(
+            "Additional VPC subnet IDs that an EC2 Fleet may launch instances in, " +
+                "typically in other availability zones. Only used with EC2 Fleet."
+        ).build()),
+
+    /**
+     * The number of On-Demand Instances that an EC2 Fleet launches before Spot Instances.
+     */
+    FLEET_ON_DEMAND_BASE_CAPACITY(new SimpleConfigurationPropertyBuilder()
+        .configKey("fleetOnDemandBaseCapacity")
+        .name("EC2 Fleet On-Demand base capacity")
+        .widget(ConfigurationProperty.Widget.NUMBER)
+        .type(Property.Type.INTEGER)
+        .defaultDescription(
+            "The number of On-Demand Instances that an EC2 Fleet launches, with the rest of " +
+                "the instances launched as Spot Instances. Defaults to none when using Spot " +
+                "Instances, and to all instances otherwise. Only used with EC2 Fleet."
+        ).build()),
+
     /**
      * The ID of the Amazon VPC subnet.
      *
@@ -761,6 +820,26 @@ public class EC2InstanceTemplate extends ComputeInstanceTemplate {
    */
   private final Optional<Integer> blockDurationMinutes;
 
+  /**
+   * Whether to allocate instances with EC2 Fleet.
+   */
+  private final boolean useEc2Fleet;
+
+  /**
+   * The additional instance types for EC2 Fleet.
+   */
+  private final List<String> fleetInstanceTypes;
+
+  /**
+   * The additional subnet IDs for EC2 Fleet.
+   */
+  private final List<String> fleetSubnetIds;
+
+  /**
+   * The number of On-Demand Instances launched by EC2 Fleet.
+   */
+  private final Optional<Integer> fleetOnDemandBaseCapacity;
+
   /**
    * The user data, base64 encoded.
    */
@@ -841,6 +920,18 @@ public class EC2InstanceTemplate extends ComputeInstanceTemplate {
         ? Optional.of(Integer.parseInt(blockDurationMinutesString))
         : Optional.absent();
 
+    this.useEc2Fleet =
+        Boolean.parseBoolean(getConfigurationValue(USE_EC2_FLEET, localizationContext));
+    this.fleetInstanceTypes = CSV_SPLITTER.splitToList(
+        Strings.nullToEmpty(getConfigurationValue(FLEET_INSTANCE_TYPES, localizationContext)));
+    this.fleetSubnetIds = CSV_SPLITTER.splitToList(
+        Strings.nullToEmpty(getConfigurationValue(FLEET_SUBNET_IDS, localizationContext)));
+    String fleetOnDemandBaseCapacityString = Strings.emptyToNull(
+        getConfigurationValue(FLEET_ON_DEMAND_BASE_CAPACITY, localizationContext));
+    this.fleetOnDemandBaseCapacity = (fleetOnDemandBaseCapacityString != null)
+        ? Optional.of(Integer.parseInt(fleetOnDemandBaseCapacityString))
+        : Optional.absent();
+
     this.userData =
         Optional.fromNullable(getConfigurationValue(USER_DATA, localizationContext))
             .or(Optional.fromNullable(base64Encode(getConfigurationValue(USER_DATA_UNENCODED, localizationContext))));
@@ -1063,6 +1154,42 @@ public class EC2InstanceTemplate extends ComputeInstanceTemplate {
     return blockDurationMinutes;
   }
 
+  /**
+   * Returns whether to allocate instances with EC2 Fleet.
+   *
+   * @return whether to allocate instances with EC2 Fleet
+   */
+  public boolean isUseEc2Fleet() {
+    return useEc2Fleet;
+  }
+
+  /**
+   * Returns the additional instance types that EC2 Fleet may launch.
+   *
+   * @return the additional instance types that EC2 Fleet may launch
+   */
+  public List<String> getFleetInstanceTypes() {
+    return fleetInstanceTypes;
+  }
+
+  /**
+   * Returns the additional subnet IDs that EC2 Fleet may launch instances in.
+   *
+   * @return the additional subnet IDs that EC2 Fleet may launch instances in
+   */
+  public List<String> getFleetSubnetIds() {
+    return fleetSubnetIds;
+  }
+
+  /**
+   * Returns the optional number of On-Demand Instances launched by EC2 Fleet.
+   *
+   * @return the optional number of On-Demand Instances launched by EC2 Fleet
+   */
+  public Optional<Integer> getFleetOnDemandBaseCapacity() {
+    return fleetOnDemandBaseCapacity;
+  }
+
   /**
    * Returns the user data, base64 encoded.
    *
@@ -59,6 +59,22 @@ public enum EC2ProviderConfigurationPropertyToken
           "public IP addresses to instances and not use NAT instances (public subnet setup).")
       .build()),
 
+  /**
+   * Whether to describe the enhanced networking (SR-IOV) support of found instances. Default is
+   * <code>true</code>. The value is looked up once per image and instance type, since it
+   * requires an additional API call.
+   */
+  DESCRIBE_SRIOV_NET_SUPPORT(new SimpleConfigurationPropertyBuilder()
+      .configKey("describeSriovNetSupport")
+      .name("Describe enhanced networking support")
+      .widget(ConfigurationProperty.Widget.CHECKBOX)
+      .defaultValue("true")
+      .type(Property.Type.BOOLEAN)
+      .defaultDescription("Whether to look up the enhanced networking (SR-IOV) support of " +
+          "instances for display. The value is looked up once per image and instance type. " +
+          "Disable this if the DescribeInstanceAttribute action is not permitted.")
+      .build()),
+
   /**
    * A custom IAM endpoint URL. When not specified, the global IAM endpoint is used.
    *
@@ -0,0 +1,283 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cloudera.director.aws.AWSExceptions;
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.common.Callables2;
+import com.cloudera.director.aws.common.Executors2;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the tagging of EC2 resources. Each tag is sent once for all the resources that are
+ * to get it, with as many resources per {@code CreateTags} request as the API allows, and tags
+ * that go to exactly the same resources are sent together. Tags shared by many resources, such
+ * as the template-level tags, therefore go out in multi-resource requests, while the requests
+ * for each resource's own tags only carry those. The requests are sent concurrently. When a
+ * request fails because some of its resources are not visible yet, which is common right after
+ * they are created, only those resources are retried.
+ *
+ * <p>Resources are added with {@link #add(Collection, Collection)}, and tagged by
+ * {@link #flush(DateTime)}. A coalescer can be shared by threads.</p>
+ */
+public class EC2TagCoalescer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EC2TagCoalescer.class);
+
+  /**
+   * The maximum number of resources in a single {@code CreateTags} request.
+   */
+  public static final int MAX_RESOURCES_PER_REQUEST = 1000;
+
+  /**
+   * The request limit key for the maximum number of concurrent {@code CreateTags} requests.
+   */
+  public static final String MAX_CONCURRENT_REQUESTS_KEY = "ec2.createTags.maxConcurrentRequests";
+
+  /**
+   * The default maximum number of concurrent {@code CreateTags} requests.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+
+  /**
+   * The wait before retrying resources that were not found. The resources are not found
+   * because of eventual consistency rather than contention, so the interval is fixed.
+   */
+  private static final Duration DEFAULT_BACKOFF = Duration.standardSeconds(5);
+
+  /**
+   * Splits error messages into words, keeping resource IDs such as {@code i-0123456789abcdef0}
+   * whole.
+   */
+  private static final Splitter ERROR_MESSAGE_SPLITTER =
+      Splitter.onPattern("[^A-Za-z0-9-]+").omitEmptyStrings();
+
+  private final AmazonEC2 client;
+  private final int maxResourcesPerRequest;
+  private final int maxConcurrentRequests;
+  private final Duration backoff;
+  private final Map<Set<Tag>, Set<String>> resourceIdsByTags = Maps.newLinkedHashMap();
+
+  /**
+   * Creates a tag coalescer that keeps as many requests in flight as the request limits allow.
+   *
+   * @param client           the EC2 client
+   * @param awsRequestLimits the AWS request limits
+   */
+  public EC2TagCoalescer(AmazonEC2 client, AWSRequestLimits awsRequestLimits) {
+    this(client, MAX_RESOURCES_PER_REQUEST,
+        requireNonNull(awsRequestLimits, "awsRequestLimits is null")
+            .getLimit(MAX_CONCURRENT_REQUESTS_KEY, DEFAULT_MAX_CONCURRENT_REQUESTS),
+        DEFAULT_BACKOFF);
+  }
+
+  /**
+   * Creates a tag coalescer with the specified parameters.
+   *
+   * @param client                 the EC2 client
+   * @param maxResourcesPerRequest the maximum number of resources in a single request
+   * @param maxConcurrentRequests  the maximum number of concurrent requests
+   * @param backoff                the wait before retrying resources that were not found
+   */
+  @VisibleForTesting
+  EC2TagCoalescer(AmazonEC2 client, int maxResourcesPerRequest, int maxConcurrentRequests,
+      Duration backoff) {
+    this.client = requireNonNull(client, "client is null");
+    this.maxResourcesPerRequest = maxResourcesPerRequest;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.backoff = requireNonNull(backoff, "backoff is null");
+  }
+
+  /**
+   * Adds resources to tag with the specified tags.
+   *
+   * @param resourceIds the IDs of the resources
+   * @param tags        the tags
+   * @return this coalescer
+   */
+  public synchronized EC2TagCoalescer add(Collection<String> resourceIds, Collection<Tag> tags) {
+    if (!resourceIds.isEmpty()) {
+      resourceIdsByTags.computeIfAbsent(ImmutableSet.copyOf(tags), t -> Sets.newLinkedHashSet())
+          .addAll(resourceIds);
+    }
+    return this;
+  }
+
+  /**
+   * Tags all the resources added so far, and forgets them. Resources that are not found are
+   * retried until the specified timeout.
+   *
+   * @param timeout the time point of timeout
+   * @return the IDs of the resources that could not be found before the timeout, and may be
+   * missing some of their tags
+   * @throws InterruptedException if the operation is interrupted
+   */
+  public Set<String> flush(DateTime timeout) throws InterruptedException {
+    Map<Set<Tag>, Set<String>> pending;
+    synchronized (this) {
+      pending = groupTagsByResourceIds(resourceIdsByTags);
+      resourceIdsByTags.clear();
+    }
+
+    while (true) {
+      List<Callable<Map.Entry<Set<Tag>, List<String>>>> batches = Lists.newArrayList();
+      for (Map.Entry<Set<Tag>, Set<String>> entry : pending.entrySet()) {
+        Set<Tag> tags = entry.getKey();
+        for (List<String> batch : Lists.partition(
+            ImmutableList.copyOf(entry.getValue()), maxResourcesPerRequest)) {
+          batches.add(() -> Maps.immutableEntry(tags, tagBatch(tags, batch)));
+        }
+      }
+
+      Map<Set<Tag>, Set<String>> notFound = Maps.newLinkedHashMap();
+      Callables2.callConcurrently(Executors2.sharedExecutor(), maxConcurrentRequests, batches,
+          result -> {
+            if (!result.getValue().isEmpty()) {
+              notFound.computeIfAbsent(result.getKey(), t -> Sets.newLinkedHashSet())
+                  .addAll(result.getValue());
+            }
+          });
+
+      if (notFound.isEmpty()) {
+        return Collections.emptySet();
+      }
+
+      Set<String> notFoundResourceIds = Sets.newLinkedHashSet();
+      for (Set<String> resourceIds : notFound.values()) {
+        notFoundResourceIds.addAll(resourceIds);
+      }
+      if (!DateTime.now().plus(backoff).isBefore(timeout)) {
+        LOG.warn("Timed out tagging resources {}", notFoundResourceIds);
+        return notFoundResourceIds;
+      }
+      LOG.info("Waiting {} ms to retry tagging {} resource(s) that were not found",
+          backoff.getMillis(), notFoundResourceIds.size());
+      TimeUnit.MILLISECONDS.sleep(backoff.getMillis());
+      pending = notFound;
+    }
+  }
+
+  /**
+   * Regroups the resources to tag so that each tag appears in a single group, together with the
+   * other tags that go to exactly the same resources.
+   *
+   * @param resourceIdsByTags the IDs of the resources to tag, by set of tags
+   * @return the IDs of the resources to tag, by set of tags, where the sets of tags are disjoint
+   */
+  @VisibleForTesting
+  static Map<Set<Tag>, Set<String>> groupTagsByResourceIds(
+      Map<Set<Tag>, Set<String>> resourceIdsByTags) {
+    Map<Tag, Set<String>> resourceIdsByTag = Maps.newLinkedHashMap();
+    for (Map.Entry<Set<Tag>, Set<String>> entry : resourceIdsByTags.entrySet()) {
+      for (Tag tag : entry.getKey()) {
+        resourceIdsByTag.computeIfAbsent(tag, t -> Sets.newLinkedHashSet())
+            .addAll(entry.getValue());
+      }
+    }
+
+    Map<Set<String>, Set<Tag>> tagsByResourceIds = Maps.newLinkedHashMap();
+    for (Map.Entry<Tag, Set<String>> entry : resourceIdsByTag.entrySet()) {
+      tagsByResourceIds.computeIfAbsent(entry.getValue(), r -> Sets.newLinkedHashSet())
+          .add(entry.getKey());
+    }
+
+    Map<Set<Tag>, Set<String>> grouped = Maps.newLinkedHashMap();
+    for (Map.Entry<Set<String>, Set<Tag>> entry : tagsByResourceIds.entrySet()) {
+      grouped.put(ImmutableSet.copyOf(entry.getValue()), entry.getKey());
+    }
+    return grouped;
+  }
+
+  /**
+   * Tags a batch of resources. If some resources are not found, the request is retried right
+   * away without them, so that the resources that exist are tagged.
+   *
+   * @param tags        the tags
+   * @param resourceIds the IDs of the resources
+   * @return the IDs of the resources that were not found
+   */
+  private List<String> tagBatch(Set<Tag> tags, List<String> resourceIds) {
+    List<String> remaining = resourceIds;
+    List<String> notFound = Lists.newArrayList();
+    while (!remaining.isEmpty()) {
+      LOG.info(">> Tagging {} resource(s) with {}", remaining.size(), tags);
+      try {
+        client.createTags(new CreateTagsRequest().withTags(tags).withResources(remaining));
+        break;
+      } catch (AmazonServiceException e) {
+        if (!AWSExceptions.isNotFound(e)) {
+          throw AWSExceptions.propagate(e);
+        }
+        Set<String> missing = getResourceIdsInMessage(e.getErrorMessage(), remaining);
+        if (missing.isEmpty() || missing.size() == remaining.size()) {
+          notFound.addAll(remaining);
+          break;
+        }
+        notFound.addAll(missing);
+        remaining = Lists.newArrayList(Sets.difference(
+            Sets.newLinkedHashSet(remaining), missing));
+      }
+    }
+    return notFound;
+  }
+
+  /**
+   * Returns the resource IDs named in an error message, such as {@code The instance IDs
+   * 'i-1, i-2' do not exist}.
+   *
+   * @param message     the error message
+   * @param resourceIds the IDs of the resources of the request
+   * @return the resource IDs named in the error message
+   */
+  @VisibleForTesting
+  static Set<String> getResourceIdsInMessage(String message, Collection<String> resourceIds) {
+    if (message == null) {
+      return Collections.emptySet();
+    }
+    Set<String> words = Sets.newHashSet(ERROR_MESSAGE_SPLITTER.split(message));
+    Set<String> named = Sets.newLinkedHashSet();
+    for (String resourceId : resourceIds) {
+      if (words.contains(resourceId)) {
+        named.add(resourceId);
+      }
+    }
+    return named;
+  }
+}
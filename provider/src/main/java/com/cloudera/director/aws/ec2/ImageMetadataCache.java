@@ -0,0 +1,293 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.Image;
+import com.cloudera.director.aws.AWSExceptions;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches AMI descriptions by credentials scope, region and image ID. Whether an image can be
+ * described depends on the account, so lookups through different credentials never share
+ * entries. Images are immutable, so descriptions are
+ * kept for a while; images that could not be found are remembered for a shorter time, since
+ * they may still be registered or shared. Callers always receive copies of the cached
+ * descriptions, so they are free to modify them.
+ */
+@SuppressWarnings("Guava")
+public class ImageMetadataCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ImageMetadataCache.class);
+
+  /**
+   * The default time to keep the description of an existing image, in milliseconds.
+   */
+  private static final long DEFAULT_TTL_MS = 60 * 60 * 1000; // 1 hour
+
+  /**
+   * The default time to remember that an image could not be found, in milliseconds.
+   */
+  private static final long DEFAULT_NEGATIVE_TTL_MS = 60 * 1000; // 1 min
+
+  /**
+   * The error code prefix for missing or malformed image IDs.
+   */
+  private static final String INVALID_AMI_ID = "InvalidAMIID";
+
+  /**
+   * The maximum number of entries kept before expired entries are purged.
+   */
+  private static final int PURGE_THRESHOLD = 1000;
+
+  /**
+   * The time to keep the description of an existing image, in nanoseconds.
+   */
+  private final long ttlNanos;
+
+  /**
+   * The time to remember that an image could not be found, in nanoseconds.
+   */
+  private final long negativeTtlNanos;
+
+  /**
+   * The time source.
+   */
+  private final Ticker ticker;
+
+  /**
+   * The cache entries, keyed by credentials scope, region and image ID.
+   */
+  private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * The number of lookups served from the cache.
+   */
+  private final AtomicLong hitCount = new AtomicLong();
+
+  /**
+   * The number of lookups that required a describe images request.
+   */
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Creates an image metadata cache with default TTLs.
+   */
+  public ImageMetadataCache() {
+    this(DEFAULT_TTL_MS, DEFAULT_NEGATIVE_TTL_MS, Ticker.systemTicker());
+  }
+
+  /**
+   * Creates an image metadata cache with the specified parameters.
+   *
+   * @param ttlMillis         the time to keep the description of an existing image
+   * @param negativeTtlMillis the time to remember that an image could not be found
+   * @param ticker            the time source
+   */
+  @VisibleForTesting
+  ImageMetadataCache(long ttlMillis, long negativeTtlMillis, Ticker ticker) {
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    this.ticker = requireNonNull(ticker, "ticker is null");
+  }
+
+  /**
+   * Returns copies of the images described for the specified image ID, describing the image
+   * with the specified client if it is not cached. An empty list is returned if the image
+   * does not exist. Failures due to a missing or malformed image ID are cached like missing
+   * images and rethrown; other failures are not cached.
+   *
+   * @param client           the EC2 client to use on a cache miss
+   * @param credentialsScope the scope of the credentials of the client, or {@code null} if
+   *                         unknown
+   * @param region           the region of the client, or {@code null} if unknown
+   * @param imageId          the image ID
+   * @return copies of the images described for the specified image ID
+   * @throws AmazonServiceException if the image could not be described
+   */
+  public List<Image> describeImages(AmazonEC2 client, String credentialsScope, String region,
+      String imageId) {
+    String key = getKey(credentialsScope, region, imageId);
+    long now = ticker.read();
+
+    CacheEntry entry = entries.get(key);
+    if (entry != null && entry.expiresAtNanos - now > 0) {
+      hitCount.incrementAndGet();
+    } else {
+      missCount.incrementAndGet();
+      entry = load(client, imageId, now);
+      if (entries.size() >= PURGE_THRESHOLD) {
+        entries.values().removeIf(e -> e.expiresAtNanos - now <= 0);
+      }
+      entries.put(key, entry);
+    }
+
+    if (entry.failure != null) {
+      throw AWSExceptions.copy(entry.failure);
+    }
+    List<Image> images = Lists.newArrayListWithCapacity(entry.images.size());
+    for (Image image : entry.images) {
+      images.add(copy(image));
+    }
+    return images;
+  }
+
+  /**
+   * Discards the cached description of the specified image.
+   *
+   * @param credentialsScope the scope of the credentials, or {@code null} if unknown
+   * @param region           the region, or {@code null} if unknown
+   * @param imageId          the image ID
+   */
+  public void invalidate(String credentialsScope, String region, String imageId) {
+    entries.remove(getKey(credentialsScope, region, imageId));
+  }
+
+  /**
+   * Discards all cached descriptions.
+   */
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+   * Returns the number of lookups served from the cache.
+   *
+   * @return the number of lookups served from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of lookups that required a describe images request.
+   *
+   * @return the number of lookups that required a describe images request
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Describes the specified image.
+   *
+   * @param client  the EC2 client
+   * @param imageId the image ID
+   * @param now     the current time, in nanoseconds
+   * @return the cache entry for the image
+   */
+  private CacheEntry load(AmazonEC2 client, String imageId, long now) {
+    LOG.debug("Describing image {}", imageId);
+    try {
+      List<Image> images = client.describeImages(
+          new DescribeImagesRequest().withImageIds(imageId)).getImages();
+      long ttl = images.isEmpty() ? negativeTtlNanos : ttlNanos;
+      return new CacheEntry(now + ttl, ImmutableList.copyOf(images), null);
+    } catch (AmazonServiceException e) {
+      if (e.getErrorCode() == null || !e.getErrorCode().startsWith(INVALID_AMI_ID)) {
+        throw e;
+      }
+      return new CacheEntry(now + negativeTtlNanos, ImmutableList.of(), e);
+    }
+  }
+
+  /**
+   * Returns the cache key for the specified credentials scope, region and image ID.
+   *
+   * @param credentialsScope the scope of the credentials, or {@code null} if unknown
+   * @param region           the region, or {@code null} if unknown
+   * @param imageId          the image ID
+   * @return the cache key
+   */
+  private static String getKey(String credentialsScope, String region, String imageId) {
+    return (credentialsScope == null ? "" : credentialsScope) + '/'
+        + (region == null ? "" : region) + '/' + imageId;
+  }
+
+  /**
+   * Returns a copy of the specified image that shares no mutable block device mappings
+   * with it.
+   *
+   * @param image the image
+   * @return a copy of the image
+   */
+  private static Image copy(Image image) {
+    Image copy = image.clone();
+    List<BlockDeviceMapping> mappings = image.getBlockDeviceMappings();
+    List<BlockDeviceMapping> mappingCopies = Lists.newArrayListWithCapacity(mappings.size());
+    for (BlockDeviceMapping mapping : mappings) {
+      BlockDeviceMapping mappingCopy = mapping.clone();
+      if (mapping.getEbs() != null) {
+        mappingCopy.setEbs(mapping.getEbs().clone());
+      }
+      mappingCopies.add(mappingCopy);
+    }
+    copy.setBlockDeviceMappings(mappingCopies);
+    copy.setProductCodes(Lists.newArrayList(image.getProductCodes()));
+    copy.setTags(Lists.newArrayList(image.getTags()));
+    return copy;
+  }
+
+  /**
+   * A cached image description.
+   */
+  private static final class CacheEntry {
+
+    /**
+     * The time at which the entry expires, in nanoseconds.
+     */
+    private final long expiresAtNanos;
+
+    /**
+     * The described images.
+     */
+    private final List<Image> images;
+
+    /**
+     * The cached failure, or {@code null}.
+     */
+    private final AmazonServiceException failure;
+
+    /**
+     * Creates a cache entry.
+     *
+     * @param expiresAtNanos the time at which the entry expires, in nanoseconds
+     * @param images         the described images
+     * @param failure        the cached failure, or {@code null}
+     */
+    private CacheEntry(long expiresAtNanos, List<Image> images, AmazonServiceException failure) {
+      this.expiresAtNanos = expiresAtNanos;
+      this.images = images;
+      this.failure = failure;
+    }
+  }
+}
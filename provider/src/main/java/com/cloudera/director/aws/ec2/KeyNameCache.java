@@ -0,0 +1,166 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the EC2 key names resolved for SSH key pairs, so that enhancing a template with a
+ * key that has already been resolved requires neither key deserialization, nor fingerprint
+ * computation, nor EC2 calls. Entries are keyed by a digest of the credentials scope, the
+ * region, the key name prefix and the serialized keys, so the keys themselves are never
+ * retained, and a key name resolved for one account is never used for another.
+ */
+@SuppressWarnings("Guava")
+public class KeyNameCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KeyNameCache.class);
+
+  /**
+   * The default maximum number of cached key names.
+   */
+  private static final long DEFAULT_MAXIMUM_SIZE = 1000L;
+
+  /**
+   * The default time to keep a resolved key name, in milliseconds.
+   */
+  private static final long DEFAULT_TTL_MS = 60 * 60 * 1000; // 1 hour
+
+  /**
+   * The resolved key names, keyed by key digest.
+   */
+  private final Cache<String, String> keyNamesByDigest;
+
+  /**
+   * Creates a key name cache with default parameters.
+   */
+  public KeyNameCache() {
+    this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TTL_MS, Ticker.systemTicker());
+  }
+
+  /**
+   * Creates a key name cache with the specified parameters.
+   *
+   * @param maximumSize the maximum number of cached key names
+   * @param ttlMillis   the time to keep a resolved key name
+   * @param ticker      the time source
+   */
+  @VisibleForTesting
+  KeyNameCache(long maximumSize, long ttlMillis, Ticker ticker) {
+    this.keyNamesByDigest = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(requireNonNull(ticker, "ticker is null"))
+        .build();
+  }
+
+  /**
+   * Returns the digest identifying the specified keys as resolved by a provider with the
+   * specified credentials scope, region and key name prefix.
+   *
+   * @param credentialsScope the scope of the credentials of the provider
+   * @param region           the region, or {@code null} if unknown
+   * @param keyNamePrefix    the prefix of the names of imported keys, or {@code null}
+   * @param privateKeyString the serialized private key
+   * @param publicKeyString  the serialized public key, or {@code null}
+   * @return the digest identifying the keys
+   */
+  public static String getKeyDigest(String credentialsScope, String region, String keyNamePrefix,
+      String privateKeyString, String publicKeyString) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    putNullableString(hasher, credentialsScope);
+    putNullableString(hasher, region);
+    putNullableString(hasher, keyNamePrefix);
+    putNullableString(hasher, requireNonNull(privateKeyString, "privateKeyString is null"));
+    putNullableString(hasher, publicKeyString);
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the key name resolved for the specified digest, or {@code null} if none is cached.
+   *
+   * @param keyDigest the key digest
+   * @return the key name resolved for the specified digest, or {@code null} if none is cached
+   */
+  public String getKeyName(String keyDigest) {
+    return keyNamesByDigest.getIfPresent(keyDigest);
+  }
+
+  /**
+   * Records the key name resolved for the specified digest.
+   *
+   * @param keyDigest the key digest
+   * @param keyName   the key name
+   */
+  public void putKeyName(String keyDigest, String keyName) {
+    keyNamesByDigest.put(keyDigest, requireNonNull(keyName, "keyName is null"));
+  }
+
+  /**
+   * Discards the key name resolved for the specified digest.
+   *
+   * @param keyDigest the key digest
+   */
+  public void invalidate(String keyDigest) {
+    keyNamesByDigest.invalidate(keyDigest);
+  }
+
+  /**
+   * Discards every cached resolution to the specified key name, which has been reported
+   * missing or invalid by EC2.
+   *
+   * @param keyName the key name
+   */
+  public void invalidateKeyName(String keyName) {
+    if (keyNamesByDigest.asMap().values().removeIf(keyName::equals)) {
+      LOG.info("Discarded cached resolution to missing key name {}", keyName);
+    }
+  }
+
+  /**
+   * Discards all cached key names.
+   */
+  public void invalidateAll() {
+    keyNamesByDigest.invalidateAll();
+  }
+
+  /**
+   * Adds a possibly {@code null} string to the specified hasher, in a way that keeps
+   * consecutive strings distinct.
+   *
+   * @param hasher the hasher
+   * @param string the string, or {@code null}
+   */
+  private static void putNullableString(Hasher hasher, String string) {
+    if (string == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(string.length()).putString(string, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,470 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.annotation.ThreadSafe;
+import com.cloudera.director.aws.AWSExceptions;
+import com.cloudera.director.aws.AWSTimeouts;
+import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Short-lived cache for the lookups performed while validating templates, so that validating
+ * many templates that reference the same resources describes each resource once. Lookups are
+ * keyed by resource kind, credentials scope, region and resource identifier, so a lookup made
+ * with one account's credentials is never served to another. Successful lookups are kept for
+ * a time that depends on the resource kind; lookups that fail because the resource does not
+ * exist are kept for a shorter time, and other failures, including authorization failures,
+ * are never kept. Concurrent lookups of the same resource share a single request.
+ *
+ * <p>Cached results are shared between callers, and must not be modified. Failures are
+ * copied for each caller.</p>
+ */
+@SuppressWarnings("Guava")
+@ThreadSafe
+public class ValidationLookupCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ValidationLookupCache.class);
+
+  /**
+   * The maximum number of entries kept before expired entries are purged.
+   */
+  private static final int PURGE_THRESHOLD = 1000;
+
+  /**
+   * The kinds of resources looked up during validation.
+   */
+  public enum ResourceKind {
+
+    /**
+     * Subnets.
+     */
+    SUBNET("subnet", TimeUnit.MINUTES.toMillis(5)),
+
+    /**
+     * Security groups.
+     */
+    SECURITY_GROUP("securityGroup", TimeUnit.MINUTES.toMillis(5)),
+
+    /**
+     * Availability zones.
+     */
+    AVAILABILITY_ZONE("availabilityZone", TimeUnit.HOURS.toMillis(1)),
+
+    /**
+     * Placement groups.
+     */
+    PLACEMENT_GROUP("placementGroup", TimeUnit.MINUTES.toMillis(5)),
+
+    /**
+     * EC2 key pairs.
+     */
+    KEY_PAIR("keyPair", TimeUnit.MINUTES.toMillis(1)),
+
+    /**
+     * KMS keys.
+     */
+    KMS_KEY("kmsKey", TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * The name of the resource kind in timeout keys.
+     */
+    private final String configName;
+
+    /**
+     * The default time to keep a successful lookup, in milliseconds.
+     */
+    private final long defaultTtlMillis;
+
+    /**
+     * Creates a resource kind.
+     *
+     * @param configName       the name of the resource kind in timeout keys
+     * @param defaultTtlMillis the default time to keep a successful lookup, in milliseconds
+     */
+    ResourceKind(String configName, long defaultTtlMillis) {
+      this.configName = configName;
+      this.defaultTtlMillis = defaultTtlMillis;
+    }
+
+    /**
+     * Returns the timeout key for the time to keep a successful lookup.
+     *
+     * @return the timeout key for the time to keep a successful lookup
+     */
+    public String getTtlKey() {
+      return TTL_KEY_PREFIX + configName + ".ttlMillis";
+    }
+
+    /**
+     * Returns the default time to keep a successful lookup, in milliseconds.
+     *
+     * @return the default time to keep a successful lookup, in milliseconds
+     */
+    public long getDefaultTtlMillis() {
+      return defaultTtlMillis;
+    }
+  }
+
+  /**
+   * The prefix of timeout keys for the lookup cache.
+   */
+  private static final String TTL_KEY_PREFIX = "ec2.validation.cache.";
+
+  /**
+   * The timeout key for the time to keep a lookup of a missing resource.
+   */
+  @VisibleForTesting
+  static final String NEGATIVE_TTL_KEY = TTL_KEY_PREFIX + "negativeTtlMillis";
+
+  /**
+   * The default time to keep a lookup of a missing resource, in milliseconds.
+   */
+  private static final long DEFAULT_NEGATIVE_TTL_MS = 30 * 1000; // 30 seconds
+
+  /**
+   * The prefix of error codes for requests denied by IAM, as reported by services such as KMS.
+   */
+  private static final String ACCESS_DENIED = "AccessDenied";
+
+  /**
+   * The time source.
+   */
+  private final Ticker ticker;
+
+  /**
+   * The cache entries, keyed by resource kind, credentials scope, region and resource
+   * identifier.
+   */
+  private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * The number of lookups served from the cache.
+   */
+  private final AtomicLong hitCount = new AtomicLong();
+
+  /**
+   * The number of lookups that required a request.
+   */
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Creates a validation lookup cache.
+   */
+  public ValidationLookupCache() {
+    this(Ticker.systemTicker());
+  }
+
+  /**
+   * Creates a validation lookup cache with the specified time source.
+   *
+   * @param ticker the time source
+   */
+  @VisibleForTesting
+  ValidationLookupCache(Ticker ticker) {
+    this.ticker = requireNonNull(ticker, "ticker is null");
+  }
+
+  /**
+   * Returns the result of looking up the specified resource, performing the lookup if it is
+   * not cached. A failure is cached, and a copy rethrown to subsequent callers, only if it
+   * indicates that the resource does not exist and is not an authorization failure.
+   *
+   * @param kind             the resource kind
+   * @param credentialsScope the scope of the credentials used for the lookup, or {@code null}
+   *                         if unknown
+   * @param region           the region, or {@code null} if unknown
+   * @param resourceId the resource identifier
+   * @param ttls       the times to keep lookups
+   * @param loader     the lookup to perform on a cache miss
+   * @param isNotFound whether a failure indicates that the resource does not exist
+   * @param <T>        the type of result
+   * @return the result of looking up the specified resource, which must not be modified
+   * @throws AmazonServiceException if the lookup failed
+   */
+  public <T> T lookup(ResourceKind kind, String credentialsScope, String region,
+      String resourceId, Ttls ttls, Supplier<T> loader,
+      Predicate<? super AmazonServiceException> isNotFound) {
+    String key = getKey(kind, credentialsScope, region, resourceId);
+    while (true) {
+      long now = ticker.read();
+      CacheEntry entry = entries.get(key);
+      if (entry != null && !entry.isExpired(now)) {
+        hitCount.incrementAndGet();
+        return entry.get();
+      }
+
+      CacheEntry newEntry = new CacheEntry(loader);
+      boolean installed = (entry == null)
+          ? entries.putIfAbsent(key, newEntry) == null
+          : entries.replace(key, entry, newEntry);
+      if (!installed) {
+        continue;
+      }
+
+      missCount.incrementAndGet();
+      if (entries.size() >= PURGE_THRESHOLD) {
+        entries.values().removeIf(e -> e.isExpired(now));
+      }
+      LOG.debug("Looking up {} {}", kind, resourceId);
+      newEntry.load.run();
+      try {
+        T result = newEntry.get();
+        newEntry.expiresAtNanos = now + ttls.getTtlNanos(kind);
+        return result;
+      } catch (AmazonServiceException e) {
+        if (!isAuthorizationFailure(e) && isNotFound.test(e)) {
+          newEntry.expiresAtNanos = now + ttls.getNegativeTtlNanos();
+        } else {
+          entries.remove(key, newEntry);
+        }
+        throw e;
+      } catch (RuntimeException | Error e) {
+        entries.remove(key, newEntry);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Discards the cached lookup of the specified resource.
+   *
+   * @param kind             the resource kind
+   * @param credentialsScope the scope of the credentials used for the lookup, or {@code null}
+   *                         if unknown
+   * @param region           the region, or {@code null} if unknown
+   * @param resourceId       the resource identifier
+   */
+  public void invalidate(ResourceKind kind, String credentialsScope, String region,
+      String resourceId) {
+    entries.remove(getKey(kind, credentialsScope, region, resourceId));
+  }
+
+  /**
+   * Discards the cached lookups of all resources of the specified kind.
+   *
+   * @param kind the resource kind
+   */
+  public void invalidateAll(ResourceKind kind) {
+    String prefix = kind.name() + '/';
+    entries.keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  /**
+   * Discards all cached lookups.
+   */
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+   * Returns the number of lookups served from the cache.
+   *
+   * @return the number of lookups served from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of lookups that required a request.
+   *
+   * @return the number of lookups that required a request
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the cache key for the specified resource.
+   *
+   * @param kind             the resource kind
+   * @param credentialsScope the scope of the credentials used for the lookup, or {@code null}
+   *                         if unknown
+   * @param region           the region, or {@code null} if unknown
+   * @param resourceId       the resource identifier
+   * @return the cache key
+   */
+  private static String getKey(ResourceKind kind, String credentialsScope, String region,
+      String resourceId) {
+    return kind.name() + '/' + (credentialsScope == null ? "" : credentialsScope) + '/'
+        + (region == null ? "" : region) + '/' + resourceId;
+  }
+
+  /**
+   * Returns whether the specified failure indicates that the credentials are not authorized to
+   * perform the lookup, in which case it says nothing about the resource and must not be kept.
+   *
+   * @param e the failure
+   * @return whether the failure is an authorization failure
+   */
+  private static boolean isAuthorizationFailure(AmazonServiceException e) {
+    String errorCode = e.getErrorCode();
+    return AWSExceptions.AUTHORIZATION_ERROR_CODES.contains(errorCode)
+        || (errorCode != null && errorCode.startsWith(ACCESS_DENIED))
+        || e.getStatusCode() == 401 || e.getStatusCode() == 403;
+  }
+
+  /**
+   * The times to keep lookups, by resource kind.
+   */
+  public static final class Ttls {
+
+    /**
+     * The times to keep successful lookups, in nanoseconds.
+     */
+    private final Map<ResourceKind, Long> ttlNanos;
+
+    /**
+     * The time to keep a lookup of a missing resource, in nanoseconds.
+     */
+    private final long negativeTtlNanos;
+
+    /**
+     * Creates the times to keep lookups from the specified timeouts, falling back to the
+     * defaults for timeouts that are not configured.
+     *
+     * @param awsTimeouts the AWS timeouts, or {@code null} to use the defaults
+     * @return the times to keep lookups
+     */
+    public static Ttls fromTimeouts(AWSTimeouts awsTimeouts) {
+      AWSTimeouts timeouts = (awsTimeouts == null) ? new AWSTimeouts(null) : awsTimeouts;
+      Map<ResourceKind, Long> ttlNanos = Maps.newEnumMap(ResourceKind.class);
+      for (ResourceKind kind : ResourceKind.values()) {
+        ttlNanos.put(kind, TimeUnit.MILLISECONDS.toNanos(
+            timeouts.getTimeout(kind.getTtlKey()).or(kind.getDefaultTtlMillis())));
+      }
+      long negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(
+          timeouts.getTimeout(NEGATIVE_TTL_KEY).or(DEFAULT_NEGATIVE_TTL_MS));
+      return new Ttls(ttlNanos, negativeTtlNanos);
+    }
+
+    /**
+     * Creates the times to keep lookups.
+     *
+     * @param ttlNanos         the times to keep successful lookups, in nanoseconds
+     * @param negativeTtlNanos the time to keep a lookup of a missing resource, in nanoseconds
+     */
+    private Ttls(Map<ResourceKind, Long> ttlNanos, long negativeTtlNanos) {
+      this.ttlNanos = ttlNanos;
+      this.negativeTtlNanos = negativeTtlNanos;
+    }
+
+    /**
+     * Returns the time to keep a successful lookup of the specified kind, in nanoseconds.
+     *
+     * @param kind the resource kind
+     * @return the time to keep a successful lookup of the specified kind, in nanoseconds
+     */
+    private long getTtlNanos(ResourceKind kind) {
+      return ttlNanos.get(kind);
+    }
+
+    /**
+     * Returns the time to keep a lookup of a missing resource, in nanoseconds.
+     *
+     * @return the time to keep a lookup of a missing resource, in nanoseconds
+     */
+    private long getNegativeTtlNanos() {
+      return negativeTtlNanos;
+    }
+  }
+
+  /**
+   * A cached lookup, which may still be in progress.
+   */
+  private static final class CacheEntry {
+
+    /**
+     * The lookup.
+     */
+    private final FutureTask<Object> load;
+
+    /**
+     * The time at which the entry expires, in nanoseconds, or {@code null} while the lookup
+     * is in progress.
+     */
+    private volatile Long expiresAtNanos;
+
+    /**
+     * Creates a cache entry for the specified lookup.
+     *
+     * @param loader the lookup
+     */
+    private CacheEntry(Supplier<?> loader) {
+      this.load = new FutureTask<>(loader::get);
+    }
+
+    /**
+     * Returns whether the entry has expired. An entry whose lookup is in progress never
+     * expires.
+     *
+     * @param now the current time, in nanoseconds
+     * @return whether the entry has expired
+     */
+    private boolean isExpired(long now) {
+      Long expiresAt = expiresAtNanos;
+      return expiresAt != null && expiresAt - now <= 0;
+    }
+
+    /**
+     * Returns the result of the lookup, waiting for it to complete if necessary. Since the
+     * failure of a lookup is shared by every caller, each caller gets its own copy of it, with
+     * the original failure as its cause.
+     *
+     * @param <T> the type of result
+     * @return the result of the lookup
+     * @throws RuntimeException if the lookup failed
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T get() {
+      try {
+        return (T) load.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UnrecoverableProviderException("Interrupted while waiting for lookup", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof AmazonServiceException) {
+          throw AWSExceptions.copy((AmazonServiceException) cause);
+        }
+        if (cause instanceof AmazonClientException) {
+          throw new AmazonClientException(cause.getMessage(), cause);
+        }
+        Throwables.throwIfInstanceOf(cause, Error.class);
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+}
@@ -15,11 +15,9 @@
 package com.cloudera.director.aws.ec2.allocation;
 
 import static com.cloudera.director.aws.ec2.EC2Retryer.retryUntil;
-import static com.google.common.collect.Iterables.getOnlyElement;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
-import com.amazonaws.services.ec2.model.CreateTagsRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.Instance;
@@ -27,17 +25,23 @@ import com.amazonaws.services.ec2.model.InstanceBlockDeviceMapping;
 import com.amazonaws.services.ec2.model.InstanceStateName;
 import com.amazonaws.services.ec2.model.Tag;
 import com.cloudera.director.aws.AWSExceptions;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.ec2.EC2Instance;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2TagCoalescer;
 import com.cloudera.director.aws.ec2.EC2TagHelper;
+import com.cloudera.director.spi.v2.model.exception.TransientProviderException;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
 import com.github.rholder.retry.RetryException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
@@ -45,7 +49,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -83,6 +87,16 @@ public abstract class AbstractInstanceAllocator implements InstanceAllocator {
   private static final String INSTANCE_WAIT_UNTIL_FINDABLE_MS =
       "ec2.instance.waitUntilFindableMilliseconds";
 
+  /**
+   * The maximum number of instances described by a single request.
+   */
+  private static final int MAX_DESCRIBE_INSTANCES_CHUNK_SIZE = 100;
+
+  /**
+   * The error code prefix for missing or malformed key pairs.
+   */
+  private static final String INVALID_KEY_PAIR = "InvalidKeyPair";
+
   /**
    * Returns the error message for the specified exception.
    *
@@ -109,6 +123,11 @@ public abstract class AbstractInstanceAllocator implements InstanceAllocator {
    */
   protected final EC2TagHelper ec2TagHelper;
 
+  /**
+   * The AWS request limits.
+   */
+  protected final AWSRequestLimits awsRequestLimits;
+
   /**
    * How long to wait for instances to start, in milliseconds.
    */
@@ -156,6 +175,7 @@ public abstract class AbstractInstanceAllocator implements InstanceAllocator {
     this.client = client;
     this.allocationHelper = allocationHelper;
     this.ec2TagHelper = allocationHelper.getEC2TagHelper();
+    this.awsRequestLimits = allocationHelper.getAWSRequestLimits();
 
     AWSTimeouts awsTimeouts = allocationHelper.getAWSTimeouts();
     this.waitUntilStartedMillis = awsTimeouts.getTimeout(INSTANCE_WAIT_UNTIL_STARTED_MS)
@@ -193,6 +213,64 @@ public abstract class AbstractInstanceAllocator implements InstanceAllocator {
     return hasher.hash().toString();
   }
 
+  /**
+   * Determines the idempotency client token for a request for the specified virtual instance
+   * IDs. The token depends on the order of the IDs.
+   *
+   * @param virtualInstanceIds the virtual instance IDs
+   * @param discriminator      a discriminator to further identify this request
+   * @return the idempotency token
+   */
+  protected String determineClientToken(Collection<String> virtualInstanceIds, Long discriminator) {
+    // Using MD5 because clientToken should be less than 64 characters long
+    Hasher hasher = Hashing.md5().newHasher();
+
+    for (String virtualInstanceId : virtualInstanceIds) {
+      // Separate the IDs, so that different groups of IDs cannot hash the same bytes
+      hasher.putString(virtualInstanceId, Charsets.UTF_8).putByte((byte) 0);
+    }
+    hasher.putLong(discriminator);
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Discards the cached resolution to the key name of the template if the specified error
+   * code reports the key pair missing or invalid, so that the next allocation resolves the key
+   * again rather than failing the same way.
+   *
+   * @param errorCode the error code of a failed launch request, or {@code null}
+   */
+  protected void invalidateKeyNameIfInvalid(String errorCode) {
+    if (errorCode != null && errorCode.startsWith(INVALID_KEY_PAIR)
+        && template.getKeyName().isPresent()) {
+      LOG.info("Key pair {} reported as {}", template.getKeyName().get(), errorCode);
+      allocationHelper.invalidateKeyName(template.getKeyName().get());
+    }
+  }
+
+  /**
+   * Terminates launched instances that cannot be identified, because they do not match any
+   * virtual instance ID or could not be tagged with one. Failures are logged and otherwise
+   * ignored.
+   *
+   * @param ec2InstanceIds the EC2 instance IDs
+   * @throws InterruptedException if the operation is interrupted
+   */
+  protected void terminateUnidentifiedInstances(Set<String> ec2InstanceIds)
+      throws InterruptedException {
+    if (ec2InstanceIds.isEmpty()) {
+      return;
+    }
+    LOG.info(">> Terminating unidentified instances {}", ec2InstanceIds);
+    try {
+      allocationHelper.doDelete(ec2InstanceIds);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      LOG.error("Error while trying to delete unidentified instances.", e);
+    }
+  }
+
   /**
    * Waits until all of the specified instances have assigned private IP addresses.
    *
@@ -270,86 +348,202 @@ public abstract class AbstractInstanceAllocator implements InstanceAllocator {
       final String ec2InstanceId,
       DateTime timeout)
       throws InterruptedException {
-    LOG.info(">> Tagging instance {} / {}", ec2InstanceId, virtualInstanceId);
+    return !tagInstances(template, userDefinedTags,
+        Collections.singletonMap(virtualInstanceId, ec2InstanceId), timeout).isEmpty();
+  }
 
-    // Wait for the instance to be started. If it is terminating, skip tagging.
-    try {
-      if (!allocationHelper.waitUntilInstanceHasStarted(ec2InstanceId, timeout)) {
-        return false;
+  /**
+   * Tags EC2 instances. Expects that the instances already exist or are in the process of
+   * being created. This may also tag EBS volumes depending on template configurations. Each
+   * instance is tagged together with its volumes, in as few requests as possible.
+   *
+   * <p>An instance that starts but is still not visible to {@code CreateTags} by the timeout
+   * is only logged, and is returned along with the tagged instances, since it exists and the
+   * tagging timed out rather than failed. An instance that does not start by the timeout, or
+   * is terminating, is not tagged and not returned. A tagging failure is propagated.</p>
+   *
+   * @param template                          the instance template
+   * @param userDefinedTags                   the user-defined tags
+   * @param virtualInstanceIdToEC2InstanceIds the EC2 instance ids, by virtual instance id
+   * @param timeout                           the time point of timeout
+   * @return the virtual instance ids of the started instances that were tagged, or whose
+   * tagging timed out
+   * @throws InterruptedException if the operation is interrupted
+   */
+  protected Set<String> tagInstances(
+      EC2InstanceTemplate template,
+      List<Tag> userDefinedTags,
+      Map<String, String> virtualInstanceIdToEC2InstanceIds,
+      DateTime timeout)
+      throws InterruptedException {
+
+    // Wait for the instances to be started. Instances that are terminating are not tagged.
+    Map<String, String> startedInstances = Maps.newLinkedHashMap();
+    for (Map.Entry<String, String> entry : virtualInstanceIdToEC2InstanceIds.entrySet()) {
+      try {
+        if (allocationHelper.waitUntilInstanceHasStarted(entry.getValue(), timeout)) {
+          startedInstances.put(entry.getKey(), entry.getValue());
+        }
+      } catch (TimeoutException e) {
+        LOG.info("<< Instance {} did not start before the timeout", entry.getValue());
       }
-    } catch (TimeoutException e) {
-      return false;
     }
 
-    final List<Tag> tags = ec2TagHelper.getInstanceTags(template, virtualInstanceId, userDefinedTags);
-
-    LOG.info("Tags: {}", tags);
+    // Tag EBS volumes if they were part of instance launch request
+    Map<String, List<String>> volumeIdsByEC2InstanceId = tagEbsVolumes
+        ? getEbsVolumeIds(startedInstances.values(), timeout)
+        : Collections.emptyMap();
+
+    EC2TagCoalescer tagCoalescer = new EC2TagCoalescer(client, awsRequestLimits);
+    for (Map.Entry<String, String> entry : startedInstances.entrySet()) {
+      String virtualInstanceId = entry.getKey();
+      String ec2InstanceId = entry.getValue();
+      List<String> resourceIds = Lists.newArrayList(ec2InstanceId);
+      resourceIds.addAll(volumeIdsByEC2InstanceId.getOrDefault(
+          ec2InstanceId, Collections.emptyList()));
+      LOG.info(">> Tagging instance {} / {}", ec2InstanceId, virtualInstanceId);
+      tagCoalescer.add(resourceIds,
+          ec2TagHelper.getInstanceTags(template, virtualInstanceId, userDefinedTags));
+    }
+    Set<String> untaggedResourceIds = tagCoalescer.flush(timeout);
 
-    try {
-      retryUntil(
-          (Callable<Void>) () -> {
-            LOG.info("Create tags request.");
-            client.createTags(new CreateTagsRequest().withTags(tags).withResources(ec2InstanceId));
-            LOG.info("Create tags request complete.");
-            return null;
-          },
-          timeout);
-    } catch (RetryException e) {
-      LOG.warn("timeout waiting for spot instance {} tagged", ec2InstanceId);
-    } catch (ExecutionException e) {
-      if (AmazonServiceException.class.isInstance(e.getCause())) {
-        throw AWSExceptions.propagate((AmazonServiceException) e.getCause());
+    for (String ec2InstanceId : startedInstances.values()) {
+      if (untaggedResourceIds.contains(ec2InstanceId)) {
+        LOG.warn("timeout waiting for instance {} tagged", ec2InstanceId);
       }
-      throw new UnrecoverableProviderException(e.getCause());
     }
+    return startedInstances.keySet();
+  }
 
-    // Tag EBS volumes if they were part of instance launch request
-    if (tagEbsVolumes) {
-      tagEbsVolumes(ec2InstanceId, template, virtualInstanceId, tags, timeout);
+  /**
+   * Tags each launched instance with the tags that identify it. The instances were tagged on
+   * create with the template-level tags only, since the identifying tags differ between the
+   * instances launched by a single request. The instances need not have started, so they can
+   * be tagged as soon as they are launched; their volumes are tagged separately, by
+   * {@link #tagLaunchedVolumes}, once they have started.
+   *
+   * @param template                          the instance template
+   * @param virtualInstanceIdToEC2InstanceIds the EC2 instance IDs, by virtual instance ID
+   * @param timeout                           the time point of timeout
+   * @return the virtual instance IDs of the instances that were tagged
+   * @throws InterruptedException if the operation is interrupted
+   */
+  protected Set<String> tagLaunchedInstances(EC2InstanceTemplate template,
+      Map<String, String> virtualInstanceIdToEC2InstanceIds, DateTime timeout)
+      throws InterruptedException {
+    if (virtualInstanceIdToEC2InstanceIds.isEmpty()) {
+      return Collections.emptySet();
     }
 
-    return true;
+    EC2TagCoalescer tagCoalescer = new EC2TagCoalescer(client, awsRequestLimits);
+    for (Map.Entry<String, String> entry : virtualInstanceIdToEC2InstanceIds.entrySet()) {
+      String virtualInstanceId = entry.getKey();
+      String ec2InstanceId = entry.getValue();
+      LOG.info(">> Tagging instance {} / {}", ec2InstanceId, virtualInstanceId);
+      tagCoalescer.add(Collections.singletonList(ec2InstanceId),
+          ec2TagHelper.getInstanceIdentityTags(template, virtualInstanceId));
+    }
+    Set<String> untaggedResourceIds = tagCoalescer.flush(timeout);
+
+    Set<String> taggedVirtualInstanceIds = Sets.newHashSet();
+    for (Map.Entry<String, String> entry : virtualInstanceIdToEC2InstanceIds.entrySet()) {
+      if (!untaggedResourceIds.contains(entry.getValue())) {
+        taggedVirtualInstanceIds.add(entry.getKey());
+      }
+    }
+    return taggedVirtualInstanceIds;
   }
 
-  private void tagEbsVolumes(
-      final String ec2InstanceId,
-      EC2InstanceTemplate template,
-      String virtualInstanceId,
-      List<Tag> tags,
-      DateTime timeout)
+  /**
+   * Tags the EBS volumes of each launched instance with the tags that identify the instance.
+   * Expects that the instances have started, so that their volumes are attached. The volumes
+   * of an instance are tagged together, in a single request. The volumes are still
+   * identifiable by their instance, so failures are logged and otherwise ignored.
+   *
+   * @param template                          the instance template
+   * @param virtualInstanceIdToEC2InstanceIds the EC2 instance IDs, by virtual instance ID
+   * @param timeout                           the time point of timeout
+   * @throws InterruptedException if the operation is interrupted
+   */
+  protected void tagLaunchedVolumes(EC2InstanceTemplate template,
+      Map<String, String> virtualInstanceIdToEC2InstanceIds, DateTime timeout)
       throws InterruptedException {
-    DescribeInstancesResult result;
+    if (virtualInstanceIdToEC2InstanceIds.isEmpty()) {
+      return;
+    }
+
+    Map<String, List<String>> volumeIdsByEC2InstanceId;
     try {
-      result = retryUntil(
-          () -> {
-            DescribeInstancesRequest request = new DescribeInstancesRequest()
-                .withInstanceIds(Collections.singletonList(ec2InstanceId));
-            return client.describeInstances(request);
-          },
-          timeout);
-    } catch (RetryException e) {
-      LOG.warn("timeout describing instance {}", ec2InstanceId);
+      volumeIdsByEC2InstanceId =
+          getEbsVolumeIds(virtualInstanceIdToEC2InstanceIds.values(), timeout);
+    } catch (TransientProviderException | UnrecoverableProviderException e) {
+      LOG.warn("Unable to describe instances {} to tag their volumes",
+          virtualInstanceIdToEC2InstanceIds.values(), e);
       return;
-    } catch (ExecutionException e) {
-      if (AmazonServiceException.class.isInstance(e.getCause())) {
-        throw AWSExceptions.propagate((AmazonServiceException) e.getCause());
-      }
-      throw new UnrecoverableProviderException(e.getCause());
     }
 
-    List<InstanceBlockDeviceMapping> instanceBlockDeviceMappings =
-        getOnlyElement(getOnlyElement(result.getReservations()).getInstances()).getBlockDeviceMappings();
-    for (InstanceBlockDeviceMapping instanceBlockDeviceMapping : instanceBlockDeviceMappings) {
-      String volumeId = instanceBlockDeviceMapping.getEbs().getVolumeId();
-      tagEbsVolume(template, tags, virtualInstanceId, volumeId);
+    EC2TagCoalescer tagCoalescer = new EC2TagCoalescer(client, awsRequestLimits);
+    for (Map.Entry<String, String> entry : virtualInstanceIdToEC2InstanceIds.entrySet()) {
+      List<String> volumeIds = volumeIdsByEC2InstanceId.getOrDefault(
+          entry.getValue(), Collections.emptyList());
+      if (!volumeIds.isEmpty()) {
+        LOG.info(">> Tagging volumes {} of instance {}", volumeIds, entry.getValue());
+        tagCoalescer.add(volumeIds,
+            ec2TagHelper.getInstanceIdentityTags(template, entry.getKey()));
+      }
+    }
+    try {
+      Set<String> untaggedVolumeIds = tagCoalescer.flush(timeout);
+      if (!untaggedVolumeIds.isEmpty()) {
+        LOG.warn("timeout waiting for volumes {} tagged", untaggedVolumeIds);
+      }
+    } catch (TransientProviderException | UnrecoverableProviderException e) {
+      LOG.warn("Unable to tag the volumes of instances {}",
+          virtualInstanceIdToEC2InstanceIds.values(), e);
     }
   }
 
-  private void tagEbsVolume(
-      EC2InstanceTemplate template, List<Tag> userDefinedTags, String virtualInstanceId, String volumeId)
+  /**
+   * Returns the ids of the EBS volumes attached to the specified instances.
+   *
+   * @param ec2InstanceIds the EC2 instance ids
+   * @param timeout        the time point of timeout
+   * @return the volume ids, by EC2 instance id
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private Map<String, List<String>> getEbsVolumeIds(Collection<String> ec2InstanceIds,
+      DateTime timeout)
       throws InterruptedException {
-    LOG.info(">> Tagging volume {} / {}", volumeId, virtualInstanceId);
-    List<Tag> tags = ec2TagHelper.getInstanceTags(template, virtualInstanceId, userDefinedTags);
-    client.createTags(new CreateTagsRequest().withTags(tags).withResources(volumeId));
+    Map<String, List<String>> volumeIdsByEC2InstanceId = Maps.newHashMap();
+    for (List<String> ec2InstanceIdChunk :
+        Iterables.partition(ec2InstanceIds, MAX_DESCRIBE_INSTANCES_CHUNK_SIZE)) {
+      DescribeInstancesResult result;
+      try {
+        result = retryUntil(
+            () -> client.describeInstances(
+                new DescribeInstancesRequest().withInstanceIds(ec2InstanceIdChunk)),
+            timeout);
+      } catch (RetryException e) {
+        LOG.warn("timeout describing instances {}", ec2InstanceIdChunk);
+        continue;
+      } catch (ExecutionException e) {
+        if (AmazonServiceException.class.isInstance(e.getCause())) {
+          throw AWSExceptions.propagate((AmazonServiceException) e.getCause());
+        }
+        throw new UnrecoverableProviderException(e.getCause());
+      }
+
+      allocationHelper.forEachInstance(result, instance -> {
+        List<String> volumeIds = Lists.newArrayList();
+        for (InstanceBlockDeviceMapping mapping : instance.getBlockDeviceMappings()) {
+          if (mapping.getEbs() != null) {
+            volumeIds.add(mapping.getEbs().getVolumeId());
+          }
+        }
+        volumeIdsByEC2InstanceId.put(instance.getInstanceId(), volumeIds);
+        return null;
+      });
+    }
+    return volumeIdsByEC2InstanceId;
   }
 }
@@ -20,6 +20,7 @@ import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceNetworkInterfaceSpecification;
 import com.amazonaws.services.ec2.model.InstanceStateName;
 import com.amazonaws.services.ec2.model.Tag;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.ec2.EC2Instance;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
@@ -58,6 +59,13 @@ public interface AllocationHelper {
    */
   AWSTimeouts getAWSTimeouts();
 
+  /**
+   * Returns the AWS request limits.
+   *
+   * @return the AWS request limits
+   */
+  AWSRequestLimits getAWSRequestLimits();
+
   /**
    * Returns the tag helper.
    *
@@ -65,6 +73,14 @@ public interface AllocationHelper {
    */
   EC2TagHelper getEC2TagHelper();
 
+  /**
+   * Discards every cached resolution to the specified key name, after EC2 reported the key
+   * pair missing or invalid when launching instances.
+   *
+   * @param keyName the key name
+   */
+  void invalidateKeyName(String keyName);
+
   /**
    * Creates an EC2 compute instance with the specified parameters.
    *
@@ -87,6 +103,20 @@ public interface AllocationHelper {
   boolean waitUntilInstanceHasStarted(final String ec2InstanceId, DateTime timeout)
       throws InterruptedException, TimeoutException;
 
+  /**
+   * Waits until each of the specified instances has left the pending state. All instances
+   * still pending are polled together in batched instance status requests, so the wait is
+   * bounded by the slowest instance rather than the sum over all instances.
+   *
+   * @param ec2InstanceIds the EC2 instance ids
+   * @param timeout        the time point of timeout
+   * @return the outcome for each of the specified EC2 instance ids
+   * @throws InterruptedException if the operation is interrupted
+   */
+  Map<String, InstanceStartOutcome> waitUntilInstancesHaveStarted(
+      Collection<String> ec2InstanceIds, DateTime timeout)
+      throws InterruptedException;
+
   /**
    * Returns current information for the specified instances, which are guaranteed to have
    * been created by this provider.
@@ -0,0 +1,45 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.allocation;
+
+/**
+ * Outcome of waiting for an EC2 instance to leave the pending state.
+ */
+public enum InstanceStartOutcome {
+
+  /**
+   * The instance has left the pending state and is not terminating.
+   */
+  STARTED,
+
+  /**
+   * The instance is shutting down or has terminated.
+   */
+  TERMINATED,
+
+  /**
+   * The instance was still pending (or not yet visible) when the wait timed out.
+   */
+  TIMED_OUT;
+
+  /**
+   * Returns whether the instance has started.
+   *
+   * @return whether the instance has started
+   */
+  public boolean isStarted() {
+    return this == STARTED;
+  }
+}
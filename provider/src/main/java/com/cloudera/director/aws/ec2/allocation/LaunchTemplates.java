@@ -0,0 +1,131 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.allocation;
+
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.amazonaws.services.ec2.model.LaunchTemplateBlockDeviceMappingRequest;
+import com.amazonaws.services.ec2.model.LaunchTemplateEbsBlockDeviceRequest;
+import com.amazonaws.services.ec2.model.LaunchTemplateIamInstanceProfileSpecificationRequest;
+import com.amazonaws.services.ec2.model.LaunchTemplateInstanceNetworkInterfaceSpecificationRequest;
+import com.amazonaws.services.ec2.model.LaunchTemplatePlacementRequest;
+import com.amazonaws.services.ec2.model.RequestLaunchTemplateData;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.google.common.base.Optional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds EC2 launch templates from instance templates, for the allocators that launch instances
+ * through launch templates.
+ */
+@SuppressWarnings("Guava")
+public final class LaunchTemplates {
+
+  /**
+   * The error code that indicates that a launch template already exists.
+   */
+  public static final String LAUNCH_TEMPLATE_ALREADY_EXISTS_EXCEPTION =
+      "InvalidLaunchTemplateName.AlreadyExistsException";
+
+  /**
+   * The error code that indicates that a launch template was not found.
+   */
+  public static final String LAUNCH_TEMPLATE_NOT_FOUND_EXCEPTION =
+      "InvalidLaunchTemplateName.NotFoundException";
+
+  private LaunchTemplates() {
+    throw new IllegalStateException("static class");
+  }
+
+  /**
+   * Builds a {@code RequestLaunchTemplateData} starting from a template.
+   *
+   * @param template       the instance template
+   * @param deviceMappings the block device mappings
+   * @param network        the network interface specification
+   * @return the request launch template data
+   */
+  public static RequestLaunchTemplateData newRequestLaunchTemplateData(
+      EC2InstanceTemplate template, List<BlockDeviceMapping> deviceMappings,
+      LaunchTemplateInstanceNetworkInterfaceSpecificationRequest network) {
+
+    LaunchTemplatePlacementRequest placement = new LaunchTemplatePlacementRequest()
+        .withTenancy(template.getTenancy());
+
+    RequestLaunchTemplateData request = new RequestLaunchTemplateData()
+        .withImageId(template.getImage())
+        .withInstanceType(template.getType())
+        .withNetworkInterfaces(network)
+        .withBlockDeviceMappings(toLaunchTemplateBlockDeviceMappings(deviceMappings))
+        .withEbsOptimized(template.isEbsOptimized())
+        .withPlacement(placement);
+
+    if (template.getIamProfileName().isPresent()) {
+      LaunchTemplateIamInstanceProfileSpecificationRequest iamInstanceProfile =
+          new LaunchTemplateIamInstanceProfileSpecificationRequest()
+              .withName(template.getIamProfileName().get());
+      request = request.withIamInstanceProfile(iamInstanceProfile);
+    }
+
+    if (template.getKeyName().isPresent()) {
+      request.withKeyName(template.getKeyName().get());
+    }
+
+    Optional<String> userData = template.getUserData();
+    if (userData.isPresent()) {
+      request.withUserData(userData.get());
+    }
+
+    return request;
+  }
+
+  /**
+   * Converts EC2 block device mappings to launch template block device mappings.
+   *
+   * @param deviceMappings the EC2 block device mappings
+   * @return the launch template block device mappings
+   */
+  public static List<LaunchTemplateBlockDeviceMappingRequest> toLaunchTemplateBlockDeviceMappings(
+      List<BlockDeviceMapping> deviceMappings) {
+    List<LaunchTemplateBlockDeviceMappingRequest> launchTemplateBlockDeviceMappings =
+        new ArrayList<>(deviceMappings.size());
+    for (BlockDeviceMapping deviceMapping : deviceMappings) {
+      LaunchTemplateBlockDeviceMappingRequest launchTemplateBlockDeviceMapping =
+          new LaunchTemplateBlockDeviceMappingRequest()
+              .withDeviceName(deviceMapping.getDeviceName())
+              .withVirtualName(deviceMapping.getVirtualName());
+      EbsBlockDevice ebsBlockDevice = deviceMapping.getEbs();
+      if (ebsBlockDevice != null) {
+        LaunchTemplateEbsBlockDeviceRequest ebs = new LaunchTemplateEbsBlockDeviceRequest()
+            .withVolumeType(ebsBlockDevice.getVolumeType())
+            .withVolumeSize(ebsBlockDevice.getVolumeSize())
+            .withEncrypted(ebsBlockDevice.getEncrypted())
+            .withKmsKeyId(ebsBlockDevice.getKmsKeyId())
+            .withDeleteOnTermination(ebsBlockDevice.getDeleteOnTermination());
+        launchTemplateBlockDeviceMapping = launchTemplateBlockDeviceMapping
+            .withEbs(ebs);
+      }
+      String noDevice = deviceMapping.getNoDevice();
+      if (noDevice != null) {
+        launchTemplateBlockDeviceMapping = launchTemplateBlockDeviceMapping
+            .withNoDevice(noDevice);
+      }
+      launchTemplateBlockDeviceMappings.add(launchTemplateBlockDeviceMapping);
+    }
+    return launchTemplateBlockDeviceMappings;
+  }
+}
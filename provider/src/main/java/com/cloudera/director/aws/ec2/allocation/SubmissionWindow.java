@@ -0,0 +1,376 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.cloudera.director.aws.ec2.allocation;
+
+import static com.cloudera.director.aws.AWSExceptions.INSUFFICIENT_INSTANCE_CAPACITY;
+import static com.cloudera.director.aws.AWSExceptions.REQUEST_LIMIT_EXCEEDED;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Submits one asynchronous EC2 request per key, keeping a congestion-controlled number of
+ * requests in flight, and passes each outcome to a handler on the calling thread as soon as it
+ * is available.</p>
+ * <p>The window follows the AIMD scheme of TCP congestion control: it starts small, doubles
+ * with every window of successful requests until it first meets congestion, and then grows by
+ * one request per window. A request that fails because EC2 is throttling requests or is out of
+ * capacity halves the window, once per window of requests.</p>
+ * <p>Submission stops as soon as so many requests have failed that the required number of
+ * successes can no longer be reached. Requests already in flight are still waited for, so that
+ * the caller can clean up what they allocated. This holds even when the handler throws or the
+ * calling thread is interrupted: requests in flight are never cancelled, since cancelling the
+ * local future does not cancel the request at EC2, and their outcomes are still passed to the
+ * handler, for a bounded time.</p>
+ * <p>A window can be reused for successive batches of the same kind of request, which then
+ * start from the size the previous batch reached. It is not thread-safe.</p>
+ */
+public final class SubmissionWindow {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SubmissionWindow.class);
+
+  /**
+   * The default initial number of requests in flight.
+   */
+  public static final int DEFAULT_INITIAL_SIZE = 4;
+
+  /**
+   * The default maximum number of requests in flight.
+   */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  /**
+   * The default time to wait for the requests in flight after submission fails, in
+   * milliseconds.
+   */
+  public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+  /**
+   * The error codes that signal congestion.
+   */
+  private static final Set<String> CONGESTION_ERROR_CODES =
+      ImmutableSet.of(REQUEST_LIMIT_EXCEEDED, INSUFFICIENT_INSTANCE_CAPACITY);
+
+  /**
+   * Submits an asynchronous request for a key.
+   *
+   * @param <K> the type of key
+   * @param <R> the type of request
+   * @param <T> the type of result
+   */
+  @FunctionalInterface
+  public interface AsyncCall<K, R extends AmazonWebServiceRequest, T> {
+
+    /**
+     * Submits the request for the specified key.
+     *
+     * @param key     the key
+     * @param handler the handler to notify when the request completes
+     * @return the future result of the request
+     */
+    Future<T> call(K key, AsyncHandler<R, T> handler);
+  }
+
+  /**
+   * Handles the outcome of the request for each key.
+   *
+   * @param <K> the type of key
+   * @param <T> the type of result
+   */
+  public interface CompletionHandler<K, T> {
+
+    /**
+     * Handles the result of a successful request.
+     *
+     * @param key    the key
+     * @param result the result
+     */
+    void onSuccess(K key, T result);
+
+    /**
+     * Handles the error of a failed request.
+     *
+     * @param key       the key
+     * @param exception the error
+     */
+    void onError(K key, Exception exception);
+  }
+
+  private final int maxSize;
+  private final long drainTimeoutMillis;
+  private double size;
+  private double slowStartThreshold;
+  private long submittedCount;
+  private long lastDecreaseSubmittedCount = -1;
+
+  /**
+   * Creates a submission window with the default initial and maximum sizes.
+   */
+  public SubmissionWindow() {
+    this(DEFAULT_INITIAL_SIZE, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates a submission window.
+   *
+   * @param initialSize the initial number of requests in flight
+   * @param maxSize     the maximum number of requests in flight
+   */
+  public SubmissionWindow(int initialSize, int maxSize) {
+    this(initialSize, maxSize, DEFAULT_DRAIN_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Creates a submission window.
+   *
+   * @param initialSize        the initial number of requests in flight
+   * @param maxSize            the maximum number of requests in flight
+   * @param drainTimeoutMillis the time to wait for the requests in flight after submission
+   *                           fails, in milliseconds
+   */
+  public SubmissionWindow(int initialSize, int maxSize, long drainTimeoutMillis) {
+    if (initialSize < 1 || maxSize < initialSize) {
+      throw new IllegalArgumentException(
+          "invalid window sizes: initial " + initialSize + ", maximum " + maxSize);
+    }
+    if (drainTimeoutMillis < 0) {
+      throw new IllegalArgumentException("negative drain timeout: " + drainTimeoutMillis);
+    }
+    this.maxSize = maxSize;
+    this.drainTimeoutMillis = drainTimeoutMillis;
+    this.size = initialSize;
+    this.slowStartThreshold = maxSize;
+  }
+
+  /**
+   * Returns the current number of requests that can be in flight.
+   *
+   * @return the current number of requests that can be in flight
+   */
+  public int getSize() {
+    return (int) size;
+  }
+
+  /**
+   * Submits one request per key, and passes their outcomes to the handler in completion order.
+   * An exception thrown by the handler, or an interruption, stops submission and is propagated
+   * after waiting, for a bounded time, for the requests in flight. Their outcomes are passed to
+   * the handler, so that the caller learns of everything that was allocated; exceptions thrown
+   * by the handler meanwhile are suppressed by the propagated exception.
+   *
+   * @param keys         the distinct keys
+   * @param minSuccesses the minimum number of successful requests needed
+   * @param call         the asynchronous call that submits the request for a key
+   * @param handler      the handler of the outcomes
+   * @param <K>          the type of key
+   * @param <R>          the type of request
+   * @param <T>          the type of result
+   * @return whether the request for every key was submitted, which is false if submission
+   * stopped because the minimum number of successes could no longer be reached
+   * @throws InterruptedException if the operation is interrupted
+   */
+  public <K, R extends AmazonWebServiceRequest, T> boolean submitAll(Collection<K> keys,
+      int minSuccesses, AsyncCall<K, R, T> call, CompletionHandler<? super K, ? super T> handler)
+      throws InterruptedException {
+
+    // Copy the keys, since the handler may modify the collection they come from
+    List<K> pendingKeys = Lists.newArrayList(keys);
+    BlockingQueue<Completion<K, T>> completions = new LinkedBlockingQueue<>();
+    Map<K, Future<T>> inFlight = Maps.newHashMap();
+    Iterator<K> iterator = pendingKeys.iterator();
+    int failures = 0;
+    boolean stopped = false;
+
+    try {
+      while (true) {
+        while (!stopped && iterator.hasNext() && inFlight.size() < getSize()) {
+          K key = iterator.next();
+          long sequence = submittedCount++;
+          Future<T> future;
+          try {
+            future = call.call(key, new QueueingAsyncHandler<>(key, sequence, completions));
+          } catch (RuntimeException e) {
+            completions.add(new Completion<>(key, sequence, null, e));
+            future = null;
+          }
+          inFlight.put(key, future);
+        }
+
+        if (inFlight.isEmpty()) {
+          return !stopped;
+        }
+
+        Completion<K, T> completion = completions.take();
+        inFlight.remove(completion.key);
+        if (completion.exception == null) {
+          onSuccess();
+          handler.onSuccess(completion.key, completion.result);
+        } else {
+          failures++;
+          onError(completion.sequence, completion.exception);
+          handler.onError(completion.key, completion.exception);
+          if (!stopped && iterator.hasNext() && pendingKeys.size() - failures < minSuccesses) {
+            LOG.warn("{} of {} requests failed, so {} successful requests can no longer be"
+                    + " reached. Not submitting the remaining requests.",
+                failures, pendingKeys.size(), minSuccesses);
+            stopped = true;
+          }
+        }
+      }
+    } catch (InterruptedException | RuntimeException e) {
+      drain(inFlight, completions, handler, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Waits, for a bounded time, for the requests in flight after submission failed, and passes
+   * their outcomes to the handler. The requests are not cancelled, since that would not cancel
+   * them at EC2, leaving whatever they allocate unknown to the caller.
+   *
+   * @param inFlight    the requests in flight, by key
+   * @param completions the queue of outcomes
+   * @param handler     the handler of the outcomes
+   * @param failure     the failure that stopped submission, which suppresses any exception
+   *                    thrown by the handler
+   */
+  private <K, T> void drain(Map<K, Future<T>> inFlight,
+      BlockingQueue<Completion<K, T>> completions,
+      CompletionHandler<? super K, ? super T> handler, Exception failure) {
+    if (inFlight.isEmpty()) {
+      return;
+    }
+    LOG.info("Waiting up to {} ms for {} requests in flight", drainTimeoutMillis,
+        inFlight.size());
+
+    // Wait even if interrupted, restoring the interrupt afterwards
+    boolean interrupted = Thread.interrupted();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+    try {
+      while (!inFlight.isEmpty()) {
+        Completion<K, T> completion;
+        try {
+          completion = completions.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          interrupted = true;
+          completion = null;
+        }
+        if (completion == null) {
+          LOG.warn("Stopped waiting for {} requests in flight: {}", inFlight.size(),
+              inFlight.keySet());
+          return;
+        }
+        inFlight.remove(completion.key);
+        try {
+          if (completion.exception == null) {
+            handler.onSuccess(completion.key, completion.result);
+          } else {
+            handler.onError(completion.key, completion.exception);
+          }
+        } catch (RuntimeException e) {
+          failure.addSuppressed(e);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void onSuccess() {
+    if (size < slowStartThreshold) {
+      size = Math.min(maxSize, size + 1);
+    } else {
+      size = Math.min(maxSize, size + 1 / size);
+    }
+  }
+
+  private void onError(long sequence, Exception exception) {
+    if (!isCongestion(exception) || sequence < lastDecreaseSubmittedCount) {
+      return;
+    }
+    slowStartThreshold = Math.max(1, size / 2);
+    size = slowStartThreshold;
+    lastDecreaseSubmittedCount = submittedCount;
+    LOG.info("Congestion ({}), reducing the number of requests in flight to {}",
+        ((AmazonServiceException) exception).getErrorCode(), getSize());
+  }
+
+  private static boolean isCongestion(Exception exception) {
+    return exception instanceof AmazonServiceException
+        && CONGESTION_ERROR_CODES.contains(((AmazonServiceException) exception).getErrorCode());
+  }
+
+  /**
+   * The outcome of a request.
+   */
+  private static final class Completion<K, T> {
+    private final K key;
+    private final long sequence;
+    private final T result;
+    private final Exception exception;
+
+    private Completion(K key, long sequence, T result, Exception exception) {
+      this.key = key;
+      this.sequence = sequence;
+      this.result = result;
+      this.exception = exception;
+    }
+  }
+
+  /**
+   * An asynchronous handler that queues the outcome of a request for the submitting thread.
+   */
+  private static final class QueueingAsyncHandler<K, R extends AmazonWebServiceRequest, T>
+      implements AsyncHandler<R, T> {
+    private final K key;
+    private final long sequence;
+    private final BlockingQueue<Completion<K, T>> completions;
+
+    private QueueingAsyncHandler(K key, long sequence,
+        BlockingQueue<Completion<K, T>> completions) {
+      this.key = key;
+      this.sequence = sequence;
+      this.completions = completions;
+    }
+
+    @Override
+    public void onError(Exception exception) {
+      completions.add(new Completion<>(key, sequence, null, exception));
+    }
+
+    @Override
+    public void onSuccess(R request, T result) {
+      completions.add(new Completion<>(key, sequence, result, null));
+    }
+  }
+}
@@ -16,6 +16,8 @@ package com.cloudera.director.aws.ec2.allocation.asg;
 
 import static com.cloudera.director.aws.AWSExceptions.isAmazonServiceException;
 import static com.cloudera.director.aws.AWSExceptions.isUnrecoverable;
+import static com.cloudera.director.aws.ec2.allocation.LaunchTemplates.LAUNCH_TEMPLATE_ALREADY_EXISTS_EXCEPTION;
+import static com.cloudera.director.aws.ec2.allocation.LaunchTemplates.LAUNCH_TEMPLATE_NOT_FOUND_EXCEPTION;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.autoscaling.AmazonAutoScalingAsyncClient;
@@ -28,15 +30,9 @@ import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
 import com.amazonaws.services.autoscaling.model.LaunchTemplateSpecification;
 import com.amazonaws.services.autoscaling.model.SuspendProcessesRequest;
 import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
-import com.amazonaws.services.ec2.model.BlockDeviceMapping;
 import com.amazonaws.services.ec2.model.CreateLaunchTemplateRequest;
 import com.amazonaws.services.ec2.model.DeleteLaunchTemplateRequest;
-import com.amazonaws.services.ec2.model.EbsBlockDevice;
-import com.amazonaws.services.ec2.model.LaunchTemplateBlockDeviceMappingRequest;
-import com.amazonaws.services.ec2.model.LaunchTemplateEbsBlockDeviceRequest;
-import com.amazonaws.services.ec2.model.LaunchTemplateIamInstanceProfileSpecificationRequest;
 import com.amazonaws.services.ec2.model.LaunchTemplateInstanceNetworkInterfaceSpecificationRequest;
-import com.amazonaws.services.ec2.model.LaunchTemplatePlacementRequest;
 import com.amazonaws.services.ec2.model.RequestLaunchTemplateData;
 import com.amazonaws.services.ec2.model.Tag;
 import com.cloudera.director.aws.AWSExceptions;
@@ -46,6 +42,7 @@ import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
 import com.cloudera.director.aws.ec2.EC2TagHelper;
 import com.cloudera.director.aws.ec2.allocation.AllocationHelper;
 import com.cloudera.director.aws.ec2.allocation.InstanceAllocator;
+import com.cloudera.director.aws.ec2.allocation.LaunchTemplates;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
 import com.github.rholder.retry.RetryException;
 import com.github.rholder.retry.Retryer;
@@ -119,12 +116,6 @@ public class AutoScalingGroupAllocator implements InstanceAllocator {
   @VisibleForTesting
   public static final String SCALING_PROCESS_AZ_REBALANCE = "AZRebalance";
 
-  /**
-   * The error code that indicates that a launch template was not found.
-   */
-  private static final String LAUNCH_TEMPLATE_NOT_FOUND_EXCEPTION =
-      "InvalidLaunchTemplateName.NotFoundException";
-
   /**
    * The allocation helper.
    */
@@ -348,72 +339,12 @@ public class AutoScalingGroupAllocator implements InstanceAllocator {
    * @return the request launch template data
    */
   private RequestLaunchTemplateData newRequestLaunchTemplateData(EC2InstanceTemplate template) {
-    String image = template.getImage();
-    String type = template.getType();
-
-    List<BlockDeviceMapping> deviceMappings = allocationHelper.getBlockDeviceMappings(template);
-
-    // Convert EC2 block device mappings to ASG block device mappings
-    List<LaunchTemplateBlockDeviceMappingRequest> autoScalingBlockDeviceMappings =
-        new ArrayList<>(deviceMappings.size());
-    for (BlockDeviceMapping deviceMapping : deviceMappings) {
-      LaunchTemplateBlockDeviceMappingRequest launchTemplateBlockDeviceMapping =
-          new LaunchTemplateBlockDeviceMappingRequest()
-              .withDeviceName(deviceMapping.getDeviceName())
-              .withVirtualName(deviceMapping.getVirtualName());
-      EbsBlockDevice ebsBlockDevice = deviceMapping.getEbs();
-      if (ebsBlockDevice != null) {
-        LaunchTemplateEbsBlockDeviceRequest ebs = new LaunchTemplateEbsBlockDeviceRequest()
-            .withVolumeType(ebsBlockDevice.getVolumeType())
-            .withVolumeSize(ebsBlockDevice.getVolumeSize())
-            .withEncrypted(ebsBlockDevice.getEncrypted())
-            .withKmsKeyId(ebsBlockDevice.getKmsKeyId())
-            .withDeleteOnTermination(ebsBlockDevice.getDeleteOnTermination());
-        launchTemplateBlockDeviceMapping = launchTemplateBlockDeviceMapping
-            .withEbs(ebs);
-      }
-      String noDevice = deviceMapping.getNoDevice();
-      if (noDevice != null) {
-        launchTemplateBlockDeviceMapping = launchTemplateBlockDeviceMapping
-            .withNoDevice(noDevice);
-      }
-      autoScalingBlockDeviceMappings.add(
-          launchTemplateBlockDeviceMapping);
-    }
-
-    LaunchTemplateInstanceNetworkInterfaceSpecificationRequest network =
-        getLaunchTemplateInstanceNetworkInterfaceSpecification(template);
-
-    LaunchTemplatePlacementRequest placement = new LaunchTemplatePlacementRequest()
-        .withTenancy(template.getTenancy());
-
-    LOG.info(">> Auto Scaling group request type: {}, image: {}", type, image);
-
-    RequestLaunchTemplateData request = new RequestLaunchTemplateData()
-        .withImageId(image)
-        .withInstanceType(type)
-        .withNetworkInterfaces(network)
-        .withBlockDeviceMappings(autoScalingBlockDeviceMappings)
-        .withEbsOptimized(template.isEbsOptimized())
-        .withPlacement(placement);
-
-    if (template.getIamProfileName().isPresent()) {
-      LaunchTemplateIamInstanceProfileSpecificationRequest iamInstanceProfile =
-          new LaunchTemplateIamInstanceProfileSpecificationRequest()
-              .withName(template.getIamProfileName().get());
-      request = request.withIamInstanceProfile(iamInstanceProfile);
-    }
-
-    if (template.getKeyName().isPresent()) {
-      request.withKeyName(template.getKeyName().get());
-    }
+    LOG.info(">> Auto Scaling group request type: {}, image: {}",
+        template.getType(), template.getImage());
 
-    Optional<String> userData = template.getUserData();
-    if (userData.isPresent()) {
-      request.withUserData(userData.get());
-    }
-
-    return request;
+    return LaunchTemplates.newRequestLaunchTemplateData(template,
+        allocationHelper.getBlockDeviceMappings(template),
+        getLaunchTemplateInstanceNetworkInterfaceSpecification(template));
   }
 
   /**
@@ -466,7 +397,7 @@ public class AutoScalingGroupAllocator implements InstanceAllocator {
     } catch (AlreadyExistsException ignore) {
     } catch (AmazonServiceException ase) {
       // TODO update existing group?
-      if (!"InvalidLaunchTemplateName.AlreadyExistsException".equals(ase.getErrorCode())) {
+      if (!LAUNCH_TEMPLATE_ALREADY_EXISTS_EXCEPTION.equals(ase.getErrorCode())) {
         throw ase;
       }
     }
@@ -0,0 +1,740 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.allocation.fleet;
+
+import static com.cloudera.director.aws.AWSExceptions.isAmazonServiceException;
+import static com.cloudera.director.aws.ec2.EC2Retryer.retryUntil;
+import static com.cloudera.director.aws.ec2.allocation.LaunchTemplates.LAUNCH_TEMPLATE_ALREADY_EXISTS_EXCEPTION;
+import static com.cloudera.director.aws.ec2.allocation.LaunchTemplates.LAUNCH_TEMPLATE_NOT_FOUND_EXCEPTION;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
+import com.amazonaws.services.ec2.model.ActiveInstance;
+import com.amazonaws.services.ec2.model.CreateFleetRequest;
+import com.amazonaws.services.ec2.model.CreateFleetResult;
+import com.amazonaws.services.ec2.model.CreateLaunchTemplateRequest;
+import com.amazonaws.services.ec2.model.DefaultTargetCapacityType;
+import com.amazonaws.services.ec2.model.DeleteFleetErrorItem;
+import com.amazonaws.services.ec2.model.DeleteFleetsRequest;
+import com.amazonaws.services.ec2.model.DeleteFleetsResult;
+import com.amazonaws.services.ec2.model.DeleteLaunchTemplateRequest;
+import com.amazonaws.services.ec2.model.DescribeFleetInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeFleetInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeFleetsRequest;
+import com.amazonaws.services.ec2.model.DescribeFleetsResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeLaunchTemplatesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.FleetData;
+import com.amazonaws.services.ec2.model.FleetExcessCapacityTerminationPolicy;
+import com.amazonaws.services.ec2.model.FleetLaunchTemplateConfigRequest;
+import com.amazonaws.services.ec2.model.FleetLaunchTemplateOverridesRequest;
+import com.amazonaws.services.ec2.model.FleetLaunchTemplateSpecificationRequest;
+import com.amazonaws.services.ec2.model.FleetStateCode;
+import com.amazonaws.services.ec2.model.FleetType;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.LaunchTemplateInstanceNetworkInterfaceSpecificationRequest;
+import com.amazonaws.services.ec2.model.LaunchTemplateTagSpecificationRequest;
+import com.amazonaws.services.ec2.model.RequestLaunchTemplateData;
+import com.amazonaws.services.ec2.model.ResourceType;
+import com.amazonaws.services.ec2.model.SpotAllocationStrategy;
+import com.amazonaws.services.ec2.model.SpotInstanceInterruptionBehavior;
+import com.amazonaws.services.ec2.model.SpotOptionsRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TargetCapacitySpecificationRequest;
+import com.cloudera.director.aws.AWSExceptions;
+import com.cloudera.director.aws.ec2.EC2Instance;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.allocation.AbstractInstanceAllocator;
+import com.cloudera.director.aws.ec2.allocation.AllocationHelper;
+import com.cloudera.director.aws.ec2.allocation.InstanceStartOutcome;
+import com.cloudera.director.aws.ec2.allocation.LaunchTemplates;
+import com.cloudera.director.spi.v2.model.exception.TransientProviderException;
+import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
+import com.github.rholder.retry.RetryException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicates;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Holds state and logic for allocating a group of instances with a single EC2 Fleet request.
+ * A new instance is required for each allocation request.</p>
+ * <p>The fleet may launch each instance with any of the configured instance types and in any of
+ * the configured subnets. It launches the On-Demand base capacity as On-Demand Instances and
+ * the rest of the group as Spot Instances. The {@link #allocate()} method assigns the virtual
+ * instance IDs to the instances in the order in which the fleet reports them.</p>
+ * <p>The launch template of the fleet is named after the group, and is only deleted once the
+ * launched instances have been identified. An allocation that finds the launch template
+ * already there is therefore retrying an attempt that did not complete: it stops the fleets
+ * requested from the launch template, and recovers the instances they launched before
+ * requesting another fleet for the rest of the group.</p>
+ */
+@SuppressWarnings({"Guava", "PMD.TooManyStaticImports"})
+public class FleetAllocator extends AbstractInstanceAllocator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FleetAllocator.class);
+
+  /**
+   * The default EC2 Fleet request duration, in milliseconds.
+   */
+  private static final long DEFAULT_FLEET_REQUEST_DURATION_MS = 10 * 60 * 1000; //10 min
+
+  /**
+   * The key for EC2 Fleet timeouts.
+   */
+  @VisibleForTesting
+  static final String FLEET_REQUEST_DURATION_MS = "ec2.fleet.requestDurationMilliseconds";
+
+  /**
+   * The default EC2 Fleet instance polling time, in milliseconds.
+   */
+  private static final long DEFAULT_FLEET_INSTANCE_POLL_DURATION_MS = 1000; //1 sec
+
+  /**
+   * The key for EC2 Fleet instance polling time.
+   */
+  @VisibleForTesting
+  static final String FLEET_INSTANCE_POLL_DURATION_MS = "ec2.fleet.instancePollDurationMilliseconds";
+
+  /**
+   * The prefix of the names of the launch templates created for fleets.
+   */
+  @VisibleForTesting
+  static final String LAUNCH_TEMPLATE_NAME_PREFIX = "cloudera-director-fleet-";
+
+  /**
+   * The version of the launch template used by fleets. Each launch template is created for a
+   * single fleet, and only has one version.
+   */
+  private static final String LAUNCH_TEMPLATE_VERSION = "$Latest";
+
+  /**
+   * The maximum number of fleets requested from the same launch template, across attempts
+   * at the same allocation.
+   */
+  @VisibleForTesting
+  static final int MAX_FLEET_GENERATIONS = 5;
+
+  /**
+   * The filter for the tag that EC2 adds to every instance launched from a launch template.
+   */
+  private static final String LAUNCH_TEMPLATE_ID_TAG_FILTER = "tag:aws:ec2launchtemplate:id";
+
+  /**
+   * The states of fleets that no longer launch instances.
+   */
+  private static final Set<String> DELETED_FLEET_STATES = ImmutableSet.of(
+      FleetStateCode.Deleted.toString(),
+      FleetStateCode.DeletedRunning.toString(),
+      FleetStateCode.DeletedTerminating.toString());
+
+  private final boolean useTagOnCreate;
+
+  /**
+   * How long to wait for the fleet to launch the instances, in milliseconds.
+   */
+  private final long requestDurationMillis;
+
+  /**
+   * How long to wait between polls of the fleet instances, in milliseconds.
+   */
+  private final long instancePollDurationMillis;
+
+  /**
+   * Creates an EC2 Fleet allocator with the specified parameters.
+   *
+   * @param allocationHelper   the allocation helper
+   * @param client             the EC2 client
+   * @param tagEbsVolumes      whether to tag EBS volumes
+   * @param useTagOnCreate     whether to tag instances and volumes on create
+   * @param template           the instance template
+   * @param virtualInstanceIds the virtual instance IDs for the created instances
+   * @param minCount           the minimum number of instances to allocate if not all resources
+   *                           can be allocated
+   */
+  public FleetAllocator(AllocationHelper allocationHelper,
+      AmazonEC2AsyncClient client, boolean tagEbsVolumes, boolean useTagOnCreate,
+      EC2InstanceTemplate template, Collection<String> virtualInstanceIds, int minCount) {
+    super(allocationHelper, client, tagEbsVolumes, template, virtualInstanceIds, minCount);
+    this.useTagOnCreate = useTagOnCreate;
+    this.requestDurationMillis = allocationHelper.getAWSTimeouts()
+        .getTimeout(FLEET_REQUEST_DURATION_MS)
+        .or(DEFAULT_FLEET_REQUEST_DURATION_MS);
+    this.instancePollDurationMillis = allocationHelper.getAWSTimeouts()
+        .getTimeout(FLEET_INSTANCE_POLL_DURATION_MS)
+        .or(DEFAULT_FLEET_INSTANCE_POLL_DURATION_MS);
+  }
+
+  @Override
+  public Collection<EC2Instance> allocate() throws InterruptedException {
+    return allocateFleetInstances(template, virtualInstanceIds, minCount);
+  }
+
+  @Override
+  public void delete() throws InterruptedException {
+    allocationHelper.delete(template, virtualInstanceIds);
+  }
+
+  /**
+   * Atomically allocates multiple EC2 instances with the specified identifiers with a single
+   * EC2 Fleet request. If not all the instances can be allocated, the number of instances
+   * allocated must be at least the specified minimum or the method must fail cleanly with no
+   * billing implications.
+   *
+   * @param template           the instance template
+   * @param virtualInstanceIds the unique identifiers for the instances
+   * @param minCount           the minimum number of instances to allocate if not all resources can be allocated
+   * @return the instances that were allocated
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private Collection<EC2Instance> allocateFleetInstances(
+      EC2InstanceTemplate template, Collection<String> virtualInstanceIds, int minCount)
+      throws InterruptedException {
+
+    LOG.info(">> Requesting EC2 Fleet of {} instances for {}", virtualInstanceIds.size(), template);
+
+    boolean success = false;
+    Map<String, String> virtualInstanceIdToEC2InstanceIds =
+        Maps.newHashMapWithExpectedSize(virtualInstanceIds.size());
+    // Every instance launched by the fleet, including those not assigned a virtual instance ID
+    Set<String> fleetInstanceIds = Sets.newLinkedHashSet();
+    String launchTemplateName = null;
+
+    try {
+      // Try to find all instances that are not in a terminal state
+      for (Map.Entry<String, Instance> entry : allocationHelper.doFind(template,
+          virtualInstanceIds, Predicates.not(AllocationHelper.INSTANCE_IS_TERMINAL))) {
+        virtualInstanceIdToEC2InstanceIds.put(entry.getKey(), entry.getValue().getInstanceId());
+      }
+
+      if (!virtualInstanceIdToEC2InstanceIds.isEmpty()) {
+        LOG.info("Instances with the following virtual instance IDs were already found allocated: {}",
+            virtualInstanceIdToEC2InstanceIds.keySet());
+      }
+
+      List<String> unallocatedInstanceIds = FluentIterable.from(virtualInstanceIds)
+          .filter(Predicates.not(Predicates.in(virtualInstanceIdToEC2InstanceIds.keySet())))
+          .toSortedSet(Ordering.natural())
+          .asList();
+
+      List<Tag> userDefinedTags = ec2TagHelper.getUserDefinedTags(template);
+      Set<Exception> encounteredExceptions = Sets.newHashSet();
+      Map<String, String> launchedEc2InstanceIds = Maps.newLinkedHashMap();
+
+      if (!unallocatedInstanceIds.isEmpty()) {
+        // Name the launch template after the whole group, sorted, so that retrying the
+        // allocation finds it however many instances were identified before
+        launchTemplateName = LAUNCH_TEMPLATE_NAME_PREFIX + determineClientToken(
+            Ordering.natural().sortedCopy(virtualInstanceIds), (long) virtualInstanceIds.size());
+        try {
+          launchFleet(template, launchTemplateName, unallocatedInstanceIds.size(),
+              virtualInstanceIdToEC2InstanceIds.values(), userDefinedTags, fleetInstanceIds);
+        } catch (AmazonClientException e) {
+          if (e instanceof AmazonServiceException) {
+            invalidateKeyNameIfInvalid(((AmazonServiceException) e).getErrorCode());
+          }
+          LOG.error("Error while requesting EC2 Fleet of {} instance(s). Attempting to proceed.",
+              unallocatedInstanceIds.size());
+          LOG.debug("Exception caught:", e);
+          encounteredExceptions.add(e);
+        }
+
+        List<String> launchedInstanceIds = Lists.newArrayList(fleetInstanceIds);
+        Set<String> orphanedEc2InstanceIds = Sets.newHashSet();
+        for (int i = 0; i < launchedInstanceIds.size(); i++) {
+          if (i < unallocatedInstanceIds.size()) {
+            launchedEc2InstanceIds.put(unallocatedInstanceIds.get(i), launchedInstanceIds.get(i));
+          } else {
+            orphanedEc2InstanceIds.add(launchedInstanceIds.get(i));
+          }
+        }
+        LOG.info("<< EC2 Fleet launched {} of {} instance(s)",
+            launchedInstanceIds.size(), unallocatedInstanceIds.size());
+
+        // Track the launched instances right away, so that they are terminated on failure.
+        // Instances tagged on create are tagged with their identity right away as well, and
+        // their volumes once they have started.
+        virtualInstanceIdToEC2InstanceIds.putAll(launchedEc2InstanceIds);
+        if (!launchedEc2InstanceIds.isEmpty()) {
+          DateTime tagTimeout = DateTime.now().plus(waitUntilFindableMillis);
+          Set<String> taggedVirtualInstanceIds = useTagOnCreate
+              ? tagLaunchedInstances(template, launchedEc2InstanceIds, tagTimeout)
+              : tagInstances(template, userDefinedTags, launchedEc2InstanceIds, tagTimeout);
+          for (Map.Entry<String, String> entry : launchedEc2InstanceIds.entrySet()) {
+            if (!taggedVirtualInstanceIds.contains(entry.getKey())) {
+              LOG.info("<< Instance {} could not be tagged.", entry.getValue());
+              virtualInstanceIdToEC2InstanceIds.remove(entry.getKey());
+              orphanedEc2InstanceIds.add(entry.getValue());
+            }
+          }
+        }
+
+        // Instances that cannot be identified would never be found again
+        terminateUnidentifiedInstances(orphanedEc2InstanceIds);
+      }
+
+      if (virtualInstanceIdToEC2InstanceIds.size() >= minCount) {
+        DateTime timeout = DateTime.now().plus(waitUntilStartedMillis);
+
+        // Wait for all instances together, so that one slow instance does not hold up the others
+        Map<String, InstanceStartOutcome> startOutcomes =
+            allocationHelper.waitUntilInstancesHaveStarted(
+                virtualInstanceIdToEC2InstanceIds.values(), timeout);
+
+        Map<String, String> startedInstances = Maps.newHashMap();
+        for (Map.Entry<String, String> entry : virtualInstanceIdToEC2InstanceIds.entrySet()) {
+          InstanceStartOutcome startOutcome = startOutcomes.get(entry.getValue());
+          if (startOutcome != null && startOutcome.isStarted()) {
+            startedInstances.put(entry.getKey(), entry.getValue());
+          } else {
+            LOG.info("<< Instance {} did not start ({}).", entry.getValue(), startOutcome);
+          }
+        }
+
+        Map<String, Instance> successfulEC2Instances = waitForPrivateIpAddresses(startedInstances);
+
+        // The volumes of instances tagged on create only have the template-level tags so far
+        if (useTagOnCreate) {
+          Map<String, String> startedLaunchedEc2InstanceIds = Maps.newHashMap();
+          for (Map.Entry<String, String> entry : launchedEc2InstanceIds.entrySet()) {
+            if (successfulEC2Instances.containsKey(entry.getKey())) {
+              startedLaunchedEc2InstanceIds.put(entry.getKey(), entry.getValue());
+            }
+          }
+          tagLaunchedVolumes(template, startedLaunchedEc2InstanceIds,
+              DateTime.now().plus(waitUntilFindableMillis));
+        }
+
+        if (successfulEC2Instances.size() >= minCount) {
+          success = true;
+
+          List<EC2Instance> result = Lists.newArrayListWithCapacity(successfulEC2Instances.size());
+          for (Map.Entry<String, Instance> entry : successfulEC2Instances.entrySet()) {
+            result.add(allocationHelper.createInstance(template, entry.getKey(), entry.getValue()));
+          }
+          return result;
+        }
+
+        LOG.error("Only {} of {} instances started, fewer than the minimum of {}.",
+            successfulEC2Instances.size(), virtualInstanceIds.size(), minCount);
+      }
+
+      AWSExceptions.propagate("Problem allocating EC2 Fleet instances",
+          encounteredExceptions, Collections.emptySet(), template);
+
+      return Collections.emptySet();
+    } catch (InterruptedException | UnrecoverableProviderException | TransientProviderException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new UnrecoverableProviderException("Unexpected problem during instance allocation", e);
+    } finally {
+      if (!success) {
+        LOG.error("Unsuccessful allocation of EC2 Fleet instances. Terminating instances.");
+
+        try {
+          Set<String> ec2InstanceIds = Sets.newHashSet(virtualInstanceIdToEC2InstanceIds.values());
+          ec2InstanceIds.addAll(fleetInstanceIds);
+          allocationHelper.doDelete(ec2InstanceIds);
+        } catch (InterruptedException e) {
+          //noinspection ThrowFromFinallyBlock
+          throw e;
+        } catch (Exception e) {
+          LOG.error("Error while trying to delete instances after failed instance allocation.", e);
+        }
+      }
+
+      // Every launched instance is now either identified or terminated
+      if (launchTemplateName != null) {
+        deleteLaunchTemplate(launchTemplateName);
+      }
+    }
+  }
+
+  /**
+   * Launches the specified number of instances with a one-time EC2 Fleet request, and waits
+   * until the fleet has launched them all or the request duration has passed. The fleet is
+   * deleted afterwards, leaving the instances running. If the launch template is left behind
+   * by an earlier attempt at the same allocation, the instances launched from it that are not
+   * identified yet count towards the number of instances, and the fleet only launches the rest.
+   *
+   * @param template                 the instance template
+   * @param launchTemplateName       the name of the launch template
+   * @param instanceCount            the number of instances
+   * @param identifiedEc2InstanceIds the IDs of the instances already identified
+   * @param userDefinedTags          the user-defined tags
+   * @param ec2InstanceIds           the set to which the IDs of the launched instances are
+   *                                 added, in the order in which the fleet reports them
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private void launchFleet(EC2InstanceTemplate template, String launchTemplateName,
+      int instanceCount, Collection<String> identifiedEc2InstanceIds, List<Tag> userDefinedTags,
+      Set<String> ec2InstanceIds) throws InterruptedException {
+
+    DateTime deadline = DateTime.now().plus(requestDurationMillis);
+
+    int generation = 0;
+    String launchTemplateId = createLaunchTemplate(launchTemplateName,
+        newRequestLaunchTemplateData(template, userDefinedTags));
+    if (launchTemplateId == null) {
+      launchTemplateId = describeLaunchTemplateId(launchTemplateName);
+      generation = recoverFleets(launchTemplateId, ec2InstanceIds);
+      ec2InstanceIds.removeAll(identifiedEc2InstanceIds);
+      LOG.info("<< Recovered {} instance(s) launched from launch template {}",
+          ec2InstanceIds.size(), launchTemplateName);
+    }
+
+    int fleetInstanceCount = instanceCount - ec2InstanceIds.size();
+    if (fleetInstanceCount <= 0) {
+      return;
+    }
+    if (generation >= MAX_FLEET_GENERATIONS) {
+      LOG.warn("Not requesting EC2 Fleet from launch template {} again, after {} requests.",
+          launchTemplateName, MAX_FLEET_GENERATIONS);
+      return;
+    }
+
+    CreateFleetResult result = client.createFleet(newCreateFleetRequest(template,
+        launchTemplateName, determineFleetClientToken(launchTemplateId, generation),
+        fleetInstanceCount, deadline.toDate()));
+    String fleetId = result.getFleetId();
+    LOG.info("<< EC2 Fleet {} requested for {} instance(s)", fleetId, fleetInstanceCount);
+
+    try {
+      while (true) {
+        collectFleetInstances(fleetId, ec2InstanceIds, deadline);
+        if (ec2InstanceIds.size() >= instanceCount || !DateTime.now().isBefore(deadline)) {
+          break;
+        }
+        LOG.info(">> Waiting for EC2 Fleet {}, {} of {} instance(s) launched",
+            fleetId, ec2InstanceIds.size(), instanceCount);
+        TimeUnit.MILLISECONDS.sleep(instancePollDurationMillis);
+      }
+    } finally {
+      deleteFleet(fleetId);
+    }
+
+    // Pick up any instance launched between the last poll and the deletion of the fleet
+    collectFleetInstances(fleetId, ec2InstanceIds, DateTime.now().plus(waitUntilFindableMillis));
+  }
+
+  /**
+   * Determines the idempotency client token of the fleet of the specified generation requested
+   * from the specified launch template. Launch template IDs are never reused, so fleets
+   * requested from different launch templates never share a token.
+   *
+   * @param launchTemplateId the launch template ID
+   * @param generation       the number of fleets requested from the launch template before
+   * @return the idempotency token
+   */
+  @VisibleForTesting
+  String determineFleetClientToken(String launchTemplateId, int generation) {
+    return determineClientToken(launchTemplateId, (long) generation);
+  }
+
+  /**
+   * Recovers the fleets requested from the specified launch template by earlier attempts at
+   * the same allocation. The fleets are deleted, so that they stop launching instances, and
+   * the IDs of the instances launched from the launch template that are not in a terminal
+   * state are added to the specified set.
+   *
+   * @param launchTemplateId the launch template ID
+   * @param ec2InstanceIds   the set to which the IDs of the recovered instances are added
+   * @return the generation of the next fleet to request from the launch template
+   */
+  @VisibleForTesting
+  int recoverFleets(String launchTemplateId, Set<String> ec2InstanceIds) {
+    Map<String, Integer> generationsByClientToken = Maps.newHashMap();
+    for (int generation = 0; generation < MAX_FLEET_GENERATIONS; generation++) {
+      generationsByClientToken.put(
+          determineFleetClientToken(launchTemplateId, generation), generation);
+    }
+
+    int nextGeneration = 0;
+    String nextToken = null;
+    do {
+      DescribeFleetsResult result = client.describeFleets(new DescribeFleetsRequest()
+          .withNextToken(nextToken));
+      for (FleetData fleet : result.getFleets()) {
+        Integer generation = generationsByClientToken.get(fleet.getClientToken());
+        if (generation == null) {
+          continue;
+        }
+        nextGeneration = Math.max(nextGeneration, generation + 1);
+        if (!DELETED_FLEET_STATES.contains(fleet.getFleetState())) {
+          deleteFleet(fleet.getFleetId());
+        }
+      }
+      nextToken = result.getNextToken();
+    } while (nextToken != null);
+
+    DescribeInstancesResult result = client.describeInstances(new DescribeInstancesRequest()
+        .withFilters(new Filter()
+            .withName(LAUNCH_TEMPLATE_ID_TAG_FILTER)
+            .withValues(launchTemplateId)));
+    allocationHelper.forEachInstance(result, instance -> {
+      if (!AllocationHelper.INSTANCE_IS_TERMINAL.apply(instance)) {
+        ec2InstanceIds.add(instance.getInstanceId());
+      }
+      return null;
+    });
+    return nextGeneration;
+  }
+
+  /**
+   * Adds the IDs of the instances launched by the specified fleet to the specified set.
+   *
+   * @param fleetId        the fleet ID
+   * @param ec2InstanceIds the set to which the instance IDs are added
+   * @param timeout        the time point of timeout for the fleet to be findable
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private void collectFleetInstances(String fleetId, Set<String> ec2InstanceIds,
+      DateTime timeout) throws InterruptedException {
+    String nextToken = null;
+    do {
+      DescribeFleetInstancesRequest request = new DescribeFleetInstancesRequest()
+          .withFleetId(fleetId)
+          .withNextToken(nextToken);
+      DescribeFleetInstancesResult result;
+      try {
+        result = retryUntil(() -> client.describeFleetInstances(request), timeout);
+      } catch (RetryException e) {
+        LOG.warn("timeout describing EC2 Fleet {}", fleetId);
+        return;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof AmazonClientException) {
+          throw (AmazonClientException) e.getCause();
+        }
+        throw new UnrecoverableProviderException(e.getCause());
+      }
+
+      for (ActiveInstance activeInstance : result.getActiveInstances()) {
+        ec2InstanceIds.add(activeInstance.getInstanceId());
+      }
+      nextToken = result.getNextToken();
+    } while (nextToken != null);
+  }
+
+  /**
+   * Builds a {@code CreateFleetRequest} for a one-time fleet of the specified number of
+   * instances. The fleet requests every combination of the configured instance types and
+   * subnets, so that it can fall back on other capacity pools when one is exhausted.
+   *
+   * @param template           the instance template
+   * @param launchTemplateName the name of the launch template
+   * @param clientToken        the idempotency token
+   * @param instanceCount      the number of instances
+   * @param validUntil         the time until which the fleet tries to launch instances
+   * @return the create fleet request
+   */
+  @VisibleForTesting
+  CreateFleetRequest newCreateFleetRequest(EC2InstanceTemplate template,
+      String launchTemplateName, String clientToken, int instanceCount, Date validUntil) {
+
+    int defaultOnDemandCount = template.isUseSpotInstances() ? 0 : instanceCount;
+    int onDemandCount =
+        Math.min(instanceCount, template.getFleetOnDemandBaseCapacity().or(defaultOnDemandCount));
+    int spotCount = instanceCount - onDemandCount;
+
+    TargetCapacitySpecificationRequest targetCapacity = new TargetCapacitySpecificationRequest()
+        .withTotalTargetCapacity(instanceCount)
+        .withOnDemandTargetCapacity(onDemandCount)
+        .withSpotTargetCapacity(spotCount)
+        .withDefaultTargetCapacityType((spotCount > 0)
+            ? DefaultTargetCapacityType.Spot
+            : DefaultTargetCapacityType.OnDemand);
+
+    Set<String> instanceTypes = Sets.newLinkedHashSet();
+    instanceTypes.add(template.getType());
+    instanceTypes.addAll(template.getFleetInstanceTypes());
+    Set<String> subnetIds = Sets.newLinkedHashSet();
+    subnetIds.add(template.getSubnetId());
+    subnetIds.addAll(template.getFleetSubnetIds());
+
+    List<FleetLaunchTemplateOverridesRequest> overrides =
+        Lists.newArrayListWithCapacity(instanceTypes.size() * subnetIds.size());
+    for (String instanceType : instanceTypes) {
+      for (String subnetId : subnetIds) {
+        FleetLaunchTemplateOverridesRequest override = new FleetLaunchTemplateOverridesRequest()
+            .withInstanceType(instanceType)
+            .withSubnetId(subnetId);
+        if (template.getSpotPriceUSDPerHour().isPresent()) {
+          override.withMaxPrice(template.getSpotPriceUSDPerHour().get().toString());
+        }
+        overrides.add(override);
+      }
+    }
+
+    FleetLaunchTemplateConfigRequest launchTemplateConfig = new FleetLaunchTemplateConfigRequest()
+        .withLaunchTemplateSpecification(new FleetLaunchTemplateSpecificationRequest()
+            .withLaunchTemplateName(launchTemplateName)
+            .withVersion(LAUNCH_TEMPLATE_VERSION))
+        .withOverrides(overrides);
+
+    // Diversify the Spot Instances, so that one exhausted capacity pool does not hold up
+    // a large group
+    SpotOptionsRequest spotOptions = new SpotOptionsRequest()
+        .withAllocationStrategy(SpotAllocationStrategy.Diversified)
+        .withInstanceInterruptionBehavior(SpotInstanceInterruptionBehavior.Terminate);
+
+    return new CreateFleetRequest()
+        .withClientToken(clientToken)
+        .withType(FleetType.Request)
+        .withLaunchTemplateConfigs(launchTemplateConfig)
+        .withTargetCapacitySpecification(targetCapacity)
+        .withSpotOptions(spotOptions)
+        .withExcessCapacityTerminationPolicy(FleetExcessCapacityTerminationPolicy.NoTermination)
+        .withTerminateInstancesWithExpiration(false)
+        .withReplaceUnhealthyInstances(false)
+        .withValidUntil(validUntil);
+  }
+
+  /**
+   * Builds the launch template data for a fleet. The network interface does not specify a
+   * subnet, since the fleet overrides choose the subnet of each instance.
+   *
+   * @param template        the instance template
+   * @param userDefinedTags the user-defined tags
+   * @return the request launch template data
+   */
+  private RequestLaunchTemplateData newRequestLaunchTemplateData(EC2InstanceTemplate template,
+      List<Tag> userDefinedTags) {
+    LaunchTemplateInstanceNetworkInterfaceSpecificationRequest network =
+        new LaunchTemplateInstanceNetworkInterfaceSpecificationRequest()
+            .withDeviceIndex(0)
+            .withGroups(template.getSecurityGroupIds())
+            .withDeleteOnTermination(true)
+            .withAssociatePublicIpAddress(allocationHelper.isAssociatePublicIpAddresses());
+
+    RequestLaunchTemplateData launchTemplateData = LaunchTemplates.newRequestLaunchTemplateData(
+        template, allocationHelper.getBlockDeviceMappings(template), network);
+
+    if (template.getPlacementGroup().isPresent()) {
+      launchTemplateData.getPlacement().withGroupName(template.getPlacementGroup().get());
+    }
+
+    if (useTagOnCreate) {
+      // Only the tags shared by every instance can be applied on create
+      List<Tag> templateTags = Lists.newArrayList(userDefinedTags);
+      templateTags.add(ec2TagHelper.createClouderaDirectorTemplateNameTag(template.getName()));
+      launchTemplateData.withTagSpecifications(
+          new LaunchTemplateTagSpecificationRequest()
+              .withResourceType(ResourceType.Instance)
+              .withTags(templateTags),
+          new LaunchTemplateTagSpecificationRequest()
+              .withResourceType(ResourceType.Volume)
+              .withTags(templateTags));
+    }
+
+    return launchTemplateData;
+  }
+
+  /**
+   * Creates a launch template, unless a previous attempt at the same allocation left it
+   * behind.
+   *
+   * @param launchTemplateName the launch template name
+   * @param launchTemplateData the launch template data
+   * @return the ID of the created launch template, or {@code null} if it already exists
+   */
+  private String createLaunchTemplate(String launchTemplateName,
+      RequestLaunchTemplateData launchTemplateData) {
+    LOG.info(">> Creating launch template: {}", launchTemplateName);
+    try {
+      return client.createLaunchTemplate(new CreateLaunchTemplateRequest()
+          .withLaunchTemplateName(launchTemplateName)
+          .withLaunchTemplateData(launchTemplateData))
+          .getLaunchTemplate()
+          .getLaunchTemplateId();
+    } catch (AmazonServiceException e) {
+      if (!LAUNCH_TEMPLATE_ALREADY_EXISTS_EXCEPTION.equals(e.getErrorCode())) {
+        throw e;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Returns the ID of an existing launch template.
+   *
+   * @param launchTemplateName the launch template name
+   * @return the launch template ID
+   */
+  private String describeLaunchTemplateId(String launchTemplateName) {
+    return Iterables.getOnlyElement(client.describeLaunchTemplates(
+        new DescribeLaunchTemplatesRequest().withLaunchTemplateNames(launchTemplateName))
+        .getLaunchTemplates())
+        .getLaunchTemplateId();
+  }
+
+  /**
+   * Deletes a launch template. Failures are logged and otherwise ignored, since the launch
+   * template does not affect the instances.
+   *
+   * @param launchTemplateName the launch template name
+   */
+  private void deleteLaunchTemplate(String launchTemplateName) {
+    try {
+      client.deleteLaunchTemplate(new DeleteLaunchTemplateRequest()
+          .withLaunchTemplateName(launchTemplateName));
+    } catch (AmazonClientException e) {
+      if (!isAmazonServiceException(e, LAUNCH_TEMPLATE_NOT_FOUND_EXCEPTION)) {
+        LOG.warn("Unable to delete launch template {}", launchTemplateName, e);
+      }
+    }
+  }
+
+  /**
+   * Deletes a fleet without terminating its instances, so that it stops launching instances.
+   * Failures are logged and otherwise ignored, since the fleet stops by itself once its
+   * request expires.
+   *
+   * @param fleetId the fleet ID
+   */
+  private void deleteFleet(String fleetId) {
+    LOG.info(">> Deleting EC2 Fleet {}", fleetId);
+    try {
+      DeleteFleetsResult result = client.deleteFleets(new DeleteFleetsRequest()
+          .withFleetIds(fleetId)
+          .withTerminateInstances(false));
+      for (DeleteFleetErrorItem error : result.getUnsuccessfulFleetDeletions()) {
+        LOG.warn("Unable to delete EC2 Fleet {}: {}", error.getFleetId(), error.getError());
+      }
+    } catch (AmazonClientException e) {
+      LOG.warn("Unable to delete EC2 Fleet {}", fleetId, e);
+    }
+  }
+}
@@ -21,10 +21,12 @@ import static com.google.common.collect.Iterables.getOnlyElement;
 import static java.util.Objects.requireNonNull;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
 import com.amazonaws.services.ec2.model.BlockDeviceMapping;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.IamInstanceProfileSpecification;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceNetworkInterfaceSpecification;
@@ -42,18 +44,24 @@ import com.cloudera.director.aws.ec2.EC2Instance;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
 import com.cloudera.director.aws.ec2.allocation.AbstractInstanceAllocator;
 import com.cloudera.director.aws.ec2.allocation.AllocationHelper;
+import com.cloudera.director.aws.ec2.allocation.InstanceStartOutcome;
+import com.cloudera.director.aws.ec2.allocation.SubmissionWindow;
 import com.cloudera.director.spi.v2.model.exception.TransientProviderException;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
+import com.google.common.collect.Collections2;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.google.common.math.IntMath;
 
+import java.math.RoundingMode;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -62,8 +70,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -86,6 +92,44 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
         return instance.getInstanceId();
       };
 
+  /**
+   * The maximum number of instances launched by a single {@code RunInstances} request when
+   * tagging on create.
+   */
+  @VisibleForTesting
+  static final int RUN_INSTANCES_GROUP_SIZE = 100;
+
+  /**
+   * The maximum number of idempotency tokens used for a group of instances, across attempts
+   * to allocate it.
+   */
+  @VisibleForTesting
+  static final int MAX_CLIENT_TOKEN_GENERATIONS = 5;
+
+  /**
+   * The filter matching instances by the idempotency token they were launched with.
+   */
+  private static final String CLIENT_TOKEN_FILTER = "client-token";
+
+  /**
+   * The maximum number of values of a {@code DescribeInstances} filter.
+   */
+  private static final int MAX_FILTER_VALUES = 200;
+
+  /**
+   * A group of virtual instance IDs launched by a single {@code RunInstances} request.
+   */
+  private static final class InstanceGroup {
+
+    private final List<String> virtualInstanceIds;
+    private final String clientToken;
+
+    private InstanceGroup(List<String> virtualInstanceIds, String clientToken) {
+      this.virtualInstanceIds = virtualInstanceIds;
+      this.clientToken = clientToken;
+    }
+  }
+
   private final boolean useTagOnCreate;
 
   public OnDemandAllocator(AllocationHelper allocationHelper,
@@ -128,6 +172,9 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
     boolean success = false;
     Map<String, Instance> virtualInstanceIdToInstances = Maps.newHashMapWithExpectedSize(virtualInstanceIds.size());
     Map<String, Instance> unsuccessfulInstances = Maps.newHashMap();
+    // Filled as each group of instances is launched, so that they are terminated on failure
+    Map<String, Instance> launchedInstances = Maps.newHashMap();
+    Set<String> orphanedEc2InstanceIds = Sets.newHashSet();
 
     try {
       // Try to find all instances that are not in a terminal state
@@ -154,42 +201,33 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
       LOG.info(">> Building {} instance requests", unallocatedInstanceIds.size());
 
       Set<Exception> encounteredExceptions = Sets.newHashSet();
+      Map<String, String> launchedEc2InstanceIds = Maps.newHashMap();
 
       if (useTagOnCreate) {
-        Map<String, Future<RunInstancesResult>> runInstanceRequests = Maps.newHashMap();
-        for (String virtualInstanceId : unallocatedInstanceIds) {
-          runInstanceRequests.put(virtualInstanceId, client.runInstancesAsync(
-              newRunInstancesRequest(template, virtualInstanceId, userDefinedTags)));
-        }
-
-        LOG.info(">> Submitted {} run instance requests.", runInstanceRequests.size());
-
-        // Map of encountered AWS exceptions where key is the AWS error code, which we may propagate
-        // later. It should be sufficient to just keep track of one exception per error code.
-
-        for (Map.Entry<String, Future<RunInstancesResult>> runInstanceRequest : runInstanceRequests.entrySet()) {
-          String virtualInstanceId = runInstanceRequest.getKey();
-          try {
-            RunInstancesResult result = runInstanceRequest.getValue().get();
-            runInstancesResults.add(result);
-            virtualInstanceIdToInstances.put(
-                virtualInstanceId,
-                getOnlyElement(result.getReservation().getInstances()));
-
-          } catch (ExecutionException e) {
-            if (e.getCause() instanceof AmazonServiceException) {
-              AmazonServiceException awsException = (AmazonServiceException) e.getCause();
-              LOG.error("AWS error while requesting instance {}, AWS error code: {}",
-                  virtualInstanceId, awsException.getErrorCode());
-              encounteredExceptions.add(awsException);
-            } else {
-              LOG.error("Error while requesting instance {}. Attempting to proceed.", virtualInstanceId);
-              encounteredExceptions.add(e);
-            }
-
-            LOG.debug("Exception caught:", e);
+        // Launch the instances in groups tagged on create with the template-level tags. Each
+        // instance is tagged with its own identity right after the launch, and until then it
+        // can be recovered through the idempotency token of its group.
+        runInstanceGroups(template, virtualInstanceIds, minCount, userDefinedTags,
+            virtualInstanceIdToInstances, runInstancesResults, encounteredExceptions,
+            launchedInstances, orphanedEc2InstanceIds);
+
+        // Instances that cannot be identified would never be found again
+        Set<String> taggedVirtualInstanceIds = tagLaunchedInstances(template,
+            Maps.transformValues(launchedInstances, INSTANCE_TO_INSTANCE_ID),
+            DateTime.now().plus(waitUntilFindableMillis));
+        Set<String> unidentifiedEc2InstanceIds = Sets.newHashSet(orphanedEc2InstanceIds);
+        for (Map.Entry<String, Instance> entry : launchedInstances.entrySet()) {
+          String virtualInstanceId = entry.getKey();
+          String ec2InstanceId = entry.getValue().getInstanceId();
+          if (taggedVirtualInstanceIds.contains(virtualInstanceId)) {
+            virtualInstanceIdToInstances.put(virtualInstanceId, entry.getValue());
+            launchedEc2InstanceIds.put(virtualInstanceId, ec2InstanceId);
+          } else {
+            LOG.info("<< Instance {} could not be tagged.", ec2InstanceId);
+            unidentifiedEc2InstanceIds.add(ec2InstanceId);
           }
         }
+        terminateUnidentifiedInstances(unidentifiedEc2InstanceIds);
 
         if (LOG.isInfoEnabled()) {
           for (RunInstancesResult runInstancesResult : runInstancesResults) {
@@ -207,6 +245,7 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
           runInstancesResult = client.runInstances(
               newRunInstanceRequestBulkNoTagOnCreate(template, virtualInstanceIds, normalizedMinCount));
         } catch (AmazonServiceException e) {
+          invalidateKeyNameIfInvalid(e.getErrorCode());
           AWSExceptions.propagateIfUnrecoverable(e);
 
           // As documented at http://docs.aws.amazon.com/AWSEC2/latest/UserGuide/instance-capacity.html
@@ -230,19 +269,24 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
             .toList();
 
 
+        Map<String, Instance> instancesToTag = Maps.newLinkedHashMap();
+        Map<String, String> ec2InstanceIdsToTag = Maps.newLinkedHashMap();
         for (Map.Entry<String, Instance> entry : zipWith(virtualInstanceIdsAllocated, instances)) {
+          instancesToTag.put(entry.getKey(), entry.getValue());
+          ec2InstanceIdsToTag.put(entry.getKey(), entry.getValue().getInstanceId());
+        }
 
+        Set<String> taggedVirtualInstanceIds = tagInstances(template, userDefinedTags,
+            ec2InstanceIdsToTag, DateTime.now().plus(waitUntilFindableMillis));
+        for (Map.Entry<String, Instance> entry : instancesToTag.entrySet()) {
           String virtualInstanceId = entry.getKey();
           Instance instance = entry.getValue();
-          String ec2InstanceId = instance.getInstanceId();
-
-          if (tagInstance(template, userDefinedTags, virtualInstanceId, ec2InstanceId,
-              DateTime.now().plus(waitUntilFindableMillis))) {
+          if (taggedVirtualInstanceIds.contains(virtualInstanceId)) {
             virtualInstanceIdToInstances.put(virtualInstanceId,
                 instance.withTags(ec2TagHelper.getInstanceTags(template, virtualInstanceId, userDefinedTags)));
           } else {
             unsuccessfulInstances.put(virtualInstanceId, instance);
-            LOG.info("<< Instance {} could not be tagged.", ec2InstanceId);
+            LOG.info("<< Instance {} could not be tagged.", instance.getInstanceId());
           }
         }
       }
@@ -257,8 +301,16 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
         Map<String, String> ec2InstancesWithNoPrivateIp = Maps.newHashMap();
         DateTime timeout = DateTime.now().plus(waitUntilStartedMillis);
 
+        // Wait for all instances together, so that one slow instance does not hold up the others
+        Map<String, InstanceStartOutcome> startOutcomes = allocationHelper.waitUntilInstancesHaveStarted(
+            FluentIterable.from(virtualInstanceIdToInstances.values())
+                .transform(INSTANCE_TO_INSTANCE_ID)
+                .toList(),
+            timeout);
+
         for (Map.Entry<String, Instance> vIdToInstance : virtualInstanceIdToInstances.entrySet()) {
-          if (allocationHelper.waitUntilInstanceHasStarted(vIdToInstance.getValue().getInstanceId(), timeout)) {
+          InstanceStartOutcome startOutcome = startOutcomes.get(vIdToInstance.getValue().getInstanceId());
+          if (startOutcome != null && startOutcome.isStarted()) {
             if (vIdToInstance.getValue().getPrivateIpAddress() == null) {
               ec2InstancesWithNoPrivateIp.put(vIdToInstance.getKey(), vIdToInstance.getValue().getInstanceId());
             } else {
@@ -268,13 +320,28 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
                   vIdToInstance.getValue().getPrivateIpAddress());
             }
           } else {
-            LOG.info("<< Instance {} did not start.", vIdToInstance.getValue().getInstanceId());
+            LOG.info("<< Instance {} did not start ({}).", vIdToInstance.getValue().getInstanceId(), startOutcome);
           }
         }
 
         // Wait until all of them have a private IP (it should be pretty fast)
         successfulEC2Instances.putAll(waitForPrivateIpAddresses(ec2InstancesWithNoPrivateIp));
 
+        // The volumes of instances launched in groups only have the template-level tags so
+        // far, and could not be tagged before the instances started
+        Map<String, String> startedLaunchedEc2InstanceIds = Maps.newHashMap();
+        for (Map.Entry<String, String> entry : launchedEc2InstanceIds.entrySet()) {
+          String virtualInstanceId = entry.getKey();
+          Instance instance = successfulEC2Instances.get(virtualInstanceId);
+          if (instance != null) {
+            startedLaunchedEc2InstanceIds.put(virtualInstanceId, entry.getValue());
+            successfulEC2Instances.put(virtualInstanceId, instance.withTags(
+                ec2TagHelper.getInstanceTags(template, virtualInstanceId, userDefinedTags)));
+          }
+        }
+        tagLaunchedVolumes(template, startedLaunchedEc2InstanceIds,
+            DateTime.now().plus(waitUntilFindableMillis));
+
         for (Map.Entry<String, Instance> entry : virtualInstanceIdToInstances.entrySet()) {
           String vid = entry.getKey();
           Instance instance = entry.getValue();
@@ -317,10 +384,11 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
         LOG.error("Unsuccessful allocation of on demand instances. Terminating instances.");
 
         try {
-          Collection<String> ec2InstanceIds = FluentIterable
-              .from(virtualInstanceIdToInstances.values())
-              .transform(INSTANCE_TO_INSTANCE_ID)
-              .toList();
+          Set<String> ec2InstanceIds = Sets.newHashSet(orphanedEc2InstanceIds);
+          ec2InstanceIds.addAll(Collections2.transform(
+              virtualInstanceIdToInstances.values(), INSTANCE_TO_INSTANCE_ID));
+          ec2InstanceIds.addAll(Collections2.transform(
+              launchedInstances.values(), INSTANCE_TO_INSTANCE_ID));
           allocationHelper.doDelete(ec2InstanceIds);
         } catch (InterruptedException e) {
           //noinspection ThrowFromFinallyBlock
@@ -334,27 +402,310 @@ public class OnDemandAllocator extends AbstractInstanceAllocator {
 
 
   /**
-   * Builds a {@code RunInstancesRequest} starting from a template and a virtual instance ID.
-   * Instances will be tagged as they're created.
+   * Launches the instances that have not been allocated yet in groups of at most
+   * {@link #RUN_INSTANCES_GROUP_SIZE}, with one {@code RunInstances} request per group. The
+   * groups partition all the requested virtual instance IDs, whether allocated or not, so
+   * that they and their idempotency tokens are the same each time the allocation is retried.
+   * Instances launched by an earlier attempt that were never tagged with their identity are
+   * recovered through their tokens first, and only the rest are launched. The requests are
+   * submitted through a congestion-controlled window, and submission stops once the minimum
+   * count can no longer be reached. The launched instances are added to the specified map
+   * as each request completes, so that they are known to the caller even if submission fails.
    *
-   * @param template          the instance template
-   * @param virtualInstanceId the virtual instance ID
-   * @param userDefinedTags   user defined tags to attach to the instance
+   * @param template              the instance template
+   * @param virtualInstanceIds    the virtual instance IDs
+   * @param minCount              the minimum number of instances to allocate
+   * @param userDefinedTags       the user-defined tags
+   * @param allocatedInstances    the instances already allocated, by virtual instance ID
+   * @param runInstancesResults   the list to which the results of the requests are added
+   * @param encounteredExceptions the set to which the errors of the requests are added
+   * @param launchedInstances     the map to which the launched and recovered instances are
+   *                              added, by virtual instance ID
+   * @param orphanedEc2InstanceIds the set to which the IDs of launched instances that do not
+   *                              match any virtual instance ID are added
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private void runInstanceGroups(EC2InstanceTemplate template,
+      Collection<String> virtualInstanceIds, int minCount, List<Tag> userDefinedTags,
+      Map<String, Instance> allocatedInstances, List<RunInstancesResult> runInstancesResults,
+      Set<Exception> encounteredExceptions, Map<String, Instance> launchedInstances,
+      Set<String> orphanedEc2InstanceIds)
+      throws InterruptedException {
+
+    List<InstanceGroup> groups = reconcileInstanceGroups(
+        groupInstanceIds(virtualInstanceIds, RUN_INSTANCES_GROUP_SIZE), allocatedInstances,
+        launchedInstances, orphanedEc2InstanceIds);
+    if (!launchedInstances.isEmpty()) {
+      LOG.info("Instances with the following virtual instance IDs were recovered from an" +
+          " earlier request: {}", launchedInstances.keySet());
+    }
+
+    int remainingMinCount =
+        Math.max(0, minCount - allocatedInstances.size() - launchedInstances.size());
+    int minSuccessfulGroups =
+        IntMath.divide(remainingMinCount, RUN_INSTANCES_GROUP_SIZE, RoundingMode.CEILING);
+
+    // Only the tags shared by every instance can be applied on create
+    List<Tag> templateTags = Lists.newArrayList(userDefinedTags);
+    templateTags.add(ec2TagHelper.createClouderaDirectorTemplateNameTag(template.getName()));
+
+    LOG.info(">> Requesting instances in {} group(s)", groups.size());
+
+    SubmissionWindow submissionWindow = new SubmissionWindow();
+    boolean allSubmitted = submissionWindow.submitAll(
+        groups,
+        minSuccessfulGroups,
+        (InstanceGroup group, AsyncHandler<RunInstancesRequest, RunInstancesResult> handler) ->
+            client.runInstancesAsync(newRunInstancesRequest(template, group.virtualInstanceIds,
+                group.clientToken, templateTags), handler),
+        new SubmissionWindow.CompletionHandler<InstanceGroup, RunInstancesResult>() {
+          @Override
+          public void onSuccess(InstanceGroup group, RunInstancesResult result) {
+            runInstancesResults.add(result);
+            List<Instance> instances = sortByLaunchIndex(result.getReservation().getInstances());
+            for (int i = 0; i < instances.size(); i++) {
+              Instance instance = instances.get(i);
+              if (i < group.virtualInstanceIds.size()) {
+                launchedInstances.put(group.virtualInstanceIds.get(i), instance);
+              } else {
+                orphanedEc2InstanceIds.add(instance.getInstanceId());
+              }
+            }
+          }
+
+          @Override
+          public void onError(InstanceGroup group, Exception e) {
+            if (e instanceof AmazonServiceException) {
+              AmazonServiceException awsException = (AmazonServiceException) e;
+              LOG.error("AWS error while requesting {} instance(s), AWS error code: {}",
+                  group.virtualInstanceIds.size(), awsException.getErrorCode());
+              invalidateKeyNameIfInvalid(awsException.getErrorCode());
+            } else {
+              LOG.error("Error while requesting {} instance(s). Attempting to proceed.",
+                  group.virtualInstanceIds.size());
+            }
+            encounteredExceptions.add(e);
+
+            LOG.debug("Exception caught:", e);
+          }
+        });
+
+    LOG.info("<< {} of {} instance groups succeeded{}.", runInstancesResults.size(),
+        groups.size(), allSubmitted ? "" : " before submission stopped");
+  }
+
+  /**
+   * Recovers the instances launched for the specified groups by earlier allocation attempts,
+   * and returns the requests to make for the virtual instance IDs that are still unallocated.
+   * Each group has a sequence of idempotency tokens. A token is used by a single request, so
+   * once some instances were launched with it, whether they are still alive or not, the
+   * group moves on to its next token. The instances launched with the tokens of all the
+   * groups are looked up together, one generation of tokens at a time.
+   *
+   * @param groups                 the groups of virtual instance IDs
+   * @param allocatedInstances     the instances already allocated, by virtual instance ID
+   * @param recoveredInstances     the map to which the recovered instances are added, by
+   *                               virtual instance ID
+   * @param orphanedEc2InstanceIds the set to which the IDs of recovered instances that do not
+   *                               match any virtual instance ID are added
+   * @return the groups of virtual instance IDs to launch, with their idempotency tokens
+   */
+  private List<InstanceGroup> reconcileInstanceGroups(List<List<String>> groups,
+      Map<String, Instance> allocatedInstances, Map<String, Instance> recoveredInstances,
+      Set<String> orphanedEc2InstanceIds) {
+    String idTagName = ec2TagHelper.getClouderaDirectorIdTagName();
+    List<InstanceGroup> instanceGroups = Lists.newArrayList();
+    Map<List<String>, Integer> generations = Maps.newLinkedHashMap();
+    for (List<String> group : groups) {
+      if (!getUnallocatedInstanceIds(group, allocatedInstances, recoveredInstances).isEmpty()) {
+        generations.put(group, 0);
+      }
+    }
+
+    while (!generations.isEmpty()) {
+      Map<String, List<String>> groupsByClientToken = Maps.newLinkedHashMap();
+      for (Map.Entry<List<String>, Integer> entry : generations.entrySet()) {
+        groupsByClientToken.put(
+            determineClientToken(entry.getKey(), (long) entry.getValue()), entry.getKey());
+      }
+      Map<String, List<Instance>> instancesByClientToken =
+          describeInstancesByClientToken(groupsByClientToken.keySet());
+
+      Map<List<String>, Integer> nextGenerations = Maps.newLinkedHashMap();
+      for (Map.Entry<String, List<String>> entry : groupsByClientToken.entrySet()) {
+        String clientToken = entry.getKey();
+        List<String> group = entry.getValue();
+        List<String> unallocatedInstanceIds =
+            getUnallocatedInstanceIds(group, allocatedInstances, recoveredInstances);
+
+        List<Instance> instances = instancesByClientToken.get(clientToken);
+        if (instances == null) {
+          instanceGroups.add(new InstanceGroup(unallocatedInstanceIds, clientToken));
+          continue;
+        }
+
+        Map<String, Instance> assignedInstances = assignInstances(unallocatedInstanceIds,
+            instances, idTagName, allocatedInstances.keySet(), orphanedEc2InstanceIds);
+        recoveredInstances.putAll(assignedInstances);
+        if (assignedInstances.size() < unallocatedInstanceIds.size()) {
+          int generation = generations.get(group) + 1;
+          if (generation < MAX_CLIENT_TOKEN_GENERATIONS) {
+            nextGenerations.put(group, generation);
+          } else {
+            LOG.warn("Not requesting instances for virtual instance IDs {} again, after {}" +
+                " requests.", unallocatedInstanceIds, MAX_CLIENT_TOKEN_GENERATIONS);
+          }
+        }
+      }
+      generations = nextGenerations;
+    }
+    return instanceGroups;
+  }
+
+  /**
+   * Returns the virtual instance IDs of a group that are neither allocated nor recovered.
+   *
+   * @param group              the virtual instance IDs of the group
+   * @param allocatedInstances the instances already allocated, by virtual instance ID
+   * @param recoveredInstances the instances recovered so far, by virtual instance ID
+   * @return the virtual instance IDs of the group that are neither allocated nor recovered
+   */
+  private static List<String> getUnallocatedInstanceIds(List<String> group,
+      Map<String, Instance> allocatedInstances, Map<String, Instance> recoveredInstances) {
+    return FluentIterable.from(group)
+        .filter(Predicates.not(Predicates.or(
+            Predicates.in(allocatedInstances.keySet()),
+            Predicates.in(recoveredInstances.keySet()))))
+        .toList();
+  }
+
+  /**
+   * Returns the instances launched with the specified idempotency tokens.
+   *
+   * @param clientTokens the idempotency tokens
+   * @return the instances, by idempotency token
+   */
+  private Map<String, List<Instance>> describeInstancesByClientToken(
+      Collection<String> clientTokens) {
+    Map<String, List<Instance>> instancesByClientToken = Maps.newHashMap();
+    for (List<String> chunk : Iterables.partition(clientTokens, MAX_FILTER_VALUES)) {
+      DescribeInstancesResult result = client.describeInstances(new DescribeInstancesRequest()
+          .withFilters(new Filter().withName(CLIENT_TOKEN_FILTER).withValues(chunk)));
+      allocationHelper.forEachInstance(result, instance -> {
+        instancesByClientToken.computeIfAbsent(instance.getClientToken(),
+            t -> Lists.newArrayList()).add(instance);
+        return null;
+      });
+    }
+    return instancesByClientToken;
+  }
+
+  /**
+   * Assigns instances launched for a group by an earlier allocation attempt to the virtual
+   * instance IDs of the group that are still unallocated. An instance already tagged with one
+   * of those IDs is assigned to it, and the instances that are not tagged yet are assigned to
+   * the remaining IDs in launch order. Instances that are terminating are skipped, as are
+   * instances tagged with IDs that are already allocated.
+   *
+   * @param unallocatedInstanceIds      the unallocated virtual instance IDs of the group
+   * @param instances                   the instances launched for the group
+   * @param idTagName                   the name of the tag holding the virtual instance ID
+   * @param allocatedVirtualInstanceIds the virtual instance IDs already allocated
+   * @param orphanedEc2InstanceIds      the set to which the IDs of live instances left over
+   *                                    are added
+   * @return the assigned instances, by virtual instance ID
+   */
+  @VisibleForTesting
+  static Map<String, Instance> assignInstances(List<String> unallocatedInstanceIds,
+      List<Instance> instances, String idTagName, Set<String> allocatedVirtualInstanceIds,
+      Set<String> orphanedEc2InstanceIds) {
+    Map<String, Instance> assignedInstances = Maps.newLinkedHashMap();
+    List<Instance> untaggedInstances = Lists.newArrayList();
+    for (Instance instance : sortByLaunchIndex(instances)) {
+      if (AllocationHelper.INSTANCE_IS_TERMINAL.apply(instance)) {
+        continue;
+      }
+      String virtualInstanceId = null;
+      for (Tag tag : instance.getTags()) {
+        if (idTagName.equals(tag.getKey())) {
+          virtualInstanceId = tag.getValue();
+        }
+      }
+      if (virtualInstanceId == null) {
+        untaggedInstances.add(instance);
+      } else if (unallocatedInstanceIds.contains(virtualInstanceId)) {
+        assignedInstances.put(virtualInstanceId, instance);
+      } else if (!allocatedVirtualInstanceIds.contains(virtualInstanceId)) {
+        orphanedEc2InstanceIds.add(instance.getInstanceId());
+      }
+    }
+
+    Iterator<Instance> untaggedIterator = untaggedInstances.iterator();
+    for (String virtualInstanceId : unallocatedInstanceIds) {
+      if (untaggedIterator.hasNext() && !assignedInstances.containsKey(virtualInstanceId)) {
+        assignedInstances.put(virtualInstanceId, untaggedIterator.next());
+      }
+    }
+    while (untaggedIterator.hasNext()) {
+      orphanedEc2InstanceIds.add(untaggedIterator.next().getInstanceId());
+    }
+    return assignedInstances;
+  }
+
+  /**
+   * Splits the virtual instance IDs into groups of at most the specified size. The IDs are
+   * sorted first, so that retrying an allocation produces the same groups, and therefore the
+   * same idempotency tokens.
+   *
+   * @param virtualInstanceIds the virtual instance IDs
+   * @param groupSize          the maximum size of a group
+   * @return the groups of virtual instance IDs
+   */
+  @VisibleForTesting
+  static List<List<String>> groupInstanceIds(Collection<String> virtualInstanceIds,
+      int groupSize) {
+    List<String> sortedInstanceIds = FluentIterable.from(virtualInstanceIds)
+        .toSortedSet(Ordering.natural())
+        .asList();
+    return Lists.partition(sortedInstanceIds, groupSize);
+  }
+
+  /**
+   * Returns the specified instances ordered by launch index, which is the order in which the
+   * instances of a reservation were requested.
+   *
+   * @param instances the instances of a reservation
+   * @return the instances ordered by launch index
+   */
+  @VisibleForTesting
+  static List<Instance> sortByLaunchIndex(List<Instance> instances) {
+    return Ordering.<Integer>natural().nullsLast().onResultOf(Instance::getAmiLaunchIndex)
+        .sortedCopy(instances);
+  }
+
+  /**
+   * Builds a {@code RunInstancesRequest} that launches one instance for each virtual instance ID
+   * of a group. The instances and their volumes will be tagged as they're created with the
+   * specified tags, which must be the same for every instance of the group.
+   *
+   * @param template           the instance template
+   * @param virtualInstanceIds the virtual instance IDs of the group
+   * @param clientToken        the idempotency token of the request
+   * @param templateTags       the tags shared by every instance of the group
    * @return a RunInstancesRequest object
    */
   @VisibleForTesting
-  @SuppressWarnings("ConstantConditions")
-  private RunInstancesRequest newRunInstancesRequest(
-      EC2InstanceTemplate template, String virtualInstanceId, List<Tag> userDefinedTags) {
+  RunInstancesRequest newRunInstancesRequest(EC2InstanceTemplate template,
+      List<String> virtualInstanceIds, String clientToken, List<Tag> templateTags) {
 
-    List<Tag> tags = ec2TagHelper.getInstanceTags(template, virtualInstanceId, userDefinedTags);
     List<TagSpecification> tagSpecifications = Lists.newArrayList(
-        new TagSpecification().withTags(tags).withResourceType(ResourceType.Instance),
-        new TagSpecification().withTags(tags).withResourceType(ResourceType.Volume));
+        new TagSpecification().withTags(templateTags).withResourceType(ResourceType.Instance),
+        new TagSpecification().withTags(templateTags).withResourceType(ResourceType.Volume));
 
     return newRunInstanceBaseRequest(template)
+        .withClientToken(clientToken)
         .withMinCount(1)
-        .withMaxCount(1)
+        .withMaxCount(virtualInstanceIds.size())
         .withTagSpecifications(tagSpecifications);
   }
 
@@ -19,10 +19,10 @@ import static com.google.common.collect.Iterables.getOnlyElement;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
 import com.amazonaws.services.ec2.model.BlockDeviceMapping;
 import com.amazonaws.services.ec2.model.CancelSpotInstanceRequestsRequest;
-import com.amazonaws.services.ec2.model.CreateTagsRequest;
 import com.amazonaws.services.ec2.model.DescribeSpotInstanceRequestsRequest;
 import com.amazonaws.services.ec2.model.DescribeSpotInstanceRequestsResult;
 import com.amazonaws.services.ec2.model.Filter;
@@ -42,8 +42,10 @@ import com.cloudera.director.aws.AWSExceptions;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.ec2.EC2Instance;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2TagCoalescer;
 import com.cloudera.director.aws.ec2.allocation.AbstractInstanceAllocator;
 import com.cloudera.director.aws.ec2.allocation.AllocationHelper;
+import com.cloudera.director.aws.ec2.allocation.SubmissionWindow;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionDetails;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
@@ -61,9 +63,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
@@ -222,6 +222,7 @@ public class SpotGroupAllocator extends AbstractInstanceAllocator {
         // include all the requested virtual instance ids.
         Set<String> virtualInstanceIdsNeedingSpotInstanceRequest =
             determineVirtualInstanceIdsNeedingSpotInstanceRequest();
+        boolean minCountReachable = true;
 
         if (!virtualInstanceIdsNeedingSpotInstanceRequest.isEmpty()) {
 
@@ -233,20 +234,29 @@ public class SpotGroupAllocator extends AbstractInstanceAllocator {
 
           // Combine the request ids of the reused orphaned requests and the new requests.
           pendingRequestIds.addAll(virtualInstanceIdToRequestIds.values());
+
+          // Failed requests are not retried, so there is no point waiting for the others if
+          // they cannot add up to the minimum count
+          int coveredInstanceCount = Sets.union(virtualInstanceIdToRequestIds.keySet(),
+              Sets.difference(spotAllocationRecordsByVirtualInstanceId.keySet(),
+                  virtualInstanceIdsNeedingSpotInstanceRequest)).size();
+          minCountReachable = coveredInstanceCount >= minCount;
         }
 
-        // Wait for Spot requests to be processed
-        waitForSpotInstances(pendingRequestIds, false);
+        if (minCountReachable) {
+          // Wait for Spot requests to be processed
+          waitForSpotInstances(pendingRequestIds, false);
 
-        // Tag all the new instances so that we can easily find them later on.
-        tagSpotInstances(DateTime.now().plus(waitUntilStartedMillis));
+          // Tag all the new instances so that we can easily find them later on.
+          tagSpotInstances(DateTime.now().plus(waitUntilStartedMillis));
 
-        // Wait until all of them have a private IP (it should be pretty fast)
-        Collection<String> terminatedInstanceIds = waitForPrivateIpAddresses();
+          // Wait until all of them have a private IP (it should be pretty fast)
+          Collection<String> terminatedInstanceIds = waitForPrivateIpAddresses();
 
-        // Remove any instances that have been terminated from our internal record
-        for (String terminatedInstanceId : terminatedInstanceIds) {
-          spotAllocationRecordsByVirtualInstanceId.remove(terminatedInstanceId);
+          // Remove any instances that have been terminated from our internal record
+          for (String terminatedInstanceId : terminatedInstanceIds) {
+            spotAllocationRecordsByVirtualInstanceId.remove(terminatedInstanceId);
+          }
         }
 
         // Count the allocated instances
@@ -516,42 +526,54 @@ public class SpotGroupAllocator extends AbstractInstanceAllocator {
 
     LOG.info(">> Requesting Spot instances");
 
-    Map<String, Future<RequestSpotInstancesResult>> spotResults = Maps.toMap(
-        virtualInstanceIds,
-        virtualInstanceId -> client.requestSpotInstancesAsync(newRequestSpotInstanceRequest(virtualInstanceId)));
-
     Map<String, String> virtualInstanceIdToRequestIds = Maps.newHashMapWithExpectedSize(virtualInstanceIds.size());
-    for (Map.Entry<String, Future<RequestSpotInstancesResult>> spotResult : spotResults.entrySet()) {
-      try {
-        RequestSpotInstancesResult requestSpotInstancesResult = spotResult.getValue().get();
-        SpotInstanceRequest requestResponse = getOnlyElement(requestSpotInstancesResult.getSpotInstanceRequests());
-        String requestId = requestResponse.getSpotInstanceRequestId();
-        LOG.info(">> Created Spot Request {}", requestId);
-        virtualInstanceIdToRequestIds.put(spotResult.getKey(), requestId);
-      } catch (ExecutionException e) {
-        if (e.getCause() instanceof AmazonServiceException) {
-          AmazonServiceException awsException = (AmazonServiceException) e.getCause();
-          AWSExceptions.propagateIfUnrecoverable(awsException);
-
-          String message = "Exception while trying to allocate instance.";
-
-          if (MAX_SPOT_INSTANCE_COUNT_EXCEEDED.equals(awsException.getErrorCode())) {
-            message = "Some spot instances were not allocated due to reaching the max spot instance request limit.";
-          } else if (AWSExceptions.INSUFFICIENT_INSTANCE_CAPACITY.equals(awsException.getErrorCode()) ||
-              AWSExceptions.INSTANCE_LIMIT_EXCEEDED.equals(awsException.getErrorCode())) {
-            message = "Some instances were not allocated due to instance limits or capacity issues.";
-          } else if (AWSExceptions.REQUEST_LIMIT_EXCEEDED.equals(awsException.getErrorCode())) {
-            message = "Encountered rate limit errors while allocating instances.";
+    SubmissionWindow submissionWindow = new SubmissionWindow();
+    boolean allSubmitted = submissionWindow.submitAll(virtualInstanceIds, minCount,
+        (String virtualInstanceId,
+            AsyncHandler<RequestSpotInstancesRequest, RequestSpotInstancesResult> handler) ->
+            client.requestSpotInstancesAsync(newRequestSpotInstanceRequest(virtualInstanceId), handler),
+        new SubmissionWindow.CompletionHandler<String, RequestSpotInstancesResult>() {
+          @Override
+          public void onSuccess(String virtualInstanceId,
+              RequestSpotInstancesResult requestSpotInstancesResult) {
+            SpotInstanceRequest requestResponse = getOnlyElement(requestSpotInstancesResult.getSpotInstanceRequests());
+            String requestId = requestResponse.getSpotInstanceRequestId();
+            LOG.info(">> Created Spot Request {}", requestId);
+            virtualInstanceIdToRequestIds.put(virtualInstanceId, requestId);
+            // Record the request at once, so that it is cancelled even if requesting fails
+            getSpotAllocationRecord(virtualInstanceId).spotInstanceRequestId = requestId;
           }
 
-          accumulator.addWarning(null, message);
-          LOG.warn(message);
+          @Override
+          public void onError(String virtualInstanceId, Exception e) {
+            if (e instanceof AmazonServiceException) {
+              AmazonServiceException awsException = (AmazonServiceException) e;
+              invalidateKeyNameIfInvalid(awsException.getErrorCode());
+              AWSExceptions.propagateIfUnrecoverable(awsException);
+
+              String message = "Exception while trying to allocate instance.";
+
+              if (MAX_SPOT_INSTANCE_COUNT_EXCEEDED.equals(awsException.getErrorCode())) {
+                message = "Some spot instances were not allocated due to reaching the max spot instance request limit.";
+              } else if (AWSExceptions.INSUFFICIENT_INSTANCE_CAPACITY.equals(awsException.getErrorCode()) ||
+                  AWSExceptions.INSTANCE_LIMIT_EXCEEDED.equals(awsException.getErrorCode())) {
+                message = "Some instances were not allocated due to instance limits or capacity issues.";
+              } else if (AWSExceptions.REQUEST_LIMIT_EXCEEDED.equals(awsException.getErrorCode())) {
+                message = "Encountered rate limit errors while allocating instances.";
+              }
 
-        } else {
-          LOG.error("Error while requesting spot instance. Attempting to proceed.");
-          LOG.debug("Exception caught:", e);
-        }
-      }
+              accumulator.addWarning(null, message);
+              LOG.warn(message);
+
+            } else {
+              LOG.error("Error while requesting spot instance. Attempting to proceed.");
+              LOG.debug("Exception caught:", e);
+            }
+          }
+        });
+
+    if (!allSubmitted) {
+      LOG.warn("Stopped requesting Spot instances, since {} can no longer be acquired.", minCount);
     }
 
     int lostInstances = virtualInstanceIds.size() - virtualInstanceIdToRequestIds.size();
@@ -573,51 +595,25 @@ public class SpotGroupAllocator extends AbstractInstanceAllocator {
       throws InterruptedException {
     // Pre-compute user-defined tags for efficiency
     List<Tag> userDefinedTags = ec2TagHelper.getUserDefinedTags(template);
+    EC2TagCoalescer tagCoalescer = new EC2TagCoalescer(client, awsRequestLimits);
     for (Map.Entry<String, String> entry : virtualInstanceIdToRequestIds.entrySet()) {
       String virtualInstanceId = entry.getKey();
       String spotInstanceRequestId = entry.getValue();
-      tagSpotInstanceRequest(userDefinedTags, spotInstanceRequestId, virtualInstanceId);
+      LOG.info(">> Tagging Spot instance request {} / {}", spotInstanceRequestId, virtualInstanceId);
+      List<Tag> tags = Lists.newArrayList(
+          ec2TagHelper.createClouderaDirectorIdTag(virtualInstanceId),
+          ec2TagHelper.createClouderaDirectorTemplateNameTag(template.getName()));
+      tags.addAll(userDefinedTags);
+      tagCoalescer.add(Collections.singletonList(spotInstanceRequestId), tags);
       SpotAllocationRecord spotAllocationRecord = getSpotAllocationRecord(virtualInstanceId);
       spotAllocationRecord.spotInstanceRequestId = spotInstanceRequestId;
     }
-  }
-
-  /**
-   * Tags an EC2 Spot instance request.
-   *
-   * @param userDefinedTags       the user-defined tags
-   * @param spotInstanceRequestId the Spot instance request ID
-   * @param virtualInstanceId     the virtual instance ID
-   * @throws InterruptedException if the operation is interrupted
-   */
-  @SuppressWarnings("PMD.UselessParentheses")
-  private void tagSpotInstanceRequest(
-      List<Tag> userDefinedTags, final String spotInstanceRequestId, String virtualInstanceId)
-      throws InterruptedException {
-
-    LOG.info(">> Tagging Spot instance request {} / {}", spotInstanceRequestId, virtualInstanceId);
-    final List<Tag> tags = Lists.newArrayList(
-        ec2TagHelper.createClouderaDirectorIdTag(virtualInstanceId),
-        ec2TagHelper.createClouderaDirectorTemplateNameTag(template.getName()));
-    tags.addAll(userDefinedTags);
 
     // Test failures and google indicate that we can fail to find a request to tag even when we
-    // have determined that it exists by describing it. I am adding a retry loop to attempt to
-    // avoid this case.
-    try {
-      retryUntil(
-          (Callable<Void>) () -> {
-            client.createTags(new CreateTagsRequest().withTags(tags).withResources(spotInstanceRequestId));
-            return null;
-          },
-          new DateTime(requestExpirationTime));
-    } catch (RetryException e) {
+    // have determined that it exists by describing it. The coalescer retries requests that are
+    // not found yet.
+    for (String spotInstanceRequestId : tagCoalescer.flush(new DateTime(requestExpirationTime))) {
       LOG.warn("timeout waiting for spot instance request {} tagged", spotInstanceRequestId);
-    } catch (ExecutionException e) {
-      if (AmazonServiceException.class.isInstance(e.getCause())) {
-        throw AWSExceptions.propagate((AmazonServiceException) e.getCause());
-      }
-      throw new UnrecoverableProviderException(e.getCause());
     }
   }
 
@@ -741,14 +737,19 @@ public class SpotGroupAllocator extends AbstractInstanceAllocator {
     // Pre-compute user-defined tags for efficiency
     List<Tag> userDefinedTags = ec2TagHelper.getUserDefinedTags(template);
 
+    Map<String, String> virtualInstanceIdToEC2InstanceIds = Maps.newLinkedHashMap();
     for (SpotAllocationRecord spotAllocationRecord :
         spotAllocationRecordsByVirtualInstanceId.values()) {
-      if ((spotAllocationRecord.ec2InstanceId != null) && !spotAllocationRecord.instanceTagged &&
-          tagInstance(template, userDefinedTags, spotAllocationRecord.virtualInstanceId,
-              spotAllocationRecord.ec2InstanceId, timeout)) {
-        spotAllocationRecord.instanceTagged = true;
+      if ((spotAllocationRecord.ec2InstanceId != null) && !spotAllocationRecord.instanceTagged) {
+        virtualInstanceIdToEC2InstanceIds.put(spotAllocationRecord.virtualInstanceId,
+            spotAllocationRecord.ec2InstanceId);
       }
     }
+
+    for (String virtualInstanceId : tagInstances(template, userDefinedTags,
+        virtualInstanceIdToEC2InstanceIds, timeout)) {
+      getSpotAllocationRecord(virtualInstanceId).instanceTagged = true;
+    }
   }
 
 
@@ -19,20 +19,22 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.Objects.requireNonNull;
 
 import com.amazonaws.AmazonClientException;
-import com.amazonaws.AmazonServiceException;
-import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
 import com.amazonaws.services.ec2.model.AttachVolumeRequest;
-import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.AttachVolumeResult;
 import com.amazonaws.services.ec2.model.CreateVolumeRequest;
 import com.amazonaws.services.ec2.model.CreateVolumeResult;
 import com.amazonaws.services.ec2.model.DeleteVolumeRequest;
+import com.amazonaws.services.ec2.model.DeleteVolumeResult;
 import com.amazonaws.services.ec2.model.DescribeInstanceAttributeRequest;
 import com.amazonaws.services.ec2.model.DescribeSubnetsRequest;
 import com.amazonaws.services.ec2.model.DescribeSubnetsResult;
 import com.amazonaws.services.ec2.model.DescribeVolumesRequest;
-import com.amazonaws.services.ec2.model.DescribeVolumesResult;
 import com.amazonaws.services.ec2.model.DetachVolumeRequest;
+import com.amazonaws.services.ec2.model.DetachVolumeResult;
 import com.amazonaws.services.ec2.model.EbsInstanceBlockDeviceSpecification;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.InstanceAttributeName;
 import com.amazonaws.services.ec2.model.InstanceBlockDeviceMapping;
 import com.amazonaws.services.ec2.model.InstanceBlockDeviceMappingSpecification;
@@ -46,13 +48,16 @@ import com.amazonaws.services.ec2.model.VolumeAttachment;
 import com.amazonaws.services.ec2.model.VolumeAttachmentState;
 import com.amazonaws.services.ec2.model.VolumeState;
 import com.cloudera.director.aws.AWSExceptions;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
+import com.cloudera.director.aws.common.Callables2;
+import com.cloudera.director.aws.common.Executors2;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2TagCoalescer;
 import com.cloudera.director.aws.ec2.EC2TagHelper;
-import com.github.rholder.retry.RetryException;
+import com.cloudera.director.aws.ec2.allocation.SubmissionWindow;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -60,12 +65,11 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
@@ -79,8 +83,7 @@ public class EBSAllocator {
 
   private static final Logger LOG = LoggerFactory.getLogger(EBSAllocator.class);
 
-  private static final long WAIT_UNTIL_AVAILABLE_INTERVAL_SECONDS = 5;
-  private static final long WAIT_UNTIL_ATTACHED_INTERVAL_SECONDS = 5;
+  private static final long DEFAULT_WAIT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
 
   /**
    * The key for the timeout to wait for EBS volumes to become available.
@@ -97,33 +100,78 @@ public class EBSAllocator {
 
   private static final long DEFAULT_TIMEOUT_SECONDS = 180L;
 
+  /**
+   * The maximum number of volumes to describe in a single request.
+   */
+  private static final int MAX_DESCRIBE_VOLUMES_CHUNK_SIZE = 100;
+
+  /**
+   * The maximum number of instances whose volumes are marked for deletion on termination
+   * concurrently.
+   */
+  private static final int MAX_CONCURRENT_INSTANCE_REQUESTS = 16;
+
   @VisibleForTesting
   static final String DEVICE_NAME_START_PREFIX = "/dev/sd";
 
   @VisibleForTesting
   static final char DEVICE_NAME_START_CHAR = 'f';
 
-  private final AmazonEC2Client client;
+  private final AmazonEC2AsyncClient client;
   private final long availableTimeoutSeconds;
   private final long attachTimeoutSeconds;
   private final long detachTimeoutSeconds;
+  private final AWSRequestLimits awsRequestLimits;
   private final EC2TagHelper ec2TagHelper;
   private final EBSDeviceMappings ebsDeviceMappings;
   private final Set<String> excludeDeviceNames;
   private final boolean useTagOnCreate;
+  private final long waitIntervalMillis;
+
+  /**
+   * The submission windows of each kind of request. They are kept for the lifetime of the
+   * allocator, so that what one round of polling or one cleanup pass learns about throttling
+   * carries over to the next.
+   */
+  private final SubmissionWindow createWindow = new SubmissionWindow();
+  private final SubmissionWindow attachWindow = new SubmissionWindow();
+  private final SubmissionWindow detachWindow = new SubmissionWindow();
+  private final SubmissionWindow deleteWindow = new SubmissionWindow();
 
   /**
    * Constructs a new EBS allocator instance.
    *
    * @param client             a pre-configured ec2 client
    * @param awsTimeouts        the AWS timeouts
+   * @param awsRequestLimits   the AWS request limits
+   * @param ec2TagHelper       the custom tag mappings
+   * @param ebsDeviceMappings  helper object to retrieve device mappings
+   * @param excludeDeviceNames set of device names that should be excluded when attaching the volumes
+   */
+  public EBSAllocator(AmazonEC2AsyncClient client, AWSTimeouts awsTimeouts,
+      AWSRequestLimits awsRequestLimits, EC2TagHelper ec2TagHelper,
+      EBSDeviceMappings ebsDeviceMappings, Set<String> excludeDeviceNames,
+      boolean useTagOnCreate) {
+    this(client, awsTimeouts, awsRequestLimits, ec2TagHelper, ebsDeviceMappings, excludeDeviceNames,
+        useTagOnCreate, DEFAULT_WAIT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Constructs a new EBS allocator instance that polls volumes at the specified interval.
+   *
+   * @param client             a pre-configured ec2 client
+   * @param awsTimeouts        the AWS timeouts
+   * @param awsRequestLimits   the AWS request limits
    * @param ec2TagHelper       the custom tag mappings
    * @param ebsDeviceMappings  helper object to retrieve device mappings
    * @param excludeDeviceNames set of device names that should be excluded when attaching the volumes
+   * @param waitIntervalMillis the interval between checks of the state of volumes
    */
-  public EBSAllocator(AmazonEC2Client client, AWSTimeouts awsTimeouts,
-      EC2TagHelper ec2TagHelper, EBSDeviceMappings ebsDeviceMappings,
-      Set<String> excludeDeviceNames, boolean useTagOnCreate) {
+  @VisibleForTesting
+  EBSAllocator(AmazonEC2AsyncClient client, AWSTimeouts awsTimeouts,
+      AWSRequestLimits awsRequestLimits, EC2TagHelper ec2TagHelper,
+      EBSDeviceMappings ebsDeviceMappings, Set<String> excludeDeviceNames,
+      boolean useTagOnCreate, long waitIntervalMillis) {
     checkNotNull(awsTimeouts, "awsTimeouts is null");
 
     this.client = checkNotNull(client, "ec2 client is null");
@@ -133,10 +181,12 @@ public class EBSAllocator {
         awsTimeouts.getTimeout(TIMEOUT_ATTACH).or(DEFAULT_TIMEOUT_SECONDS);
     this.detachTimeoutSeconds =
         awsTimeouts.getTimeout(TIMEOUT_DETACH).or(DEFAULT_TIMEOUT_SECONDS);
+    this.awsRequestLimits = checkNotNull(awsRequestLimits, "awsRequestLimits is null");
     this.ec2TagHelper = checkNotNull(ec2TagHelper, "ec2TagHelper is null");
     this.ebsDeviceMappings = checkNotNull(ebsDeviceMappings, "ebsDeviceMappings is null");
     this.excludeDeviceNames = checkNotNull(excludeDeviceNames, "excludeDeviceNames is null");
     this.useTagOnCreate = useTagOnCreate;
+    this.waitIntervalMillis = waitIntervalMillis;
   }
 
   /**
@@ -210,16 +260,46 @@ public class EBSAllocator {
   /**
    * Runs create volume requests for each instance. The number and type
    * of volumes to create are taken from the instance template. Volumes are
-   * tagged on creation.
+   * tagged on creation. The requests for all instances are sent concurrently,
+   * with the number of requests in flight adapting to throttling.
+   *
+   * <p>This returns once every request has been answered, before any volume is
+   * attached, so that the caller knows every volume to clean up whatever happens
+   * to the attachments. The requests only return the IDs of the volumes being
+   * created, so the wait is for the requests rather than for the volumes, which
+   * become available independently while
+   * {@link #attachVolumesWhenAvailable(EC2InstanceTemplate, List, int)} tracks
+   * them.</p>
+   *
+   * @param template                   the instance template
+   * @param ec2InstanceIdsByInstanceId ids of the instances where the key is the Director
+   *                                   instance id and the value is the ec2 instance id
+   * @return a list of InstanceEbsVolumes
+   * @throws InterruptedException if the operation is interrupted
+   */
+  public List<InstanceEbsVolumes> createVolumes(EC2InstanceTemplate template,
+      Map<String, String> ec2InstanceIdsByInstanceId) throws InterruptedException {
+    return createVolumes(template, ec2InstanceIdsByInstanceId, Maps.newHashMap());
+  }
+
+  /**
+   * Runs create volume requests for each instance, as
+   * {@link #createVolumes(EC2InstanceTemplate, Map)} does, and also adds each volume to the
+   * specified map as soon as its request succeeds. The map is filled even if this method
+   * fails, so that the caller can delete the volumes created before the failure.
    *
    * @param template                   the instance template
    * @param ec2InstanceIdsByInstanceId ids of the instances where the key is the Director
    *                                   instance id and the value is the ec2 instance id
+   * @param createdVolumes             the map to which the ids of the created volumes are
+   *                                   added, along with their states
    * @return a list of InstanceEbsVolumes
+   * @throws InterruptedException if the operation is interrupted
    */
   @SuppressWarnings("Guava")
   public List<InstanceEbsVolumes> createVolumes(EC2InstanceTemplate template,
-      Map<String, String> ec2InstanceIdsByInstanceId) {
+      Map<String, String> ec2InstanceIdsByInstanceId, Map<String, VolumeState> createdVolumes)
+      throws InterruptedException {
     Optional<String> templateAvailabilityZone = template.getAvailabilityZone();
 
     String availabilityZone = templateAvailabilityZone.isPresent() ?
@@ -231,18 +311,13 @@ public class EBSAllocator {
     LOG.info("Requesting {} volumes each for {} instances",
         volumesPerInstance, ec2InstanceIdsByInstanceId.size());
 
-    int uncreatedVolumeCount = 0;
-
     // Pre-compute user-defined tags for efficiency
     List<Tag> userDefinedTags = ec2TagHelper.getUserDefinedTags(template);
 
-    List<InstanceEbsVolumes> instanceEbsVolumesList = Lists.newArrayList();
-    for (Map.Entry<String, String> entry : ec2InstanceIdsByInstanceId.entrySet()) {
-      String instanceId = entry.getKey();
-      String ec2InstanceId = entry.getValue();
-
-      Map<String, VolumeState> volumes = Maps.newHashMap();
-
+    // Key each request by instance and index, since identical requests are equal
+    Map<Map.Entry<String, Integer>, CreateVolumeRequest> requestsByKey = Maps.newLinkedHashMap();
+    Map<String, Map<String, VolumeState>> volumesByInstanceId = Maps.newHashMap();
+    for (String instanceId : ec2InstanceIdsByInstanceId.keySet()) {
       // Tag these volumes on creation
       List<Tag> tags = ec2TagHelper.getInstanceTags(template, instanceId, userDefinedTags);
       TagSpecification tagSpecification = new TagSpecification().withTags(tags).withResourceType(ResourceType.Volume);
@@ -270,322 +345,540 @@ public class EBSAllocator {
         createVolumeRequests.add(request);
       }
 
-      for (CreateVolumeRequest request : createVolumeRequests) {
-        try {
-          CreateVolumeResult result = client.createVolume(request);
-          String volumeId = result.getVolume().getVolumeId();
-          volumes.put(volumeId, VolumeState.Creating);
-        } catch (AmazonServiceException ex) {
-          String message = "Failed to request an EBS volume for instance %s";
-          LOG.error(String.format(message, instanceId), ex);
-          String volumeId = InstanceEbsVolumes.UNCREATED_VOLUME_ID + uncreatedVolumeCount;
-          volumes.put(volumeId, VolumeState.Error);
-          uncreatedVolumeCount++;
-        }
+      for (int j = 0; j < createVolumeRequests.size(); j++) {
+        requestsByKey.put(Maps.immutableEntry(instanceId, j), createVolumeRequests.get(j));
       }
+      volumesByInstanceId.put(instanceId, Maps.newHashMap());
+    }
+
+    // Submit the requests through a congestion-controlled window, which backs off when
+    // requests are throttled
+    createWindow.submitAll(
+        requestsByKey.keySet(),
+        0,
+        (Map.Entry<String, Integer> key,
+            AsyncHandler<CreateVolumeRequest, CreateVolumeResult> handler) ->
+            client.createVolumeAsync(requestsByKey.get(key), handler),
+        new SubmissionWindow.CompletionHandler<Map.Entry<String, Integer>, CreateVolumeResult>() {
+          private int uncreatedVolumeCount = 0;
+
+          @Override
+          public void onSuccess(Map.Entry<String, Integer> key, CreateVolumeResult result) {
+            String volumeId = result.getVolume().getVolumeId();
+            volumesByInstanceId.get(key.getKey()).put(volumeId, VolumeState.Creating);
+            createdVolumes.put(volumeId, VolumeState.Creating);
+          }
+
+          @Override
+          public void onError(Map.Entry<String, Integer> key, Exception e) {
+            String message = "Failed to request an EBS volume for instance %s";
+            LOG.error(String.format(message, key.getKey()), e);
+            String volumeId = InstanceEbsVolumes.UNCREATED_VOLUME_ID + uncreatedVolumeCount;
+            volumesByInstanceId.get(key.getKey()).put(volumeId, VolumeState.Error);
+            uncreatedVolumeCount++;
+          }
+        });
 
-      InstanceEbsVolumes instanceEbsVolumes = new InstanceEbsVolumes(instanceId, ec2InstanceId, volumes);
+    List<InstanceEbsVolumes> instanceEbsVolumesList = Lists.newArrayList();
+    for (Map.Entry<String, String> entry : ec2InstanceIdsByInstanceId.entrySet()) {
+      String instanceId = entry.getKey();
+      String ec2InstanceId = entry.getValue();
+      InstanceEbsVolumes instanceEbsVolumes =
+          new InstanceEbsVolumes(instanceId, ec2InstanceId, volumesByInstanceId.get(instanceId));
       instanceEbsVolumesList.add(instanceEbsVolumes);
     }
     return instanceEbsVolumesList;
   }
 
   /**
-   * Returns all volumes from a list of instance EBS volumes that have the specified status.
-   */
-  private static Set<String> getAllVolumeIdsWithState(List<InstanceEbsVolumes> instanceEbsVolumes,
-      VolumeState desiredState) {
-    Set<String> volumeIds = Sets.newHashSet();
-    for (InstanceEbsVolumes instance : instanceEbsVolumes) {
-      for (Map.Entry<String, VolumeState> volume : instance.getVolumeStates().entrySet()) {
-        String volumeId = volume.getKey();
-        VolumeState volumeState = volume.getValue();
-        if (volumeState == desiredState) volumeIds.add(volumeId);
-      }
-    }
-    return volumeIds;
-  }
-
-  /**
-   * Returns true if all volumes for an instance has the expected status.
-   */
-  private static boolean instanceHasAllVolumesWithState(InstanceEbsVolumes instanceEbsVolumes,
-      VolumeState expectedState) {
-    int volumeCount = instanceEbsVolumes.getVolumeStates().size();
-    Set<String> volumesWithExpectedState =
-        getAllVolumeIdsWithState(Collections.singletonList(instanceEbsVolumes), expectedState);
-    return volumeCount == volumesWithExpectedState.size();
-  }
-
-  /**
-   * Waits for the volumes in a list of {@code InstanceEbsVolumes} to reach an available state.
-   * Returns an updated list of {@code InstanceEbsVolumes} with the volumes that became
-   * available marked as Available and volumes that failed or timed out marked as Error.
+   * Waits for the created volumes of each instance to become available, and attaches them to
+   * the instance as soon as they all are. Instances move through the pipeline independently, so
+   * one slow volume only delays its own instance. If useTagOnCreate is false, the volumes are
+   * tagged once attachment is over, all together, so that tagging never holds up the polling.
+   *
+   * <p>An instance succeeds as soon as all of its volumes are attached. It fails as soon as any
+   * of its volumes could not be created, fails, or does not become available or attached in time.
+   * The pipeline stops early when so many instances have failed that the minimum number of
+   * successful instances can no longer be reached.</p>
    *
-   * @param createdInstanceVolumes list of instances with their created ebs volumes
-   * @return updated list of instances EBS volumes
+   * @param template               the instance template
+   * @param createdInstanceVolumes list of instances with their created EBS volumes
+   * @param minSuccessfulInstances the minimum number of instances that need their volumes attached
+   * @return an updated list of instance EBS volumes, with attached volumes marked as InUse and
+   * all other volumes marked as Error
+   * @throws InterruptedException if the operation is interrupted
    */
-  public List<InstanceEbsVolumes> waitUntilVolumesAvailable(List<InstanceEbsVolumes> createdInstanceVolumes)
+  public List<InstanceEbsVolumes> attachVolumesWhenAvailable(EC2InstanceTemplate template,
+      List<InstanceEbsVolumes> createdInstanceVolumes, int minSuccessfulInstances)
       throws InterruptedException {
 
-    Set<String> volumesToCheck = getAllVolumeIdsWithState(createdInstanceVolumes, VolumeState.Creating);
-
-    int numRequestedVolumes = volumesToCheck.size();
-    Set<String> volumesAvailable = Sets.newHashSetWithExpectedSize(numRequestedVolumes);
+    List<Tag> userDefinedTags = ec2TagHelper.getUserDefinedTags(template);
+    EC2TagCoalescer tagCoalescer = new EC2TagCoalescer(client, awsRequestLimits);
+    DateTime availableTimeout = DateTime.now().plusSeconds((int) availableTimeoutSeconds);
 
-    if (numRequestedVolumes > 0) {
-      LOG.info("Waiting for a maximum of {} seconds for volumes to become available",
-          availableTimeoutSeconds);
+    List<InstanceVolumeProgress> pending = Lists.newArrayList();
+    List<InstanceVolumeProgress> allProgress = Lists.newArrayList();
+    int failedInstances = 0;
+    for (InstanceEbsVolumes instanceEbsVolumes : createdInstanceVolumes) {
+      InstanceVolumeProgress progress = new InstanceVolumeProgress(instanceEbsVolumes);
+      allProgress.add(progress);
+      if (progress.volumeStates.containsValue(VolumeState.Error)) {
+        LOG.warn("Not all EBS volumes of instance {} were created",
+            instanceEbsVolumes.getInstanceId());
+        failedInstances++;
+      } else {
+        pending.add(progress);
+      }
+    }
+    int maxFailedInstances = createdInstanceVolumes.size() - minSuccessfulInstances;
 
-      Stopwatch watch = Stopwatch.createStarted();
-      while (watch.elapsed(TimeUnit.SECONDS) < availableTimeoutSeconds) {
-        DescribeVolumesRequest volumeRequest = new DescribeVolumesRequest()
-            .withVolumeIds(volumesToCheck);
+    LOG.info("Waiting for a maximum of {} seconds for volumes to become available, and {} seconds"
+        + " for them to be attached", availableTimeoutSeconds, attachTimeoutSeconds);
 
-        try {
-          List<Volume> volumes = client.describeVolumes(volumeRequest).getVolumes();
-
-          for (Volume volume : volumes) {
-            String id = volume.getVolumeId();
-            VolumeState state = VolumeState.fromValue(volume.getState());
-
-            switch (state) {
-              case Creating:
-                break;
-              case Available:
-                volumesToCheck.remove(id);
-                volumesAvailable.add(id);
-                break;
-              case Error:
-                // TODO log why the volume failed which may need a separate api call
-                volumesToCheck.remove(id);
-                break;
-              default:
-                String err = String.format("A requested volume went into an unexpected state %s while waiting " +
-                    "for volume to become available", state);
-                throw new IllegalStateException(String.format(err, state));
-            }
-          }
+    while (!pending.isEmpty()) {
+      if (failedInstances > maxFailedInstances) {
+        LOG.warn("{} instances failed to acquire EBS volumes, so {} successful instances can no"
+            + " longer be reached. Not waiting for the remaining {} instances.",
+            failedInstances, minSuccessfulInstances, pending.size());
+        break;
+      }
 
-          if (volumesToCheck.isEmpty()) {
-            break;
-          }
-        } catch (AmazonServiceException ex) {
-          // ignore exception when volume isn't found, newly created volumes may not be found right away
-          if (ex.getErrorCode().equals("InvalidVolume.NotFound")) {
-            LOG.info("Requested volume(s) not yet found");
-          } else {
-            throw AWSExceptions.propagate(ex);
-          }
+      Map<String, Volume> volumes = describePendingVolumes(pending);
+      DateTime now = DateTime.now();
+
+      List<InstanceVolumeProgress> readyToAttach = Lists.newArrayList();
+      for (Iterator<InstanceVolumeProgress> iterator = pending.iterator(); iterator.hasNext(); ) {
+        InstanceVolumeProgress progress = iterator.next();
+        progress.update(volumes);
+
+        String instanceId = progress.instanceEbsVolumes.getInstanceId();
+        if (progress.isAttached()) {
+          LOG.info("<< All {} EBS volumes of instance {} are attached",
+              progress.volumeStates.size(), instanceId);
+          iterator.remove();
+        } else if (progress.volumeStates.containsValue(VolumeState.Error)) {
+          LOG.warn("EBS volumes of instance {} failed", instanceId);
+          failedInstances++;
+          iterator.remove();
+        } else if (progress.attachTimeout == null && now.isAfter(availableTimeout)) {
+          LOG.error("Timed out while waiting for EBS volumes of instance {} to become available",
+              instanceId);
+          failedInstances++;
+          iterator.remove();
+        } else if (progress.attachTimeout != null && now.isAfter(progress.attachTimeout)) {
+          LOG.error("Timed out while waiting for EBS volumes of instance {} to be attached",
+              instanceId);
+          failedInstances++;
+          iterator.remove();
+        } else if (progress.isReadyToAttach()) {
+          readyToAttach.add(progress);
         }
+      }
 
-        LOG.info("Waiting on {} out of {} volumes to reach a final state, next check in {} seconds",
-            volumesToCheck.size(), numRequestedVolumes, WAIT_UNTIL_AVAILABLE_INTERVAL_SECONDS);
-        TimeUnit.SECONDS.sleep(WAIT_UNTIL_AVAILABLE_INTERVAL_SECONDS);
+      if (!readyToAttach.isEmpty()) {
+        attachVolumes(template, userDefinedTags, readyToAttach, tagCoalescer);
       }
 
-      if (volumesToCheck.size() > 0) {
-        LOG.error("Timed out while waiting for volumes to be created, {} out of {} volumes became available",
-            volumesAvailable.size(), numRequestedVolumes);
+      if (!pending.isEmpty()) {
+        LOG.info("Waiting on EBS volumes of {} out of {} instances, next check in {} ms",
+            pending.size(), createdInstanceVolumes.size(), waitIntervalMillis);
+        TimeUnit.MILLISECONDS.sleep(waitIntervalMillis);
       }
-    } else {
-      LOG.info("Skipping wait for availability because no EBS volumes were created");
     }
 
-    // Update the status of each volume to Available or Error based on the result
+    DateTime tagTimeout = DateTime.now().plusSeconds((int) attachTimeoutSeconds);
+    for (String volumeId : tagCoalescer.flush(tagTimeout)) {
+      LOG.warn("timeout waiting for volume {} tagged", volumeId);
+    }
 
-    List<InstanceEbsVolumes> updated = Lists.newArrayList();
-    for (InstanceEbsVolumes instanceEbsVolumes : createdInstanceVolumes) {
+    List<InstanceEbsVolumes> updated = Lists.newArrayListWithExpectedSize(allProgress.size());
+    for (InstanceVolumeProgress progress : allProgress) {
       Map<String, VolumeState> updatedVolumes = Maps.newHashMap();
-      for (String volumeId : instanceEbsVolumes.getVolumeStates().keySet()) {
-        VolumeState updatedState = volumesAvailable.contains(volumeId) ?
-            VolumeState.Available : VolumeState.Error;
-        updatedVolumes.put(volumeId, updatedState);
+      for (Map.Entry<String, VolumeState> volume : progress.volumeStates.entrySet()) {
+        updatedVolumes.put(volume.getKey(),
+            (volume.getValue() == VolumeState.InUse) ? VolumeState.InUse : VolumeState.Error);
       }
-      updated.add(new InstanceEbsVolumes(instanceEbsVolumes.getInstanceId(),
-          instanceEbsVolumes.getEc2InstanceId(), updatedVolumes));
+      updated.add(new InstanceEbsVolumes(progress.instanceEbsVolumes.getInstanceId(),
+          progress.instanceEbsVolumes.getEc2InstanceId(), updatedVolumes));
     }
-
     return updated;
   }
 
   /**
-   * Goes through a list of {@code InstanceEbsVolumes} and attaches all Available
-   * volumes to its associated instance. If an instance has any volume that isn't
-   * in the Available state, all volumes for that instance will skip tagging and
-   * attachment steps. If useTagOnCreate is false, the volumes will be tagged as well.
+   * Describes the volumes that are still being created or attached.
    *
-   * @param template               the instance template
-   * @param instanceEbsVolumesList a list of instances with their associated volumes
-   * @throws InterruptedException if the operation is interrupted
+   * @param pending the instances whose volumes are in progress
+   * @return the described volumes, by volume ID, which leave out newly created volumes that
+   * cannot be found yet
    */
-  public List<InstanceEbsVolumes> attachAndOptionallyTagVolumes(EC2InstanceTemplate template,
-      List<InstanceEbsVolumes> instanceEbsVolumesList) throws InterruptedException {
-
-    Set<String> requestedAttachments = Sets.newHashSet();
-    DateTime timeout = DateTime.now().plusSeconds((int) availableTimeoutSeconds);
-
-    for (InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
-      String instanceId = instanceEbsVolumes.getInstanceId();
-      String ec2InstanceId = instanceEbsVolumes.getEc2InstanceId();
+  private Map<String, Volume> describePendingVolumes(List<InstanceVolumeProgress> pending) {
+    Set<String> volumeIds = Sets.newHashSet();
+    for (InstanceVolumeProgress progress : pending) {
+      volumeIds.addAll(progress.getVolumeIdsInProgress());
+    }
+    return describeVolumes(volumeIds);
+  }
 
-      if (!instanceHasAllVolumesWithState(instanceEbsVolumes, VolumeState.Available)) {
-        continue;
-      }
+  /**
+   * Attaches the available volumes of the specified instances concurrently, and adds them to
+   * the tag coalescer if useTagOnCreate is false, to be tagged once attachment is over. A volume
+   * that cannot be found yet is attached again in the next round.
+   *
+   * @param template        the instance template
+   * @param userDefinedTags the user-defined tags
+   * @param readyToAttach   the instances whose volumes are all available
+   * @param tagCoalescer    the tag coalescer
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private void attachVolumes(EC2InstanceTemplate template, List<Tag> userDefinedTags,
+      List<InstanceVolumeProgress> readyToAttach, EC2TagCoalescer tagCoalescer)
+      throws InterruptedException {
 
-      // Pre-compute user-defined tags for efficiency
-      List<Tag> userDefinedTags = ec2TagHelper.getUserDefinedTags(template);
+    DateTime attachTimeout = DateTime.now().plusSeconds((int) attachTimeoutSeconds);
+    Map<String, InstanceVolumeProgress> progressByVolumeId = Maps.newHashMap();
+    Map<String, AttachVolumeRequest> requestsByVolumeId = Maps.newLinkedHashMap();
 
-      Map<String, VolumeState> volumes = instanceEbsVolumes.getVolumeStates();
-      List<String> deviceNames = ebsDeviceMappings.getDeviceNames(volumes.size(), excludeDeviceNames);
+    for (InstanceVolumeProgress progress : readyToAttach) {
+      String instanceId = progress.instanceEbsVolumes.getInstanceId();
+      String ec2InstanceId = progress.instanceEbsVolumes.getEc2InstanceId();
 
-      int index = 0;
-      for (String volumeId : instanceEbsVolumes.getVolumeStates().keySet()) {
+      if (progress.attachTimeout == null) {
+        progress.attachTimeout = attachTimeout;
         if (!useTagOnCreate) {
-          tagVolume(template, userDefinedTags, instanceId, volumeId);
+          // All the volumes of an instance have the same tags, so they are tagged together
+          LOG.info(">> Tagging volumes {} / {}", progress.volumeStates.keySet(), instanceId);
+          tagCoalescer.add(progress.volumeStates.keySet(),
+              ec2TagHelper.getInstanceTags(template, instanceId, userDefinedTags));
         }
+      }
 
-        String deviceName = deviceNames.get(index);
-        final AttachVolumeRequest volumeRequest = new AttachVolumeRequest()
+      for (String volumeId : progress.getAvailableVolumeIds()) {
+        String deviceName = progress.deviceNames.get(volumeId);
+        LOG.info(">> Attaching volume {} to instance {} with device name {}",
+            volumeId, ec2InstanceId, deviceName);
+        progressByVolumeId.put(volumeId, progress);
+        requestsByVolumeId.put(volumeId, new AttachVolumeRequest()
             .withVolumeId(volumeId)
             .withInstanceId(ec2InstanceId)
-            .withDevice(deviceName);
-        index++;
+            .withDevice(deviceName));
+      }
+    }
 
-        LOG.info(">> Attaching volume {} to instance {} with device name {}", volumeId, ec2InstanceId, deviceName);
+    attachWindow.submitAll(
+        requestsByVolumeId.keySet(),
+        0,
+        (String volumeId, AsyncHandler<AttachVolumeRequest, AttachVolumeResult> handler) ->
+            client.attachVolumeAsync(requestsByVolumeId.get(volumeId), handler),
+        new SubmissionWindow.CompletionHandler<String, AttachVolumeResult>() {
+          @Override
+          public void onSuccess(String volumeId, AttachVolumeResult result) {
+            progressByVolumeId.get(volumeId).attaching.add(volumeId);
+          }
 
-        try {
-          retryUntil(
-              (Callable<Void>) () -> {
-                client.attachVolume(volumeRequest);
-                return null;
-              },
-              timeout);
-          requestedAttachments.add(volumeId);
-        } catch (RetryException e) {
-          LOG.warn("timeout attaching volume {} to instance {}", volumeId, ec2InstanceId);
-        } catch (ExecutionException ex) {
-          if (AmazonServiceException.class.isInstance(ex.getCause())) {
-            AWSExceptions.propagateIfUnrecoverable((AmazonServiceException) ex.getCause());
+          @Override
+          public void onError(String volumeId, Exception e) {
+            if (AWSExceptions.isNotFound(e)) {
+              LOG.info("Volume {} or its instance not yet found, retrying attachment", volumeId);
+              return;
+            }
+            if (e instanceof AmazonClientException) {
+              AWSExceptions.propagateIfUnrecoverable((AmazonClientException) e);
+            }
+            AttachVolumeRequest request = requestsByVolumeId.get(volumeId);
+            LOG.error(String.format("Failed to attach volume %s to instance %s with device name %s",
+                volumeId, request.getInstanceId(), request.getDevice()), e);
+            progressByVolumeId.get(volumeId).volumeStates.put(volumeId, VolumeState.Error);
           }
+        });
+  }
 
-          LOG.error(String.format("Failed to attach volume %s to instance %s with device name %s",
-              volumeId, ec2InstanceId, deviceName), ex.getCause());
+  /**
+   * Tracks the volumes of an instance through creation and attachment.
+   */
+  private final class InstanceVolumeProgress {
+    private final InstanceEbsVolumes instanceEbsVolumes;
+
+    /**
+     * The state of each volume, which is Creating, Available, InUse once the volume is attached,
+     * or Error.
+     */
+    private final Map<String, VolumeState> volumeStates;
+
+    /**
+     * The available volumes whose attachment was requested but has not completed yet.
+     */
+    private final Set<String> attaching = Sets.newHashSet();
+
+    private final Map<String, String> deviceNames = Maps.newHashMap();
+
+    /**
+     * The time by which the volumes must be attached, or null if attachment has not started.
+     */
+    private DateTime attachTimeout;
+
+    private InstanceVolumeProgress(InstanceEbsVolumes instanceEbsVolumes) {
+      this.instanceEbsVolumes = instanceEbsVolumes;
+      this.volumeStates = Maps.newLinkedHashMap(instanceEbsVolumes.getVolumeStates());
+      for (Map.Entry<String, VolumeState> volume : volumeStates.entrySet()) {
+        if (volume.getValue() != VolumeState.Creating) {
+          volume.setValue(VolumeState.Error);
         }
       }
+      List<String> names = ebsDeviceMappings.getDeviceNames(volumeStates.size(), excludeDeviceNames);
+      int index = 0;
+      for (String volumeId : volumeStates.keySet()) {
+        deviceNames.put(volumeId, names.get(index++));
+      }
     }
 
-    Collection<String> attachedVolumes = waitUntilVolumesAttached(requestedAttachments);
-
-    // Update the status of each volume to InUse or Error based on the result
+    private Set<String> getVolumeIdsInProgress() {
+      Set<String> volumeIds = Sets.newHashSet(attaching);
+      for (Map.Entry<String, VolumeState> volume : volumeStates.entrySet()) {
+        if (volume.getValue() == VolumeState.Creating) {
+          volumeIds.add(volume.getKey());
+        }
+      }
+      return volumeIds;
+    }
 
-    List<InstanceEbsVolumes> updated = Lists.newArrayList();
-    for (InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
-      Map<String, VolumeState> updatedVolumes = Maps.newHashMap();
-      for (String volumeId : instanceEbsVolumes.getVolumeStates().keySet()) {
-        VolumeState updatedState = attachedVolumes.contains(volumeId) ?
-            VolumeState.InUse : VolumeState.Error;
-        updatedVolumes.put(volumeId, updatedState);
+    private Set<String> getAvailableVolumeIds() {
+      Set<String> volumeIds = Sets.newLinkedHashSet();
+      for (Map.Entry<String, VolumeState> volume : volumeStates.entrySet()) {
+        if (volume.getValue() == VolumeState.Available && !attaching.contains(volume.getKey())) {
+          volumeIds.add(volume.getKey());
+        }
       }
-      updated.add(new InstanceEbsVolumes(instanceEbsVolumes.getInstanceId(),
-          instanceEbsVolumes.getEc2InstanceId(), updatedVolumes));
+      return volumeIds;
     }
 
-    return updated;
+    private boolean isReadyToAttach() {
+      return !volumeStates.containsValue(VolumeState.Creating)
+          && !getAvailableVolumeIds().isEmpty();
+    }
+
+    private boolean isAttached() {
+      return Iterables.all(volumeStates.values(), VolumeState.InUse::equals);
+    }
+
+    private void update(Map<String, Volume> volumes) {
+      for (Map.Entry<String, VolumeState> entry : volumeStates.entrySet()) {
+        String volumeId = entry.getKey();
+        Volume volume = volumes.get(volumeId);
+        if (volume == null) {
+          continue;
+        }
+
+        if (attaching.contains(volumeId)) {
+          for (VolumeAttachment attachment : volume.getAttachments()) {
+            if (VolumeAttachmentState.fromValue(attachment.getState())
+                == VolumeAttachmentState.Attached) {
+              attaching.remove(volumeId);
+              entry.setValue(VolumeState.InUse);
+            }
+          }
+        } else if (entry.getValue() == VolumeState.Creating) {
+          VolumeState state = VolumeState.fromValue(volume.getState());
+          switch (state) {
+            case Creating:
+              break;
+            case Available:
+              entry.setValue(VolumeState.Available);
+              break;
+            case Error:
+              // TODO log why the volume failed which may need a separate api call
+              entry.setValue(VolumeState.Error);
+              break;
+            default:
+              LOG.error("Volume {} went into an unexpected state {} while waiting for it to"
+                  + " become available", volumeId, state);
+              entry.setValue(VolumeState.Error);
+          }
+        }
+      }
+    }
   }
 
   /**
-   * Deletes a specified collection of volumes.
+   * Deletes a specified collection of volumes. Volumes that are in use are all detached up front,
+   * and each of them is deleted as soon as it is detached. Volumes that are not detached within
+   * the detach timeout, which applies to the whole collection, are not deleted.
    *
    * @param volumeIdsAndStates the collection of volume ids to delete along with their current state
+   * @throws InterruptedException if the operation is interrupted
    */
   public void deleteVolumes(Map<String, VolumeState> volumeIdsAndStates) throws InterruptedException {
     LOG.info(">> Deleting {} volumes", volumeIdsAndStates.size());
-    AmazonClientException ex = null;
+    DateTime timeout = DateTime.now().plusSeconds((int) detachTimeoutSeconds);
 
+    Set<String> volumesToDetach = Sets.newLinkedHashSet();
+    Set<String> volumesToDelete = Sets.newLinkedHashSet();
     for (Map.Entry<String, VolumeState> idAndState : volumeIdsAndStates.entrySet()) {
-      String id = idAndState.getKey();
-      VolumeState volumeState = idAndState.getValue();
+      if (idAndState.getValue() == VolumeState.InUse) {
+        volumesToDetach.add(idAndState.getKey());
+      } else {
+        volumesToDelete.add(idAndState.getKey());
+      }
+    }
 
-      if (volumeState == VolumeState.InUse) {
-        boolean detached = false;
+    Set<String> detachingVolumes = detachVolumes(volumesToDetach);
+    List<AmazonClientException> deleteExceptions = Lists.newArrayList();
+    deleteExceptions.addAll(deleteDetachedVolumes(volumesToDelete));
+
+    while (!detachingVolumes.isEmpty() && DateTime.now().isBefore(timeout)) {
+      LOG.info("Waiting for {} volumes to detach, next check in {} ms",
+          detachingVolumes.size(), waitIntervalMillis);
+      TimeUnit.MILLISECONDS.sleep(waitIntervalMillis);
+
+      Map<String, Volume> volumes = describeVolumes(detachingVolumes);
+      Set<String> detachedVolumes = Sets.newLinkedHashSet();
+      for (Iterator<String> iterator = detachingVolumes.iterator(); iterator.hasNext(); ) {
+        String id = iterator.next();
+        Volume volume = volumes.get(id);
+        if (volume == null) {
+          LOG.warn("Unable to find {}, proceeding to next volume.", id);
+          iterator.remove();
+        } else if (isDetached(volume)) {
+          LOG.info("Volume {} successfully detached", id);
+          detachedVolumes.add(id);
+          iterator.remove();
+        }
+      }
+      deleteExceptions.addAll(deleteDetachedVolumes(detachedVolumes));
+    }
 
-        try {
-          LOG.info("Detaching volume {}.", id);
-          DetachVolumeRequest detachVolumeRequest = new DetachVolumeRequest()
-              .withVolumeId(id);
-          client.detachVolume(detachVolumeRequest);
-
-          // Wait for the instance to detach
-          DateTime timeout = DateTime.now().plusSeconds((int) detachTimeoutSeconds);
-          while (DateTime.now().isBefore(timeout)) {
-            DescribeVolumesResult describeVolumeResult = client.describeVolumes(new DescribeVolumesRequest()
-                .withVolumeIds(id));
-
-            if (describeVolumeResult.getVolumes().size() != 1) {
-              continue;
-            }
+    for (String id : detachingVolumes) {
+      LOG.warn("Unable to detach {}, proceeding to next volume.", id);
+    }
 
-            Volume volume = describeVolumeResult.getVolumes().get(0);
+    if (!deleteExceptions.isEmpty()) {
+      throw AWSExceptions.propagate(deleteExceptions.get(0));
+    }
+  }
 
-            boolean allDetached = true;
-            for (VolumeAttachment attachment : volume.getAttachments()) {
-              if (VolumeAttachmentState.fromValue(attachment.getState()) != VolumeAttachmentState.Detached) {
-                allDetached = false;
-                break;
-              }
-            }
+  /**
+   * Detaches the specified volumes concurrently.
+   *
+   * @param volumeIds the IDs of the volumes to detach
+   * @return the IDs of the volumes that are being detached
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private Set<String> detachVolumes(Set<String> volumeIds) throws InterruptedException {
+    Set<String> detachingVolumes = Sets.newLinkedHashSet();
+    detachWindow.submitAll(
+        volumeIds,
+        0,
+        (String id, AsyncHandler<DetachVolumeRequest, DetachVolumeResult> handler) -> {
+          LOG.info("Detaching volume {}.", id);
+          return client.detachVolumeAsync(new DetachVolumeRequest().withVolumeId(id), handler);
+        },
+        new SubmissionWindow.CompletionHandler<String, DetachVolumeResult>() {
+          @Override
+          public void onSuccess(String id, DetachVolumeResult result) {
+            detachingVolumes.add(id);
+          }
 
-            if (allDetached) {
-              LOG.info("Volume {} successfully detached", id);
-              detached = true;
-              break;
+          @Override
+          public void onError(String id, Exception e) {
+            if (AWSExceptions.isNotFound(e)) {
+              LOG.warn("Unable to find {}, proceeding to next volume.", id);
+            } else {
+              LOG.error("<< Failed to detach volume " + id, e);
             }
+          }
+        });
+    return detachingVolumes;
+  }
 
-            LOG.info("Waiting for volume {} to detach, next check in 5 seconds.", id);
-            TimeUnit.SECONDS.sleep(5);
+  /**
+   * Deletes the specified detached volumes concurrently.
+   *
+   * @param volumeIds the IDs of the volumes to delete
+   * @return the errors of the volumes that could not be deleted
+   * @throws InterruptedException if the operation is interrupted
+   */
+  private List<AmazonClientException> deleteDetachedVolumes(Set<String> volumeIds)
+      throws InterruptedException {
+    List<AmazonClientException> exceptions = Lists.newArrayList();
+    deleteWindow.submitAll(
+        volumeIds,
+        0,
+        (String id, AsyncHandler<DeleteVolumeRequest, DeleteVolumeResult> handler) ->
+            client.deleteVolumeAsync(new DeleteVolumeRequest().withVolumeId(id), handler),
+        new SubmissionWindow.CompletionHandler<String, DeleteVolumeResult>() {
+          @Override
+          public void onSuccess(String id, DeleteVolumeResult result) {
+            LOG.info("Volume {} deleted.", id);
           }
 
-        } catch (AmazonClientException e) {
-          if (!AWSExceptions.isNotFound(e)) {
-            LOG.error("<< Failed to detach volume " + id, e);
-          } else {
-            LOG.warn("Unable to find {}, proceeding to next volume.", id);
-            continue;
+          @Override
+          public void onError(String id, Exception e) {
+            LOG.error("<< Failed to delete volume " + id, e);
+            exceptions.add((e instanceof AmazonClientException)
+                ? (AmazonClientException) e : new AmazonClientException(e));
           }
-        }
+        });
+    return exceptions;
+  }
 
-        if (!detached) {
-          LOG.warn("Unable to detach {}, proceeding to next volume.", id);
-          continue;
-        }
+  /**
+   * Returns whether all attachments of a volume are detached.
+   *
+   * @param volume the volume
+   * @return whether all attachments of the volume are detached
+   */
+  private static boolean isDetached(Volume volume) {
+    for (VolumeAttachment attachment : volume.getAttachments()) {
+      if (VolumeAttachmentState.fromValue(attachment.getState()) != VolumeAttachmentState.Detached) {
+        return false;
       }
+    }
+    return true;
+  }
 
-      DeleteVolumeRequest request = new DeleteVolumeRequest().withVolumeId(id);
-
+  /**
+   * Describes the specified volumes, in chunks. The volumes are matched with a filter rather
+   * than requested by ID, so that volumes that no longer exist are simply left out of the
+   * result instead of failing the whole request.
+   *
+   * @param volumeIds the IDs of the volumes to describe
+   * @return the volumes that were found, by volume ID
+   */
+  private Map<String, Volume> describeVolumes(Collection<String> volumeIds) {
+    Map<String, Volume> volumes = Maps.newHashMap();
+    for (List<String> chunk : Iterables.partition(volumeIds, MAX_DESCRIBE_VOLUMES_CHUNK_SIZE)) {
+      DescribeVolumesRequest request = new DescribeVolumesRequest()
+          .withFilters(new Filter().withName("volume-id").withValues(chunk));
       try {
-        client.deleteVolume(request);
-        LOG.info("Volume {} deleted.", id);
+        for (Volume volume : client.describeVolumes(request).getVolumes()) {
+          volumes.put(volume.getVolumeId(), volume);
+        }
       } catch (AmazonClientException e) {
-        LOG.error("<< Failed to delete volume " + id, e);
-        ex = (ex == null ? e : ex);
+        throw AWSExceptions.propagate(e);
       }
     }
-
-    if (ex != null) {
-      throw AWSExceptions.propagate(ex);
-    }
+    return volumes;
   }
 
   /**
    * Adds a delete on termination flag to all volumes in an {@code InstanceEbsVolumes} list
    * that are attached to a Director managed instance. This makes sure that the volumes associated with the
-   * instance will be automatically cleaned up upon instance termination.
+   * instance will be automatically cleaned up upon instance termination. The volumes of each instance
+   * are marked with a single request, and instances are processed concurrently. If that request
+   * fails, the volumes of the instance are marked one at a time, so that one bad volume does not
+   * leave the others unmarked.
+   *
+   * <p>A volume that could not be marked would outlive its instance, so it is returned in the
+   * error state, and its instance counts as having failed to acquire its volumes.</p>
    *
    * @param instanceEbsVolumesList list of instances along with their associated volumes
+   * @return the list of instances along with their associated volumes, where the volumes that
+   * could not be marked are in the error state
    */
-  public void addDeleteOnTerminationFlag(List<InstanceEbsVolumes> instanceEbsVolumesList) throws Exception {
+  public List<InstanceEbsVolumes> addDeleteOnTerminationFlag(
+      List<InstanceEbsVolumes> instanceEbsVolumesList) throws Exception {
     DateTime timeout = DateTime.now().plusSeconds((int) availableTimeoutSeconds);
+    Set<String> unmarkedVolumeIds = Sets.newConcurrentHashSet();
+    List<Callable<Void>> tasks = Lists.newArrayListWithExpectedSize(instanceEbsVolumesList.size());
     for (final InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
       Callable<Void> task = () -> {
         String ec2InstanceId = instanceEbsVolumes.getEc2InstanceId();
@@ -600,6 +893,7 @@ public class EBSAllocator {
                 .getInstanceAttribute()
                 .getBlockDeviceMappings();
 
+        List<InstanceBlockDeviceMappingSpecification> updatedSpecs = Lists.newArrayList();
         for (InstanceBlockDeviceMapping blockDeviceMapping : blockDeviceMappings) {
           String volumeId = blockDeviceMapping.getEbs().getVolumeId();
 
@@ -610,58 +904,104 @@ public class EBSAllocator {
             continue;
           }
 
-          InstanceBlockDeviceMappingSpecification updatedSpec = new InstanceBlockDeviceMappingSpecification()
+          updatedSpecs.add(new InstanceBlockDeviceMappingSpecification()
               .withEbs(
                   new EbsInstanceBlockDeviceSpecification()
                       .withDeleteOnTermination(true)
                       .withVolumeId(volumeId)
               )
-              .withDeviceName(blockDeviceMapping.getDeviceName());
+              .withDeviceName(blockDeviceMapping.getDeviceName()));
+        }
+
+        if (updatedSpecs.isEmpty()) {
+          return null;
+        }
 
-          ModifyInstanceAttributeRequest modifyRequest = new ModifyInstanceAttributeRequest()
-              .withBlockDeviceMappings(updatedSpec)
-              .withInstanceId(ec2InstanceId);
+        try {
+          client.modifyInstanceAttribute(new ModifyInstanceAttributeRequest()
+              .withBlockDeviceMappings(updatedSpecs)
+              .withInstanceId(ec2InstanceId));
+          return null;
+        } catch (AmazonClientException e) {
+          if (updatedSpecs.size() == 1) {
+            LOG.error("Failed to mark volume {} of instance {} for deletion on termination",
+                updatedSpecs.get(0).getEbs().getVolumeId(), ec2InstanceId, e);
+            unmarkedVolumeIds.add(updatedSpecs.get(0).getEbs().getVolumeId());
+            return null;
+          }
+          LOG.warn("Failed to mark volumes of instance {} for deletion on termination, " +
+              "marking them one at a time", ec2InstanceId, e);
+        }
 
+        for (InstanceBlockDeviceMappingSpecification spec : updatedSpecs) {
+          String volumeId = spec.getEbs().getVolumeId();
           try {
-            client.modifyInstanceAttribute(modifyRequest);
+            client.modifyInstanceAttribute(new ModifyInstanceAttributeRequest()
+                .withBlockDeviceMappings(spec)
+                .withInstanceId(ec2InstanceId));
           } catch (AmazonClientException e) {
-            LOG.error("Volume {} failed to attach.", volumeId);
+            LOG.error("Failed to mark volume {} of instance {} for deletion on termination",
+                volumeId, ec2InstanceId, e);
+            unmarkedVolumeIds.add(volumeId);
           }
         }
 
         return null;
       };
 
-      retryUntil(task, timeout);
+      tasks.add(() -> retryUntil(task, timeout));
+    }
+
+    Callables2.callConcurrently(Executors2.sharedExecutor(), MAX_CONCURRENT_INSTANCE_REQUESTS,
+        tasks);
+
+    if (unmarkedVolumeIds.isEmpty()) {
+      return instanceEbsVolumesList;
     }
+
+    List<InstanceEbsVolumes> updated =
+        Lists.newArrayListWithExpectedSize(instanceEbsVolumesList.size());
+    for (InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
+      Map<String, VolumeState> volumeStates = Maps.newHashMap(instanceEbsVolumes.getVolumeStates());
+      for (String volumeId : instanceEbsVolumes.getVolumeStates().keySet()) {
+        if (unmarkedVolumeIds.contains(volumeId)) {
+          volumeStates.put(volumeId, VolumeState.Error);
+        }
+      }
+      updated.add(new InstanceEbsVolumes(instanceEbsVolumes.getInstanceId(),
+          instanceEbsVolumes.getEc2InstanceId(), volumeStates));
+    }
+    return updated;
   }
 
   /**
-   * Returns the updated volume info for the given volumes.
+   * Returns the updated volume info for the given volumes. The volumes of all instances are
+   * described together, in chunks.
    *
    * @param instanceEbsVolumesList the list of instance EBS volumes to query
    * @return an updated list of instance EBS volumes
    */
   public List<InstanceEbsVolumes> getUpdatedVolumeInfo(List<InstanceEbsVolumes> instanceEbsVolumesList) {
+    Set<String> allVolumeIds = Sets.newLinkedHashSet();
+    for (InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
+      for (String volumeId : instanceEbsVolumes.getVolumeStates().keySet()) {
+        if (!volumeId.startsWith(InstanceEbsVolumes.UNCREATED_VOLUME_ID)) {
+          allVolumeIds.add(volumeId);
+        }
+      }
+    }
+    Map<String, Volume> volumes = describeVolumes(allVolumeIds);
+
     List<InstanceEbsVolumes> updatedInstanceEbsVolumesList =
         Lists.newArrayListWithExpectedSize(instanceEbsVolumesList.size());
 
     for (InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
       Map<String, VolumeState> volumeStatuses = Maps.newHashMap();
-      Set<String> volumeIds = instanceEbsVolumes.getVolumeStates().keySet();
-      DescribeVolumesRequest describeVolumesRequest = new DescribeVolumesRequest()
-          .withVolumeIds(volumeIds);
-
-      for (Volume volume : client.describeVolumes(describeVolumesRequest).getVolumes()) {
-        volumeStatuses.put(volume.getVolumeId(), VolumeState.fromValue(volume.getState()));
-      }
-
-      // If we've lost any volume IDs, add them in but label them as Error.
-      Set<String> missingVolumeIds = Sets.difference(volumeIds, volumeStatuses.keySet());
-      if (!missingVolumeIds.isEmpty()) {
-        for (String volumeId : missingVolumeIds) {
-          volumeStatuses.put(volumeId, VolumeState.Error);
-        }
+      for (String volumeId : instanceEbsVolumes.getVolumeStates().keySet()) {
+        // If we've lost any volume IDs, keep them but label them as Error.
+        Volume volume = volumes.get(volumeId);
+        volumeStatuses.put(volumeId,
+            (volume == null) ? VolumeState.Error : VolumeState.fromValue(volume.getState()));
       }
 
       updatedInstanceEbsVolumesList.add(new InstanceEbsVolumes(instanceEbsVolumes.getInstanceId(),
@@ -671,72 +1011,6 @@ public class EBSAllocator {
     return updatedInstanceEbsVolumesList;
   }
 
-  /**
-   * Wait for the specified list of volumes to be attached within a timeout.
-   *
-   * @param volumeIds collection of volume ids to wait for
-   * @return collection of volumes that were successfully attached
-   * @throws InterruptedException if the operation is interrupted
-   */
-  private Collection<String> waitUntilVolumesAttached(Collection<String> volumeIds) throws InterruptedException {
-    checkNotNull(volumeIds);
-    if (volumeIds.isEmpty()) {
-      LOG.info("No volumes are being attached, skipping wait");
-      return Collections.emptySet();
-    }
-
-    Set<String> unattachedVolumes = Sets.newHashSet(volumeIds);
-    Set<String> attachedVolumes = Sets.newHashSet();
-
-    LOG.info("Waiting for a maximum of {} seconds for volumes to be attached",
-        attachTimeoutSeconds);
-
-    Stopwatch watch = Stopwatch.createStarted();
-    while (watch.elapsed(TimeUnit.SECONDS) < attachTimeoutSeconds) {
-      DescribeVolumesRequest volumeRequest = new DescribeVolumesRequest().withVolumeIds(unattachedVolumes);
-      List<Volume> volumes = client.describeVolumes(volumeRequest).getVolumes();
-
-      for (Volume volume : volumes) {
-        VolumeAttachment attachment = Iterables.getOnlyElement(volume.getAttachments());
-        VolumeAttachmentState state = VolumeAttachmentState.fromValue(attachment.getState());
-
-        if (state == VolumeAttachmentState.Attached) {
-          unattachedVolumes.remove(volume.getVolumeId());
-          attachedVolumes.add(volume.getVolumeId());
-        }
-      }
-
-      if (unattachedVolumes.isEmpty()) {
-        return attachedVolumes;
-      }
-
-      LOG.info("Waiting on {} out of {} volumes to be attached, next check in {} seconds",
-          unattachedVolumes.size(), volumeIds.size(), WAIT_UNTIL_ATTACHED_INTERVAL_SECONDS);
-      TimeUnit.SECONDS.sleep(WAIT_UNTIL_ATTACHED_INTERVAL_SECONDS);
-    }
-
-    LOG.error("Timed out while waiting for all volumes to be attached, {} out of {} volumes were attached",
-        attachedVolumes.size(), volumeIds.size());
-    return attachedVolumes;
-  }
-
-  /**
-   * Tags an EBS volume. Expects that the volume already exists or is in the process of
-   * being created.
-   *
-   * @param template        the instance template
-   * @param userDefinedTags the user-defined tags
-   * @param instanceId      the Director instance id of its associated instance
-   * @param volumeId        the volume id
-   * @throws InterruptedException if the operation is interrupted
-   */
-  private void tagVolume(EC2InstanceTemplate template, List<Tag> userDefinedTags,
-      String instanceId, String volumeId) throws InterruptedException {
-    LOG.info(">> Tagging volume {} / {}", volumeId, instanceId);
-    List<Tag> tags = ec2TagHelper.getInstanceTags(template, instanceId, userDefinedTags);
-    client.createTags(new CreateTagsRequest().withTags(tags).withResources(volumeId));
-  }
-
   /**
    * Get the availability zone from a Subnet ID.
    *
@@ -17,31 +17,50 @@ package com.cloudera.director.aws.ec2.provider;
 import com.google.common.collect.Sets;
 
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Contains functions to extract information from EC2 Console Output.
+ *
+ * <p>The host key fingerprint block is located and its fingerprints are extracted in a single
+ * traversal of the console output, without regular expressions. A {@link Scan} additionally
+ * remembers how far it got, so that polling the growing console output of an instance only
+ * scans the newly appended text.</p>
  */
 final class ConsoleOutputExtractor {
 
-  private static final Pattern FINGERPRINTS_BLOCK_PATTERN = Pattern.compile(
-      "(BEGIN SSH HOST KEY FINGERPRINTS)(.*)(END SSH HOST KEY FINGERPRINTS)", Pattern.DOTALL
-  );
+  /**
+   * The marker that starts the host key fingerprint block.
+   */
+  private static final String FINGERPRINTS_BLOCK_BEGIN = "BEGIN SSH HOST KEY FINGERPRINTS";
 
-  private static final Pattern FINGERPRINT_PATTERN =
-      Pattern.compile("\\s(([0-9a-f]{2}:){15}[0-9a-f]{2})\\s");
+  /**
+   * The marker that ends the host key fingerprint block.
+   */
+  private static final String FINGERPRINTS_BLOCK_END = "END SSH HOST KEY FINGERPRINTS";
 
   /**
-   * Returns whether the ec2 console output contains a host key fingerprint section.
-   *
-   * @param consoleOutput the ec2 console output
-   * @return whether a host key fingerprint section is present
+   * The number of bytes in a fingerprint.
    */
-  boolean hasHostKeyFingerprintBlock(String consoleOutput) {
-    Matcher match = FINGERPRINTS_BLOCK_PATTERN.matcher(consoleOutput);
-    return match.find();
-  }
+  private static final int FINGERPRINT_BYTES = 16;
+
+  /**
+   * The length of a fingerprint written as colon separated hex bytes.
+   */
+  private static final int FINGERPRINT_LENGTH = 3 * FINGERPRINT_BYTES - 1;
+
+  /**
+   * The number of trailing characters of previously scanned output that are scanned again
+   * when resuming, so that a marker or fingerprint cut off by the end of the previous output
+   * is seen in full.
+   */
+  private static final int RESUME_OVERLAP =
+      Math.max(FINGERPRINT_LENGTH + 1, FINGERPRINTS_BLOCK_BEGIN.length());
+
+  /**
+   * The number of characters at the start and at the end of previously scanned output that
+   * are compared to decide whether new output continues it.
+   */
+  private static final int CONTINUATION_CHECK_LENGTH = 256;
 
   /**
    * Get the host key fingerprints from the console output. Assumes there
@@ -51,17 +70,185 @@ final class ConsoleOutputExtractor {
    * @return a set of host key fingerprints
    */
   Set<String> getHostKeyFingerprints(String consoleOutput) {
-    Matcher match = FINGERPRINTS_BLOCK_PATTERN.matcher(consoleOutput);
-    if (!match.find()) {
+    Set<String> hostKeyFingerprints = newScan().scan(consoleOutput);
+    if (hostKeyFingerprints == null) {
       throw new IllegalArgumentException("No SSH Host Key Fingerprint section in console output");
     }
-    String fingerprintBlock = match.group(2);
+    return hostKeyFingerprints;
+  }
+
+  /**
+   * Returns a new resumable scan for the console output of a single instance.
+   *
+   * @return a new resumable scan
+   */
+  Scan newScan() {
+    return new Scan();
+  }
+
+  /**
+   * Returns whether the specified character is whitespace, as matched by {@code \s} in
+   * regular expressions.
+   *
+   * @param c the character
+   * @return whether the specified character is whitespace
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+  }
+
+  /**
+   * Returns whether the specified character is a lower case hex digit.
+   *
+   * @param c the character
+   * @return whether the specified character is a lower case hex digit
+   */
+  private static boolean isHexDigit(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+  }
+
+  /**
+   * Returns whether a whitespace delimited fingerprint starts at the specified offset.
+   *
+   * @param consoleOutput the console output
+   * @param offset        the offset
+   * @return whether a whitespace delimited fingerprint starts at the specified offset
+   */
+  private static boolean isFingerprintAt(String consoleOutput, int offset) {
+    int end = offset + FINGERPRINT_LENGTH;
+    if (offset == 0 || end >= consoleOutput.length() ||
+        !isWhitespace(consoleOutput.charAt(offset - 1)) ||
+        !isWhitespace(consoleOutput.charAt(end))) {
+      return false;
+    }
+    for (int i = offset; i < end; i += 3) {
+      if (!isHexDigit(consoleOutput.charAt(i)) || !isHexDigit(consoleOutput.charAt(i + 1)) ||
+          (i + 2 < end && consoleOutput.charAt(i + 2) != ':')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Resumable scan of the console output of a single instance. The host key fingerprint block
+   * spans from the first begin marker to the last end marker, and holds every fingerprint
+   * between them. When scanned output is a continuation of the previously scanned output, only
+   * the appended text is scanned; otherwise, such as when the start of the console output has
+   * been truncated, the scan starts over. A scan is not thread safe.
+   */
+  static final class Scan {
+
+    /**
+     * The length of the previously scanned console output, or -1.
+     */
+    private int scannedLength = -1;
 
-    Set<String> hostKeyFingerprints = Sets.newHashSet();
-    match = FINGERPRINT_PATTERN.matcher(fingerprintBlock);
-    while (match.find()) {
-      hostKeyFingerprints.add(match.group(1));
+    /**
+     * The start of the previously scanned console output.
+     */
+    private String scannedHead;
+
+    /**
+     * The end of the previously scanned console output.
+     */
+    private String scannedTail;
+
+    /**
+     * The offset from which to resume scanning.
+     */
+    private int resumeOffset;
+
+    /**
+     * The offset just after the begin marker, or -1 if the begin marker has not been seen.
+     */
+    private int blockStart = -1;
+
+    /**
+     * The fingerprints before the last end marker, or {@code null} if no end marker has
+     * been seen.
+     */
+    private Set<String> blockFingerprints;
+
+    /**
+     * The fingerprints seen after the last end marker.
+     */
+    private final Set<String> pendingFingerprints = Sets.newHashSet();
+
+    /**
+     * Scans the specified console output, resuming from the previous scan if the output
+     * continues the previously scanned output.
+     *
+     * @param consoleOutput the ec2 console output
+     * @return the host key fingerprints, or {@code null} if the output does not contain a
+     * complete host key fingerprint block yet
+     */
+    Set<String> scan(String consoleOutput) {
+      if (!continuesScannedOutput(consoleOutput)) {
+        reset();
+      }
+      int length = consoleOutput.length();
+      scannedLength = length;
+      scannedHead = consoleOutput.substring(0, Math.min(length, CONTINUATION_CHECK_LENGTH));
+      scannedTail = consoleOutput.substring(Math.max(0, length - CONTINUATION_CHECK_LENGTH));
+      int offset = resumeOffset;
+
+      if (blockStart < 0) {
+        int begin = consoleOutput.indexOf(FINGERPRINTS_BLOCK_BEGIN, offset);
+        if (begin < 0) {
+          resumeOffset = Math.max(offset, length - FINGERPRINTS_BLOCK_BEGIN.length() + 1);
+          return null;
+        }
+        blockStart = begin + FINGERPRINTS_BLOCK_BEGIN.length();
+        offset = blockStart;
+      }
+
+      int lastBlockEnd = offset;
+      while (offset < length) {
+        char c = consoleOutput.charAt(offset);
+        if (c == 'E' && consoleOutput.startsWith(FINGERPRINTS_BLOCK_END, offset)) {
+          if (blockFingerprints == null) {
+            blockFingerprints = Sets.newHashSet();
+          }
+          blockFingerprints.addAll(pendingFingerprints);
+          pendingFingerprints.clear();
+          offset += FINGERPRINTS_BLOCK_END.length();
+          lastBlockEnd = offset;
+        } else if (isHexDigit(c) && isFingerprintAt(consoleOutput, offset)) {
+          pendingFingerprints.add(consoleOutput.substring(offset, offset + FINGERPRINT_LENGTH));
+          offset += FINGERPRINT_LENGTH;
+        } else {
+          offset++;
+        }
+      }
+      // Never rescan an end marker, since that would move later fingerprints into the block
+      resumeOffset = Math.max(lastBlockEnd, length - RESUME_OVERLAP);
+
+      return (blockFingerprints == null) ? null : Sets.newHashSet(blockFingerprints);
+    }
+
+    /**
+     * Returns whether the specified console output continues the previously scanned output.
+     * Since EC2 only returns the most recent console output, a longer output whose start and
+     * previous end are unchanged is taken to be a continuation, without comparing it in full.
+     *
+     * @param consoleOutput the ec2 console output
+     * @return whether the console output continues the previously scanned output
+     */
+    private boolean continuesScannedOutput(String consoleOutput) {
+      return scannedLength >= 0 && consoleOutput.length() >= scannedLength &&
+          consoleOutput.startsWith(scannedHead) &&
+          consoleOutput.startsWith(scannedTail, scannedLength - scannedTail.length());
+    }
+
+    /**
+     * Discards all scan progress.
+     */
+    private void reset() {
+      resumeOffset = 0;
+      blockStart = -1;
+      blockFingerprints = null;
+      pendingFingerprints.clear();
     }
-    return hostKeyFingerprints;
   }
 }
@@ -15,6 +15,7 @@
 package com.cloudera.director.aws.ec2.provider;
 
 
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.ALLOCATE_EBS_SEPARATELY;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.AVAILABILITY_ZONE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.BLOCK_DURATION_MINUTES;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_IOPS;
@@ -23,6 +24,9 @@ import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTempl
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_SIZE_GIB;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_TYPE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.ENCRYPT_ADDITIONAL_EBS_VOLUMES;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_INSTANCE_TYPES;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_ON_DEMAND_BASE_CAPACITY;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_SUBNET_IDS;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IAM_PROFILE_NAME;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.KEY_NAME;
@@ -33,10 +37,12 @@ import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTempl
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SPOT_BID_USD_PER_HR;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SPOT_PRICE_USD_PER_HR;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SUBNET_ID;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SYSTEM_DISKS;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TENANCY;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TYPE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USER_DATA;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USER_DATA_UNENCODED;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_EC2_FLEET;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_SPOT_INSTANCES;
 import static com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.AUTOMATIC;
 import static com.cloudera.director.spi.v2.model.util.Validations.addError;
@@ -45,8 +51,6 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesRequest;
 import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesResult;
-import com.amazonaws.services.ec2.model.DescribeImagesRequest;
-import com.amazonaws.services.ec2.model.DescribeImagesResult;
 import com.amazonaws.services.ec2.model.DescribeKeyPairsRequest;
 import com.amazonaws.services.ec2.model.DescribeKeyPairsResult;
 import com.amazonaws.services.ec2.model.DescribePlacementGroupsRequest;
@@ -63,7 +67,14 @@ import com.amazonaws.services.kms.AWSKMSClient;
 import com.amazonaws.services.kms.model.DescribeKeyRequest;
 import com.amazonaws.services.kms.model.NotFoundException;
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.common.ConcurrentValidations;
+import com.cloudera.director.aws.common.ConcurrentValidations.CompletedCheck;
+import com.cloudera.director.aws.common.Executors2;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EphemeralDeviceMappings;
+import com.cloudera.director.aws.ec2.ValidationLookupCache;
+import com.cloudera.director.aws.ec2.ValidationLookupCache.ResourceKind;
 import com.cloudera.director.aws.ec2.ebs.EBSMetadata;
 import com.cloudera.director.aws.ec2.ebs.EBSMetadata.EbsVolumeMetadata;
 import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
@@ -76,16 +87,23 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -218,6 +236,28 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
   static final String NO_SPOT_WITH_ASG_MSG =
       "Spot Instance use with Auto Scaling Groups is not currently supported";
 
+  @VisibleForTesting
+  static final String NO_FLEET_WITH_ASG_MSG =
+      "EC2 Fleet use with Auto Scaling Groups is not supported";
+
+  @VisibleForTesting
+  static final String NO_BLOCK_DURATION_WITH_FLEET_MSG =
+      "Spot block durations are not supported with EC2 Fleet";
+
+  @VisibleForTesting
+  static final String INVALID_FLEET_ON_DEMAND_BASE_CAPACITY_MSG =
+      "Invalid EC2 Fleet On-Demand base capacity %s. The capacity must be a non-negative integer";
+
+  @VisibleForTesting
+  static final String NO_FLEET_SUBNETS_WITH_SEPARATE_EBS_MSG =
+      "EC2 Fleet subnets are not supported with EBS volumes allocated separately, since the " +
+          "volumes are all created in the availability zone of the template";
+
+  @VisibleForTesting
+  static final String INVALID_FLEET_INSTANCE_TYPE_EPHEMERAL_MSG =
+      "EC2 Fleet instance type %s has %d instance store volumes, but instance type %s has %d. " +
+          "Every instance type of an EC2 Fleet must have the same number of instance store volumes";
+
   @VisibleForTesting
   static final String IMAGE_OWNER_ID_BLACKLIST_KEY = "ownerId";
 
@@ -270,6 +310,9 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
   static final String INVALID_KMS_WHEN_ENCRYPTION_DISABLED_MSG =
       "The KMS Key ID can only be set with encryption enabled";
 
+  private static final String KMS_NOT_FOUND = "NotFoundException";
+  private static final String KMS_ACCESS_DENIED = "AccessDeniedException";
+
   @VisibleForTesting
   static final String INVALID_KMS_NOT_FOUND_MESSAGE =
       "The KMS Key ID could not be found";
@@ -282,6 +325,16 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
   static final String BOTH_USER_DATA_USED =
       "Specify only the encoded or unencoded user data, not both";
 
+  /**
+   * The default maximum number of validation checks in flight at a time.
+   */
+  private static final int DEFAULT_MAX_CONCURRENT_CHECKS = 8;
+
+  /**
+   * The request limit key for the maximum number of validation checks in flight at a time.
+   */
+  private static final String MAX_CONCURRENT_CHECKS_KEY = "ec2.validation.maxConcurrentChecks";
+
   /**
    * The EC2 provider.
    */
@@ -297,6 +350,16 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
    */
   private final EBSMetadata ebsMetadata;
 
+  /**
+   * The times to keep validation lookups.
+   */
+  private final ValidationLookupCache.Ttls lookupTtls;
+
+  /**
+   * The maximum number of validation checks in flight at a time.
+   */
+  private final int maxConcurrentChecks;
+
   /**
    * Creates an EC2 instance template configuration validator with the specified parameters.
    *
@@ -306,6 +369,20 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
     this.provider = Preconditions.checkNotNull(provider, "provider");
     this.ebsMetadata = Preconditions.checkNotNull(ebsMetadata, "ebsMetadata");
     templateFilters = provider.getEC2Filters().getSubfilters("template");
+    lookupTtls = ValidationLookupCache.Ttls.fromTimeouts(provider.getAWSTimeouts());
+    maxConcurrentChecks = getMaxConcurrentChecks(provider.getAWSRequestLimits());
+  }
+
+  /**
+   * Returns the maximum number of validation checks in flight at a time.
+   *
+   * @param awsRequestLimits the AWS request limits, or {@code null} to use the default
+   * @return the maximum number of validation checks in flight at a time
+   */
+  static int getMaxConcurrentChecks(AWSRequestLimits awsRequestLimits) {
+    return (awsRequestLimits == null)
+        ? DEFAULT_MAX_CONCURRENT_CHECKS
+        : awsRequestLimits.getLimit(MAX_CONCURRENT_CHECKS_KEY, DEFAULT_MAX_CONCURRENT_CHECKS);
   }
 
   @Override
@@ -315,20 +392,64 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
     AmazonEC2Client ec2Client = provider.getClient();
     AWSKMSClient kmsClient = provider.getKmsClient();
 
-    checkImage(ec2Client, configuration, accumulator, localizationContext);
-    Map<String, String> vpcSubnetMap = checkSubnetId(ec2Client, configuration, accumulator, localizationContext);
+    // The checks that describe remote resources are independent, so they run concurrently.
+    // Their conditions are merged in the original check order, interleaved with the local
+    // checks, so that validation reports the same conditions in the same order as before.
+    List<Function<PluginExceptionConditionAccumulator, Object>> remoteChecks = ImmutableList.of(
+        a -> {
+          checkImage(ec2Client, configuration, a, localizationContext);
+          return null;
+        },
+        a -> checkSubnetId(ec2Client, configuration, a, localizationContext),
+        a -> checkSecurityGroupIds(ec2Client, configuration, a, localizationContext),
+        a -> {
+          checkAvailabilityZone(ec2Client, configuration, a, localizationContext);
+          return null;
+        },
+        a -> {
+          checkPlacementGroup(ec2Client, configuration, a, localizationContext);
+          return null;
+        },
+        a -> {
+          checkIamProfileName(configuration, a, localizationContext);
+          return null;
+        },
+        a -> {
+          checkEbsVolumes(kmsClient, configuration, a, localizationContext);
+          return null;
+        },
+        a -> {
+          checkKeyName(ec2Client, configuration, a, localizationContext);
+          return null;
+        },
+        a -> checkFleetSubnetIds(ec2Client, configuration, a, localizationContext));
+    Iterator<CompletedCheck<Object>> completedChecks = ConcurrentValidations.completeChecks(
+        Executors2.sharedExecutor(), maxConcurrentChecks, remoteChecks).iterator();
+
+    completedChecks.next().mergeInto(accumulator);
+    @SuppressWarnings("unchecked")
+    Map<String, String> vpcSubnetMap =
+        (Map<String, String>) completedChecks.next().mergeInto(accumulator);
+    @SuppressWarnings("unchecked")
     Map<String, Set<String>> vpcSecurityGroupMap =
-        checkSecurityGroupIds(ec2Client, configuration, accumulator, localizationContext);
+        (Map<String, Set<String>>) completedChecks.next().mergeInto(accumulator);
     checkVpc(vpcSubnetMap, vpcSecurityGroupMap, accumulator, localizationContext);
-    checkAvailabilityZone(ec2Client, configuration, accumulator, localizationContext);
-    checkPlacementGroup(ec2Client, configuration, accumulator, localizationContext);
+    completedChecks.next().mergeInto(accumulator);
+    completedChecks.next().mergeInto(accumulator);
     checkTenancy(configuration, accumulator, localizationContext);
-    checkIamProfileName(configuration, accumulator, localizationContext);
+    completedChecks.next().mergeInto(accumulator);
     checkRootVolumeSize(configuration, accumulator, localizationContext);
     checkRootVolumeType(configuration, accumulator, localizationContext);
-    checkEbsVolumes(kmsClient, configuration, accumulator, localizationContext);
-    checkKeyName(ec2Client, configuration, accumulator, localizationContext);
+    completedChecks.next().mergeInto(accumulator);
+    completedChecks.next().mergeInto(accumulator);
     checkSpotParameters(configuration, accumulator, localizationContext);
+    @SuppressWarnings("unchecked")
+    List<Map<String, String>> fleetVpcSubnetMaps =
+        (List<Map<String, String>>) completedChecks.next().mergeInto(accumulator);
+    for (Map<String, String> fleetVpcSubnetMap : fleetVpcSubnetMaps) {
+      checkVpc(fleetVpcSubnetMap, vpcSecurityGroupMap, accumulator, localizationContext);
+    }
+    checkFleetParameters(configuration, accumulator, localizationContext);
     checkUserData(configuration, accumulator, localizationContext);
   }
 
@@ -359,12 +480,12 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
     }
 
     LOG.info(">> Describing AMI '{}'", imageName);
-    DescribeImagesResult result = null;
+    List<Image> images = null;
     try {
-      result = client.describeImages(
-          new DescribeImagesRequest().withImageIds(imageName));
-      checkCount(accumulator, IMAGE, localizationContext, imageName,
-          result.getImages());
+      images = provider.getImageMetadataCache()
+          .describeImages(client, provider.getCredentialsScope(), provider.getRegion(),
+              imageName);
+      checkCount(accumulator, IMAGE, localizationContext, imageName, images);
     } catch (AmazonServiceException e) {
       if (e.getErrorCode().startsWith(INVALID_AMI_ID)) {
         addError(accumulator, IMAGE, localizationContext,
@@ -374,11 +495,11 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
       }
     }
 
-    if ((result == null) || (accumulator.getConditionsByKey().size() > conditionCount)) {
+    if ((images == null) || (accumulator.getConditionsByKey().size() > conditionCount)) {
       return;
     }
 
-    Image image = Iterables.getOnlyElement(result.getImages());
+    Image image = Iterables.getOnlyElement(images);
     if (!SIXTY_FOUR_BIT_ARCHITECTURE.equals(image.getArchitecture())) {
       addError(accumulator, IMAGE, localizationContext,
           null, INVALID_AMI_ARCHITECTURE_MSG, imageName, image.getArchitecture());
@@ -431,11 +552,21 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
           null, INVALID_AMI_STATE_MSG, imageName, image.getState());
     }
 
-    if (!provider.getVirtualizationMappings().apply(image.getVirtualizationType()).contains(type)) {
+    List<String> compatibleTypes =
+        provider.getVirtualizationMappings().apply(image.getVirtualizationType());
+    if (!compatibleTypes.contains(type)) {
       addError(accumulator, IMAGE, localizationContext,
           null, INVALID_AMI_INSTANCE_TYPE_COMPATIBILITY_MSG,
           type, image.getVirtualizationType(), imageName);
     }
+    for (String fleetInstanceType
+        : getFleetValues(configuration, FLEET_INSTANCE_TYPES, localizationContext)) {
+      if (!compatibleTypes.contains(fleetInstanceType)) {
+        addError(accumulator, FLEET_INSTANCE_TYPES, localizationContext,
+            null, INVALID_AMI_INSTANCE_TYPE_COMPATIBILITY_MSG,
+            fleetInstanceType, image.getVirtualizationType(), imageName);
+      }
+    }
 
     if (!ROOT_DEVICE_TYPE.equals(image.getRootDeviceType())) {
       addError(accumulator, IMAGE, localizationContext,
@@ -462,14 +593,15 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
       LOG.info(">> Describing zone '{}'", zoneName);
 
       try {
-        DescribeAvailabilityZonesResult result = client.describeAvailabilityZones(
-            new DescribeAvailabilityZonesRequest().withZoneNames(zoneName));
+        DescribeAvailabilityZonesResult result = lookup(ResourceKind.AVAILABILITY_ZONE, zoneName,
+            () -> client.describeAvailabilityZones(
+                new DescribeAvailabilityZonesRequest().withZoneNames(zoneName)),
+            e -> isInvalidAvailabilityZone(e));
 
         checkCount(accumulator, AVAILABILITY_ZONE, localizationContext, "Availability zone",
             result.getAvailabilityZones());
       } catch (AmazonServiceException e) {
-        if (e.getErrorCode().equals(INVALID_PARAMETER_VALUE) &&
-            e.getMessage().contains(INVALID_AVAILABILITY_ZONE)) {
+        if (isInvalidAvailabilityZone(e)) {
           addError(accumulator, AVAILABILITY_ZONE, localizationContext,
               null, INVALID_AVAILABILITY_ZONE_MSG, zoneName);
         } else {
@@ -500,8 +632,10 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
       LOG.info(">> Describing placement group '{}'", placementGroup);
 
       try {
-        DescribePlacementGroupsResult result = client.describePlacementGroups(
-            new DescribePlacementGroupsRequest().withGroupNames(placementGroup));
+        DescribePlacementGroupsResult result = lookup(ResourceKind.PLACEMENT_GROUP, placementGroup,
+            () -> client.describePlacementGroups(
+                new DescribePlacementGroupsRequest().withGroupNames(placementGroup)),
+            e -> e.getErrorCode().startsWith(INVALID_PLACEMENT_GROUP_ID));
 
         checkCount(accumulator, PLACEMENT_GROUP, localizationContext, "Placement group",
             result.getPlacementGroups());
@@ -582,19 +716,60 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
       PluginExceptionConditionAccumulator accumulator,
       LocalizationContext localizationContext) {
     String subnetId = configuration.getConfigurationValue(SUBNET_ID, localizationContext);
+    return checkSubnetId(client, SUBNET_ID, subnetId, accumulator, localizationContext);
+  }
+
+  /**
+   * Validates the configured EC2 Fleet subnet IDs.
+   *
+   * @param client              the EC2 client
+   * @param configuration       the configuration to be validated
+   * @param accumulator         the exception condition accumulator
+   * @param localizationContext the localization context
+   * @return the vpc id to subnet id mapping of each EC2 Fleet subnet
+   */
+  @VisibleForTesting
+  List<Map<String, String>> checkFleetSubnetIds(AmazonEC2Client client,
+      Configured configuration,
+      PluginExceptionConditionAccumulator accumulator,
+      LocalizationContext localizationContext) {
+    List<Map<String, String>> vpcSubnetMaps = Lists.newArrayList();
+    for (String subnetId
+        : getFleetValues(configuration, FLEET_SUBNET_IDS, localizationContext)) {
+      vpcSubnetMaps.add(
+          checkSubnetId(client, FLEET_SUBNET_IDS, subnetId, accumulator, localizationContext));
+    }
+    return vpcSubnetMaps;
+  }
+
+  /**
+   * Validates a subnet ID.
+   *
+   * @param client              the EC2 client
+   * @param token               the token representing the configuration property of the subnet
+   * @param subnetId            the subnet ID
+   * @param accumulator         the exception condition accumulator
+   * @param localizationContext the localization context
+   * @return the vpc id to subnet id mapping
+   */
+  private Map<String, String> checkSubnetId(AmazonEC2Client client,
+      ConfigurationPropertyToken token, String subnetId,
+      PluginExceptionConditionAccumulator accumulator,
+      LocalizationContext localizationContext) {
     LOG.info(">> Describing subnet '{}'", subnetId);
 
     try {
-      DescribeSubnetsResult result = client.describeSubnets(
-          new DescribeSubnetsRequest().withSubnetIds(subnetId));
-      checkCount(accumulator, SUBNET_ID, localizationContext, "Subnet",
+      DescribeSubnetsResult result = lookup(ResourceKind.SUBNET, subnetId,
+          () -> client.describeSubnets(new DescribeSubnetsRequest().withSubnetIds(subnetId)),
+          e -> e.getErrorCode().startsWith(INVALID_SUBNET_ID));
+      checkCount(accumulator, token, localizationContext, "Subnet",
           result.getSubnets());
       if (result.getSubnets().size() == 1) {
         return ImmutableMap.of(Iterables.getOnlyElement(result.getSubnets()).getVpcId(), subnetId);
       }
     } catch (AmazonServiceException e) {
       if (e.getErrorCode().startsWith(INVALID_SUBNET_ID)) {
-        addError(accumulator, SUBNET_ID, localizationContext,
+        addError(accumulator, token, localizationContext,
             null, INVALID_SUBNET_MSG, subnetId);
       } else {
         throw Throwables.propagate(e);
@@ -626,8 +801,10 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
       LOG.info(">> Describing security group '{}'", securityGroupId);
 
       try {
-        DescribeSecurityGroupsResult result = client.describeSecurityGroups(
-            new DescribeSecurityGroupsRequest().withGroupIds(securityGroupId));
+        DescribeSecurityGroupsResult result = lookup(ResourceKind.SECURITY_GROUP, securityGroupId,
+            () -> client.describeSecurityGroups(
+                new DescribeSecurityGroupsRequest().withGroupIds(securityGroupId)),
+            e -> e.getErrorCode().startsWith(INVALID_SECURITY_GROUP));
         checkCount(accumulator, SECURITY_GROUP_IDS, localizationContext, securityGroupId,
             result.getSecurityGroups()
         );
@@ -790,11 +967,13 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
         // verify that we can find the key in KMS
         DescribeKeyRequest keyRequest = new DescribeKeyRequest().withKeyId(kmsKeyId);
         try {
-          kmsClient.describeKey(keyRequest);
-        } catch (NotFoundException ex) {
-          addError(accumulator, EBS_KMS_KEY_ID, localizationContext, null, INVALID_KMS_NOT_FOUND_MESSAGE);
+          lookup(ResourceKind.KMS_KEY, kmsKeyId,
+              () -> kmsClient.describeKey(keyRequest),
+              EC2InstanceTemplateConfigurationValidator::isKmsKeyNotFound);
         } catch (AmazonServiceException ex) {
-          if (ex.getErrorCode().equals("AccessDeniedException")) {
+          if (isKmsKeyNotFound(ex)) {
+            addError(accumulator, EBS_KMS_KEY_ID, localizationContext, null, INVALID_KMS_NOT_FOUND_MESSAGE);
+          } else if (KMS_ACCESS_DENIED.equals(ex.getErrorCode())) {
             addError(accumulator, EBS_KMS_KEY_ID, localizationContext, null, KMS_KEY_DENIED_MESSAGE);
           } else {
             addError(accumulator, EBS_KMS_KEY_ID, localizationContext, null,
@@ -894,14 +1073,19 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
     if (keyName != null) {
       LOG.info(">> Describing key pair");
       try {
-        DescribeKeyPairsResult result = client.describeKeyPairs(
-            new DescribeKeyPairsRequest().withKeyNames(keyName));
+        DescribeKeyPairsResult result = lookup(ResourceKind.KEY_PAIR, keyName,
+            () -> client.describeKeyPairs(new DescribeKeyPairsRequest().withKeyNames(keyName)),
+            e -> e.getErrorCode().startsWith(INVALID_KEY_PAIR));
         // TODO Should this be REDACTED instead of NotDisplayed?
         checkCount(accumulator, KEY_NAME, localizationContext, "NotDisplayed",
             result.getKeyPairs());
+        if (result.getKeyPairs().isEmpty()) {
+          provider.getKeyNameCache().invalidateKeyName(keyName);
+        }
 
       } catch (AmazonServiceException e) {
         if (e.getErrorCode().startsWith(INVALID_KEY_PAIR)) {
+          provider.getKeyNameCache().invalidateKeyName(keyName);
           addError(accumulator, KEY_NAME, localizationContext,
               null, INVALID_KEY_NAME_MSG, keyName);
         } else {
@@ -911,6 +1095,46 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
     }
   }
 
+  /**
+   * Returns the result of looking up the specified resource through the validation lookup
+   * cache, so that resources shared by many templates are described once.
+   *
+   * @param kind       the resource kind
+   * @param resourceId the resource identifier
+   * @param loader     the lookup to perform on a cache miss
+   * @param isNotFound whether a failure indicates that the resource does not exist
+   * @param <T>        the type of result
+   * @return the result of the lookup, which must not be modified
+   */
+  private <T> T lookup(ResourceKind kind, String resourceId, Supplier<T> loader,
+      Predicate<? super AmazonServiceException> isNotFound) {
+    return provider.getValidationLookupCache()
+        .lookup(kind, provider.getCredentialsScope(), provider.getRegion(), resourceId,
+            lookupTtls, loader, isNotFound);
+  }
+
+  /**
+   * Returns whether the specified exception indicates an invalid availability zone.
+   *
+   * @param e the exception
+   * @return whether the specified exception indicates an invalid availability zone
+   */
+  private static boolean isInvalidAvailabilityZone(AmazonServiceException e) {
+    return e.getErrorCode().equals(INVALID_PARAMETER_VALUE) &&
+        e.getMessage().contains(INVALID_AVAILABILITY_ZONE);
+  }
+
+  /**
+   * Returns whether the specified exception indicates that a KMS key does not exist. The
+   * error code is checked as well as the type, since the exception may have been copied.
+   *
+   * @param e the exception
+   * @return whether the specified exception indicates that a KMS key does not exist
+   */
+  private static boolean isKmsKeyNotFound(AmazonServiceException e) {
+    return e instanceof NotFoundException || KMS_NOT_FOUND.equals(e.getErrorCode());
+  }
+
   /**
    * Validates the configured Spot parameters.
    *
@@ -969,6 +1193,123 @@ public class EC2InstanceTemplateConfigurationValidator implements ConfigurationV
     }
   }
 
+  /**
+   * Validates the configured EC2 Fleet parameters.
+   *
+   * @param configuration       the configuration to be validated
+   * @param accumulator         the exception condition accumulator
+   * @param localizationContext the localization context
+   */
+  @VisibleForTesting
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  void checkFleetParameters(Configured configuration,
+      PluginExceptionConditionAccumulator accumulator,
+      LocalizationContext localizationContext) {
+
+    boolean useEc2Fleet = Boolean.parseBoolean(
+        configuration.getConfigurationValue(USE_EC2_FLEET, localizationContext));
+    if (!useEc2Fleet) {
+      return;
+    }
+
+    boolean automatic = Boolean.parseBoolean(
+        configuration.getConfigurationValue(AUTOMATIC, localizationContext));
+    if (automatic) {
+      addError(accumulator, USE_EC2_FLEET, localizationContext,
+          null, NO_FLEET_WITH_ASG_MSG);
+    }
+
+    String blockDurationMinutes = Strings.emptyToNull(
+        configuration.getConfigurationValue(BLOCK_DURATION_MINUTES, localizationContext));
+    if (blockDurationMinutes != null) {
+      addError(accumulator, BLOCK_DURATION_MINUTES, localizationContext,
+          null, NO_BLOCK_DURATION_WITH_FLEET_MSG);
+    }
+
+    String onDemandBaseCapacity = Strings.emptyToNull(
+        configuration.getConfigurationValue(FLEET_ON_DEMAND_BASE_CAPACITY, localizationContext));
+    if (onDemandBaseCapacity != null) {
+      boolean valid = false;
+      try {
+        valid = Integer.parseInt(onDemandBaseCapacity) >= 0;
+      } catch (NumberFormatException ignore) {
+      }
+      if (!valid) {
+        addError(accumulator, FLEET_ON_DEMAND_BASE_CAPACITY, localizationContext,
+            null, INVALID_FLEET_ON_DEMAND_BASE_CAPACITY_MSG, onDemandBaseCapacity);
+      }
+    }
+
+    // The fleet may place instances in any zone of its subnets, while volumes allocated
+    // separately are created in the zone of the template
+    List<String> fleetSubnetIds =
+        getFleetValues(configuration, FLEET_SUBNET_IDS, localizationContext);
+    if (!fleetSubnetIds.isEmpty() && isEbsAllocatedSeparately(configuration, localizationContext)) {
+      addError(accumulator, FLEET_SUBNET_IDS, localizationContext,
+          null, NO_FLEET_SUBNETS_WITH_SEPARATE_EBS_MSG);
+    }
+
+    // The launch template of the fleet maps the instance store volumes of the instance type
+    List<String> fleetInstanceTypes =
+        getFleetValues(configuration, FLEET_INSTANCE_TYPES, localizationContext);
+    if (!fleetInstanceTypes.isEmpty()) {
+      EphemeralDeviceMappings ephemeralDeviceMappings = provider.getEphemeralDeviceMappings();
+      String type = configuration.getConfigurationValue(TYPE, localizationContext);
+      int ephemeralCount = ephemeralDeviceMappings.getBlockDeviceMappings(type).size();
+      for (String fleetInstanceType : fleetInstanceTypes) {
+        int fleetEphemeralCount =
+            ephemeralDeviceMappings.getBlockDeviceMappings(fleetInstanceType).size();
+        if (fleetEphemeralCount != ephemeralCount) {
+          addError(accumulator, FLEET_INSTANCE_TYPES, localizationContext,
+              null, INVALID_FLEET_INSTANCE_TYPE_EPHEMERAL_MSG,
+              fleetInstanceType, fleetEphemeralCount, type, ephemeralCount);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns whether EBS volumes are created and attached separately from the instances, which
+   * is the case when separate allocation is requested for volumes encrypted with a KMS key.
+   *
+   * @param configuration       the configuration
+   * @param localizationContext the localization context
+   * @return whether EBS volumes are allocated separately
+   */
+  private static boolean isEbsAllocatedSeparately(Configured configuration,
+      LocalizationContext localizationContext) {
+    boolean allocateEbsSeparately = Boolean.parseBoolean(
+        configuration.getConfigurationValue(ALLOCATE_EBS_SEPARATELY, localizationContext));
+    if (!allocateEbsSeparately) {
+      return false;
+    }
+    String kmsKeyId = Strings.emptyToNull(
+        configuration.getConfigurationValue(EBS_KMS_KEY_ID, localizationContext));
+    String systemDisks = Strings.emptyToNull(
+        configuration.getConfigurationValue(SYSTEM_DISKS, localizationContext));
+    return kmsKeyId != null || systemDisks != null;
+  }
+
+  /**
+   * Returns the values of the specified comma-separated EC2 Fleet property, or an empty list
+   * if EC2 Fleet is not used.
+   *
+   * @param configuration       the configuration
+   * @param token               the token representing the EC2 Fleet property
+   * @param localizationContext the localization context
+   * @return the values of the property
+   */
+  private static List<String> getFleetValues(Configured configuration,
+      ConfigurationPropertyToken token, LocalizationContext localizationContext) {
+    boolean useEc2Fleet = Boolean.parseBoolean(
+        configuration.getConfigurationValue(USE_EC2_FLEET, localizationContext));
+    if (!useEc2Fleet) {
+      return Collections.emptyList();
+    }
+    return EC2InstanceTemplate.CSV_SPLITTER.splitToList(
+        Strings.nullToEmpty(configuration.getConfigurationValue(token, localizationContext)));
+  }
+
   /**
    * Validates that only one user data property was used, if any.
    *
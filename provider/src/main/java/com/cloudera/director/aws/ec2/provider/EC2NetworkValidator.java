@@ -33,10 +33,13 @@ import com.amazonaws.services.ec2.model.NetworkAcl;
 import com.amazonaws.services.ec2.model.NetworkAclEntry;
 import com.amazonaws.services.ec2.model.PortRange;
 import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.cloudera.director.aws.common.ConcurrentValidations;
+import com.cloudera.director.aws.common.Executors2;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
 import com.cloudera.director.aws.network.AccessType;
 import com.cloudera.director.aws.network.Direction;
 import com.cloudera.director.aws.network.NetworkRule;
+import com.cloudera.director.aws.network.NetworkRuleIndex;
 import com.cloudera.director.aws.network.NetworkRules;
 import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
 import com.cloudera.director.spi.v2.model.ConfigurationValidator;
@@ -54,13 +57,15 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
 
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,6 +87,11 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
    */
   private final NetworkRules networkRules;
 
+  /**
+   * The maximum number of validation checks in flight at a time.
+   */
+  private final int maxConcurrentChecks;
+
   private static final String INVALID_ENFORCEMENT_SECURITY_GROUP =
       "No security groups enforce %s network rule: %s";
 
@@ -108,6 +118,9 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
   public EC2NetworkValidator(EC2Provider provider) {
     this.provider = Preconditions.checkNotNull(provider, "provider");
     this.networkRules = provider.getNetworkRules();
+    this.maxConcurrentChecks =
+        EC2InstanceTemplateConfigurationValidator.getMaxConcurrentChecks(
+            provider.getAWSRequestLimits());
   }
 
   /**
@@ -129,8 +142,17 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
     }
 
     AmazonEC2Client ec2Client = provider.getClient();
-    checkSecurityGroups(ec2Client, configuration, accumulator, localizationContext);
-    checkNetworkACL(ec2Client, configuration, accumulator, localizationContext);
+    List<Function<PluginExceptionConditionAccumulator, Void>> checks = ImmutableList.of(
+        a -> {
+          checkSecurityGroups(ec2Client, configuration, a, localizationContext);
+          return null;
+        },
+        a -> {
+          checkNetworkACL(ec2Client, configuration, a, localizationContext);
+          return null;
+        });
+    ConcurrentValidations.runChecks(Executors2.sharedExecutor(), maxConcurrentChecks,
+        accumulator, checks);
   }
 
   /**
@@ -237,10 +259,14 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
       return;
     }
 
-    List<NetworkRule> pendingRules = Lists.newArrayList(rules);
+    NetworkRuleIndex index = networkRules.getIndex(direction);
+    Set<NetworkRule> pendingRules = Sets.newLinkedHashSet(rules);
     Multimap<String, NetworkRule> violatedRules = HashMultimap.create();
 
     for (NetworkAclEntry aclEntry : sortedEntries) {
+      if (pendingRules.isEmpty()) {
+        break;
+      }
       String cidr = getCidrFromAclEntry(aclEntry);
       if (cidr != null) {
         final List<String> ipRanges = ImmutableList.of(cidr);
@@ -249,14 +275,11 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
         final AccessType accessType =
             AccessType.valueOf(aclEntry.getRuleAction().toUpperCase(localizationContext.getLocale()));
 
-        Iterator<NetworkRule> ruleIt = pendingRules.iterator();
-        while (ruleIt.hasNext()) {
-          NetworkRule rule = ruleIt.next();
-          if (rule.isEnforced(protocol, ports, ipRanges, accessType)) {
-            ruleIt.remove();
-          } else if (rule.isViolated(protocol, ports, ipRanges, accessType)) {
+        // Earlier entries take precedence, so only pending rules are affected by this entry
+        pendingRules.removeAll(index.getEnforcedRules(protocol, ports, ipRanges, accessType));
+        for (NetworkRule rule : index.getViolatedRules(protocol, ports, ipRanges, accessType)) {
+          if (pendingRules.remove(rule)) {
             violatedRules.put(networkAclId, rule);
-            ruleIt.remove();
           }
         }
       }
@@ -357,7 +380,6 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
    * @param accumulator         the exception condition accumulator
    * @param localizationContext the localization context
    */
-  @SuppressWarnings("StaticPseudoFunctionalStyleMethod")
   private void checkRulesForSecurityGroups(List<SecurityGroup> securityGroups,
       Direction direction,
       PluginExceptionConditionAccumulator accumulator,
@@ -369,7 +391,8 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
       return;
     }
 
-    List<NetworkRule> notEnforcedRules = Lists.newArrayList(allowRules);
+    NetworkRuleIndex index = networkRules.getIndex(direction);
+    Set<NetworkRule> notEnforcedRules = Sets.newLinkedHashSet(allowRules);
     Multimap<String, NetworkRule> violatedRules = HashMultimap.create();
 
     for (SecurityGroup sg : securityGroups) {
@@ -385,12 +408,14 @@ public final class EC2NetworkValidator implements ConfigurationValidator {
         final List<String> ipRanges = getIpRangesFromSgPermission(permission);
         if (!ipRanges.isEmpty()) {
           // Check enforcements for allow rules
-          Iterables.removeIf(notEnforcedRules,
-              rule -> rule.isEnforced(protocol, ports, ipRanges, AccessType.ALLOW));
+          if (!notEnforcedRules.isEmpty()) {
+            notEnforcedRules.removeAll(
+                index.getEnforcedRules(protocol, ports, ipRanges, AccessType.ALLOW));
+          }
 
           // Check violations for deny rules
-          violatedRules.putAll(sg.getGroupId(), Iterables.filter(denyRules,
-              rule -> rule.isViolated(protocol, ports, ipRanges, AccessType.ALLOW)));
+          violatedRules.putAll(sg.getGroupId(),
+              index.getViolatedRules(protocol, ports, ipRanges, AccessType.ALLOW));
         }
       }
     }
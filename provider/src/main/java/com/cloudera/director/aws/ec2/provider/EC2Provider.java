@@ -16,8 +16,11 @@ package com.cloudera.director.aws.ec2.provider;
 
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.KEY_NAME;
 import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.ASSOCIATE_PUBLIC_IP_ADDRESSES;
+import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.DESCRIBE_SRIOV_NET_SUPPORT;
 import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.IMPORT_KEY_PAIR_IF_MISSING;
 import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.KEY_NAME_PREFIX;
+import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.REGION;
+import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.REGION_ENDPOINT;
 import static com.cloudera.director.aws.ec2.EC2Retryer.retryUntil;
 import static com.cloudera.director.aws.ec2.common.EC2Exceptions.INVALID_INSTANCE_ID_NOT_FOUND;
 import static com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.SSH_JCE_PRIVATE_KEY;
@@ -32,8 +35,6 @@ import com.amazonaws.services.ec2.AmazonEC2AsyncClient;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.AmazonEC2Exception;
 import com.amazonaws.services.ec2.model.BlockDeviceMapping;
-import com.amazonaws.services.ec2.model.DescribeImagesRequest;
-import com.amazonaws.services.ec2.model.DescribeImagesResult;
 import com.amazonaws.services.ec2.model.DescribeInstanceAttributeRequest;
 import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
 import com.amazonaws.services.ec2.model.DescribeInstanceStatusResult;
@@ -65,20 +66,28 @@ import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClient;
 import com.amazonaws.services.kms.AWSKMSClient;
 import com.cloudera.director.aws.AWSExceptions;
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.CustomTagMappings;
 import com.cloudera.director.aws.clientprovider.ClientProvider;
+import com.cloudera.director.aws.common.Callables2;
+import com.cloudera.director.aws.common.Executors2;
 import com.cloudera.director.aws.ec2.EC2Instance;
 import com.cloudera.director.aws.ec2.EC2InstanceState;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
 import com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken;
 import com.cloudera.director.aws.ec2.EC2TagHelper;
 import com.cloudera.director.aws.ec2.EphemeralDeviceMappings;
+import com.cloudera.director.aws.ec2.ImageMetadataCache;
+import com.cloudera.director.aws.ec2.KeyNameCache;
+import com.cloudera.director.aws.ec2.ValidationLookupCache;
 import com.cloudera.director.aws.ec2.VirtualizationMappings;
 import com.cloudera.director.aws.ec2.allocation.AllocationHelper;
 import com.cloudera.director.aws.ec2.allocation.IdType;
 import com.cloudera.director.aws.ec2.allocation.InstanceAllocator;
+import com.cloudera.director.aws.ec2.allocation.InstanceStartOutcome;
 import com.cloudera.director.aws.ec2.allocation.asg.AutoScalingGroupAllocator;
+import com.cloudera.director.aws.ec2.allocation.fleet.FleetAllocator;
 import com.cloudera.director.aws.ec2.allocation.ondemand.OnDemandAllocator;
 import com.cloudera.director.aws.ec2.allocation.spot.SpotGroupAllocator;
 import com.cloudera.director.aws.ec2.ebs.EBSAllocator;
@@ -135,13 +144,15 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -177,11 +188,28 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
    */
   private static final int MAX_INSTANCE_STATUS_REQUESTS = 95;
 
+  /**
+   * The interval between instance status polls while waiting for instances to start.
+   */
+  private static final long INSTANCE_STATUS_POLL_INTERVAL_MS = 5 * 1000; // 5 sec
+
   /**
    * EC2 only allows 200 tag values to be filtered at a time.
    */
   private static final int MAX_TAG_FILTERING_REQUESTS = 200;
 
+  /**
+   * The default maximum number of describe instances requests in flight for a single lookup.
+   */
+  private static final int DEFAULT_MAX_CONCURRENT_DESCRIBE_INSTANCES_REQUESTS = 8;
+
+  /**
+   * The request limit key for the maximum number of describe instances requests in flight
+   * for a single lookup.
+   */
+  private static final String MAX_CONCURRENT_DESCRIBE_INSTANCES_REQUESTS =
+      "ec2.describeInstances.maxConcurrentRequests";
+
   @VisibleForTesting
   static final String DEVICE_TYPE_EBS = "ebs";
 
@@ -203,11 +231,48 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       .resourceDisplayProperties(EC2Instance.getDisplayProperties())
       .build();
 
+  /**
+   * The image metadata cache shared by all EC2 providers, partitioned by credentials scope.
+   */
+  private static final ImageMetadataCache IMAGE_METADATA_CACHE = new ImageMetadataCache();
+
+  /**
+   * The key name cache shared by all EC2 providers.
+   */
+  private static final KeyNameCache KEY_NAME_CACHE = new KeyNameCache();
+
+  /**
+   * The validation lookup cache shared by all EC2 providers.
+   */
+  private static final ValidationLookupCache VALIDATION_LOOKUP_CACHE =
+      new ValidationLookupCache();
+
   /**
    * The default wait time to retrieve host key fingerprints.
    */
   private static final long DEFAULT_WAIT_FOR_HOST_KEY_FINGERPRINTS_MS = 6 * 60 * 1000; // 6 min
 
+  /**
+   * The initial interval between console output polls for an instance.
+   */
+  private static final long HOST_KEY_FINGERPRINTS_INITIAL_POLL_INTERVAL_MS = 2 * 1000; // 2 sec
+
+  /**
+   * The maximum interval between console output polls for an instance.
+   */
+  private static final long HOST_KEY_FINGERPRINTS_MAX_POLL_INTERVAL_MS = 30 * 1000; // 30 sec
+
+  /**
+   * The default maximum number of console output requests in flight.
+   */
+  private static final int DEFAULT_MAX_CONCURRENT_CONSOLE_OUTPUT_REQUESTS = 8;
+
+  /**
+   * The request limit key for the maximum number of console output requests in flight.
+   */
+  private static final String MAX_CONCURRENT_CONSOLE_OUTPUT_REQUESTS =
+      "ec2.getConsoleOutput.maxConcurrentRequests";
+
   /**
    * Instance allocation strategies.
    */
@@ -242,6 +307,21 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       }
     },
 
+    FLEET {
+      @Override
+      InstanceAllocator allocator(EC2Provider ec2Provider,
+          EC2InstanceTemplate template, Collection<String> virtualInstanceIds, int minCount) {
+
+        // Tag EBS volumes if they were part of instance launch request
+        boolean tagEbsVolumes = (template != null) &&
+            (EBSAllocationStrategy.get(template) == EBSAllocationStrategy.AS_INSTANCE_REQUEST);
+
+        return new FleetAllocator(ec2Provider.allocationHelper, ec2Provider.client,
+            tagEbsVolumes, ec2Provider.useTagOnCreate,
+            template, virtualInstanceIds, minCount);
+      }
+    },
+
     AUTO_SCALING_GROUP {
       @Override
       InstanceAllocator allocator(EC2Provider ec2Provider,
@@ -281,6 +361,8 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       EC2Provider.InstanceAllocationStrategy allocationStrategy;
       if (template.isAutomatic()) {
         allocationStrategy = AUTO_SCALING_GROUP;
+      } else if (template.isUseEc2Fleet()) {
+        allocationStrategy = FLEET;
       } else if (template.isUseSpotInstances()) {
         allocationStrategy = SPOT;
       } else {
@@ -356,14 +438,35 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
 
   private final boolean associatePublicIpAddresses;
   private final boolean importKeyPairIfMissing;
+  private final boolean describeSriovNetSupport;
+  private final String region;
+
+  /**
+   * The scope of the credentials of this provider, under which what is learned about its
+   * account is cached. A provider whose credentials are not known gets a scope of its own.
+   */
+  private final String credentialsScope;
   private final String keyNamePrefix;
 
   private final ConfigurationValidator resourceTemplateConfigurationValidator;
 
   private final ConsoleOutputExtractor consoleOutputExtractor;
 
+  /**
+   * SR-IOV support by image ID and instance type. An absent value means that there is no
+   * SR-IOV support, or that describing it is not permitted.
+   */
+  private final ConcurrentMap<String, Optional<String>> sriovNetSupportByImageAndType =
+      new ConcurrentHashMap<>();
+
   private final AWSTimeouts awsTimeouts;
 
+  private final AWSRequestLimits awsRequestLimits;
+
+  private final int maxConcurrentDescribeInstancesRequests;
+
+  private final int maxConcurrentConsoleOutputRequests;
+
   private final boolean useTagOnCreate;
 
   /**
@@ -376,6 +479,7 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
    * @param virtualizationMappings           the virtualization mappings
    * @param awsFilters                       the AWS filters
    * @param awsTimeouts                      the AWS timeouts
+   * @param awsRequestLimits                 the AWS request limits
    * @param customTagMappings                the custom tag mappings
    * @param networkRules                     the network rules
    * @param clientProvider                   the EC2 client provider
@@ -393,6 +497,7 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       VirtualizationMappings virtualizationMappings,
       AWSFilters awsFilters,
       AWSTimeouts awsTimeouts,
+      AWSRequestLimits awsRequestLimits,
       CustomTagMappings customTagMappings,
       NetworkRules networkRules,
       ClientProvider<AmazonEC2AsyncClient> clientProvider,
@@ -434,6 +539,11 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
           pluginExceptionDetails);
     }
 
+    String clientCredentialsScope = clientProvider.getCredentialsScope();
+    this.credentialsScope = (clientCredentialsScope != null)
+        ? clientCredentialsScope
+        : UUID.randomUUID().toString();
+
     this.associatePublicIpAddresses = Boolean.parseBoolean(
         getConfigurationValue(ASSOCIATE_PUBLIC_IP_ADDRESSES, localizationContext));
 
@@ -441,7 +551,22 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
         getConfigurationValue(IMPORT_KEY_PAIR_IF_MISSING, localizationContext));
     this.keyNamePrefix = getConfigurationValue(KEY_NAME_PREFIX, localizationContext);
 
+    this.describeSriovNetSupport = Boolean.parseBoolean(
+        getConfigurationValue(DESCRIBE_SRIOV_NET_SUPPORT, localizationContext));
+
+    String regionEndpoint = getConfigurationValue(REGION_ENDPOINT, localizationContext);
+    this.region = (regionEndpoint != null)
+        ? regionEndpoint
+        : getConfigurationValue(REGION, localizationContext);
+
     this.awsTimeouts = awsTimeouts;
+    this.awsRequestLimits = requireNonNull(awsRequestLimits, "awsRequestLimits is null");
+    this.maxConcurrentDescribeInstancesRequests = awsRequestLimits.getLimit(
+        MAX_CONCURRENT_DESCRIBE_INSTANCES_REQUESTS,
+        DEFAULT_MAX_CONCURRENT_DESCRIBE_INSTANCES_REQUESTS);
+    this.maxConcurrentConsoleOutputRequests = awsRequestLimits.getLimit(
+        MAX_CONCURRENT_CONSOLE_OUTPUT_REQUESTS,
+        DEFAULT_MAX_CONCURRENT_CONSOLE_OUTPUT_REQUESTS);
 
     this.allocationHelper = new AllocationHelperImpl();
 
@@ -466,6 +591,71 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
     return client;
   }
 
+  /**
+   * Returns the region of this provider, identified by its configured region endpoint or
+   * region name.
+   *
+   * @return the region of this provider, or {@code null} if it is not configured
+   */
+  public String getRegion() {
+    return region;
+  }
+
+  /**
+   * Returns the scope of the credentials of this provider, which partitions the caches shared
+   * by all EC2 providers by account.
+   *
+   * @return the scope of the credentials of this provider
+   */
+  public String getCredentialsScope() {
+    return credentialsScope;
+  }
+
+  /**
+   * Returns the image metadata cache.
+   *
+   * @return the image metadata cache
+   */
+  public ImageMetadataCache getImageMetadataCache() {
+    return IMAGE_METADATA_CACHE;
+  }
+
+  /**
+   * Returns the key name cache.
+   *
+   * @return the key name cache
+   */
+  public KeyNameCache getKeyNameCache() {
+    return KEY_NAME_CACHE;
+  }
+
+  /**
+   * Returns the validation lookup cache.
+   *
+   * @return the validation lookup cache
+   */
+  public ValidationLookupCache getValidationLookupCache() {
+    return VALIDATION_LOOKUP_CACHE;
+  }
+
+  /**
+   * Returns the AWS timeouts.
+   *
+   * @return the AWS timeouts
+   */
+  public AWSTimeouts getAWSTimeouts() {
+    return awsTimeouts;
+  }
+
+  /**
+   * Returns the AWS request limits.
+   *
+   * @return the AWS request limits
+   */
+  public AWSRequestLimits getAWSRequestLimits() {
+    return awsRequestLimits;
+  }
+
   /**
    * Returns the AWS auto scaling client.
    *
@@ -614,61 +804,149 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
   public Map<String, Set<String>> getHostKeyFingerprints(EC2InstanceTemplate template,
       Collection<String> instanceIds)
       throws InterruptedException {
-
+    Map<String, Set<String>> hostKeyFingerprints = Maps.newHashMapWithExpectedSize(instanceIds.size());
     Map<String, String> idsToCheck = isAutomatic(template)
         ? instanceIds.stream().collect(Collectors.toMap((id) -> id, (id) -> id))
         : Maps.newHashMap(getEC2InstanceIdsByVirtualInstanceId(instanceIds));
 
-    Map<String, Set<String>> hostKeyFingerprints = Maps.newHashMapWithExpectedSize(idsToCheck.size());
-
     LOG.info("Waiting for EC2 console output to display its host key fingerprint for instance(s): {}",
         idsToCheck.keySet());
 
+    // Each instance is polled on its own schedule, quickly at first and then backing off, so
+    // instances whose output is available early are not held up by the others.
     Stopwatch stopwatch = Stopwatch.createStarted();
-    do {
-      Iterator<Entry<String, String>> it = idsToCheck.entrySet().iterator();
-      while (it.hasNext()) {
-        Entry<String, String> entry = it.next();
-        String instanceId = entry.getKey();
-        String ec2InstanceId = entry.getValue();
-
-        GetConsoleOutputRequest consoleOutputRequest = new GetConsoleOutputRequest()
-            .withInstanceId(ec2InstanceId);
-        GetConsoleOutputResult result = client.getConsoleOutput(consoleOutputRequest);
-
-        if (result.getOutput() != null) {
-          String consoleOutput = result.getDecodedOutput();
-          if (!consoleOutputExtractor.hasHostKeyFingerprintBlock(consoleOutput)) {
-            LOG.debug("EC2 Console Output doesn't contain the host key fingerprint yet, retrying ...");
-            continue;
-          }
-
-          Set<String> instanceHostKeyFingerprints
-              = consoleOutputExtractor.getHostKeyFingerprints(result.getDecodedOutput());
+    Map<String, ConsoleOutputPoll> pendingPolls = Maps.newHashMapWithExpectedSize(idsToCheck.size());
+    for (Entry<String, String> entry : idsToCheck.entrySet()) {
+      pendingPolls.put(entry.getKey(), new ConsoleOutputPoll(entry.getKey(), entry.getValue(),
+          consoleOutputExtractor.newScan()));
+    }
 
-          LOG.debug("Host key fingerprints for ID {} are {}", instanceId, instanceHostKeyFingerprints);
-          hostKeyFingerprints.put(instanceId, instanceHostKeyFingerprints);
-          it.remove();
-        } else {
-          LOG.debug("EC2 Console Output empty, retrying soon ...");
+    while (!pendingPolls.isEmpty()) {
+      long now = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+      List<Callable<Entry<ConsoleOutputPoll, Set<String>>>> dueFetches = Lists.newArrayList();
+      for (ConsoleOutputPoll poll : pendingPolls.values()) {
+        if (poll.nextPollMillis <= now) {
+          dueFetches.add(() -> Maps.immutableEntry(poll, fetchHostKeyFingerprints(poll)));
         }
       }
 
-      if (idsToCheck.isEmpty()) {
+      Callables2.callConcurrently(Executors2.sharedExecutor(), maxConcurrentConsoleOutputRequests,
+          dueFetches, fetched -> {
+            ConsoleOutputPoll poll = fetched.getKey();
+            Set<String> instanceHostKeyFingerprints = fetched.getValue();
+            if (instanceHostKeyFingerprints != null) {
+              LOG.debug("Host key fingerprints for ID {} are {}",
+                  poll.instanceId, instanceHostKeyFingerprints);
+              pendingPolls.remove(poll.instanceId);
+              hostKeyFingerprints.put(poll.instanceId, instanceHostKeyFingerprints);
+            } else {
+              poll.backOff(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            }
+          });
+
+      long remainingMillis =
+          DEFAULT_WAIT_FOR_HOST_KEY_FINGERPRINTS_MS - stopwatch.elapsed(TimeUnit.MILLISECONDS);
+      if (pendingPolls.isEmpty() || remainingMillis <= 0) {
         break;
       }
 
-      TimeUnit.SECONDS.sleep(10);
-    } while (stopwatch.elapsed(TimeUnit.MILLISECONDS) < DEFAULT_WAIT_FOR_HOST_KEY_FINGERPRINTS_MS);
+      long nextPollMillis = Long.MAX_VALUE;
+      for (ConsoleOutputPoll poll : pendingPolls.values()) {
+        nextPollMillis = Math.min(nextPollMillis, poll.nextPollMillis);
+      }
+      long sleepMillis = Math.min(remainingMillis,
+          nextPollMillis - stopwatch.elapsed(TimeUnit.MILLISECONDS));
+      if (sleepMillis > 0) {
+        TimeUnit.MILLISECONDS.sleep(sleepMillis);
+      }
+    }
 
-    if (!idsToCheck.isEmpty()) {
+    if (!pendingPolls.isEmpty()) {
       LOG.warn("Couldn't retrieve SSH host key fingerprints for following {} instance(s): {}",
-          idsToCheck.size(), idsToCheck.keySet());
+          pendingPolls.size(), pendingPolls.keySet());
+    }
+    return hostKeyFingerprints;
+  }
+
+  /**
+   * Fetches the console output of an instance and extracts its host key fingerprints.
+   *
+   * @param poll the console output poll for the instance
+   * @return the host key fingerprints, or {@code null} if they are not available yet
+   */
+  private Set<String> fetchHostKeyFingerprints(ConsoleOutputPoll poll) {
+    GetConsoleOutputRequest consoleOutputRequest = new GetConsoleOutputRequest()
+        .withInstanceId(poll.ec2InstanceId);
+    GetConsoleOutputResult result = client.getConsoleOutput(consoleOutputRequest);
+
+    if (result.getOutput() == null) {
+      LOG.debug("EC2 Console Output empty, retrying soon ...");
+      return null;
     }
 
+    Set<String> hostKeyFingerprints = poll.consoleOutputScan.scan(result.getDecodedOutput());
+    if (hostKeyFingerprints == null) {
+      LOG.debug("EC2 Console Output doesn't contain the host key fingerprint yet, retrying ...");
+    }
     return hostKeyFingerprints;
   }
 
+  /**
+   * Polling schedule for the console output of a single instance.
+   */
+  private static final class ConsoleOutputPoll {
+
+    /**
+     * The instance ID.
+     */
+    private final String instanceId;
+
+    /**
+     * The EC2 instance ID.
+     */
+    private final String ec2InstanceId;
+
+    /**
+     * The scan of the console output, resumed on each poll.
+     */
+    private final ConsoleOutputExtractor.Scan consoleOutputScan;
+
+    /**
+     * The interval until the next poll after the current one, in milliseconds.
+     */
+    private long pollIntervalMillis = HOST_KEY_FINGERPRINTS_INITIAL_POLL_INTERVAL_MS;
+
+    /**
+     * The time of the next poll, in milliseconds since polling started.
+     */
+    private long nextPollMillis;
+
+    /**
+     * Creates a console output poll that is due immediately.
+     *
+     * @param instanceId        the instance ID
+     * @param ec2InstanceId     the EC2 instance ID
+     * @param consoleOutputScan the scan of the console output
+     */
+    private ConsoleOutputPoll(String instanceId, String ec2InstanceId,
+        ConsoleOutputExtractor.Scan consoleOutputScan) {
+      this.instanceId = instanceId;
+      this.ec2InstanceId = ec2InstanceId;
+      this.consoleOutputScan = consoleOutputScan;
+    }
+
+    /**
+     * Schedules the next poll after an unsuccessful one, doubling the interval up to the
+     * maximum poll interval.
+     *
+     * @param nowMillis the current time, in milliseconds since polling started
+     */
+    private void backOff(long nowMillis) {
+      nextPollMillis = nowMillis + pollIntervalMillis;
+      pollIntervalMillis = Math.min(2 * pollIntervalMillis, HOST_KEY_FINGERPRINTS_MAX_POLL_INTERVAL_MS);
+    }
+  }
+
   /**
    * Creates and attaches EBS volumes to EC2 instances. This expects that the instances
    * have already been allocated. Instances that could not acquire the correct number of
@@ -690,21 +968,24 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
     Image image = getImage(template.getImage());
     Set<String> existingDeviceNames = getExistingDeviceNames(image.getBlockDeviceMappings());
 
-    EBSAllocator ebsAllocator = new EBSAllocator(this.client, this.awsTimeouts, ec2TagHelper, ebsDeviceMappings,
-        existingDeviceNames, useTagOnCreate);
+    EBSAllocator ebsAllocator = new EBSAllocator(this.client, this.awsTimeouts, this.awsRequestLimits,
+        ec2TagHelper, ebsDeviceMappings, existingDeviceNames, useTagOnCreate);
 
-    List<InstanceEbsVolumes> instanceVolumes = ebsAllocator.createVolumes(template, instanceIdPairs);
+    // Filled as volumes are created, so that they are deleted even if creation fails
+    Map<String, VolumeState> createdVolumes = Maps.newHashMap();
+    List<InstanceEbsVolumes> instanceVolumes = Collections.emptyList();
 
     try {
+      instanceVolumes = ebsAllocator.createVolumes(template, instanceIdPairs, createdVolumes);
       try {
-        instanceVolumes = ebsAllocator.waitUntilVolumesAvailable(instanceVolumes);
-        instanceVolumes = ebsAllocator.attachAndOptionallyTagVolumes(template, instanceVolumes);
+        instanceVolumes = ebsAllocator.attachVolumesWhenAvailable(template, instanceVolumes, minCount);
       } finally {
         // Ensure that delete on termination is set for attached instances no matter what. It's possible
         // for the EBS volume/ attachment to time out but still succeed, which can lead to leaked EBS
-        // volumes. This should ensure that the instances are not leaked accidentally.
+        // volumes. This should ensure that the instances are not leaked accidentally. Volumes that
+        // cannot be marked come back in the error state, so their instances count as failed.
         instanceVolumes = ebsAllocator.getUpdatedVolumeInfo(instanceVolumes); // Update volume states
-        ebsAllocator.addDeleteOnTerminationFlag(instanceVolumes);
+        instanceVolumes = ebsAllocator.addDeleteOnTerminationFlag(instanceVolumes);
       }
 
       int successfulInstances = getSuccessfulInstanceCount(instanceVolumes);
@@ -723,7 +1004,8 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       throw new UnrecoverableProviderException("Unexpected problem allocating EBS volumes", e);
     } finally {
       if (!success) {
-        deleteAllInstancesAndVolumes(instanceVolumes, template, ebsAllocator);
+        deleteAllInstancesAndVolumes(instanceIdPairs.keySet(), createdVolumes, instanceVolumes,
+            template, ebsAllocator);
       } else {
         deleteFailedInstancesAndVolumes(instanceVolumes, template, ebsAllocator);
       }
@@ -738,17 +1020,19 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       EC2InstanceTemplate template, EBSAllocator ebsAllocator) throws InterruptedException {
 
     Set<String> instancesToTerminate = Sets.newHashSet();
+    Map<String, VolumeState> volumesToDelete = Maps.newHashMap();
 
     nextInstanceVolume:
     for (InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
       for (VolumeState status : instanceEbsVolumes.getVolumeStates().values()) {
         if (status != VolumeState.InUse) {
-          deleteCreatedVolumes(instanceEbsVolumes, ebsAllocator);
+          volumesToDelete.putAll(getCreatedVolumes(instanceEbsVolumes));
           instancesToTerminate.add(instanceEbsVolumes.getInstanceId());
           continue nextInstanceVolume;
         }
       }
     }
+    ebsAllocator.deleteVolumes(volumesToDelete);
     delete(template, instancesToTerminate);
   }
 
@@ -756,31 +1040,34 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
   /**
    * Terminates a list of instances and deletes their associated volumes.
    */
-  private void deleteAllInstancesAndVolumes(List<InstanceEbsVolumes> instanceEbsVolumesList,
+  private void deleteAllInstancesAndVolumes(Collection<String> instanceIds,
+      Map<String, VolumeState> createdVolumes, List<InstanceEbsVolumes> instanceEbsVolumesList,
       EC2InstanceTemplate template, EBSAllocator ebsAllocator) throws InterruptedException {
 
-    Set<String> instancesToTerminate = Sets.newHashSet();
-
+    // The latest known states override the states at creation
+    Map<String, VolumeState> volumesToDelete = Maps.newHashMap(createdVolumes);
     for (InstanceEbsVolumes instanceEbsVolumes : instanceEbsVolumesList) {
-      deleteCreatedVolumes(instanceEbsVolumes, ebsAllocator);
-      instancesToTerminate.add(instanceEbsVolumes.getInstanceId());
+      volumesToDelete.putAll(getCreatedVolumes(instanceEbsVolumes));
     }
-    delete(template, instancesToTerminate);
+    ebsAllocator.deleteVolumes(volumesToDelete);
+    delete(template, Sets.newHashSet(instanceIds));
   }
 
-  private void deleteCreatedVolumes(InstanceEbsVolumes instanceEbsVolumes, EBSAllocator ebsAllocator)
-      throws InterruptedException {
-    Map<String, VolumeState> volumesToDelete = Maps.newHashMap();
+  /**
+   * Returns the volumes of an instance that were created, along with their states.
+   */
+  private static Map<String, VolumeState> getCreatedVolumes(InstanceEbsVolumes instanceEbsVolumes) {
+    Map<String, VolumeState> createdVolumes = Maps.newHashMap();
     for (Entry<String, VolumeState> volumeIdAndStatus
         : instanceEbsVolumes.getVolumeStates().entrySet()) {
       String volumeId = volumeIdAndStatus.getKey();
       VolumeState state = volumeIdAndStatus.getValue();
 
       if (!volumeId.startsWith(InstanceEbsVolumes.UNCREATED_VOLUME_ID)) {
-        volumesToDelete.put(volumeId, state);
+        createdVolumes.put(volumeId, state);
       }
     }
-    ebsAllocator.deleteVolumes(volumesToDelete);
+    return createdVolumes;
   }
 
   /**
@@ -852,19 +1139,45 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
   }
 
 
-  private void fillMissingProperties(Instance instance) {
-    try {
-      InstanceAttribute instanceAttribute = describeInstanceAttribute(
-          instance.getInstanceId(), InstanceAttributeName.SriovNetSupport);
-      String sriovNetSupport = instanceAttribute.getSriovNetSupport();
-      instance.setSriovNetSupport(sriovNetSupport);
-    } catch (AmazonServiceException e) {
-      // In practice, users may not have appropriate IAM permission for
-      // DescribeInstanceAttribute. We need to be more forgiving in those cases,
-      // and simply leave a warning in the log here.
-      LOG.warn("Could not fill missing properties. Failed to perform " +
-          "DescribeInstanceAttribute action.", e);
+  /**
+   * Fills in instance properties that are not returned by describe instances requests. The
+   * SR-IOV support is resolved once per image and instance type and then served from a cache,
+   * so that finding many instances does not cost one additional API call per instance.
+   *
+   * @param instance the instance
+   */
+  @VisibleForTesting
+  void fillMissingProperties(Instance instance) {
+    if (!describeSriovNetSupport) {
+      return;
     }
+
+    String cacheKey = instance.getImageId() + "/" + instance.getInstanceType();
+    Optional<String> sriovNetSupport = sriovNetSupportByImageAndType.get(cacheKey);
+    if (sriovNetSupport == null) {
+      try {
+        InstanceAttribute instanceAttribute = describeInstanceAttribute(
+            instance.getInstanceId(), InstanceAttributeName.SriovNetSupport);
+        sriovNetSupport = Optional.fromNullable(instanceAttribute.getSriovNetSupport());
+      } catch (AmazonServiceException e) {
+        // In practice, users may not have appropriate IAM permission for
+        // DescribeInstanceAttribute. We need to be more forgiving in those cases,
+        // and simply leave a warning in the log here.
+        LOG.warn("Could not fill missing properties. Failed to perform " +
+            "DescribeInstanceAttribute action.", e);
+        if (!AWSExceptions.AUTHORIZATION_ERROR_CODES.contains(e.getErrorCode())) {
+          return;
+        }
+        // Remember the denial so that it is not repeated for every instance
+        sriovNetSupport = Optional.absent();
+      }
+      Optional<String> existing =
+          sriovNetSupportByImageAndType.putIfAbsent(cacheKey, sriovNetSupport);
+      if (existing != null) {
+        sriovNetSupport = existing;
+      }
+    }
+    instance.setSriovNetSupport(sriovNetSupport.orNull());
   }
 
   /**
@@ -922,7 +1235,9 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
 
   /**
    * Adds the AWS key name corresponding to a private key to the given
-   * configuration.
+   * configuration. Key names that have already been resolved for the same keys
+   * with the same credentials, region and key name prefix are taken from the key
+   * name cache.
    *
    * @param configuration    the configuration to be enhanced
    * @param privateKeyString private key, in serialized form
@@ -933,6 +1248,33 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
   private Configured addKeyName(Configured configuration,
       LocalizationContext templateLocalizationContext,
       String privateKeyString, String publicKeyString) {
+    String keyDigest = KeyNameCache.getKeyDigest(credentialsScope, region, keyNamePrefix,
+        privateKeyString, publicKeyString);
+    String keyName = KEY_NAME_CACHE.getKeyName(keyDigest);
+    if (keyName == null) {
+      keyName = resolveKeyName(privateKeyString, publicKeyString);
+      KEY_NAME_CACHE.putKeyName(keyDigest, keyName);
+    } else {
+      LOG.debug("Found cached EC2 key name {} for fingerprint", keyName);
+    }
+    Map<String, String> configMap =
+        Maps.newHashMap(configuration.getConfiguration(templateLocalizationContext));
+    configMap.put(KEY_NAME.unwrap().getConfigKey(),
+        keyName);
+    return new SimpleConfiguration(configMap);
+  }
+
+  /**
+   * Returns the AWS key name corresponding to a private key, importing the
+   * public key if it is missing and the provider is configured to do so.
+   *
+   * @param privateKeyString private key, in serialized form
+   * @param publicKeyString  public key, in serialized form, or {@code null}
+   * @return the AWS key name
+   * @throws IllegalArgumentException if the key could not be deserialized, or if no key known to
+   *                                  AWS matches this key's fingerprint
+   */
+  private String resolveKeyName(String privateKeyString, String publicKeyString) {
     PrivateKey privateKey;
     PublicKey publicKey;
     try {
@@ -974,11 +1316,7 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
     } else {
       LOG.info("Found EC2 key name {} for fingerprint", keyName);
     }
-    Map<String, String> configMap =
-        Maps.newHashMap(configuration.getConfiguration(templateLocalizationContext));
-    configMap.put(KEY_NAME.unwrap().getConfigKey(),
-        keyName);
-    return new SimpleConfiguration(configMap);
+    return keyName;
   }
 
   /**
@@ -1081,14 +1419,21 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
     return instanceStateByInstanceId;
   }
 
+  /**
+   * Returns a copy of the description of the specified image, which the caller may modify.
+   *
+   * @param imageId the image ID
+   * @return a copy of the description of the specified image
+   * @throws IllegalArgumentException if the image does not exist
+   */
   private Image getImage(String imageId) {
-    DescribeImagesResult result = client.describeImages(
-        new DescribeImagesRequest().withImageIds(imageId));
-    if (result.getImages().isEmpty()) {
+    List<Image> images = IMAGE_METADATA_CACHE.describeImages(client, credentialsScope, region,
+        imageId);
+    if (images.isEmpty()) {
       throw new IllegalArgumentException("The description for image " + imageId +
           " is empty");
     }
-    return result.getImages().get(0);
+    return images.get(0);
   }
 
   private Set<String> getExistingDeviceNames(List<BlockDeviceMapping> mappings) {
@@ -1248,11 +1593,21 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       return awsTimeouts;
     }
 
+    @Override
+    public AWSRequestLimits getAWSRequestLimits() {
+      return awsRequestLimits;
+    }
+
     @Override
     public EC2TagHelper getEC2TagHelper() {
       return ec2TagHelper;
     }
 
+    @Override
+    public void invalidateKeyName(String keyName) {
+      KEY_NAME_CACHE.invalidateKeyName(keyName);
+    }
+
     @Override
     public boolean waitUntilInstanceHasStarted(String ec2InstanceId, DateTime timeout) throws InterruptedException, TimeoutException {
 
@@ -1295,6 +1650,93 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
       }
     }
 
+    @Override
+    public Map<String, InstanceStartOutcome> waitUntilInstancesHaveStarted(
+        Collection<String> ec2InstanceIds, DateTime timeout)
+        throws InterruptedException {
+
+      Map<String, InstanceStartOutcome> outcomes =
+          Maps.newHashMapWithExpectedSize(ec2InstanceIds.size());
+      Set<String> pendingInstanceIds = Sets.newLinkedHashSet(ec2InstanceIds);
+
+      while (!pendingInstanceIds.isEmpty()) {
+        LOG.info(">> Waiting for {} instance(s) to start", pendingInstanceIds.size());
+
+        // Partition into batches, AWS limits the number of instance status requests per call.
+        List<List<String>> batches = Lists.partition(
+            Lists.newArrayList(pendingInstanceIds), MAX_INSTANCE_STATUS_REQUESTS);
+        for (List<String> batch : batches) {
+          for (InstanceStatus status : describeInstanceStatuses(batch)) {
+            String ec2InstanceId = status.getInstanceId();
+            InstanceStateName currentState =
+                InstanceStateName.fromValue(status.getInstanceState().getName());
+
+            if (UNALLOCATED_STATES.contains(currentState)) {
+              LOG.error("Instance {} has unexpectedly terminated", ec2InstanceId);
+              outcomes.put(ec2InstanceId, InstanceStartOutcome.TERMINATED);
+              pendingInstanceIds.remove(ec2InstanceId);
+            } else if (currentState != InstanceStateName.Pending) {
+              outcomes.put(ec2InstanceId, InstanceStartOutcome.STARTED);
+              pendingInstanceIds.remove(ec2InstanceId);
+            }
+          }
+        }
+
+        if (pendingInstanceIds.isEmpty()) {
+          break;
+        }
+
+        long remainingMillis = timeout.getMillis() - DateTime.now().getMillis();
+        if (remainingMillis <= 0) {
+          LOG.info("timeout waiting for instance(s) {} to start", pendingInstanceIds);
+          break;
+        }
+
+        LOG.info("Waiting {} milliseconds until next check, {} instance(s) still pending",
+            Math.min(remainingMillis, INSTANCE_STATUS_POLL_INTERVAL_MS), pendingInstanceIds.size());
+        TimeUnit.MILLISECONDS.sleep(Math.min(remainingMillis, INSTANCE_STATUS_POLL_INTERVAL_MS));
+      }
+
+      for (String ec2InstanceId : pendingInstanceIds) {
+        outcomes.put(ec2InstanceId, InstanceStartOutcome.TIMED_OUT);
+      }
+
+      return outcomes;
+    }
+
+    /**
+     * Returns the instance statuses for the specified batch of EC2 instance ids. Newly launched
+     * instances may not be visible yet, in which case EC2 rejects the whole batch; the batch is
+     * then split into single-instance requests so that visible instances still make progress.
+     *
+     * @param ec2InstanceIds the batch of EC2 instance ids
+     * @return the instance statuses that could be retrieved
+     */
+    private List<InstanceStatus> describeInstanceStatuses(List<String> ec2InstanceIds) {
+      try {
+        DescribeInstanceStatusResult result = client.describeInstanceStatus(
+            new DescribeInstanceStatusRequest()
+                .withIncludeAllInstances(true)
+                .withInstanceIds(ec2InstanceIds));
+        return result.getInstanceStatuses();
+      } catch (AmazonServiceException e) {
+        if (!AWSExceptions.isNotFound(e)) {
+          throw AWSExceptions.propagate(e);
+        }
+      }
+
+      if (ec2InstanceIds.size() == 1) {
+        LOG.info("Instance {} not yet found", ec2InstanceIds.get(0));
+        return Collections.emptyList();
+      }
+
+      List<InstanceStatus> statuses = Lists.newArrayListWithExpectedSize(ec2InstanceIds.size());
+      for (String ec2InstanceId : ec2InstanceIds) {
+        statuses.addAll(describeInstanceStatuses(Collections.singletonList(ec2InstanceId)));
+      }
+      return statuses;
+    }
+
     @Override
     public Collection<EC2Instance> find(EC2InstanceTemplate template,
         Collection<String> instanceIds) throws InterruptedException {
@@ -1485,7 +1927,11 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
     /**
      * Iterates through the instances identified by the specified instance IDs and calls the
      * specified handler on each instance. Instances with the same instance IDs are deduplicated,
-     * preferring running instances over terminating or terminated instances.
+     * preferring running instances over terminating or terminated instances. The instance IDs
+     * are described in chunks, with up to a configurable number of chunks in flight at a time.
+     * Each page of results is processed as it arrives, so non-terminal instances reach the
+     * handler right away, while terminal instances are held until all pages have been seen.
+     * The handler is never called concurrently.
      *
      * @param instanceIds     the instance IDs
      * @param instanceHandler the instance handler
@@ -1494,69 +1940,76 @@ public class EC2Provider extends AbstractComputeProvider<EC2Instance, EC2Instanc
     @VisibleForTesting
     void forEachInstance(Collection<String> instanceIds,
         Function<Instance, Void> instanceHandler, IdType idType) {
-      List<DescribeInstancesResult> results = Lists.newArrayList();
+      // prefer running instances over terminated instances and
+      // also ensure we only process one instance per instance id
+      InstanceDeduplicator deduplicator =
+          new InstanceDeduplicator(instanceIds.size(), instanceHandler);
+      Function<Instance, Void> describedInstanceHandler = instance -> {
+        String instanceId;
+        try {
+          instanceId = getInstanceId(null, instance, idType);
+        } catch (IllegalStateException e) {
+          LOG.error("Instance {} is not managed by Director. Skipping", instance.getInstanceId());
+          return null;
+        }
+        deduplicator.offer(instanceId, instance);
+        return null;
+      };
+
       String idTagName = ec2TagHelper.getClouderaDirectorIdTagName();
+      List<Callable<Void>> chunkDescribers = Lists.newArrayList();
       for (List<String> instanceIdChunk : Iterables.partition(instanceIds, MAX_TAG_FILTERING_REQUESTS)) {
-        DescribeInstancesResult result;
-        switch (idType) {
-          case EC2_INSTANCE_ID:
-            try {
-              result = client.describeInstances(new DescribeInstancesRequest()
-                  .withInstanceIds(instanceIdChunk));
-            } catch (AmazonServiceException e) {
-              if (!"InvalidInstanceID.Malformed".equals(e.getErrorCode())) {
-                throw e;
-              }
-              continue;
-            }
-            break;
-          case VIRTUAL_INSTANCE_ID:
-            result = client.describeInstances(new DescribeInstancesRequest()
-                .withFilters(new Filter().withName("tag:" + idTagName)
-                    .withValues(instanceIdChunk)));
-            break;
-          default:
-            throw new IllegalStateException("Unknown ID type: " + idType);
-        }
-        results.add(result);
+        chunkDescribers.add(() -> {
+          describeInstanceChunk(instanceIdChunk, idType, idTagName, describedInstanceHandler);
+          return null;
+        });
+      }
+
+      try {
+        Callables2.callConcurrently(Executors2.sharedExecutor(),
+            maxConcurrentDescribeInstancesRequests, chunkDescribers);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UnrecoverableProviderException("Interrupted while describing instances", e);
       }
 
-      // collect Instances, preferring running instances over terminated instances and
-      // also ensuring we only process one instance per instance id
-      final Map<String, Instance> instanceIdToInstance =
-          Maps.newHashMapWithExpectedSize(instanceIds.size());
-      for (DescribeInstancesResult result : results) {
-        forEachInstance(result, instance -> {
-          String instanceId;
+      deduplicator.finish();
+    }
+
+    /**
+     * Describes the instances identified by the specified chunk of instance IDs, following
+     * any pagination tokens, and calls the specified handler on each instance page by page.
+     *
+     * @param instanceIdChunk the chunk of instance IDs
+     * @param idType          the type of ID
+     * @param idTagName       the name of the tag holding virtual instance IDs
+     * @param instanceHandler the instance handler
+     */
+    private void describeInstanceChunk(List<String> instanceIdChunk, IdType idType,
+        String idTagName, Function<Instance, Void> instanceHandler) {
+      DescribeInstancesResult result;
+      switch (idType) {
+        case EC2_INSTANCE_ID:
           try {
-            instanceId = getInstanceId(null, instance, idType);
-          } catch (IllegalStateException e) {
-            LOG.error("Instance {} is not managed by Director. Skipping", instance.getInstanceId());
-            return null;
-          }
-          Instance oldInstance = instanceIdToInstance.get(instanceId);
-          if (oldInstance == null || INSTANCE_IS_TERMINAL.apply(oldInstance)) {
-            instanceIdToInstance.put(instanceId, instance);
-            if (oldInstance != null) {
-              LOG.warn("Retaining new instance {} in preference to terminal instance {}",
-                  instance, oldInstance);
-            }
-          } else {
-            if (!INSTANCE_IS_TERMINAL.apply(instance)) {
-              LOG.error("Two non-terminal instances with instance id {} exist: {} and {}",
-                  instanceId, oldInstance, instance);
-            } else {
-              LOG.warn("Retaining current non-terminal instance {} in preference to terminal instance {}",
-                  oldInstance, instance);
+            result = client.describeInstances(new DescribeInstancesRequest()
+                .withInstanceIds(instanceIdChunk));
+          } catch (AmazonServiceException e) {
+            if (!"InvalidInstanceID.Malformed".equals(e.getErrorCode())) {
+              throw e;
             }
+            return;
           }
-          return null;
-        });
+          break;
+        case VIRTUAL_INSTANCE_ID:
+          result = client.describeInstances(new DescribeInstancesRequest()
+              .withFilters(new Filter().withName("tag:" + idTagName)
+                  .withValues(instanceIdChunk)));
+          break;
+        default:
+          throw new IllegalStateException("Unknown ID type: " + idType);
       }
 
-      for (Instance instance : instanceIdToInstance.values()) {
-        instanceHandler.apply(instance);
-      }
+      forEachInstance(result, instanceHandler);
     }
 
     @Override
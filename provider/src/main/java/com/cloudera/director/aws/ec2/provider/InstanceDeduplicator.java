@@ -0,0 +1,193 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.provider;
+
+import static com.cloudera.director.aws.ec2.allocation.AllocationHelper.INSTANCE_IS_TERMINAL;
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.services.ec2.model.Instance;
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deduplicates a stream of described instances by instance ID, preferring non-terminal
+ * instances over terminal instances, and passes the chosen instances to a handler.
+ *
+ * <p>A non-terminal instance is handed off as soon as it is offered, so only a compact
+ * record of its EC2 instance ID, state and launch time is kept. Terminal instances are held
+ * until {@link #finish()}, since a non-terminal instance with the same ID may still arrive.
+ * The handler is never called concurrently.</p>
+ */
+@SuppressWarnings("Guava")
+@ThreadSafe
+final class InstanceDeduplicator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InstanceDeduplicator.class);
+
+  /**
+   * The handler for the chosen instances.
+   */
+  private final Function<Instance, Void> instanceHandler;
+
+  /**
+   * The dedup records, keyed by instance ID.
+   */
+  private final Map<String, InstanceRecord> instanceIdToRecord;
+
+  /**
+   * Creates a deduplicator.
+   *
+   * @param expectedSize    the expected number of distinct instance IDs
+   * @param instanceHandler the handler for the chosen instances
+   */
+  InstanceDeduplicator(int expectedSize, Function<Instance, Void> instanceHandler) {
+    this.instanceHandler = requireNonNull(instanceHandler, "instanceHandler is null");
+    this.instanceIdToRecord = Maps.newHashMapWithExpectedSize(expectedSize);
+  }
+
+  /**
+   * Offers a described instance. A non-terminal instance is passed to the handler unless a
+   * non-terminal instance with the same instance ID has already been handled.
+   *
+   * @param instanceId the instance ID under which the instance is deduplicated
+   * @param instance   the described instance
+   */
+  synchronized void offer(String instanceId, Instance instance) {
+    InstanceRecord oldRecord = instanceIdToRecord.get(instanceId);
+    boolean terminal = INSTANCE_IS_TERMINAL.apply(instance);
+
+    if (oldRecord == null) {
+      instanceIdToRecord.put(instanceId, accept(instance, terminal));
+    } else if (oldRecord.isTerminal()) {
+      if (terminal && oldRecord.launchTime > launchTime(instance)) {
+        LOG.warn("Retaining terminal instance {} in preference to older terminal instance {}",
+            oldRecord, instance.getInstanceId());
+      } else {
+        LOG.warn("Retaining new instance {} in preference to terminal instance {}",
+            instance.getInstanceId(), oldRecord);
+        instanceIdToRecord.put(instanceId, accept(instance, terminal));
+      }
+    } else if (!terminal) {
+      LOG.error("Two non-terminal instances with instance id {} exist: {} and {}",
+          instanceId, oldRecord, instance.getInstanceId());
+    } else {
+      LOG.warn("Retaining current non-terminal instance {} in preference to terminal instance {}",
+          oldRecord, instance.getInstanceId());
+    }
+  }
+
+  /**
+   * Passes the held terminal instances, for which no non-terminal instance was offered,
+   * to the handler.
+   */
+  synchronized void finish() {
+    for (InstanceRecord record : instanceIdToRecord.values()) {
+      if (record.terminalInstance != null) {
+        instanceHandler.apply(record.terminalInstance);
+        record.terminalInstance = null;
+      }
+    }
+  }
+
+  /**
+   * Creates the record for a newly chosen instance, handing off the instance right away if
+   * it is non-terminal.
+   *
+   * @param instance the chosen instance
+   * @param terminal whether the instance is terminal
+   * @return the record for the chosen instance
+   */
+  private InstanceRecord accept(Instance instance, boolean terminal) {
+    InstanceRecord record = new InstanceRecord(instance.getInstanceId(),
+        instance.getState().getName(), launchTime(instance), terminal ? instance : null);
+    if (!terminal) {
+      LOG.debug("Calling instance handler with instance {}", instance);
+      instanceHandler.apply(instance);
+    }
+    return record;
+  }
+
+  /**
+   * Returns the launch time of the specified instance in milliseconds, or -1 if unknown.
+   *
+   * @param instance the instance
+   * @return the launch time of the specified instance in milliseconds, or -1 if unknown
+   */
+  private static long launchTime(Instance instance) {
+    return (instance.getLaunchTime() == null) ? -1L : instance.getLaunchTime().getTime();
+  }
+
+  /**
+   * Compact dedup record for the instance currently chosen for an instance ID.
+   */
+  private static final class InstanceRecord {
+
+    /**
+     * The EC2 instance ID.
+     */
+    private final String ec2InstanceId;
+
+    /**
+     * The instance state name.
+     */
+    private final String stateName;
+
+    /**
+     * The launch time in milliseconds, or -1 if unknown.
+     */
+    private final long launchTime;
+
+    /**
+     * The instance if it is terminal and has not been handed off yet, or {@code null}.
+     */
+    private Instance terminalInstance;
+
+    /**
+     * Creates a dedup record.
+     *
+     * @param ec2InstanceId    the EC2 instance ID
+     * @param stateName        the instance state name
+     * @param launchTime       the launch time in milliseconds, or -1 if unknown
+     * @param terminalInstance the instance if it is terminal, or {@code null}
+     */
+    private InstanceRecord(String ec2InstanceId, String stateName, long launchTime,
+        Instance terminalInstance) {
+      this.ec2InstanceId = ec2InstanceId;
+      this.stateName = stateName;
+      this.launchTime = launchTime;
+      this.terminalInstance = terminalInstance;
+    }
+
+    /**
+     * Returns whether the recorded instance is terminal.
+     *
+     * @return whether the recorded instance is terminal
+     */
+    private boolean isTerminal() {
+      return terminalInstance != null;
+    }
+
+    @Override
+    public String toString() {
+      return ec2InstanceId + " (" + stateName + ")";
+    }
+  }
+}
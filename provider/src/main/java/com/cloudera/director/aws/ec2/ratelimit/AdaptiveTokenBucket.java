@@ -0,0 +1,195 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.cloudera.director.aws.ec2.ratelimit;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket whose refill rate adapts to throttling: it is halved when a call is throttled,
+ * and grows a little with every call that is not, up to a maximum rate that may be above the
+ * initial rate. Callers that
+ * cannot get a token wait for one in turn, rather than all retrying together once throttled.
+ */
+public final class AdaptiveTokenBucket {
+
+  /**
+   * The fraction of the maximum rate by which the rate grows with every call that is not
+   * throttled.
+   */
+  private static final double RATE_INCREASE_FRACTION = 0.01;
+
+  /**
+   * The fraction of the current rate to which the rate drops when a call is throttled.
+   */
+  private static final double RATE_DECREASE_FACTOR = 0.5;
+
+  /**
+   * The fraction of the initial rate below which the rate does not drop, so that callers keep
+   * probing the limit.
+   */
+  private static final double MIN_RATE_FRACTION = 0.05;
+
+  /**
+   * The time after a decrease during which further throttles do not decrease the rate again,
+   * since they are most likely caused by calls made before the decrease.
+   */
+  private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final LongSupplier nanoTime;
+  private final double capacity;
+  private final double maxRatePerSecond;
+  private final double minRatePerSecond;
+
+  private double ratePerSecond;
+  private double tokens;
+  private long lastRefillNanos;
+  private long lastDecreaseNanos;
+  private boolean decreased;
+
+  /**
+   * Creates a full token bucket.
+   *
+   * @param capacity         the maximum number of tokens
+   * @param maxRatePerSecond the initial and maximum refill rate, in tokens per second
+   */
+  public AdaptiveTokenBucket(int capacity, double maxRatePerSecond) {
+    this(capacity, maxRatePerSecond, maxRatePerSecond);
+  }
+
+  /**
+   * Creates a full token bucket.
+   *
+   * @param capacity             the maximum number of tokens
+   * @param initialRatePerSecond the initial refill rate, in tokens per second
+   * @param maxRatePerSecond     the maximum refill rate, in tokens per second, which must not
+   *                             be below the initial rate
+   */
+  public AdaptiveTokenBucket(int capacity, double initialRatePerSecond,
+      double maxRatePerSecond) {
+    this(capacity, initialRatePerSecond, maxRatePerSecond, System::nanoTime);
+  }
+
+  /**
+   * Creates a full token bucket.
+   *
+   * @param capacity         the maximum number of tokens
+   * @param maxRatePerSecond the initial and maximum refill rate, in tokens per second
+   * @param nanoTime         the source of the current time, in nanoseconds
+   */
+  @VisibleForTesting
+  AdaptiveTokenBucket(int capacity, double maxRatePerSecond, LongSupplier nanoTime) {
+    this(capacity, maxRatePerSecond, maxRatePerSecond, nanoTime);
+  }
+
+  /**
+   * Creates a full token bucket.
+   *
+   * @param capacity             the maximum number of tokens
+   * @param initialRatePerSecond the initial refill rate, in tokens per second
+   * @param maxRatePerSecond     the maximum refill rate, in tokens per second, which must not
+   *                             be below the initial rate
+   * @param nanoTime             the source of the current time, in nanoseconds
+   */
+  @VisibleForTesting
+  AdaptiveTokenBucket(int capacity, double initialRatePerSecond, double maxRatePerSecond,
+      LongSupplier nanoTime) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    if (initialRatePerSecond <= 0) {
+      throw new IllegalArgumentException(
+          "initialRatePerSecond must be positive: " + initialRatePerSecond);
+    }
+    if (maxRatePerSecond < initialRatePerSecond) {
+      throw new IllegalArgumentException("maxRatePerSecond " + maxRatePerSecond
+          + " is below initialRatePerSecond " + initialRatePerSecond);
+    }
+    this.nanoTime = nanoTime;
+    this.capacity = capacity;
+    this.maxRatePerSecond = maxRatePerSecond;
+    this.minRatePerSecond = initialRatePerSecond * MIN_RATE_FRACTION;
+    this.ratePerSecond = initialRatePerSecond;
+    this.tokens = capacity;
+    this.lastRefillNanos = nanoTime.getAsLong();
+  }
+
+  /**
+   * Takes a token, waiting for one if the bucket is empty.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public void acquire() throws InterruptedException {
+    long waitNanos = reserve();
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Takes a token, possibly ahead of its refill.
+   *
+   * @return how long to wait before the token is refilled, in nanoseconds
+   */
+  @VisibleForTesting
+  synchronized long reserve() {
+    refill();
+    tokens -= 1;
+    return (tokens >= 0) ? 0 : (long) (-tokens / ratePerSecond * NANOS_PER_SECOND);
+  }
+
+  /**
+   * Records a call that was not throttled, and grows the refill rate.
+   */
+  public synchronized void onSuccess() {
+    refill();
+    ratePerSecond = Math.min(maxRatePerSecond,
+        ratePerSecond + maxRatePerSecond * RATE_INCREASE_FRACTION);
+  }
+
+  /**
+   * Records a call that was throttled, and shrinks the refill rate unless it was just shrunk.
+   * Tokens that are left are dropped, since the service has none left for us.
+   */
+  public synchronized void onThrottle() {
+    refill();
+    long now = lastRefillNanos;
+    if (decreased && now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+      return;
+    }
+    ratePerSecond = Math.max(minRatePerSecond, ratePerSecond * RATE_DECREASE_FACTOR);
+    tokens = Math.min(tokens, 0);
+    lastDecreaseNanos = now;
+    decreased = true;
+  }
+
+  /**
+   * Returns the current refill rate.
+   *
+   * @return the current refill rate, in tokens per second
+   */
+  public synchronized double getRatePerSecond() {
+    return ratePerSecond;
+  }
+
+  private void refill() {
+    long now = nanoTime.getAsLong();
+    tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / NANOS_PER_SECOND * ratePerSecond);
+    lastRefillNanos = now;
+  }
+}
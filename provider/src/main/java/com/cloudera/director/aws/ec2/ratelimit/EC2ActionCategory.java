@@ -0,0 +1,121 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.cloudera.director.aws.ec2.ratelimit;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * The categories of EC2 API actions that EC2 throttles separately. The default capacity and
+ * refill rate of each category are those EC2 applies by default to an account, so that a single
+ * process starts at the account limit and backs off from there. Accounts whose limits have been
+ * raised can configure them through the request limits described by
+ * {@link EC2RateLimitingRequestHandler}.
+ *
+ * @see <a href="https://docs.aws.amazon.com/AWSEC2/latest/APIReference/throttling.html">Request throttling for the Amazon EC2 API</a>
+ */
+public enum EC2ActionCategory {
+
+  /**
+   * Non-mutating actions, such as {@code DescribeInstances}.
+   */
+  DESCRIBE("describe", 100, 20),
+
+  /**
+   * Mutating actions, such as {@code CreateTags}.
+   */
+  MUTATE("mutate", 200, 5),
+
+  /**
+   * Resource-intensive actions, such as {@code RunInstances} and {@code TerminateInstances}.
+   */
+  RUN_TERMINATE("runTerminate", 50, 2);
+
+  /**
+   * The resource-intensive actions.
+   */
+  private static final Set<String> RUN_TERMINATE_ACTIONS = ImmutableSet.of(
+      "RunInstances",
+      "TerminateInstances",
+      "StartInstances",
+      "StopInstances",
+      "RequestSpotInstances",
+      "CancelSpotInstanceRequests",
+      "CreateFleet",
+      "DeleteFleets");
+
+  /**
+   * The prefixes of non-mutating actions.
+   */
+  private static final Set<String> DESCRIBE_PREFIXES = ImmutableSet.of(
+      "Describe",
+      "Get",
+      "List");
+
+  private final String configName;
+  private final int capacity;
+  private final double refillRatePerSecond;
+
+  EC2ActionCategory(String configName, int capacity, double refillRatePerSecond) {
+    this.configName = configName;
+    this.capacity = capacity;
+    this.refillRatePerSecond = refillRatePerSecond;
+  }
+
+  /**
+   * Returns the name of the category in request limit keys.
+   *
+   * @return the name of the category in request limit keys
+   */
+  public String getConfigName() {
+    return configName;
+  }
+
+  /**
+   * Returns the default number of calls that can be made in a burst.
+   *
+   * @return the default number of calls that can be made in a burst
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the default sustained rate of calls.
+   *
+   * @return the default sustained rate of calls per second
+   */
+  public double getRefillRatePerSecond() {
+    return refillRatePerSecond;
+  }
+
+  /**
+   * Returns the category of the specified action.
+   *
+   * @param action the action name, such as {@code DescribeInstances}
+   * @return the category of the action
+   */
+  public static EC2ActionCategory of(String action) {
+    if (RUN_TERMINATE_ACTIONS.contains(action)) {
+      return RUN_TERMINATE;
+    }
+    for (String prefix : DESCRIBE_PREFIXES) {
+      if (action.startsWith(prefix)) {
+        return DESCRIBE;
+      }
+    }
+    return MUTATE;
+  }
+}
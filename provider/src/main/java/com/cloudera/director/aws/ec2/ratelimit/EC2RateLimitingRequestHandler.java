@@ -0,0 +1,201 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.cloudera.director.aws.ec2.ratelimit;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An SDK request handler that limits the rate of EC2 API calls made by the whole process, with
+ * one {@link AdaptiveTokenBucket} per account, endpoint and {@link EC2ActionCategory}. Every
+ * attempt, including SDK retries, takes a token before it is sent, and throttled attempts slow
+ * down the calls of their category to their endpoint with their account. Since EC2 throttles
+ * per account, the buckets are shared by the handlers of all EC2 clients with the same
+ * credentials scope, so that concurrent cluster bootstraps back off together, while providers
+ * of different accounts never slow each other down.
+ *
+ * <p>The capacity and rates of each category can be raised for accounts with raised EC2 limits
+ * through the request limits {@code ec2.rateLimits.<category>.capacity},
+ * {@code ec2.rateLimits.<category>.initialRatePerSecond} and
+ * {@code ec2.rateLimits.<category>.maxRatePerSecond}, where the category is
+ * {@code describe}, {@code mutate} or {@code runTerminate}. The maximum rate defaults to the
+ * initial rate, which defaults to the rate EC2 applies by default. A bucket takes its limits
+ * from the first handler that uses it.</p>
+ */
+public final class EC2RateLimitingRequestHandler extends RequestHandler2 {
+
+  /**
+   * The prefix of request limit keys for EC2 rate limits.
+   */
+  private static final String RATE_LIMITS_KEY_PREFIX = "ec2.rateLimits.";
+
+  /**
+   * The query parameter holding the action of a query protocol request.
+   */
+  private static final String ACTION_PARAMETER = "Action";
+
+  private static final String REQUEST_SUFFIX = "Request";
+
+  /**
+   * The buckets shared by all handlers, keyed by credentials scope, endpoint host and category.
+   */
+  private static final ConcurrentMap<String, AdaptiveTokenBucket> SHARED_BUCKETS =
+      new ConcurrentHashMap<>();
+
+  private final String credentialsScope;
+  private final AWSRequestLimits requestLimits;
+  private final ConcurrentMap<String, AdaptiveTokenBucket> buckets;
+
+  /**
+   * Creates a handler that shares its buckets with every other handler of the same
+   * credentials scope.
+   *
+   * @param credentialsScope the scope of the credentials of the client, or {@code null} if
+   *                         unknown
+   * @param requestLimits    the request limits
+   */
+  public EC2RateLimitingRequestHandler(String credentialsScope,
+      AWSRequestLimits requestLimits) {
+    this(credentialsScope, requestLimits, SHARED_BUCKETS);
+  }
+
+  /**
+   * Creates a handler with private buckets and the default limits.
+   */
+  @VisibleForTesting
+  EC2RateLimitingRequestHandler() {
+    this(null, new AWSRequestLimits(null), new ConcurrentHashMap<>());
+  }
+
+  /**
+   * Creates a handler.
+   *
+   * @param credentialsScope the scope of the credentials of the client, or {@code null} if
+   *                         unknown
+   * @param requestLimits    the request limits
+   * @param buckets          the buckets, keyed by credentials scope, endpoint host and category
+   */
+  @VisibleForTesting
+  EC2RateLimitingRequestHandler(String credentialsScope, AWSRequestLimits requestLimits,
+      ConcurrentMap<String, AdaptiveTokenBucket> buckets) {
+    this.credentialsScope = (credentialsScope == null) ? "" : credentialsScope;
+    this.requestLimits = requireNonNull(requestLimits, "requestLimits is null");
+    this.buckets = requireNonNull(buckets, "buckets is null");
+  }
+
+  @Override
+  public void beforeAttempt(HandlerBeforeAttemptContext context) {
+    AdaptiveTokenBucket bucket = getBucket(context.getRequest());
+    if (bucket == null) {
+      return;
+    }
+    try {
+      bucket.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AbortedException("Interrupted while waiting to call EC2", e);
+    }
+  }
+
+  @Override
+  public void afterAttempt(HandlerAfterAttemptContext context) {
+    AdaptiveTokenBucket bucket = getBucket(context.getRequest());
+    if (bucket == null) {
+      return;
+    }
+    Exception exception = context.getException();
+    if (exception instanceof AmazonServiceException
+        && RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+      bucket.onThrottle();
+    } else if (exception == null) {
+      bucket.onSuccess();
+    }
+  }
+
+  /**
+   * Returns the bucket that limits the calls of the specified category to the specified
+   * endpoint with the credentials of this handler.
+   *
+   * @param host     the endpoint host, which identifies the region
+   * @param category the action category
+   * @return the bucket
+   */
+  @VisibleForTesting
+  AdaptiveTokenBucket getBucket(String host, EC2ActionCategory category) {
+    return buckets.computeIfAbsent(credentialsScope + '/' + host + '/' + category,
+        key -> newBucket(category));
+  }
+
+  /**
+   * Creates a bucket for the specified category with the configured limits.
+   *
+   * @param category the action category
+   * @return the bucket
+   */
+  private AdaptiveTokenBucket newBucket(EC2ActionCategory category) {
+    String keyPrefix = RATE_LIMITS_KEY_PREFIX + category.getConfigName() + '.';
+    int capacity = requestLimits.getLimit(keyPrefix + "capacity", category.getCapacity());
+    double initialRate = requestLimits.getLimit(keyPrefix + "initialRatePerSecond",
+        category.getRefillRatePerSecond());
+    double maxRate = requestLimits.getLimit(keyPrefix + "maxRatePerSecond", initialRate);
+    return new AdaptiveTokenBucket(capacity, initialRate, maxRate);
+  }
+
+  private AdaptiveTokenBucket getBucket(Request<?> request) {
+    if (request == null) {
+      return null;
+    }
+    String action = getAction(request);
+    URI endpoint = request.getEndpoint();
+    if (action == null || endpoint == null) {
+      return null;
+    }
+    return getBucket(endpoint.getHost(), EC2ActionCategory.of(action));
+  }
+
+  /**
+   * Returns the action of a request, taken from its query parameters, or else from the class
+   * of the original request.
+   *
+   * @param request the request
+   * @return the action, or {@code null} if it is not known
+   */
+  private static String getAction(Request<?> request) {
+    List<String> actions = request.getParameters().get(ACTION_PARAMETER);
+    if (actions != null && !actions.isEmpty()) {
+      return actions.get(0);
+    }
+    if (request.getOriginalRequest() == null) {
+      return null;
+    }
+    String action = request.getOriginalRequest().getClass().getSimpleName();
+    return action.endsWith(REQUEST_SUFFIX)
+        ? action.substring(0, action.length() - REQUEST_SUFFIX.length())
+        : action;
+  }
+}
@@ -0,0 +1,184 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.metrics;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The registry of the metrics of the AWS API calls made by the plugin, by service and operation.
+ * Calls are recorded by {@code LoggingAspect}, SDK retries by
+ * {@code DefaultBackoffStrategyWithLogging} and bytes and throttles, per attempt, by
+ * {@link CallMetricsRequestHandler}.
+ *
+ * <p>The metrics of each operation are registered as an MXBean named
+ * {@code com.cloudera.director.aws:type=AWSCallMetrics,service=<service>,operation=<operation>}
+ * on the platform MBean server the first time the operation is called.</p>
+ */
+public final class AWSCallMetrics {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AWSCallMetrics.class);
+
+  /**
+   * The JMX domain of the operation MXBeans.
+   */
+  public static final String JMX_DOMAIN = "com.cloudera.director.aws";
+
+  /**
+   * The JMX type of the operation MXBeans.
+   */
+  public static final String JMX_TYPE = "AWSCallMetrics";
+
+  /**
+   * The package segment that precedes the service name in SDK class names.
+   */
+  private static final String SERVICES_PACKAGE_SEGMENT = ".services.";
+
+  private static final String REQUEST_SUFFIX = "Request";
+
+  private static final AWSCallMetrics INSTANCE = new AWSCallMetrics(true);
+
+  /**
+   * Returns the metrics of the calls made by the plugin.
+   *
+   * @return the metrics of the calls made by the plugin
+   */
+  public static AWSCallMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  private final boolean registerMXBeans;
+  private final ConcurrentMap<String, OperationMetrics> operationMetrics =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Creates an empty registry.
+   *
+   * @param registerMXBeans whether to register the metrics of each operation with JMX
+   */
+  @VisibleForTesting
+  AWSCallMetrics(boolean registerMXBeans) {
+    this.registerMXBeans = registerMXBeans;
+  }
+
+  /**
+   * Returns the metrics of the specified operation, creating them if needed.
+   *
+   * @param service   the service name, such as {@code ec2}
+   * @param operation the operation name, such as {@code DescribeInstances}
+   * @return the metrics of the operation
+   */
+  public OperationMetrics getOperationMetrics(String service, String operation) {
+    String key = getKey(service, operation);
+    OperationMetrics metrics = operationMetrics.get(key);
+    if (metrics == null) {
+      OperationMetrics newMetrics = new OperationMetrics(service, operation);
+      metrics = operationMetrics.putIfAbsent(key, newMetrics);
+      if (metrics == null) {
+        metrics = newMetrics;
+        if (registerMXBeans) {
+          register(metrics);
+        }
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Returns the metrics of the operation that the specified request is for.
+   *
+   * @param request the request
+   * @return the metrics of the operation
+   */
+  public OperationMetrics getOperationMetrics(AmazonWebServiceRequest request) {
+    Class<?> requestClass = request.getClass();
+    String operation = requestClass.getSimpleName();
+    if (operation.endsWith(REQUEST_SUFFIX)) {
+      operation = operation.substring(0, operation.length() - REQUEST_SUFFIX.length());
+    }
+    return getOperationMetrics(getServiceName(requestClass), operation);
+  }
+
+  /**
+   * Returns a point-in-time copy of the metrics of every operation called so far.
+   *
+   * @return the metrics of every operation called so far, keyed by
+   * {@code <service>:<operation>} and sorted by key
+   */
+  public SortedMap<String, OperationMetricsSnapshot> snapshot() {
+    ImmutableSortedMap.Builder<String, OperationMetricsSnapshot> builder =
+        ImmutableSortedMap.naturalOrder();
+    for (OperationMetrics metrics : operationMetrics.values()) {
+      builder.put(getKey(metrics.getService(), metrics.getOperation()), metrics.snapshot());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the name of the service that an SDK class belongs to, taken from its package, such
+   * as {@code ec2} for {@code com.amazonaws.services.ec2.AmazonEC2Client}. The name is the same
+   * for clients and for the request and result classes of their operations.
+   *
+   * @param sdkClass the SDK class
+   * @return the service name
+   */
+  public static String getServiceName(Class<?> sdkClass) {
+    String className = sdkClass.getName();
+    int start = className.lastIndexOf(SERVICES_PACKAGE_SEGMENT);
+    if (start < 0) {
+      return sdkClass.getSimpleName();
+    }
+    start += SERVICES_PACKAGE_SEGMENT.length();
+    int end = className.indexOf('.', start);
+    return (end < 0) ? className.substring(start) : className.substring(start, end);
+  }
+
+  private static String getKey(String service, String operation) {
+    return service + ':' + operation;
+  }
+
+  private static void register(OperationMetrics metrics) {
+    try {
+      Hashtable<String, String> properties = new Hashtable<>();
+      properties.put("type", JMX_TYPE);
+      properties.put("service", metrics.getService());
+      properties.put("operation", metrics.getOperation());
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(metrics, new ObjectName(JMX_DOMAIN, properties));
+    } catch (InstanceAlreadyExistsException e) {
+      // Another copy of the plugin, loaded by another class loader, got there first.
+      LOG.debug("Metrics of {}:{} are already registered with JMX",
+          metrics.getService(), metrics.getOperation());
+    } catch (JMException | RuntimeException e) {
+      LOG.warn("Unable to register metrics of {}:{} with JMX",
+          metrics.getService(), metrics.getOperation(), e);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.metrics;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.util.SdkHttpUtils;
+import com.google.common.primitives.Longs;
+
+/**
+ * An SDK request handler that records the bytes sent and received, and whether it was
+ * throttled, for every attempt of every call in {@link AWSCallMetrics}. The handler is stateless, so one instance can be shared by
+ * all clients.
+ */
+public final class CallMetricsRequestHandler extends RequestHandler2 {
+
+  /**
+   * The shared instance of the handler.
+   */
+  public static final CallMetricsRequestHandler INSTANCE = new CallMetricsRequestHandler();
+
+  private static final String CONTENT_LENGTH = "Content-Length";
+
+  private CallMetricsRequestHandler() {
+  }
+
+  @Override
+  public void afterAttempt(HandlerAfterAttemptContext context) {
+    Request<?> request = context.getRequest();
+    if (request == null || request.getOriginalRequest() == null) {
+      return;
+    }
+    Response<?> response = context.getResponse();
+    long received = (response == null || response.getHttpResponse() == null)
+        ? 0 : parseLength(response.getHttpResponse().getHeader(CONTENT_LENGTH));
+    OperationMetrics metrics =
+        AWSCallMetrics.getInstance().getOperationMetrics(request.getOriginalRequest());
+    metrics.recordBytes(getRequestLength(request), received);
+    if (OperationMetrics.isThrottling(context.getException())) {
+      metrics.recordThrottle();
+    }
+  }
+
+  /**
+   * Returns the length of the body of a request. Query protocol services, such as EC2, send
+   * their parameters as the body, which the SDK only encodes when it sends the request.
+   *
+   * @param request the request
+   * @return the length of the body of the request, or 0 if it is not known
+   */
+  private static long getRequestLength(Request<?> request) {
+    String contentLength = request.getHeaders().get(CONTENT_LENGTH);
+    if (contentLength != null) {
+      return parseLength(contentLength);
+    }
+    if (request.getContent() == null && !request.getParameters().isEmpty()) {
+      // URL-encoded parameters are ASCII, so their length is their size in bytes
+      String encodedParameters = SdkHttpUtils.encodeParameters(request);
+      return (encodedParameters == null) ? 0 : encodedParameters.length();
+    }
+    return 0;
+  }
+
+  private static long parseLength(String length) {
+    Long parsed = (length == null) ? null : Longs.tryParse(length.trim());
+    return (parsed == null) ? 0 : parsed;
+  }
+}
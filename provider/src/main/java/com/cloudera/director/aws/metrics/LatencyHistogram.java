@@ -0,0 +1,115 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with fixed, roughly logarithmic buckets from 1 ms to 1 minute.
+ * Percentiles are estimated as the upper bound of the bucket that contains them, which is
+ * precise enough to tell which operations dominate latency.
+ */
+final class LatencyHistogram {
+
+  /**
+   * The inclusive upper bounds of the buckets, in milliseconds. Latencies above the last bound
+   * fall into an overflow bucket.
+   */
+  private static final long[] BUCKET_BOUNDS_MILLIS = {
+      1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000
+  };
+
+  private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param latencyNanos the latency, in nanoseconds
+   */
+  void record(long latencyNanos) {
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_MILLIS.length
+        && latencyNanos > TimeUnit.MILLISECONDS.toNanos(BUCKET_BOUNDS_MILLIS[bucket])) {
+      bucket++;
+    }
+    bucketCounts.incrementAndGet(bucket);
+    count.increment();
+    totalNanos.add(latencyNanos);
+    maxNanos.accumulateAndGet(latencyNanos, Math::max);
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   *
+   * @return the number of recorded latencies
+   */
+  long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean of the recorded latencies.
+   *
+   * @return the mean latency in milliseconds, or 0 if no latency was recorded
+   */
+  double getMeanMillis() {
+    long n = count.sum();
+    return (n == 0) ? 0 : totalNanos.sum() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Returns the maximum recorded latency.
+   *
+   * @return the maximum latency in milliseconds, or 0 if no latency was recorded
+   */
+  double getMaxMillis() {
+    return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Returns an estimate of the specified percentile of the recorded latencies.
+   *
+   * @param percentile the percentile, between 0 and 100
+   * @return the upper bound of the bucket containing the percentile in milliseconds, the
+   * maximum latency if it falls into the overflow bucket, or 0 if no latency was recorded
+   */
+  double getPercentileMillis(double percentile) {
+    long[] counts = new long[bucketCounts.length()];
+    long n = 0;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = bucketCounts.get(i);
+      n += counts[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(BUCKET_BOUNDS_MILLIS[i], getMaxMillis());
+      }
+    }
+    return getMaxMillis();
+  }
+}
@@ -0,0 +1,226 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The live metrics of calls to one AWS API operation. Recording is lock-free, so that it can
+ * be done on every call.
+ */
+public final class OperationMetrics implements OperationMetricsMXBean {
+
+  private final String service;
+  private final String operation;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final ConcurrentMap<String, LongAdder> errorsByCode = new ConcurrentHashMap<>();
+  private final LongAdder throttles = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  /**
+   * Creates metrics for the specified operation.
+   *
+   * @param service   the service name
+   * @param operation the operation name
+   */
+  OperationMetrics(String service, String operation) {
+    this.service = requireNonNull(service, "service is null");
+    this.operation = requireNonNull(operation, "operation is null");
+  }
+
+  /**
+   * Records a call that succeeded.
+   *
+   * @param latencyNanos the latency of the call, in nanoseconds
+   */
+  public void recordSuccess(long latencyNanos) {
+    calls.increment();
+    latency.record(latencyNanos);
+  }
+
+  /**
+   * Records a call that failed.
+   *
+   * @param latencyNanos the latency of the call, in nanoseconds
+   * @param error        the error
+   */
+  public void recordFailure(long latencyNanos, Throwable error) {
+    calls.increment();
+    latency.record(latencyNanos);
+    errors.increment();
+    errorsByCode.computeIfAbsent(getErrorCode(error), code -> new LongAdder()).increment();
+  }
+
+  /**
+   * Records a call whose outcome cannot be observed, such as an asynchronous call without a
+   * completion handler.
+   */
+  public void recordUntimedCall() {
+    calls.increment();
+  }
+
+  /**
+   * Records an attempt that the SDK is about to retry.
+   *
+   * @param error the error that failed the attempt
+   */
+  public void recordRetry(Throwable error) {
+    retries.increment();
+  }
+
+  /**
+   * Records an attempt that was throttled. Throttles are counted per attempt, where the SDK
+   * sees them, rather than when a call fails or is retried, so that each throttled attempt is
+   * counted exactly once.
+   */
+  public void recordThrottle() {
+    throttles.increment();
+  }
+
+  /**
+   * Records the bytes transferred by an attempt.
+   *
+   * @param sent     the number of request bytes sent
+   * @param received the number of response bytes received
+   */
+  public void recordBytes(long sent, long received) {
+    bytesSent.add(sent);
+    bytesReceived.add(received);
+  }
+
+  /**
+   * Returns a point-in-time copy of these metrics.
+   *
+   * @return a point-in-time copy of these metrics
+   */
+  public OperationMetricsSnapshot snapshot() {
+    return new OperationMetricsSnapshot(this);
+  }
+
+  @Override
+  public String getService() {
+    return service;
+  }
+
+  @Override
+  public String getOperation() {
+    return operation;
+  }
+
+  @Override
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public Map<String, Long> getErrorsByCode() {
+    ImmutableSortedMap.Builder<String, Long> builder = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, LongAdder> entry : errorsByCode.entrySet()) {
+      builder.put(entry.getKey(), entry.getValue().sum());
+    }
+    return builder.build();
+  }
+
+  @Override
+  public long getThrottles() {
+    return throttles.sum();
+  }
+
+  @Override
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  @Override
+  public double getMeanLatencyMillis() {
+    return latency.getMeanMillis();
+  }
+
+  @Override
+  public double getP50LatencyMillis() {
+    return latency.getPercentileMillis(50);
+  }
+
+  @Override
+  public double getP90LatencyMillis() {
+    return latency.getPercentileMillis(90);
+  }
+
+  @Override
+  public double getP99LatencyMillis() {
+    return latency.getPercentileMillis(99);
+  }
+
+  @Override
+  public double getMaxLatencyMillis() {
+    return latency.getMaxMillis();
+  }
+
+  /**
+   * Returns the error code of an error: the AWS error code of service errors, and the simple
+   * class name of other errors.
+   *
+   * @param error the error
+   * @return the error code
+   */
+  static String getErrorCode(Throwable error) {
+    if (error instanceof AmazonServiceException) {
+      String errorCode = ((AmazonServiceException) error).getErrorCode();
+      if (errorCode != null) {
+        return errorCode;
+      }
+    }
+    return error.getClass().getSimpleName();
+  }
+
+  /**
+   * Returns whether an error indicates that AWS throttled the attempt.
+   *
+   * @param error the error, or {@code null}
+   * @return whether the error indicates that AWS throttled the attempt
+   */
+  static boolean isThrottling(Throwable error) {
+    return error instanceof AmazonServiceException
+        && RetryUtils.isThrottlingException((AmazonServiceException) error);
+  }
+}
@@ -0,0 +1,122 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the metrics of calls to one AWS API operation.
+ */
+public interface OperationMetricsMXBean {
+
+  /**
+   * Returns the service name, such as {@code ec2}.
+   *
+   * @return the service name
+   */
+  String getService();
+
+  /**
+   * Returns the operation name, such as {@code DescribeInstances}.
+   *
+   * @return the operation name
+   */
+  String getOperation();
+
+  /**
+   * Returns the number of calls made to the operation, counting each call once however many
+   * times the SDK retried it.
+   *
+   * @return the number of calls
+   */
+  long getCalls();
+
+  /**
+   * Returns the number of calls that failed.
+   *
+   * @return the number of calls that failed
+   */
+  long getErrors();
+
+  /**
+   * Returns the number of failed calls by error code.
+   *
+   * @return the number of failed calls by error code
+   */
+  Map<String, Long> getErrorsByCode();
+
+  /**
+   * Returns the number of throttled attempts, whether the SDK retried them or not.
+   *
+   * @return the number of throttled attempts
+   */
+  long getThrottles();
+
+  /**
+   * Returns the number of attempts the SDK retried.
+   *
+   * @return the number of retries
+   */
+  long getRetries();
+
+  /**
+   * Returns the number of request bytes sent over all attempts.
+   *
+   * @return the number of request bytes sent
+   */
+  long getBytesSent();
+
+  /**
+   * Returns the number of response bytes received over all successful attempts.
+   *
+   * @return the number of response bytes received
+   */
+  long getBytesReceived();
+
+  /**
+   * Returns the mean latency of timed calls, including SDK retries.
+   *
+   * @return the mean latency in milliseconds
+   */
+  double getMeanLatencyMillis();
+
+  /**
+   * Returns an estimate of the median latency of timed calls.
+   *
+   * @return the median latency in milliseconds
+   */
+  double getP50LatencyMillis();
+
+  /**
+   * Returns an estimate of the 90th percentile latency of timed calls.
+   *
+   * @return the 90th percentile latency in milliseconds
+   */
+  double getP90LatencyMillis();
+
+  /**
+   * Returns an estimate of the 99th percentile latency of timed calls.
+   *
+   * @return the 99th percentile latency in milliseconds
+   */
+  double getP99LatencyMillis();
+
+  /**
+   * Returns the maximum latency of timed calls.
+   *
+   * @return the maximum latency in milliseconds
+   */
+  double getMaxLatencyMillis();
+}
@@ -0,0 +1,144 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An immutable point-in-time copy of the metrics of calls to one AWS API operation. See
+ * {@link OperationMetricsMXBean} for the meaning of each metric.
+ */
+public final class OperationMetricsSnapshot {
+
+  private final String service;
+  private final String operation;
+  private final long calls;
+  private final long errors;
+  private final SortedMap<String, Long> errorsByCode;
+  private final long throttles;
+  private final long retries;
+  private final long bytesSent;
+  private final long bytesReceived;
+  private final double meanLatencyMillis;
+  private final double p50LatencyMillis;
+  private final double p90LatencyMillis;
+  private final double p99LatencyMillis;
+  private final double maxLatencyMillis;
+
+  /**
+   * Creates a snapshot of the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  OperationMetricsSnapshot(OperationMetricsMXBean metrics) {
+    requireNonNull(metrics, "metrics is null");
+    this.service = metrics.getService();
+    this.operation = metrics.getOperation();
+    this.calls = metrics.getCalls();
+    this.errors = metrics.getErrors();
+    this.errorsByCode = ImmutableSortedMap.copyOf(metrics.getErrorsByCode());
+    this.throttles = metrics.getThrottles();
+    this.retries = metrics.getRetries();
+    this.bytesSent = metrics.getBytesSent();
+    this.bytesReceived = metrics.getBytesReceived();
+    this.meanLatencyMillis = metrics.getMeanLatencyMillis();
+    this.p50LatencyMillis = metrics.getP50LatencyMillis();
+    this.p90LatencyMillis = metrics.getP90LatencyMillis();
+    this.p99LatencyMillis = metrics.getP99LatencyMillis();
+    this.maxLatencyMillis = metrics.getMaxLatencyMillis();
+  }
+
+  public String getService() {
+    return service;
+  }
+
+  public String getOperation() {
+    return operation;
+  }
+
+  public long getCalls() {
+    return calls;
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  public Map<String, Long> getErrorsByCode() {
+    return errorsByCode;
+  }
+
+  public long getThrottles() {
+    return throttles;
+  }
+
+  public long getRetries() {
+    return retries;
+  }
+
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  public double getMeanLatencyMillis() {
+    return meanLatencyMillis;
+  }
+
+  public double getP50LatencyMillis() {
+    return p50LatencyMillis;
+  }
+
+  public double getP90LatencyMillis() {
+    return p90LatencyMillis;
+  }
+
+  public double getP99LatencyMillis() {
+    return p99LatencyMillis;
+  }
+
+  public double getMaxLatencyMillis() {
+    return maxLatencyMillis;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("service", service)
+        .add("operation", operation)
+        .add("calls", calls)
+        .add("errors", errors)
+        .add("errorsByCode", errorsByCode)
+        .add("throttles", throttles)
+        .add("retries", retries)
+        .add("bytesSent", bytesSent)
+        .add("bytesReceived", bytesReceived)
+        .add("meanLatencyMillis", meanLatencyMillis)
+        .add("p50LatencyMillis", p50LatencyMillis)
+        .add("p90LatencyMillis", p90LatencyMillis)
+        .add("p99LatencyMillis", p99LatencyMillis)
+        .add("maxLatencyMillis", maxLatencyMillis)
+        .toString();
+  }
+}
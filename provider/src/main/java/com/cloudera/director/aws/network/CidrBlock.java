@@ -17,16 +17,33 @@ package com.cloudera.director.aws.network;
 import com.google.common.base.Preconditions;
 import com.google.common.net.InetAddresses;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The CIDR (Classless Inter-Domain Routing) block represents a range af
  * IP addresses. It can handle both IPv4 and IPv6 addresses.
+ * <p>
+ * The network address and the mask are held as primitive words (32 bits of a {@code long}
+ * for IPv4, two {@code long}s for IPv6), so that containment and overlap checks
+ * between CIDR blocks do not allocate. CIDR blocks are immutable, and parsed
+ * blocks are interned by their notation.
  */
 public final class CidrBlock {
 
+  /**
+   * The maximum number of parsed CIDR blocks to intern before the cache is cleared.
+   */
+  private static final int MAX_INTERNED_BLOCKS = 10000;
+
+  /**
+   * The parsed CIDR blocks, keyed by notation.
+   */
+  private static final Map<String, CidrBlock> INTERNED_BLOCKS = new ConcurrentHashMap<>();
+
   /**
    * The network address of the CIDR block.
    */
@@ -37,19 +54,65 @@ public final class CidrBlock {
    */
   private final int prefixLen;
 
+  /**
+   * Whether this is an IPv6 CIDR block.
+   */
+  private final boolean ipv6;
+
+  /**
+   * The network address of an IPv4 CIDR block, or the high 64 bits of the
+   * network address of an IPv6 CIDR block.
+   */
+  private final long high;
+
+  /**
+   * The low 64 bits of the network address of an IPv6 CIDR block, or zero for
+   * an IPv4 CIDR block.
+   */
+  private final long low;
+
+  /**
+   * The mask for {@link #high}.
+   */
+  private final long highMask;
+
+  /**
+   * The mask for {@link #low}.
+   */
+  private final long lowMask;
+
   /**
    * The separator used to separate the IP address part and prefix part in CIDR notation.
    */
   private static final char SEPARATOR = '/';
 
   /**
-   * Constructs a CidrBlock from CIDR notation.
+   * Constructs a CidrBlock from CIDR notation. Repeated calls with the same
+   * notation return the same instance.
    *
    * @param notation CIDR notation representing a block of IP addresses
-   * @return a new CidrBlock object
+   * @return a CidrBlock object
    */
   public static CidrBlock fromString(String notation) {
     Preconditions.checkNotNull(notation);
+    CidrBlock block = INTERNED_BLOCKS.get(notation);
+    if (block == null) {
+      block = parse(notation);
+      if (INTERNED_BLOCKS.size() >= MAX_INTERNED_BLOCKS) {
+        INTERNED_BLOCKS.clear();
+      }
+      INTERNED_BLOCKS.put(notation, block);
+    }
+    return block;
+  }
+
+  /**
+   * Parses CIDR notation.
+   *
+   * @param notation CIDR notation representing a block of IP addresses
+   * @return a new CidrBlock object
+   */
+  private static CidrBlock parse(String notation) {
     final String error = "Invalid CIDR notation: " + notation;
 
     int idx = notation.indexOf(SEPARATOR);
@@ -82,30 +145,80 @@ public final class CidrBlock {
    * @param prefixLen the number of bits of the prefix in CIDR notation
    */
   private CidrBlock(InetAddress ipAddress, int prefixLen) {
-    this.baseAddress = mask(ipAddress, prefixLen);
+    byte[] bytes = ipAddress.getAddress();
+    Preconditions.checkArgument(prefixLen >= 0 && prefixLen <= bytes.length * 8,
+        String.format("The CIDR prefix length %d is out of range: [0, %d].",
+            prefixLen, (bytes.length * 8)));
+
     this.prefixLen = prefixLen;
+    this.ipv6 = !(ipAddress instanceof Inet4Address);
+    if (ipv6) {
+      this.highMask = prefixMask(Math.min(prefixLen, 64));
+      this.lowMask = prefixMask(Math.max(prefixLen - 64, 0));
+      this.high = toLong(bytes, 0) & highMask;
+      this.low = toLong(bytes, 8) & lowMask;
+    } else {
+      this.highMask = prefixMask(prefixLen) >>> 32;
+      this.lowMask = 0L;
+      this.high = (toInt(bytes) & 0xffffffffL) & highMask;
+      this.low = 0L;
+    }
+    this.baseAddress = toInetAddress();
   }
 
   /**
-   * Uses the routing prefix information to mask an IP address to a network address.
+   * Returns a 64-bit mask whose specified number of high bits are set.
    *
-   * @param ipAddress an IP address (either IPv4 or Ipv6)
-   * @param prefixLen the number of bits of the prefix in CIDR notation
-   * @return the network address of the CIDR block where this IP address falls
+   * @param bits the number of high bits to set, in [0, 64]
+   * @return the mask
    */
-  private static InetAddress mask(InetAddress ipAddress, int prefixLen) {
-    byte[] bytes = ipAddress.getAddress();
-    Preconditions.checkArgument(prefixLen >= 0 && prefixLen <= bytes.length * 8,
-        String.format("The CIDR prefix length %d is out of range: [0, %d].",
-            prefixLen, (bytes.length * 8)));
+  private static long prefixMask(int bits) {
+    return (bits == 0) ? 0L : (-1L << (64 - bits));
+  }
 
-    int borderByte = (prefixLen == 0) ? 0 : (prefixLen - 1) / 8;
-    int numBits = prefixLen - (borderByte * 8);
-    int bitMask = (-1 << (8 - numBits));
+  /**
+   * Returns the big-endian 32-bit word in the specified IPv4 address bytes.
+   *
+   * @param bytes the address bytes
+   * @return the 32-bit word
+   */
+  private static int toInt(byte[] bytes) {
+    return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16)
+        | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+  }
 
-    bytes[borderByte] = (byte) (bytes[borderByte] & bitMask);
-    for (int i = borderByte + 1; i < bytes.length; i++) {
-      bytes[i] = 0;
+  /**
+   * Returns the big-endian 64-bit word at the specified offset in the specified
+   * address bytes.
+   *
+   * @param bytes  the address bytes
+   * @param offset the offset of the word
+   * @return the 64-bit word
+   */
+  private static long toLong(byte[] bytes, int offset) {
+    long word = 0L;
+    for (int i = offset; i < offset + 8; i++) {
+      word = (word << 8) | (bytes[i] & 0xff);
+    }
+    return word;
+  }
+
+  /**
+   * Returns the network address of this CIDR block as an {@code InetAddress}.
+   *
+   * @return the network address of this CIDR block
+   */
+  private InetAddress toInetAddress() {
+    byte[] bytes = new byte[ipv6 ? 16 : 4];
+    if (ipv6) {
+      for (int i = 0; i < 8; i++) {
+        bytes[i] = (byte) (high >>> (56 - 8 * i));
+        bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+      }
+    } else {
+      for (int i = 0; i < 4; i++) {
+        bytes[i] = (byte) (high >>> (24 - 8 * i));
+      }
     }
 
     try {
@@ -124,8 +237,13 @@ public final class CidrBlock {
   public boolean contains(InetAddress address) {
     Preconditions.checkNotNull(address);
 
-    return (baseAddress.getClass() == address.getClass())
-        && baseAddress.equals(mask(address, prefixLen));
+    byte[] bytes = address.getAddress();
+    if (ipv6) {
+      return bytes.length == 16
+          && (toLong(bytes, 0) & highMask) == high
+          && (toLong(bytes, 8) & lowMask) == low;
+    }
+    return bytes.length == 4 && ((toInt(bytes) & 0xffffffffL) & highMask) == high;
   }
 
   /**
@@ -137,7 +255,27 @@ public final class CidrBlock {
   public boolean contains(CidrBlock cidr) {
     Preconditions.checkNotNull(cidr);
 
-    return this.prefixLen <= cidr.prefixLen && this.contains(cidr.baseAddress);
+    return ipv6 == cidr.ipv6
+        && prefixLen <= cidr.prefixLen
+        && (cidr.high & highMask) == high
+        && (cidr.low & lowMask) == low;
+  }
+
+  /**
+   * Checks if the given CIDR block shares any IP address with the current CIDR
+   * block, which is the case if and only if one of them contains the other.
+   *
+   * @param cidr the CIDR block representing the other block of IP addresses
+   * @return true if the given CIDR block overlaps the current one
+   */
+  public boolean overlaps(CidrBlock cidr) {
+    Preconditions.checkNotNull(cidr);
+
+    // The shorter prefix determines the mask under which the network addresses must agree
+    CidrBlock wider = (prefixLen <= cidr.prefixLen) ? this : cidr;
+    return ipv6 == cidr.ipv6
+        && ((high ^ cidr.high) & wider.highMask) == 0L
+        && ((low ^ cidr.low) & wider.lowMask) == 0L;
   }
 
   /**
@@ -158,6 +296,30 @@ public final class CidrBlock {
     return prefixLen;
   }
 
+  /**
+   * Returns whether this is an IPv6 CIDR block.
+   *
+   * @return whether this is an IPv6 CIDR block
+   */
+  boolean isIpv6() {
+    return ipv6;
+  }
+
+  /**
+   * Returns the specified bit of the network address, counting from the most significant bit.
+   *
+   * @param index the index of the bit, less than the prefix length
+   * @return the bit, either 0 or 1
+   */
+  int getBit(int index) {
+    if (!ipv6) {
+      return (int) (high >>> (31 - index)) & 1;
+    }
+    return (index < 64)
+        ? (int) (high >>> (63 - index)) & 1
+        : (int) (low >>> (127 - index)) & 1;
+  }
+
   @Override
   public String toString() {
     return String.format("%s%c%d", InetAddresses.toAddrString(baseAddress), SEPARATOR, prefixLen);
@@ -174,11 +336,16 @@ public final class CidrBlock {
 
     CidrBlock that = (CidrBlock) o;
     return prefixLen == that.prefixLen
-        && baseAddress.equals(that.baseAddress);
+        && ipv6 == that.ipv6
+        && high == that.high
+        && low == that.low;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(baseAddress, prefixLen);
+    int result = Long.hashCode(high);
+    result = 31 * result + Long.hashCode(low);
+    result = 31 * result + prefixLen;
+    return 31 * result + (ipv6 ? 1 : 0);
   }
 }
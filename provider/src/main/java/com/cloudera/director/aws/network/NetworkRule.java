@@ -150,18 +150,8 @@ public final class NetworkRule {
       Range<Integer> portRange,
       List<String> ipRangeList,
       AccessType accessType) {
-    if (this.access != accessType) {
-      return false;
-    }
-
-    // Check the protocol
-    Protocol proto = Protocol.toProtocol(protocolNameOrNumber);
-    if (proto != Protocol.ALL && proto != this.protocol) {
-      return false;
-    }
-    // Check the port
-    if (proto != Protocol.ALL &&
-        (portRange == null || (!portRange.contains(-1) && !portRange.contains(this.port)))) {
+    if (this.access != accessType
+        || !isEnforcedBy(Protocol.toProtocol(protocolNameOrNumber), portRange)) {
       return false;
     }
     // Check the ip ranges
@@ -174,6 +164,48 @@ public final class NetworkRule {
     return false;
   }
 
+  /**
+   * Checks if this network rule is enforced by a network permission with the given parsed
+   * parameters.
+   *
+   * @param proto      the network protocol
+   * @param portRange  the range of ports
+   * @param cidrBlocks the CIDR blocks
+   * @param accessType the access type
+   * @return true if the network rule is enforced by the network permission
+   */
+  boolean isEnforced(Protocol proto,
+      Range<Integer> portRange,
+      List<CidrBlock> cidrBlocks,
+      AccessType accessType) {
+    if (this.access != accessType || !isEnforcedBy(proto, portRange)) {
+      return false;
+    }
+    for (CidrBlock curCidr : cidrBlocks) {
+      if (curCidr.contains(this.cidrBlock)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if the protocol and ports of a network permission enforce this network rule.
+   *
+   * @param proto     the network protocol
+   * @param portRange the range of ports
+   * @return true if the protocol and ports enforce this network rule
+   */
+  private boolean isEnforcedBy(Protocol proto, Range<Integer> portRange) {
+    // Check the protocol
+    if (proto != Protocol.ALL && proto != this.protocol) {
+      return false;
+    }
+    // Check the port
+    return proto == Protocol.ALL ||
+        (portRange != null && (portRange.contains(-1) || portRange.contains(this.port)));
+  }
+
   /**
    * Checks if this network rule is violated by a network permission with the given parameters.
    *
@@ -187,30 +219,97 @@ public final class NetworkRule {
       Range<Integer> portRange,
       List<String> ipRangeList,
       AccessType accessType) {
-    if (this.access == accessType) {
-      return false;
-    }
-
-    // Check the protocol
-    Protocol proto = Protocol.toProtocol(protocolNameOrNumber);
-    if (this.protocol != Protocol.ALL && proto != Protocol.ALL && proto != this.protocol) {
-      return false;
-    }
-    // Check the port
-    if (this.protocol != Protocol.ALL && proto != Protocol.ALL &&
-        (this.port != -1 && !portRange.contains(-1) && !portRange.contains(this.port))) {
+    if (this.access == accessType
+        || !isViolatedBy(Protocol.toProtocol(protocolNameOrNumber), portRange)) {
       return false;
     }
     // Check the ip ranges
     for (String curIpRange : ipRangeList) {
       CidrBlock curCidr = CidrBlock.fromString(curIpRange);
-      if (curCidr.contains(this.cidrBlock) || this.cidrBlock.contains(curCidr)) {
+      if (curCidr.overlaps(this.cidrBlock)) {
         return true;
       }
     }
     return false;
   }
 
+  /**
+   * Checks if this network rule is violated by a network permission with the given parsed
+   * parameters.
+   *
+   * @param proto      the network protocol
+   * @param portRange  the range of ports
+   * @param cidrBlocks the CIDR blocks
+   * @param accessType the access type
+   * @return true if the network rule is violated by the network permission
+   */
+  boolean isViolated(Protocol proto,
+      Range<Integer> portRange,
+      List<CidrBlock> cidrBlocks,
+      AccessType accessType) {
+    if (this.access == accessType || !isViolatedBy(proto, portRange)) {
+      return false;
+    }
+    for (CidrBlock curCidr : cidrBlocks) {
+      if (curCidr.overlaps(this.cidrBlock)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if the protocol and ports of a network permission violate this network rule.
+   *
+   * @param proto     the network protocol
+   * @param portRange the range of ports
+   * @return true if the protocol and ports violate this network rule
+   */
+  private boolean isViolatedBy(Protocol proto, Range<Integer> portRange) {
+    if (this.protocol == Protocol.ALL || proto == Protocol.ALL) {
+      return true;
+    }
+    // Check the protocol and the port
+    return proto == this.protocol &&
+        (this.port == -1 || portRange.contains(-1) || portRange.contains(this.port));
+  }
+
+  /**
+   * Returns the network protocol that this rule applies to.
+   *
+   * @return the network protocol that this rule applies to
+   */
+  Protocol getProtocol() {
+    return protocol;
+  }
+
+  /**
+   * Returns the port that this rule applies to, or -1 for any port.
+   *
+   * @return the port that this rule applies to
+   */
+  int getPort() {
+    return port;
+  }
+
+  /**
+   * Returns the IP ranges that this rule applies to.
+   *
+   * @return the IP ranges that this rule applies to
+   */
+  CidrBlock getCidrBlock() {
+    return cidrBlock;
+  }
+
+  /**
+   * Returns the access type of this rule.
+   *
+   * @return the access type of this rule
+   */
+  AccessType getAccess() {
+    return access;
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
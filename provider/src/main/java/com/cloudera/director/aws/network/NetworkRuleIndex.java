@@ -0,0 +1,416 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.network;
+
+import com.google.common.collect.ArrayTable;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An index over network rules, which finds the rules enforced or violated by a network
+ * permission without checking every rule against it.
+ * <p>
+ * Rules are bucketed by access type and protocol. Each bucket is a binary trie keyed by the
+ * bits of the rules' CIDR blocks, and the rules at each node of the trie are grouped by port,
+ * so that the rules for a port range are found with a range query. The rules contained in a
+ * CIDR block are the rules in the subtree under the block's node, and the rules overlapping a
+ * CIDR block are those plus the rules on the path to the block's node. Candidate rules found
+ * through the index are confirmed with the same checks as {@link NetworkRule#isEnforced} and
+ * {@link NetworkRule#isViolated}, so the results are identical to checking every rule.
+ * <p>
+ * Indexes are immutable once built, and may be shared between threads.
+ */
+public final class NetworkRuleIndex {
+
+  /**
+   * An index with no rules.
+   */
+  public static final NetworkRuleIndex EMPTY_INDEX =
+      new NetworkRuleIndex(Collections.<NetworkRule>emptySet());
+
+  /**
+   * The rules, by access type and protocol.
+   */
+  private final Table<AccessType, Protocol, CidrTrie> buckets;
+
+  /**
+   * The number of rules in the index.
+   */
+  private final int size;
+
+  /**
+   * Builds an index over the specified network rules.
+   *
+   * @param rules the network rules
+   * @return the index
+   */
+  public static NetworkRuleIndex of(Iterable<NetworkRule> rules) {
+    return new NetworkRuleIndex(rules);
+  }
+
+  /**
+   * Internal constructor.
+   *
+   * @param rules the network rules
+   */
+  private NetworkRuleIndex(Iterable<NetworkRule> rules) {
+    buckets = ArrayTable.create(EnumSet.allOf(AccessType.class), EnumSet.allOf(Protocol.class));
+    int count = 0;
+    for (NetworkRule rule : rules) {
+      CidrTrie bucket = buckets.get(rule.getAccess(), rule.getProtocol());
+      if (bucket == null) {
+        bucket = new CidrTrie();
+        buckets.put(rule.getAccess(), rule.getProtocol(), bucket);
+      }
+      bucket.add(rule);
+      count++;
+    }
+    size = count;
+  }
+
+  /**
+   * Returns the number of rules in the index.
+   *
+   * @return the number of rules in the index
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Checks if the index is empty.
+   *
+   * @return true if the index contains no rules
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the rules that are enforced by a network permission with the given parameters.
+   *
+   * @param protocolNameOrNumber the network protocol
+   * @param portRange            the range of ports
+   * @param ipRangeList          the IP range list
+   * @param accessType           the access type
+   * @return the rules that are enforced by the network permission
+   * @see NetworkRule#isEnforced(String, Range, List, AccessType)
+   */
+  public Set<NetworkRule> getEnforcedRules(String protocolNameOrNumber,
+      Range<Integer> portRange,
+      List<String> ipRangeList,
+      AccessType accessType) {
+    if (isEmpty()) {
+      return Collections.emptySet();
+    }
+    Protocol proto = Protocol.toProtocol(protocolNameOrNumber);
+    List<CidrBlock> cidrBlocks = toCidrBlocks(ipRangeList);
+
+    PortQuery ports;
+    if (proto == Protocol.ALL || (portRange != null && portRange.contains(-1))) {
+      ports = PortQuery.ALL_PORTS;
+    } else if (portRange != null) {
+      ports = new PortQuery(portRange, false);
+    } else {
+      return Collections.emptySet();
+    }
+
+    Set<NetworkRule> candidates = Sets.newHashSet();
+    for (Protocol protocol : Protocol.values()) {
+      CidrTrie bucket = buckets.get(accessType, protocol);
+      if (bucket != null && (proto == Protocol.ALL || proto == protocol)) {
+        for (CidrBlock cidrBlock : cidrBlocks) {
+          bucket.collectContainedIn(cidrBlock, ports, candidates);
+        }
+      }
+    }
+
+    candidates.removeIf(rule -> !rule.isEnforced(proto, portRange, cidrBlocks, accessType));
+    return candidates;
+  }
+
+  /**
+   * Returns the rules that are violated by a network permission with the given parameters.
+   *
+   * @param protocolNameOrNumber the network protocol
+   * @param portRange            the range of ports
+   * @param ipRangeList          the IP range list
+   * @param accessType           the access type
+   * @return the rules that are violated by the network permission
+   * @see NetworkRule#isViolated(String, Range, List, AccessType)
+   */
+  public Set<NetworkRule> getViolatedRules(String protocolNameOrNumber,
+      Range<Integer> portRange,
+      List<String> ipRangeList,
+      AccessType accessType) {
+    if (isEmpty()) {
+      return Collections.emptySet();
+    }
+    Protocol proto = Protocol.toProtocol(protocolNameOrNumber);
+    List<CidrBlock> cidrBlocks = toCidrBlocks(ipRangeList);
+
+    // Rules for any port are violated regardless of the port range
+    PortQuery ports = (portRange == null || !portRange.contains(-1))
+        ? new PortQuery(portRange, true)
+        : PortQuery.ALL_PORTS;
+
+    Set<NetworkRule> candidates = Sets.newHashSet();
+    for (AccessType access : AccessType.values()) {
+      if (access == accessType) {
+        continue;
+      }
+      for (Protocol protocol : Protocol.values()) {
+        CidrTrie bucket = buckets.get(access, protocol);
+        if (bucket == null) {
+          continue;
+        }
+        PortQuery bucketPorts;
+        if (protocol == Protocol.ALL || proto == Protocol.ALL) {
+          bucketPorts = PortQuery.ALL_PORTS;
+        } else if (protocol == proto) {
+          bucketPorts = ports;
+        } else {
+          continue;
+        }
+        for (CidrBlock cidrBlock : cidrBlocks) {
+          bucket.collectOverlapping(cidrBlock, bucketPorts, candidates);
+        }
+      }
+    }
+
+    candidates.removeIf(rule -> !rule.isViolated(proto, portRange, cidrBlocks, accessType));
+    return candidates;
+  }
+
+  /**
+   * Parses the specified IP ranges.
+   *
+   * @param ipRangeList the IP range list
+   * @return the CIDR blocks
+   */
+  private static List<CidrBlock> toCidrBlocks(List<String> ipRangeList) {
+    List<CidrBlock> cidrBlocks = Lists.newArrayListWithCapacity(ipRangeList.size());
+    for (String ipRange : ipRangeList) {
+      cidrBlocks.add(CidrBlock.fromString(ipRange));
+    }
+    return cidrBlocks;
+  }
+
+  /**
+   * A query for the rules that apply to a range of ports.
+   */
+  private static final class PortQuery {
+
+    /**
+     * A query for rules on all ports.
+     */
+    static final PortQuery ALL_PORTS = new PortQuery(null, true);
+
+    /**
+     * The range of ports, or {@code null} for all ports if rules for any port are included,
+     * and for no specific port otherwise.
+     */
+    private final Range<Integer> portRange;
+
+    /**
+     * Whether to include the rules for any port.
+     */
+    private final boolean includeAnyPort;
+
+    /**
+     * Creates a port query.
+     *
+     * @param portRange      the range of ports
+     * @param includeAnyPort whether to include the rules for any port
+     */
+    PortQuery(Range<Integer> portRange, boolean includeAnyPort) {
+      this.portRange = portRange;
+      this.includeAnyPort = includeAnyPort;
+    }
+
+    /**
+     * Adds the rules for the queried ports from the specified rules by port to the specified
+     * collection.
+     *
+     * @param rulesByPort the rules by port
+     * @param result      the collection to which to add the rules
+     */
+    void collect(NavigableMap<Integer, List<NetworkRule>> rulesByPort,
+        Collection<NetworkRule> result) {
+      if (this == ALL_PORTS) {
+        for (List<NetworkRule> rules : rulesByPort.values()) {
+          result.addAll(rules);
+        }
+        return;
+      }
+      if (includeAnyPort) {
+        List<NetworkRule> anyPortRules = rulesByPort.get(-1);
+        if (anyPortRules != null) {
+          result.addAll(anyPortRules);
+        }
+      }
+      if (portRange != null) {
+        for (List<NetworkRule> rules : subMap(rulesByPort).values()) {
+          result.addAll(rules);
+        }
+      }
+    }
+
+    /**
+     * Returns the part of the specified map whose ports are in the queried range.
+     *
+     * @param rulesByPort the rules by port
+     * @return the part of the map whose ports are in the range
+     */
+    private NavigableMap<Integer, List<NetworkRule>> subMap(
+        NavigableMap<Integer, List<NetworkRule>> rulesByPort) {
+      NavigableMap<Integer, List<NetworkRule>> result = rulesByPort;
+      if (portRange.hasLowerBound()) {
+        result = result.tailMap(portRange.lowerEndpoint(),
+            portRange.lowerBoundType() == BoundType.CLOSED);
+      }
+      if (portRange.hasUpperBound()) {
+        result = result.headMap(portRange.upperEndpoint(),
+            portRange.upperBoundType() == BoundType.CLOSED);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A binary trie holding network rules by the bits of their CIDR blocks, with separate roots
+   * for IPv4 and IPv6.
+   */
+  private static final class CidrTrie {
+
+    /**
+     * The root node for IPv4 CIDR blocks.
+     */
+    private final Node ipv4Root = new Node();
+
+    /**
+     * The root node for IPv6 CIDR blocks.
+     */
+    private final Node ipv6Root = new Node();
+
+    /**
+     * Adds the specified rule under its CIDR block.
+     *
+     * @param rule the rule
+     */
+    void add(NetworkRule rule) {
+      CidrBlock cidrBlock = rule.getCidrBlock();
+      Node node = cidrBlock.isIpv6() ? ipv6Root : ipv4Root;
+      for (int i = 0; i < cidrBlock.getPrefixLength(); i++) {
+        int bit = cidrBlock.getBit(i);
+        if (node.children[bit] == null) {
+          node.children[bit] = new Node();
+        }
+        node = node.children[bit];
+      }
+      if (node.rulesByPort == null) {
+        node.rulesByPort = new TreeMap<>();
+      }
+      node.rulesByPort.computeIfAbsent(rule.getPort(), port -> Lists.newArrayList()).add(rule);
+    }
+
+    /**
+     * Adds the rules for the queried ports whose CIDR blocks are contained in the specified
+     * CIDR block to the specified collection.
+     *
+     * @param cidrBlock the CIDR block
+     * @param ports     the port query
+     * @param result    the collection to which to add the rules
+     */
+    void collectContainedIn(CidrBlock cidrBlock, PortQuery ports,
+        Collection<NetworkRule> result) {
+      Node node = cidrBlock.isIpv6() ? ipv6Root : ipv4Root;
+      for (int i = 0; i < cidrBlock.getPrefixLength() && node != null; i++) {
+        node = node.children[cidrBlock.getBit(i)];
+      }
+      if (node != null) {
+        node.collectSubtree(ports, result);
+      }
+    }
+
+    /**
+     * Adds the rules for the queried ports whose CIDR blocks overlap the specified CIDR block
+     * to the specified collection.
+     *
+     * @param cidrBlock the CIDR block
+     * @param ports     the port query
+     * @param result    the collection to which to add the rules
+     */
+    void collectOverlapping(CidrBlock cidrBlock, PortQuery ports,
+        Collection<NetworkRule> result) {
+      Node node = cidrBlock.isIpv6() ? ipv6Root : ipv4Root;
+      for (int i = 0; i < cidrBlock.getPrefixLength() && node != null; i++) {
+        // Rules on the path contain the CIDR block
+        if (node.rulesByPort != null) {
+          ports.collect(node.rulesByPort, result);
+        }
+        node = node.children[cidrBlock.getBit(i)];
+      }
+      if (node != null) {
+        node.collectSubtree(ports, result);
+      }
+    }
+  }
+
+  /**
+   * A node of a CIDR trie.
+   */
+  private static final class Node {
+
+    /**
+     * The child nodes for the next bit being 0 and 1.
+     */
+    private final Node[] children = new Node[2];
+
+    /**
+     * The rules whose CIDR blocks end at this node, by port, or {@code null} if there are
+     * none.
+     */
+    private NavigableMap<Integer, List<NetworkRule>> rulesByPort;
+
+    /**
+     * Adds the rules for the queried ports at and below this node to the specified collection.
+     *
+     * @param ports  the port query
+     * @param result the collection to which to add the rules
+     */
+    void collectSubtree(PortQuery ports, Collection<NetworkRule> result) {
+      if (rulesByPort != null) {
+        ports.collect(rulesByPort, result);
+      }
+      for (Node child : children) {
+        if (child != null) {
+          child.collectSubtree(ports, result);
+        }
+      }
+    }
+  }
+}
@@ -24,8 +24,10 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigException;
 
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -48,6 +50,11 @@ public final class NetworkRules {
    */
   private final Table<Direction, AccessType, Iterable<NetworkRule>> rules;
 
+  /**
+   * The indexes over the network rules, by network direction.
+   */
+  private final Map<Direction, NetworkRuleIndex> indexes;
+
   /**
    * A constant represents an empty set of network rules.
    */
@@ -62,6 +69,12 @@ public final class NetworkRules {
   private NetworkRules(Table<Direction, AccessType, Iterable<NetworkRule>> rules) {
     Preconditions.checkNotNull(rules, "rules is null");
     this.rules = rules;
+    this.indexes = new EnumMap<>(Direction.class);
+    for (Direction direction : Direction.values()) {
+      indexes.put(direction, rules.isEmpty()
+          ? NetworkRuleIndex.EMPTY_INDEX
+          : NetworkRuleIndex.of(Iterables.concat(rules.row(direction).values())));
+    }
   }
 
   /**
@@ -171,4 +184,15 @@ public final class NetworkRules {
         ? Collections.emptySet()
         : Sets.newHashSet(this.rules.get(direction, access));
   }
+
+  /**
+   * Retrieves the index over the rules for the given direction of network traffic. The index
+   * is built once, when the network rules are constructed.
+   *
+   * @param direction the network direction
+   * @return the index over the associated network rules
+   */
+  public NetworkRuleIndex getIndex(Direction direction) {
+    return indexes.get(direction);
+  }
 }
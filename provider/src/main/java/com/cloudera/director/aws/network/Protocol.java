@@ -58,6 +58,12 @@ public enum Protocol {
    */
   public static Protocol toProtocol(String nameOrNumber) {
     Preconditions.checkNotNull(nameOrNumber);
+    // Match names first, to avoid a failed number parse for the common case
+    for (Protocol val : values()) {
+      if (val.name().equalsIgnoreCase(nameOrNumber)) {
+        return val;
+      }
+    }
     try {
       Integer curNumber = Integer.parseInt(nameOrNumber);
       for (Protocol val : values()) {
@@ -67,11 +73,7 @@ public enum Protocol {
       }
       return UNKNOWN;
     } catch (NumberFormatException nfe) {
-      try {
-        return valueOf(nameOrNumber.toUpperCase());
-      } catch (IllegalArgumentException iae) {
-        return UNKNOWN;
-      }
+      return UNKNOWN;
     }
   }
 }
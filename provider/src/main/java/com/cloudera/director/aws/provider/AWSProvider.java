@@ -27,6 +27,7 @@ import com.amazonaws.services.rds.AmazonRDSClient;
 import com.cloudera.director.aws.AWSClientConfig;
 import com.cloudera.director.aws.AWSCredentialsProviderChainProvider;
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.CustomTagMappings;
 import com.cloudera.director.aws.STSRoles;
@@ -42,6 +43,8 @@ import com.cloudera.director.aws.ec2.ebs.EBSDeviceMappings;
 import com.cloudera.director.aws.ec2.ebs.EBSMetadata;
 import com.cloudera.director.aws.ec2.provider.EC2Provider;
 import com.cloudera.director.aws.ec2.provider.EC2ProviderConfigurationValidator;
+import com.cloudera.director.aws.metrics.AWSCallMetrics;
+import com.cloudera.director.aws.metrics.OperationMetricsSnapshot;
 import com.cloudera.director.aws.network.NetworkRules;
 import com.cloudera.director.aws.rds.RDSEncryptionInstanceClasses;
 import com.cloudera.director.aws.rds.RDSEndpoints;
@@ -60,6 +63,7 @@ import com.cloudera.director.spi.v2.provider.util.SimpleCloudProviderMetadataBui
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.SortedMap;
 
 /**
  * AWS cloud provider plugin.
@@ -156,6 +160,11 @@ public class AWSProvider extends AbstractCloudProvider {
    */
   private final AWSTimeouts awsTimeouts;
 
+  /**
+   * The AWS request limits.
+   */
+  private final AWSRequestLimits awsRequestLimits;
+
   /**
    * The custom tag mappings.
    */
@@ -209,6 +218,7 @@ public class AWSProvider extends AbstractCloudProvider {
    * @param awsClientConfig              the AWS client configuration
    * @param awsFilters                   the AWS filters
    * @param awsTimeouts                  the AWS timeouts
+   * @param awsRequestLimits             the AWS request limits
    * @param customTagMappings            the custom tag mappings
    * @param networkRules                 the network rules
    * @param stsRoles                     the STS roles
@@ -224,6 +234,7 @@ public class AWSProvider extends AbstractCloudProvider {
       RDSEncryptionInstanceClasses rdsEncryptionInstanceClasses,
       AWSClientConfig awsClientConfig, AWSFilters awsFilters,
       AWSTimeouts awsTimeouts,
+      AWSRequestLimits awsRequestLimits,
       CustomTagMappings customTagMappings,
       NetworkRules networkRules,
       STSRoles stsRoles,
@@ -232,7 +243,7 @@ public class AWSProvider extends AbstractCloudProvider {
     this(configuration, ephemeralDeviceMappings, ebsDeviceMappings, ebsMetadata,
         virtualizationMappings, rdsEndpoints, rdsEncryptionInstanceClasses,
         awsClientConfig,
-        awsFilters, awsTimeouts, customTagMappings, networkRules,
+        awsFilters, awsTimeouts, awsRequestLimits, customTagMappings, networkRules,
         getCredentialsProvider(stsRoles, configuration, METADATA.getLocalizationContext(rootLocalizationContext)),
         useTagOnCreate, rootLocalizationContext);
   }
@@ -250,6 +261,7 @@ public class AWSProvider extends AbstractCloudProvider {
    * @param awsClientConfig              the AWS client configuration
    * @param awsFilters                   the AWS filters
    * @param awsTimeouts                  the AWS timeouts
+   * @param awsRequestLimits             the AWS request limits
    * @param customTagMappings            the custom tag mappings
    * @param networkRules                 the network rules
    * @param credentialsProvider          the AWS credentials provider
@@ -268,6 +280,7 @@ public class AWSProvider extends AbstractCloudProvider {
       AWSClientConfig awsClientConfig,
       AWSFilters awsFilters,
       AWSTimeouts awsTimeouts,
+      AWSRequestLimits awsRequestLimits,
       CustomTagMappings customTagMappings,
       NetworkRules networkRules,
       AWSCredentialsProvider credentialsProvider,
@@ -285,12 +298,13 @@ public class AWSProvider extends AbstractCloudProvider {
     this.clientConfiguration = getClientConfiguration(awsClientConfig);
     this.awsFilters = checkNotNull(awsFilters, "awsFilters is null");
     this.awsTimeouts = checkNotNull(awsTimeouts, "awsTimeouts is null");
+    this.awsRequestLimits = checkNotNull(awsRequestLimits, "awsRequestLimits is null");
     this.customTagMappings = checkNotNull(customTagMappings, "customTagMappings is null");
     this.networkRules = checkNotNull(networkRules, "networkRules is null");
     this.useTagOnCreate = useTagOnCreate;
 
     this.amazonEC2ClientProvider = new AmazonEC2ClientProvider(
-        this.credentialsProvider, this.clientConfiguration);
+        this.credentialsProvider, this.clientConfiguration, this.awsRequestLimits);
     this.amazonAutoScalingClientProvider = new AmazonAutoScalingClientProvider(
         this.credentialsProvider, this.clientConfiguration);
     this.amazonIdentityManagementClientProvider = new AmazonIdentityManagementClientProvider(
@@ -346,7 +360,8 @@ public class AWSProvider extends AbstractCloudProvider {
   protected EC2Provider createEC2Provider(Configured target) {
     LocalizationContext localizationContext = getLocalizationContext();
     return new EC2Provider(target, ephemeralDeviceMappings, ebsDeviceMappings, ebsMetadata,
-        virtualizationMappings, awsFilters, awsTimeouts, customTagMappings, networkRules,
+        virtualizationMappings, awsFilters, awsTimeouts, awsRequestLimits, customTagMappings,
+        networkRules,
         amazonEC2ClientProvider, amazonAutoScalingClientProvider,
         amazonIdentityManagementClientProvider, awskmsClientProvider,
         useTagOnCreate, localizationContext);
@@ -365,6 +380,17 @@ public class AWSProvider extends AbstractCloudProvider {
         customTagMappings, localizationContext);
   }
 
+  /**
+   * Returns a point-in-time copy of the metrics of the AWS API calls made so far. The metrics
+   * cover every provider created by this copy of the plugin, not only this one.
+   *
+   * @return the metrics of every operation called so far, keyed by
+   * {@code <service>:<operation>}
+   */
+  public SortedMap<String, OperationMetricsSnapshot> getCallMetrics() {
+    return AWSCallMetrics.getInstance().snapshot();
+  }
+
   /**
    * Returns the AWS client configuration.
    *
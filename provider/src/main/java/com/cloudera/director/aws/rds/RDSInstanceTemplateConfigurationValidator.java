@@ -37,6 +37,9 @@ import com.amazonaws.services.rds.model.DescribeDBEngineVersionsRequest;
 import com.amazonaws.services.rds.model.DescribeDBEngineVersionsResult;
 import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
 import com.amazonaws.services.rds.model.DescribeDBSubnetGroupsRequest;
+import com.cloudera.director.aws.common.ConcurrentValidations;
+import com.cloudera.director.aws.common.ConcurrentValidations.CompletedCheck;
+import com.cloudera.director.aws.common.Executors2;
 import com.cloudera.director.aws.rds.provider.RDSProvider;
 import com.cloudera.director.spi.v2.database.DatabaseType;
 import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
@@ -46,9 +49,13 @@ import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -148,15 +155,36 @@ public class RDSInstanceTemplateConfigurationValidator implements ConfigurationV
 
     AmazonRDSClient client = provider.getClient();
 
+    // The checks that describe remote resources are independent, so they run concurrently.
+    // Their conditions are merged in the original check order, interleaved with the local
+    // checks.
     boolean isValidIdentifier = checkIdentifierFormat(name, accumulator, NAME, localizationContext);
+    List<Function<PluginExceptionConditionAccumulator, Void>> remoteChecks = Lists.newArrayList();
     if (isValidIdentifier) {
-      checkIdentifierUniqueness(client, name, NAME, accumulator, localizationContext);
+      remoteChecks.add(a -> {
+        checkIdentifierUniqueness(client, name, NAME, a, localizationContext);
+        return null;
+      });
+    }
+    remoteChecks.add(a -> {
+      checkEngine(client, configuration, a, localizationContext);
+      return null;
+    });
+    remoteChecks.add(a -> {
+      checkDBSubnetGroupName(client, configuration, a, localizationContext);
+      return null;
+    });
+    Iterator<CompletedCheck<Void>> completedChecks = ConcurrentValidations.completeChecks(
+        Executors2.sharedExecutor(), remoteChecks.size(), remoteChecks).iterator();
+
+    if (isValidIdentifier) {
+      completedChecks.next().mergeInto(accumulator);
     }
     checkMasterUserPassword(configuration, accumulator, localizationContext);
-    checkEngine(client, configuration, accumulator, localizationContext);
+    completedChecks.next().mergeInto(accumulator);
     checkInstanceClass(configuration, accumulator, localizationContext);
     checkAllocatedStorage(configuration, accumulator, localizationContext);
-    checkDBSubnetGroupName(client, configuration, accumulator, localizationContext);
+    completedChecks.next().mergeInto(accumulator);
     checkStorageEncryption(configuration, accumulator, localizationContext);
   }
 
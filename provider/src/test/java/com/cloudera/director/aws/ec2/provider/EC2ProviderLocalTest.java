@@ -45,6 +45,7 @@ import com.amazonaws.services.ec2.model.TagSpecification;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClient;
 import com.amazonaws.services.kms.AWSKMSClient;
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.CustomTagMappings;
 import com.cloudera.director.aws.Tags;
@@ -127,16 +128,8 @@ public class EC2ProviderLocalTest {
           return null;
         });
 
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("1i")))
-        .thenReturn(makeDescribeInstanceStatusResult("1i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("2i")))
-        .thenReturn(makeDescribeInstanceStatusResult("2i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("3i")))
-        .thenReturn(makeDescribeInstanceStatusResult("3i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("4i")))
-        .thenReturn(makeDescribeInstanceStatusResult("4i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("5i")))
-        .thenReturn(makeDescribeInstanceStatusResult("5i", InstanceStateName.Running));
+    when(ec2Client.describeInstanceStatus(any(DescribeInstanceStatusRequest.class)))
+        .thenAnswer(makeDescribeInstanceStatusAnswer(InstanceStateName.Running));
 
     assertThat(ec2Provider.allocate(TEST_TEMPLATE, Lists.newArrayList("1v", "2v", "3v", "4v", "5v"), 1)).hasSize(5);
   }
@@ -186,18 +179,8 @@ public class EC2ProviderLocalTest {
           return null;
         });
 
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("1i")))
-        .thenReturn(makeDescribeInstanceStatusResult("1i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("2i")))
-        .thenReturn(makeDescribeInstanceStatusResult("2i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("3i")))
-        .thenReturn(makeDescribeInstanceStatusResult("3i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("4i")))
-        .thenReturn(makeDescribeInstanceStatusResult("4i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("5i")))
-        .thenReturn(makeDescribeInstanceStatusResult("5i", InstanceStateName.Running));
-    when(ec2Client.describeInstanceStatus(makeDescribeInstanceStatusRequest("6i")))
-        .thenReturn(makeDescribeInstanceStatusResult("6i", InstanceStateName.Running));
+    when(ec2Client.describeInstanceStatus(any(DescribeInstanceStatusRequest.class)))
+        .thenAnswer(makeDescribeInstanceStatusAnswer(InstanceStateName.Running));
 
     assertThat(ec2Provider.allocate(TEST_TEMPLATE, Lists.newArrayList("1v", "2v", "3v", "4v", "5v", "6v"), 1))
         .hasSize(4);
@@ -239,8 +222,8 @@ public class EC2ProviderLocalTest {
         any(LocalizationContext.class), anyBoolean())).thenReturn(kmsClient);
 
     return new EC2Provider(new SimpleConfiguration(), ephemeralDeviceMappings, ebsDeviceMappings, ebsMetadata,
-        virtualizationMappings, awsFilters, awsTimeouts, customTagMappings, networkRules,
-        ec2ClientProvider, autoScalingClientProvider, identityClientProvider, kmsClientProvider,
+        virtualizationMappings, awsFilters, awsTimeouts, new AWSRequestLimits(null), customTagMappings,
+        networkRules, ec2ClientProvider, autoScalingClientProvider, identityClientProvider, kmsClientProvider,
         true, LOCALIZATION_CONTEXT);
   }
 
@@ -269,16 +252,15 @@ public class EC2ProviderLocalTest {
         .withPrivateIpAddress(ipAddress);
   }
 
-  private DescribeInstanceStatusRequest makeDescribeInstanceStatusRequest(String instanceId) {
-    return new DescribeInstanceStatusRequest()
-        .withIncludeAllInstances(true)
-        .withInstanceIds(instanceId);
-  }
-
-  private DescribeInstanceStatusResult makeDescribeInstanceStatusResult(String instanceId,
-      InstanceStateName stateName) {
-    return new DescribeInstanceStatusResult()
-        .withInstanceStatuses(makeInstanceStatus(instanceId, stateName));
+  private Answer<DescribeInstanceStatusResult> makeDescribeInstanceStatusAnswer(InstanceStateName stateName) {
+    return invocation -> {
+      DescribeInstanceStatusRequest request = (DescribeInstanceStatusRequest) invocation.getArguments()[0];
+      List<InstanceStatus> instanceStatuses = Lists.newArrayList();
+      for (String instanceId : request.getInstanceIds()) {
+        instanceStatuses.add(makeInstanceStatus(instanceId, stateName));
+      }
+      return new DescribeInstanceStatusResult().withInstanceStatuses(instanceStatuses);
+    };
   }
 
   private InstanceStatus makeInstanceStatus(String instanceId, InstanceStateName stateName) {
@@ -95,6 +95,7 @@ public class AWSLauncherTest {
     launcher.initialize(temporaryFolder.getRoot(), null);
 
     assertNotNull(launcher.awsTimeouts);
+    assertNotNull(launcher.awsRequestLimits);
     assertTrue(launcher.stsRoles.getRoleConfigurations().isEmpty());
   }
 
@@ -121,6 +122,9 @@ public class AWSLauncherTest {
     printWriter.println("    }");
     printWriter.println("  }");
     printWriter.println("}");
+    printWriter.println("awsRequestLimits {");
+    printWriter.println("  ec2.describeInstances.maxConcurrentRequests: 4");
+    printWriter.println("}");
     printWriter.println(Configurations.STS_ROLES_SECTION + ": [");
     printWriter.println("  {");
     printWriter.println("    " + STSRoles.ROLE_ARN + ": \"arn:aws:iam::123456789012:role/roleSwitch\"");
@@ -132,6 +136,8 @@ public class AWSLauncherTest {
     launcher.initialize(configDir, null);
     assertEquals(8, launcher.awsClientConfig.getMaxErrorRetries());
     assertEquals(123L, launcher.awsTimeouts.getTimeout("ec2.ebs.availableSeconds").get().longValue());
+    assertEquals(4, launcher.awsRequestLimits.getLimit(
+        "ec2.describeInstances.maxConcurrentRequests", 8));
     assertEquals(1, launcher.stsRoles.getRoleConfigurations().size());
   }
 }
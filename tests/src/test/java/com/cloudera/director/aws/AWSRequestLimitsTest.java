@@ -0,0 +1,72 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws;
+
+import static org.junit.Assert.assertEquals;
+
+import com.cloudera.director.aws.shaded.com.typesafe.config.Config;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class AWSRequestLimitsTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testSomeLimits() {
+    Config config =
+        ConfigFactory.parseMap(ImmutableMap.<String, Object>builder()
+                               .put("ec2.describe.maxConcurrentRequests", 4)
+                               .put("ec2.describe.ratePerSecond", 12.5)
+                               .build());
+    AWSRequestLimits limits = new AWSRequestLimits(config);
+
+    assertEquals(4, limits.getLimit("ec2.describe.maxConcurrentRequests", 8));
+    assertEquals(12.5, limits.getLimit("ec2.describe.ratePerSecond", 1.0), 0.0);
+  }
+
+  @Test
+  public void testFractionalCountIsNeverBelowOne() {
+    Config config = ConfigFactory.parseMap(ImmutableMap.<String, Object>of("limit", 0.5));
+    AWSRequestLimits limits = new AWSRequestLimits(config);
+
+    assertEquals(1, limits.getLimit("limit", 8));
+  }
+
+  @Test
+  public void testNoLimitsNullConfig() {
+    AWSRequestLimits limits = new AWSRequestLimits(null);
+
+    assertEquals(8, limits.getLimit("limit", 8));
+    assertEquals(2.5, limits.getLimit("limit", 2.5), 0.0);
+  }
+
+  @Test
+  public void testNonPositiveLimit() {
+    thrown.expect(IllegalArgumentException.class);
+    new AWSRequestLimits(ConfigFactory.parseMap(ImmutableMap.<String, Object>of("limit", 0)));
+  }
+
+  @Test
+  public void testBadConfiguration() {
+    thrown.expect(IllegalArgumentException.class);
+    new AWSRequestLimits(ConfigFactory.parseMap(ImmutableMap.<String, Object>of("limit", "1")));
+  }
+}
@@ -0,0 +1,101 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.spi.v2.model.exception.PluginExceptionCondition;
+import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ConcurrentValidations}.
+ */
+public class ConcurrentValidationsTest {
+
+  @Test
+  public void testRunChecksMergesConditionsAndResults() {
+    // Both checks must be in flight at the same time for either to complete.
+    CountDownLatch latch = new CountDownLatch(2);
+    List<Function<PluginExceptionConditionAccumulator, String>> checks = ImmutableList.of(
+        a -> {
+          await(latch);
+          a.addError("key1", "error1");
+          return "result1";
+        },
+        a -> {
+          await(latch);
+          a.addError("key1", "error2");
+          a.addWarning("key2", "warning");
+          return "result2";
+        });
+
+    PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+    List<String> results =
+        ConcurrentValidations.runChecks(Executors2.sharedExecutor(), 2, accumulator, checks);
+
+    assertThat(results).containsExactly("result1", "result2");
+    Map<String, Collection<PluginExceptionCondition>> conditionsByKey =
+        accumulator.getConditionsByKey();
+    assertThat(conditionsByKey).hasSize(2);
+    assertThat(conditionsByKey.get("key1")).hasSize(2);
+    PluginExceptionCondition warning = conditionsByKey.get("key2").iterator().next();
+    assertThat(warning.isError()).isFalse();
+    assertThat(warning.getMessage()).isEqualTo("warning");
+    assertThat(accumulator.hasError()).isTrue();
+  }
+
+  @Test
+  public void testCompleteChecksLeavesMergingToCaller() {
+    List<Function<PluginExceptionConditionAccumulator, String>> checks = ImmutableList.of(
+        a -> {
+          a.addError("remote1", "error1");
+          return "result1";
+        },
+        a -> {
+          a.addError("remote2", "error2");
+          return "result2";
+        });
+
+    List<ConcurrentValidations.CompletedCheck<String>> completedChecks =
+        ConcurrentValidations.completeChecks(Executors2.sharedExecutor(), 2, checks);
+
+    PluginExceptionConditionAccumulator accumulator = new PluginExceptionConditionAccumulator();
+    assertThat(completedChecks.get(0).mergeInto(accumulator)).isEqualTo("result1");
+    accumulator.addError("local", "error");
+    assertThat(completedChecks.get(1).mergeInto(accumulator)).isEqualTo("result2");
+
+    assertThat(accumulator.getConditionsByKey().keySet())
+        .containsExactly("remote1", "local", "remote2");
+  }
+
+  private static void await(CountDownLatch latch) {
+    latch.countDown();
+    try {
+      assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Tag;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.cloudera.director.aws.shaded.org.joda.time.DateTime;
+import com.cloudera.director.aws.shaded.org.joda.time.Duration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests {@link EC2TagCoalescer}.
+ */
+public class EC2TagCoalescerTest {
+
+  private static final List<Tag> TAGS_A =
+      ImmutableList.of(new Tag("Name", "a"), new Tag("Owner", "x"));
+  private static final List<Tag> TAGS_B = ImmutableList.of(new Tag("Name", "b"));
+
+  private AmazonEC2 client;
+  private EC2TagCoalescer tagCoalescer;
+
+  @Before
+  public void setUp() {
+    client = mock(AmazonEC2.class);
+    tagCoalescer = new EC2TagCoalescer(client, 2, 4, Duration.millis(1));
+  }
+
+  @Test
+  public void testGroupsResourcesByTagsAndBatches() throws InterruptedException {
+    tagCoalescer.add(ImmutableList.of("i-1", "i-2", "i-3"), TAGS_A);
+    tagCoalescer.add(ImmutableList.of("vol-1"), TAGS_B);
+    tagCoalescer.add(ImmutableList.of("vol-2", "vol-3"), Lists.reverse(TAGS_A));
+
+    assertThat(tagCoalescer.flush(DateTime.now().plusMinutes(1))).isEmpty();
+
+    List<CreateTagsRequest> requests = captureRequests(4);
+    List<List<String>> taggedWithA = Lists.newArrayList();
+    for (CreateTagsRequest request : requests) {
+      assertThat(request.getResources().size()).isLessThanOrEqualTo(2);
+      if (request.getTags().equals(TAGS_A)) {
+        taggedWithA.add(request.getResources());
+      } else {
+        assertThat(request.getTags()).isEqualTo(TAGS_B);
+        assertThat(request.getResources()).containsExactly("vol-1");
+      }
+    }
+    assertThat(taggedWithA).hasSize(3);
+  }
+
+  @Test
+  public void testSendsSharedTagsOnceForAllResources() throws InterruptedException {
+    tagCoalescer = new EC2TagCoalescer(client, 10, 4, Duration.millis(1));
+    Tag owner = new Tag("Owner", "x");
+    tagCoalescer.add(ImmutableList.of("i-1", "vol-1"),
+        ImmutableList.of(new Tag("Name", "a"), owner));
+    tagCoalescer.add(ImmutableList.of("i-2"), ImmutableList.of(new Tag("Name", "b"), owner));
+
+    assertThat(tagCoalescer.flush(DateTime.now().plusMinutes(1))).isEmpty();
+
+    Map<List<Tag>, List<String>> resourcesByTags = Maps.newHashMap();
+    for (CreateTagsRequest request : captureRequests(3)) {
+      resourcesByTags.put(request.getTags(), request.getResources());
+    }
+    assertThat(resourcesByTags).containsOnly(
+        entry(ImmutableList.of(new Tag("Name", "a")), ImmutableList.of("i-1", "vol-1")),
+        entry(ImmutableList.of(owner), ImmutableList.of("i-1", "vol-1", "i-2")),
+        entry(ImmutableList.of(new Tag("Name", "b")), ImmutableList.of("i-2")));
+  }
+
+  @Test
+  public void testReadsMaxConcurrentRequestsFromRequestLimits() throws InterruptedException {
+    AWSRequestLimits awsRequestLimits = new AWSRequestLimits(ConfigFactory.parseMap(
+        ImmutableMap.of(EC2TagCoalescer.MAX_CONCURRENT_REQUESTS_KEY, 1)));
+    tagCoalescer = new EC2TagCoalescer(client, awsRequestLimits);
+
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    when(client.createTags(any(CreateTagsRequest.class))).thenAnswer(invocation -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      Thread.sleep(20);
+      inFlight.decrementAndGet();
+      return new CreateTagsResult();
+    });
+
+    for (int i = 0; i < 4; i++) {
+      tagCoalescer.add(ImmutableList.of("i-" + i), ImmutableList.of(new Tag("Name", "n" + i)));
+    }
+    assertThat(tagCoalescer.flush(DateTime.now().plusMinutes(1))).isEmpty();
+
+    captureRequests(4);
+    assertThat(maxInFlight.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGroupTagsByResourceIdsKeepsTagsOfTheSameResourcesTogether() {
+    Map<Set<Tag>, Set<String>> resourceIdsByTags = Maps.newLinkedHashMap();
+    resourceIdsByTags.put(ImmutableSet.copyOf(TAGS_A), ImmutableSet.of("i-1"));
+
+    assertThat(EC2TagCoalescer.groupTagsByResourceIds(resourceIdsByTags))
+        .isEqualTo(resourceIdsByTags);
+  }
+
+  @Test
+  public void testFlushForgetsResources() throws InterruptedException {
+    tagCoalescer.add(ImmutableList.of("i-1"), TAGS_A);
+    tagCoalescer.flush(DateTime.now().plusMinutes(1));
+    tagCoalescer.flush(DateTime.now().plusMinutes(1));
+
+    verify(client, times(1)).createTags(any(CreateTagsRequest.class));
+  }
+
+  @Test
+  public void testRetriesOnlyResourcesNotFound() throws InterruptedException {
+    when(client.createTags(any(CreateTagsRequest.class)))
+        .thenThrow(notFound("The instance ID 'i-2' does not exist"))
+        .thenReturn(new CreateTagsResult())
+        .thenReturn(new CreateTagsResult());
+
+    tagCoalescer.add(ImmutableList.of("i-1", "i-2"), TAGS_A);
+    assertThat(tagCoalescer.flush(DateTime.now().plusMinutes(1))).isEmpty();
+
+    List<CreateTagsRequest> requests = captureRequests(3);
+    assertThat(requests.get(0).getResources()).containsExactly("i-1", "i-2");
+    assertThat(requests.get(1).getResources()).containsExactly("i-1");
+    assertThat(requests.get(2).getResources()).containsExactly("i-2");
+  }
+
+  @Test
+  public void testReturnsResourcesNotFoundBeforeTimeout() throws InterruptedException {
+    when(client.createTags(any(CreateTagsRequest.class)))
+        .thenThrow(notFound("The instance ID 'i-1' does not exist"));
+
+    tagCoalescer.add(ImmutableList.of("i-1"), TAGS_A);
+    Set<String> untagged = tagCoalescer.flush(DateTime.now().plus(50));
+
+    assertThat(untagged).containsExactly("i-1");
+  }
+
+  @Test
+  public void testGetResourceIdsInMessage() {
+    assertThat(EC2TagCoalescer.getResourceIdsInMessage(
+        "The instance IDs 'i-1, i-12' do not exist", ImmutableList.of("i-1", "i-12", "i-123")))
+        .containsExactly("i-1", "i-12");
+    assertThat(EC2TagCoalescer.getResourceIdsInMessage(null, ImmutableList.of("i-1")))
+        .isEmpty();
+    assertThat(EC2TagCoalescer.getResourceIdsInMessage(
+        "The volume 'vol-1' does not exist.", Collections.singletonList("vol-2")))
+        .isEmpty();
+  }
+
+  private List<CreateTagsRequest> captureRequests(int count) {
+    ArgumentCaptor<CreateTagsRequest> captor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+    verify(client, times(count)).createTags(captor.capture());
+    return captor.getAllValues();
+  }
+
+  private static AmazonServiceException notFound(String message) {
+    AmazonServiceException e = new AmazonServiceException(message);
+    e.setErrorCode("InvalidInstanceID.NotFound");
+    return e;
+  }
+}
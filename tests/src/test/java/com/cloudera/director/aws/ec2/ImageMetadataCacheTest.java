@@ -0,0 +1,168 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Image;
+import com.cloudera.director.aws.shaded.com.google.common.base.Ticker;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ImageMetadataCache}.
+ */
+public class ImageMetadataCacheTest {
+
+  private static final String SCOPE = "scope";
+  private static final String REGION = "us-west-2";
+  private static final String IMAGE_ID = "ami-1234567";
+
+  private AmazonEC2 client;
+  private FakeTicker ticker;
+  private ImageMetadataCache cache;
+
+  @Before
+  public void setUp() {
+    client = mock(AmazonEC2.class);
+    ticker = new FakeTicker();
+    cache = new ImageMetadataCache(60000L, 1000L, ticker);
+  }
+
+  @Test
+  public void testDescribeImagesIsCached() {
+    when(client.describeImages(any(DescribeImagesRequest.class)))
+        .thenReturn(new DescribeImagesResult().withImages(newImage()));
+
+    assertThat(cache.describeImages(client, SCOPE, REGION, IMAGE_ID)).hasSize(1);
+    assertThat(cache.describeImages(client, SCOPE, REGION, IMAGE_ID)).hasSize(1);
+    verify(client, times(1)).describeImages(any(DescribeImagesRequest.class));
+    assertThat(cache.getHitCount()).isEqualTo(1);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+
+    cache.describeImages(client, SCOPE, "us-east-1", IMAGE_ID);
+    verify(client, times(2)).describeImages(any(DescribeImagesRequest.class));
+
+    cache.describeImages(client, "other-scope", REGION, IMAGE_ID);
+    verify(client, times(3)).describeImages(any(DescribeImagesRequest.class));
+
+    ticker.advance(60001L);
+    cache.describeImages(client, SCOPE, REGION, IMAGE_ID);
+    verify(client, times(4)).describeImages(any(DescribeImagesRequest.class));
+
+    cache.invalidate(SCOPE, REGION, IMAGE_ID);
+    cache.describeImages(client, SCOPE, REGION, IMAGE_ID);
+    verify(client, times(5)).describeImages(any(DescribeImagesRequest.class));
+  }
+
+  @Test
+  public void testDescribeImagesReturnsCopies() {
+    when(client.describeImages(any(DescribeImagesRequest.class)))
+        .thenReturn(new DescribeImagesResult().withImages(newImage()));
+
+    List<Image> images = cache.describeImages(client, SCOPE, REGION, IMAGE_ID);
+    images.get(0).getBlockDeviceMappings().get(0).getEbs().setVolumeSize(500);
+
+    Image image = cache.describeImages(client, SCOPE, REGION, IMAGE_ID).get(0);
+    assertThat(image.getBlockDeviceMappings().get(0).getEbs().getVolumeSize()).isEqualTo(10);
+  }
+
+  @Test
+  public void testMissingImageIsCachedBriefly() {
+    when(client.describeImages(any(DescribeImagesRequest.class)))
+        .thenReturn(new DescribeImagesResult());
+
+    assertThat(cache.describeImages(client, SCOPE, REGION, IMAGE_ID)).isEmpty();
+    assertThat(cache.describeImages(client, SCOPE, REGION, IMAGE_ID)).isEmpty();
+    verify(client, times(1)).describeImages(any(DescribeImagesRequest.class));
+
+    ticker.advance(1001L);
+    cache.describeImages(client, SCOPE, REGION, IMAGE_ID);
+    verify(client, times(2)).describeImages(any(DescribeImagesRequest.class));
+  }
+
+  @Test
+  public void testInvalidImageIdFailureIsCached() {
+    AmazonServiceException exception = new AmazonServiceException("Not found");
+    exception.setErrorCode("InvalidAMIID.NotFound");
+    when(client.describeImages(any(DescribeImagesRequest.class))).thenThrow(exception);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.describeImages(client, SCOPE, REGION, IMAGE_ID);
+        fail("Expected failure");
+      } catch (AmazonServiceException e) {
+        assertThat(e.getErrorCode()).isEqualTo("InvalidAMIID.NotFound");
+      }
+    }
+    verify(client, times(1)).describeImages(any(DescribeImagesRequest.class));
+  }
+
+  @Test
+  public void testOtherFailureIsNotCached() {
+    AmazonServiceException exception = new AmazonServiceException("Throttled");
+    exception.setErrorCode("RequestLimitExceeded");
+    when(client.describeImages(any(DescribeImagesRequest.class))).thenThrow(exception);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.describeImages(client, SCOPE, REGION, IMAGE_ID);
+        fail("Expected failure");
+      } catch (AmazonServiceException e) {
+        assertThat(e).isSameAs(exception);
+      }
+    }
+    verify(client, times(2)).describeImages(any(DescribeImagesRequest.class));
+  }
+
+  private static Image newImage() {
+    return new Image()
+        .withImageId(IMAGE_ID)
+        .withRootDeviceName("/dev/sda1")
+        .withBlockDeviceMappings(new BlockDeviceMapping()
+            .withDeviceName("/dev/sda1")
+            .withEbs(new EbsBlockDevice().withVolumeSize(10)));
+  }
+
+  private static class FakeTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
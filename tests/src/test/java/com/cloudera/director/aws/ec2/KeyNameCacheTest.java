@@ -0,0 +1,77 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link KeyNameCache}.
+ */
+public class KeyNameCacheTest {
+
+  private static final String DIGEST =
+      KeyNameCache.getKeyDigest("scope", "us-east-1", "prefix-", "private", "public");
+
+  private KeyNameCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new KeyNameCache();
+  }
+
+  @Test
+  public void testDigestIsStable() {
+    assertThat(KeyNameCache.getKeyDigest("scope", "us-east-1", "prefix-", "private", "public"))
+        .isEqualTo(DIGEST);
+  }
+
+  @Test
+  public void testDigestDependsOnCredentialsScope() {
+    assertThat(KeyNameCache.getKeyDigest("other", "us-east-1", "prefix-", "private", "public"))
+        .isNotEqualTo(DIGEST);
+    assertThat(KeyNameCache.getKeyDigest(null, "us-east-1", "prefix-", "private", "public"))
+        .isNotEqualTo(DIGEST);
+  }
+
+  @Test
+  public void testDigestDependsOnKeyNamePrefix() {
+    assertThat(KeyNameCache.getKeyDigest("scope", "us-east-1", "other-", "private", "public"))
+        .isNotEqualTo(DIGEST);
+    assertThat(KeyNameCache.getKeyDigest("scope", "us-east-1", null, "private", "public"))
+        .isNotEqualTo(DIGEST);
+  }
+
+  @Test
+  public void testDigestFieldsAreNotConcatenated() {
+    assertThat(KeyNameCache.getKeyDigest("scope", "us-east-1", "prefix", "-private", "public"))
+        .isNotEqualTo(DIGEST);
+  }
+
+  @Test
+  public void testInvalidateKeyName() {
+    String otherDigest =
+        KeyNameCache.getKeyDigest("other", "us-east-1", "prefix-", "private", "public");
+    cache.putKeyName(DIGEST, "key");
+    cache.putKeyName(otherDigest, "key");
+
+    cache.invalidateKeyName("key");
+
+    assertThat(cache.getKeyName(DIGEST)).isNull();
+    assertThat(cache.getKeyName(otherDigest)).isNull();
+  }
+}
@@ -0,0 +1,218 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2;
+
+import static com.cloudera.director.aws.ec2.ValidationLookupCache.ResourceKind.KEY_PAIR;
+import static com.cloudera.director.aws.ec2.ValidationLookupCache.ResourceKind.KMS_KEY;
+import static com.cloudera.director.aws.ec2.ValidationLookupCache.ResourceKind.SUBNET;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import com.cloudera.director.aws.AWSTimeouts;
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.kms.model.NotFoundException;
+import com.cloudera.director.aws.shaded.com.google.common.base.Ticker;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ValidationLookupCache}.
+ */
+public class ValidationLookupCacheTest {
+
+  private static final String SCOPE = "scope";
+  private static final String REGION = "us-west-2";
+
+  private FakeTicker ticker;
+  private ValidationLookupCache cache;
+  private ValidationLookupCache.Ttls ttls;
+  private AtomicInteger loadCount;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    cache = new ValidationLookupCache(ticker);
+    ttls = ValidationLookupCache.Ttls.fromTimeouts(new AWSTimeouts(ConfigFactory.parseMap(
+        ImmutableMap.of(SUBNET.getTtlKey(), 10000L,
+            ValidationLookupCache.NEGATIVE_TTL_KEY, 1000L))));
+    loadCount = new AtomicInteger();
+  }
+
+  @Test
+  public void testSuccessfulLookupIsCachedPerKind() {
+    assertThat(lookup(SUBNET, "subnet-1")).isEqualTo("subnet-1");
+    assertThat(lookup(SUBNET, "subnet-1")).isEqualTo("subnet-1");
+    assertThat(loadCount.get()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+
+    lookup(SUBNET, "subnet-2");
+    lookup(KEY_PAIR, "subnet-1");
+    assertThat(loadCount.get()).isEqualTo(3);
+
+    ticker.advance(10001L);
+    lookup(SUBNET, "subnet-1");
+    assertThat(loadCount.get()).isEqualTo(4);
+
+    cache.invalidateAll(SUBNET);
+    lookup(SUBNET, "subnet-1");
+    lookup(KEY_PAIR, "subnet-1");
+    assertThat(loadCount.get()).isEqualTo(5);
+  }
+
+  @Test
+  public void testNotFoundFailureIsCachedBriefly() {
+    for (int i = 0; i < 2; i++) {
+      try {
+        lookupFailing("InvalidSubnetID.NotFound");
+        fail("Expected failure");
+      } catch (AmazonServiceException e) {
+        assertThat(e.getErrorCode()).isEqualTo("InvalidSubnetID.NotFound");
+      }
+    }
+    assertThat(loadCount.get()).isEqualTo(1);
+
+    ticker.advance(1001L);
+    try {
+      lookupFailing("InvalidSubnetID.NotFound");
+      fail("Expected failure");
+    } catch (AmazonServiceException e) {
+      assertThat(loadCount.get()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testOtherFailureIsNotCached() {
+    for (int i = 0; i < 2; i++) {
+      try {
+        lookupFailing("RequestLimitExceeded");
+        fail("Expected failure");
+      } catch (AmazonServiceException e) {
+        assertThat(e.getErrorCode()).isEqualTo("RequestLimitExceeded");
+      }
+    }
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testLookupIsCachedPerCredentialsScope() {
+    lookup(SUBNET, "subnet-1");
+    cache.lookup(SUBNET, "other-scope", REGION, "subnet-1", ttls, () -> {
+      loadCount.incrementAndGet();
+      return "subnet-1";
+    }, e -> false);
+    assertThat(loadCount.get()).isEqualTo(2);
+
+    cache.invalidate(SUBNET, "other-scope", REGION, "subnet-1");
+    lookup(SUBNET, "subnet-1");
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testAuthorizationFailureIsNotCached() {
+    for (String errorCode : new String[] {"UnauthorizedOperation", "AccessDeniedException"}) {
+      loadCount.set(0);
+      for (int i = 0; i < 2; i++) {
+        try {
+          cache.lookup(SUBNET, SCOPE, REGION, "subnet-1", ttls, () -> {
+            loadCount.incrementAndGet();
+            AmazonServiceException e = new AmazonServiceException("Lookup failed");
+            e.setErrorCode(errorCode);
+            throw e;
+          }, e -> true);
+          fail("Expected failure");
+        } catch (AmazonServiceException e) {
+          assertThat(e.getErrorCode()).isEqualTo(errorCode);
+        }
+      }
+      assertThat(loadCount.get()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testCachedFailureIsCopiedForEachCaller() {
+    AmazonServiceException first = null;
+    AmazonServiceException second = null;
+    try {
+      lookupFailing("InvalidSubnetID.NotFound");
+      fail("Expected failure");
+    } catch (AmazonServiceException e) {
+      first = e;
+    }
+    try {
+      lookupFailing("InvalidSubnetID.NotFound");
+      fail("Expected failure");
+    } catch (AmazonServiceException e) {
+      second = e;
+    }
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.getCause()).isSameAs(first.getCause());
+    assertThat(second.getErrorCode()).isEqualTo("InvalidSubnetID.NotFound");
+  }
+
+  @Test
+  public void testCachedFailureKeepsItsType() {
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.lookup(KMS_KEY, SCOPE, REGION, "key-1", ttls, () -> {
+          loadCount.incrementAndGet();
+          NotFoundException e = new NotFoundException("Key not found");
+          e.setErrorCode("NotFoundException");
+          throw e;
+        }, e -> "NotFoundException".equals(e.getErrorCode()));
+        fail("Expected failure");
+      } catch (NotFoundException e) {
+        assertThat(e.getErrorCode()).isEqualTo("NotFoundException");
+      }
+    }
+    assertThat(loadCount.get()).isEqualTo(1);
+  }
+
+  private String lookup(ValidationLookupCache.ResourceKind kind, String resourceId) {
+    return cache.lookup(kind, SCOPE, REGION, resourceId, ttls, () -> {
+      loadCount.incrementAndGet();
+      return resourceId;
+    }, e -> false);
+  }
+
+  private String lookupFailing(String errorCode) {
+    return cache.lookup(SUBNET, SCOPE, REGION, "subnet-1", ttls, () -> {
+      loadCount.incrementAndGet();
+      AmazonServiceException e = new AmazonServiceException("Lookup failed");
+      e.setErrorCode(errorCode);
+      throw e;
+    }, e -> e.getErrorCode().endsWith(".NotFound"));
+  }
+
+  private static class FakeTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+// (c) Copyright 2017 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.allocation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.AsyncHandler;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+public class SubmissionWindowTest {
+
+  private static final RunInstancesRequest REQUEST = new RunInstancesRequest();
+
+  private static List<Integer> keys(int count) {
+    List<Integer> keys = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      keys.add(i);
+    }
+    return keys;
+  }
+
+  private static AmazonServiceException error(String errorCode) {
+    AmazonServiceException e = new AmazonServiceException(errorCode);
+    e.setErrorCode(errorCode);
+    return e;
+  }
+
+  /**
+   * A call that completes immediately, failing for the keys that match a predicate, and that
+   * records the maximum number of requests in flight.
+   */
+  private static final class ImmediateCall
+      implements SubmissionWindow.AsyncCall<Integer, RunInstancesRequest, RunInstancesResult> {
+
+    private final IntPredicate failing;
+    private final String errorCode;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private ImmediateCall(IntPredicate failing, String errorCode) {
+      this.failing = failing;
+      this.errorCode = errorCode;
+    }
+
+    @Override
+    public Future<RunInstancesResult> call(Integer key,
+        AsyncHandler<RunInstancesRequest, RunInstancesResult> handler) {
+      calls.incrementAndGet();
+      if (failing.test(key)) {
+        AmazonServiceException e = error(errorCode);
+        handler.onError(e);
+        CompletableFuture<RunInstancesResult> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+      }
+      RunInstancesResult result = new RunInstancesResult();
+      handler.onSuccess(REQUEST, result);
+      return CompletableFuture.completedFuture(result);
+    }
+  }
+
+  /**
+   * A handler that records the keys of successful and failed requests.
+   */
+  private static final class RecordingHandler
+      implements SubmissionWindow.CompletionHandler<Integer, RunInstancesResult> {
+
+    private final List<Integer> succeeded = Lists.newArrayList();
+    private final List<Integer> failed = Lists.newArrayList();
+
+    @Override
+    public void onSuccess(Integer key, RunInstancesResult result) {
+      succeeded.add(key);
+    }
+
+    @Override
+    public void onError(Integer key, Exception exception) {
+      failed.add(key);
+    }
+  }
+
+  @Test
+  public void testAllSucceedAndWindowGrows() throws InterruptedException {
+    SubmissionWindow window = new SubmissionWindow(2, 16);
+    ImmediateCall call = new ImmediateCall(key -> false, null);
+    RecordingHandler handler = new RecordingHandler();
+
+    assertThat(window.submitAll(keys(100), 100, call, handler)).isTrue();
+
+    assertThat(handler.succeeded).hasSize(100);
+    assertThat(handler.failed).isEmpty();
+    assertThat(window.getSize()).isEqualTo(16);
+  }
+
+  @Test
+  public void testCongestionHalvesWindowOncePerWindow() throws InterruptedException {
+    SubmissionWindow window = new SubmissionWindow(8, 8);
+    ImmediateCall call = new ImmediateCall(key -> key < 3, "RequestLimitExceeded");
+    RecordingHandler handler = new RecordingHandler();
+
+    assertThat(window.submitAll(keys(3), 0, call, handler)).isTrue();
+
+    // The three throttled requests were in flight together, so they halve the window once
+    assertThat(handler.failed).containsOnly(0, 1, 2);
+    assertThat(window.getSize()).isEqualTo(4);
+  }
+
+  @Test
+  public void testOtherErrorsDoNotShrinkWindow() throws InterruptedException {
+    SubmissionWindow window = new SubmissionWindow(4, 4);
+    ImmediateCall call = new ImmediateCall(key -> true, "InvalidParameterValue");
+    RecordingHandler handler = new RecordingHandler();
+
+    assertThat(window.submitAll(keys(8), 0, call, handler)).isTrue();
+
+    assertThat(handler.failed).hasSize(8);
+    assertThat(window.getSize()).isEqualTo(4);
+  }
+
+  @Test
+  public void testStopsWhenMinSuccessesUnreachable() throws InterruptedException {
+    SubmissionWindow window = new SubmissionWindow(1, 1);
+    ImmediateCall call = new ImmediateCall(key -> true, "InsufficientInstanceCapacity");
+    RecordingHandler handler = new RecordingHandler();
+
+    assertThat(window.submitAll(keys(10), 8, call, handler)).isFalse();
+
+    assertThat(call.calls.get()).isEqualTo(3);
+    assertThat(handler.failed).containsExactly(0, 1, 2);
+  }
+
+  @Test
+  public void testSynchronousFailureIsReported() throws InterruptedException {
+    SubmissionWindow window = new SubmissionWindow();
+    RecordingHandler handler = new RecordingHandler();
+
+    assertThat(window.submitAll(Collections.singletonList(1), 1,
+        (Integer key, AsyncHandler<RunInstancesRequest, RunInstancesResult> asyncHandler) -> {
+          throw new IllegalStateException("executor shut down");
+        },
+        handler)).isTrue();
+
+    assertThat(handler.failed).containsExactly(1);
+  }
+
+  @Test
+  public void testHandlerFailureDrainsRequestsInFlight() throws InterruptedException {
+    SubmissionWindow window = new SubmissionWindow(4, 4, 10000);
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    List<Future<RunInstancesResult>> futures = Lists.newArrayList();
+    RecordingHandler recorded = new RecordingHandler();
+    RuntimeException failure = new IllegalStateException("handler failed");
+    try {
+      window.submitAll(keys(4), 4,
+          (Integer key, AsyncHandler<RunInstancesRequest, RunInstancesResult> asyncHandler) -> {
+            CompletableFuture<RunInstancesResult> future = new CompletableFuture<>();
+            futures.add(future);
+            // The first request completes at once, the others while the failure propagates
+            executor.schedule(() -> {
+              RunInstancesResult result = new RunInstancesResult();
+              asyncHandler.onSuccess(REQUEST, result);
+              future.complete(result);
+            }, key * 50L, TimeUnit.MILLISECONDS);
+            return future;
+          },
+          new SubmissionWindow.CompletionHandler<Integer, RunInstancesResult>() {
+            @Override
+            public void onSuccess(Integer key, RunInstancesResult result) {
+              recorded.onSuccess(key, result);
+              if (key == 0) {
+                throw failure;
+              }
+            }
+
+            @Override
+            public void onError(Integer key, Exception exception) {
+              recorded.onError(key, exception);
+            }
+          });
+      fail("Expected the handler failure to propagate");
+    } catch (IllegalStateException e) {
+      assertThat(e).isSameAs(failure);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(recorded.succeeded).containsExactly(0, 1, 2, 3);
+    for (Future<RunInstancesResult> future : futures) {
+      assertThat(future.isCancelled()).isFalse();
+    }
+  }
+}
@@ -32,6 +32,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.Tags;
 import com.cloudera.director.aws.ec2.EC2Instance;
@@ -111,6 +112,7 @@ public class AutoScalingGroupAllocatorTest {
 
     allocationHelper = mock(AllocationHelper.class);
     when(allocationHelper.getAWSTimeouts()).thenReturn(awsTimeouts);
+    when(allocationHelper.getAWSRequestLimits()).thenReturn(new AWSRequestLimits(null));
     when(allocationHelper.getEC2TagHelper()).thenReturn(ec2TagHelper);
 
     ec2Client = mock(AmazonEC2AsyncClient.class);
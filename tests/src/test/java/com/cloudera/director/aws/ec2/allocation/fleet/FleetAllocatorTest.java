@@ -0,0 +1,293 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.allocation.fleet;
+
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_INSTANCE_TYPES;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_ON_DEMAND_BASE_CAPACITY;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_SUBNET_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SECURITY_GROUP_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SPOT_BID_USD_PER_HR;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SUBNET_ID;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TYPE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_EC2_FLEET;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_SPOT_INSTANCES;
+import static com.cloudera.director.spi.v2.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static com.cloudera.director.spi.v2.provider.Launcher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.AWSTimeouts;
+import com.cloudera.director.aws.Tags;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2TagHelper;
+import com.cloudera.director.aws.ec2.allocation.AllocationHelper;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2AsyncClient;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateFleetRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DefaultTargetCapacityType;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeFleetsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeFleetsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetData;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetLaunchTemplateConfigRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetLaunchTemplateOverridesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetStateCode;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetType;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceState;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Reservation;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.TargetCapacitySpecificationRequest;
+import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link FleetAllocator}.
+ */
+public class FleetAllocatorTest {
+
+  private static void putConfig(Map<String, String> configMap, ConfigurationPropertyToken propertyToken,
+      String value) {
+    if (value != null) {
+      configMap.put(propertyToken.unwrap().getConfigKey(), value);
+    }
+  }
+
+  private AllocationHelper allocationHelper;
+  private AmazonEC2AsyncClient ec2Client;
+
+  @Before
+  public void setUp() {
+    AWSTimeouts awsTimeouts = new AWSTimeouts(null);
+    EC2TagHelper ec2TagHelper = mock(EC2TagHelper.class);
+
+    allocationHelper = mock(AllocationHelper.class);
+    when(allocationHelper.getAWSTimeouts()).thenReturn(awsTimeouts);
+    when(allocationHelper.getAWSRequestLimits()).thenReturn(new AWSRequestLimits(null));
+    when(allocationHelper.getEC2TagHelper()).thenReturn(ec2TagHelper);
+
+    ec2Client = mock(AmazonEC2AsyncClient.class);
+  }
+
+  @Test
+  public void testNewCreateFleetRequestWithSpotInstances() {
+    EC2InstanceTemplate template = createEC2InstanceTemplate(ImmutableMap.of(
+        USE_SPOT_INSTANCES, "true",
+        SPOT_BID_USD_PER_HR, "0.1"));
+    Date validUntil = new Date();
+
+    CreateFleetRequest request = createFleetAllocator(template)
+        .newCreateFleetRequest(template, "lt-name", "token", 5, validUntil);
+
+    assertEquals("token", request.getClientToken());
+    assertEquals(FleetType.Request.toString(), request.getType());
+    assertEquals(validUntil, request.getValidUntil());
+    assertThat(request.getTerminateInstancesWithExpiration()).isFalse();
+    assertCapacity(request.getTargetCapacitySpecification(), 5, 0, 5,
+        DefaultTargetCapacityType.Spot);
+
+    FleetLaunchTemplateConfigRequest config =
+        getOnlyLaunchTemplateConfig(request, "lt-name");
+    assertThat(config.getOverrides()).hasSize(1);
+    FleetLaunchTemplateOverridesRequest override = config.getOverrides().get(0);
+    assertEquals("m3.medium", override.getInstanceType());
+    assertEquals("subnet-test", override.getSubnetId());
+    assertEquals("0.1", override.getMaxPrice());
+  }
+
+  @Test
+  public void testNewCreateFleetRequestWithOnDemandInstances() {
+    EC2InstanceTemplate template = createEC2InstanceTemplate(ImmutableMap.of());
+
+    CreateFleetRequest request = createFleetAllocator(template)
+        .newCreateFleetRequest(template, "lt-name", "token", 5, new Date());
+
+    assertCapacity(request.getTargetCapacitySpecification(), 5, 5, 0,
+        DefaultTargetCapacityType.OnDemand);
+    FleetLaunchTemplateOverridesRequest override =
+        getOnlyLaunchTemplateConfig(request, "lt-name").getOverrides().get(0);
+    assertThat(override.getMaxPrice()).isNull();
+  }
+
+  @Test
+  public void testNewCreateFleetRequestWithOnDemandBaseCapacity() {
+    EC2InstanceTemplate template = createEC2InstanceTemplate(ImmutableMap.of(
+        USE_SPOT_INSTANCES, "true",
+        FLEET_ON_DEMAND_BASE_CAPACITY, "2"));
+
+    CreateFleetRequest request = createFleetAllocator(template)
+        .newCreateFleetRequest(template, "lt-name", "token", 5, new Date());
+
+    assertCapacity(request.getTargetCapacitySpecification(), 5, 2, 3,
+        DefaultTargetCapacityType.Spot);
+  }
+
+  @Test
+  public void testNewCreateFleetRequestCapsOnDemandBaseCapacity() {
+    EC2InstanceTemplate template = createEC2InstanceTemplate(ImmutableMap.of(
+        USE_SPOT_INSTANCES, "true",
+        FLEET_ON_DEMAND_BASE_CAPACITY, "10"));
+
+    CreateFleetRequest request = createFleetAllocator(template)
+        .newCreateFleetRequest(template, "lt-name", "token", 5, new Date());
+
+    assertCapacity(request.getTargetCapacitySpecification(), 5, 5, 0,
+        DefaultTargetCapacityType.OnDemand);
+  }
+
+  @Test
+  public void testNewCreateFleetRequestOverridesEveryInstanceTypeAndSubnet() {
+    EC2InstanceTemplate template = createEC2InstanceTemplate(ImmutableMap.of(
+        USE_SPOT_INSTANCES, "true",
+        FLEET_INSTANCE_TYPES, "m3.medium,m4.large",
+        FLEET_SUBNET_IDS, "subnet-other"));
+
+    CreateFleetRequest request = createFleetAllocator(template)
+        .newCreateFleetRequest(template, "lt-name", "token", 5, new Date());
+
+    List<String> overrides = new ArrayList<>();
+    for (FleetLaunchTemplateOverridesRequest override
+        : getOnlyLaunchTemplateConfig(request, "lt-name").getOverrides()) {
+      overrides.add(override.getInstanceType() + "/" + override.getSubnetId());
+    }
+    assertThat(overrides).containsExactly(
+        "m3.medium/subnet-test", "m3.medium/subnet-other",
+        "m4.large/subnet-test", "m4.large/subnet-other");
+  }
+
+  @Test
+  public void testRecoverFleetsStopsEarlierFleetsAndCollectsTheirInstances() {
+    FleetAllocator fleetAllocator =
+        createFleetAllocator(createEC2InstanceTemplate(ImmutableMap.of()));
+    when(ec2Client.describeFleets(any(DescribeFleetsRequest.class))).thenReturn(
+        new DescribeFleetsResult().withFleets(
+            newFleetData("fleet-0", FleetStateCode.DeletedRunning,
+                fleetAllocator.determineFleetClientToken("lt-test", 0)),
+            newFleetData("fleet-1", FleetStateCode.Active,
+                fleetAllocator.determineFleetClientToken("lt-test", 1)),
+            newFleetData("fleet-other", FleetStateCode.Active,
+                fleetAllocator.determineFleetClientToken("lt-other", 0))));
+    when(ec2Client.deleteFleets(any(DeleteFleetsRequest.class)))
+        .thenReturn(new DeleteFleetsResult());
+    DescribeInstancesResult describeInstancesResult = new DescribeInstancesResult()
+        .withReservations(new Reservation().withInstances(
+            newInstance("i-running", InstanceStateName.Running),
+            newInstance("i-terminated", InstanceStateName.Terminated)));
+    when(ec2Client.describeInstances(any(DescribeInstancesRequest.class)))
+        .thenReturn(describeInstancesResult);
+    doAnswer(invocation -> {
+      DescribeInstancesResult result = invocation.getArgument(0);
+      Function<Instance, Void> instanceHandler = invocation.getArgument(1);
+      for (Reservation reservation : result.getReservations()) {
+        for (Instance instance : reservation.getInstances()) {
+          instanceHandler.apply(instance);
+        }
+      }
+      return null;
+    }).when(allocationHelper).forEachInstance(any(DescribeInstancesResult.class), any());
+
+    Set<String> ec2InstanceIds = new LinkedHashSet<>();
+    int nextGeneration = fleetAllocator.recoverFleets("lt-test", ec2InstanceIds);
+
+    assertEquals(2, nextGeneration);
+    assertThat(ec2InstanceIds).containsExactly("i-running");
+    verify(ec2Client, times(1)).deleteFleets(any(DeleteFleetsRequest.class));
+    verify(ec2Client).deleteFleets(new DeleteFleetsRequest()
+        .withFleetIds("fleet-1")
+        .withTerminateInstances(false));
+  }
+
+  private static FleetData newFleetData(String fleetId, FleetStateCode fleetState,
+      String clientToken) {
+    return new FleetData()
+        .withFleetId(fleetId)
+        .withFleetState(fleetState)
+        .withClientToken(clientToken);
+  }
+
+  private static Instance newInstance(String instanceId, InstanceStateName state) {
+    return new Instance()
+        .withInstanceId(instanceId)
+        .withState(new InstanceState().withName(state));
+  }
+
+  private static void assertCapacity(TargetCapacitySpecificationRequest capacity,
+      int total, int onDemand, int spot, DefaultTargetCapacityType defaultType) {
+    assertEquals(total, capacity.getTotalTargetCapacity().intValue());
+    assertEquals(onDemand, capacity.getOnDemandTargetCapacity().intValue());
+    assertEquals(spot, capacity.getSpotTargetCapacity().intValue());
+    assertEquals(defaultType.toString(), capacity.getDefaultTargetCapacityType());
+  }
+
+  private static FleetLaunchTemplateConfigRequest getOnlyLaunchTemplateConfig(
+      CreateFleetRequest request, String launchTemplateName) {
+    assertThat(request.getLaunchTemplateConfigs()).hasSize(1);
+    FleetLaunchTemplateConfigRequest config = request.getLaunchTemplateConfigs().get(0);
+    assertEquals(launchTemplateName,
+        config.getLaunchTemplateSpecification().getLaunchTemplateName());
+    return config;
+  }
+
+  private FleetAllocator createFleetAllocator(EC2InstanceTemplate template) {
+    return new FleetAllocator(allocationHelper, ec2Client, false, false,
+        template, ImmutableList.of("vid1"), 0);
+  }
+
+  private EC2InstanceTemplate createEC2InstanceTemplate(
+      Map<ConfigurationPropertyToken, String> additionalConfig) {
+    Map<String, String> instanceTemplateConfigMap = new LinkedHashMap<>();
+    String templateName = "test-template";
+    putConfig(instanceTemplateConfigMap, INSTANCE_NAME_PREFIX, templateName);
+    putConfig(instanceTemplateConfigMap, IMAGE, "ami-test");
+    putConfig(instanceTemplateConfigMap, SECURITY_GROUP_IDS, "sg-test");
+    putConfig(instanceTemplateConfigMap, SUBNET_ID, "subnet-test");
+    putConfig(instanceTemplateConfigMap, TYPE, "m3.medium");
+    putConfig(instanceTemplateConfigMap, USE_EC2_FLEET, "true");
+    for (Map.Entry<ConfigurationPropertyToken, String> entry : additionalConfig.entrySet()) {
+      putConfig(instanceTemplateConfigMap, entry.getKey(), entry.getValue());
+    }
+
+    Map<String, String> instanceTemplateTags = new LinkedHashMap<>();
+    instanceTemplateTags.put(Tags.InstanceTags.OWNER.getTagKey(), "test-user");
+
+    return new EC2InstanceTemplate(
+        templateName, new SimpleConfiguration(instanceTemplateConfigMap), instanceTemplateTags,
+        DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+  }
+}
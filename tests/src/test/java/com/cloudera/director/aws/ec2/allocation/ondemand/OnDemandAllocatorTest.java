@@ -0,0 +1,207 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.allocation.ondemand;
+
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SECURITY_GROUP_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SUBNET_ID;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TYPE;
+import static com.cloudera.director.spi.v2.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static com.cloudera.director.spi.v2.provider.Launcher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.AWSTimeouts;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2TagHelper;
+import com.cloudera.director.aws.ec2.allocation.AllocationHelper;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.AsyncHandler;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2AsyncClient;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceState;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Reservation;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Tag;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests {@link OnDemandAllocator}.
+ */
+public class OnDemandAllocatorTest {
+
+  private static final String ID_TAG_NAME = "Cloudera-Director-Id";
+
+  @Test
+  public void testGroupInstanceIdsIsSortedAndPartitioned() {
+    List<List<String>> groups = OnDemandAllocator.groupInstanceIds(
+        ImmutableList.of("e", "c", "a", "d", "b"), 2);
+
+    assertThat(groups).containsExactly(
+        ImmutableList.of("a", "b"), ImmutableList.of("c", "d"), ImmutableList.of("e"));
+  }
+
+  @Test
+  public void testGroupInstanceIdsDoesNotDependOnOrder() {
+    assertThat(OnDemandAllocator.groupInstanceIds(ImmutableList.of("b", "c", "a"), 2))
+        .isEqualTo(OnDemandAllocator.groupInstanceIds(ImmutableList.of("a", "b", "c"), 2));
+  }
+
+  @Test
+  public void testAssignInstancesInLaunchOrder() {
+    Instance first = newInstance("i-1", 0, "running", null);
+    Instance second = newInstance("i-2", 1, "pending", null);
+    Set<String> orphaned = new HashSet<>();
+
+    Map<String, Instance> assigned = OnDemandAllocator.assignInstances(
+        ImmutableList.of("a", "b", "c"), ImmutableList.of(second, first), ID_TAG_NAME,
+        Collections.emptySet(), orphaned);
+
+    assertThat(assigned).containsExactly(entry("a", first), entry("b", second));
+    assertThat(orphaned).isEmpty();
+  }
+
+  @Test
+  public void testAssignInstancesKeepsTaggedIds() {
+    Instance first = newInstance("i-1", 0, "running", null);
+    Instance second = newInstance("i-2", 1, "running", "a");
+    Instance allocated = newInstance("i-3", 2, "running", "c");
+    Set<String> orphaned = new HashSet<>();
+
+    Map<String, Instance> assigned = OnDemandAllocator.assignInstances(
+        ImmutableList.of("a", "b"), ImmutableList.of(first, second, allocated), ID_TAG_NAME,
+        ImmutableSet.of("c"), orphaned);
+
+    assertThat(assigned).containsOnly(entry("a", second), entry("b", first));
+    assertThat(orphaned).isEmpty();
+  }
+
+  @Test
+  public void testAssignInstancesSkipsTerminalAndOrphansLeftovers() {
+    Instance terminated = newInstance("i-1", 0, "terminated", null);
+    Instance first = newInstance("i-2", 1, "running", null);
+    Instance second = newInstance("i-3", 2, "running", null);
+    Set<String> orphaned = new HashSet<>();
+
+    Map<String, Instance> assigned = OnDemandAllocator.assignInstances(
+        ImmutableList.of("a"), ImmutableList.of(terminated, first, second), ID_TAG_NAME,
+        Collections.emptySet(), orphaned);
+
+    assertThat(assigned).containsExactly(entry("a", first));
+    assertThat(orphaned).containsExactly("i-3");
+  }
+
+  @Test
+  public void testSortByLaunchIndex() {
+    Instance first = new Instance().withInstanceId("i-1").withAmiLaunchIndex(0);
+    Instance second = new Instance().withInstanceId("i-2").withAmiLaunchIndex(1);
+    Instance unknown = new Instance().withInstanceId("i-3");
+
+    assertThat(OnDemandAllocator.sortByLaunchIndex(ImmutableList.of(unknown, second, first)))
+        .containsExactly(first, second, unknown);
+  }
+
+  @Test
+  public void testAllocateTerminatesLaunchedInstancesWhenSubmissionFails() throws Exception {
+    AllocationHelper allocationHelper = mock(AllocationHelper.class);
+    when(allocationHelper.getAWSTimeouts()).thenReturn(new AWSTimeouts(null));
+    when(allocationHelper.getAWSRequestLimits()).thenReturn(new AWSRequestLimits(null));
+    when(allocationHelper.getEC2TagHelper()).thenReturn(mock(EC2TagHelper.class));
+    when(allocationHelper.doFind(any(), any(), any())).thenReturn(Collections.emptyList());
+
+    // The first group is launched, and submission is interrupted while the second is in flight
+    AmazonEC2AsyncClient client = mock(AmazonEC2AsyncClient.class);
+    AtomicInteger requestCount = new AtomicInteger();
+    when(client.runInstancesAsync(any(RunInstancesRequest.class), any())).thenAnswer(
+        invocation -> {
+          RunInstancesRequest request = invocation.getArgument(0);
+          AsyncHandler<RunInstancesRequest, RunInstancesResult> handler =
+              invocation.getArgument(1);
+          if (requestCount.getAndIncrement() == 0) {
+            handler.onSuccess(request, new RunInstancesResult().withReservation(
+                new Reservation().withInstances(newInstance("i-0", 0, "pending", null))));
+          } else {
+            Thread.currentThread().interrupt();
+            handler.onError(new RuntimeException("second group failed"));
+          }
+          return null;
+        });
+
+    List<String> virtualInstanceIds = new ArrayList<>();
+    for (int i = 0; i <= OnDemandAllocator.RUN_INSTANCES_GROUP_SIZE; i++) {
+      virtualInstanceIds.add(String.format("vid%03d", i));
+    }
+    OnDemandAllocator allocator = new OnDemandAllocator(allocationHelper, client, false, true,
+        createEC2InstanceTemplate(), virtualInstanceIds, virtualInstanceIds.size());
+
+    try {
+      allocator.allocate();
+      fail("expected the allocation to be interrupted");
+    } catch (InterruptedException e) {
+      // expected
+    } finally {
+      Thread.interrupted();
+    }
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<String>> ec2InstanceIds = ArgumentCaptor.forClass(Collection.class);
+    verify(allocationHelper).doDelete(ec2InstanceIds.capture());
+    assertThat(ec2InstanceIds.getValue()).containsExactly("i-0");
+  }
+
+  private static EC2InstanceTemplate createEC2InstanceTemplate() {
+    Map<String, String> configMap = new LinkedHashMap<>();
+    configMap.put(INSTANCE_NAME_PREFIX.unwrap().getConfigKey(), "test-template");
+    configMap.put(IMAGE.unwrap().getConfigKey(), "ami-test");
+    configMap.put(SECURITY_GROUP_IDS.unwrap().getConfigKey(), "sg-test");
+    configMap.put(SUBNET_ID.unwrap().getConfigKey(), "subnet-test");
+    configMap.put(TYPE.unwrap().getConfigKey(), "m3.medium");
+    return new EC2InstanceTemplate("test-template", new SimpleConfiguration(configMap),
+        Collections.emptyMap(), DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+  }
+
+  private static Instance newInstance(String instanceId, int launchIndex, String state,
+      String virtualInstanceId) {
+    Instance instance = new Instance()
+        .withInstanceId(instanceId)
+        .withAmiLaunchIndex(launchIndex)
+        .withState(new InstanceState().withName(state));
+    if (virtualInstanceId != null) {
+      instance.withTags(new Tag(ID_TAG_NAME, virtualInstanceId));
+    }
+    return instance;
+  }
+}
@@ -27,6 +27,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.Tags;
 import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
@@ -69,6 +70,7 @@ public class SpotGroupAllocatorTest {
 
     allocationHelper = mock(AllocationHelper.class);
     when(allocationHelper.getAWSTimeouts()).thenReturn(awsTimeouts);
+    when(allocationHelper.getAWSRequestLimits()).thenReturn(new AWSRequestLimits(null));
     when(allocationHelper.getEC2TagHelper()).thenReturn(ec2TagHelper);
 
     ec2Client = mock(AmazonEC2AsyncClient.class);
@@ -0,0 +1,297 @@
+// (c) Copyright 2017 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.ebs;
+
+import static com.cloudera.director.spi.v2.provider.Launcher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.AWSTimeouts;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2TagHelper;
+import com.cloudera.director.aws.ec2.ebs.EBSAllocator.InstanceEbsVolumes;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Volume;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.VolumeState;
+import com.cloudera.director.aws.shaded.com.google.common.base.Optional;
+import com.cloudera.director.aws.test.fake.FakeAwsBehavior;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests {@link EBSAllocator} against a {@link FakeAwsCloud}.
+ */
+public class EBSAllocatorTest {
+
+  private static final int VOLUMES_PER_INSTANCE = 3;
+  private static final long WAIT_INTERVAL_MILLIS = 50;
+
+  private FakeAwsCloud cloud;
+
+  @After
+  public void tearDown() {
+    if (cloud != null) {
+      cloud.close();
+    }
+  }
+
+  @Test
+  public void testCreateVolumesForEveryInstance() throws InterruptedException {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder()
+        .withLatencyMillis(1, 4)
+        .build());
+    int count = 20;
+
+    List<InstanceEbsVolumes> instanceVolumes =
+        ebsAllocator.createVolumes(createTemplate(), newInstanceIds(count));
+
+    assertThat(instanceVolumes).hasSize(count);
+    Set<String> volumeIds = collectVolumeIds(instanceVolumes, VolumeState.Creating);
+    assertEquals(count * VOLUMES_PER_INSTANCE, volumeIds.size());
+    assertEquals(count * VOLUMES_PER_INSTANCE, cloud.getCallCount("CreateVolume"));
+  }
+
+  @Test
+  public void testCreateVolumesMarksFailedRequests() throws InterruptedException {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder()
+        .withInjectedError("CreateVolume", "VolumeLimitExceeded", 1.0)
+        .build());
+    int count = 5;
+
+    List<InstanceEbsVolumes> instanceVolumes =
+        ebsAllocator.createVolumes(createTemplate(), newInstanceIds(count));
+
+    Set<String> volumeIds = collectVolumeIds(instanceVolumes, VolumeState.Error);
+    assertEquals(count * VOLUMES_PER_INSTANCE, volumeIds.size());
+    for (String volumeId : volumeIds) {
+      assertThat(volumeId).startsWith(InstanceEbsVolumes.UNCREATED_VOLUME_ID);
+    }
+  }
+
+  @Test
+  public void testCreateVolumesReportsVolumesCreatedBeforeInterrupt() throws Exception {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder()
+        .withLatencyMillis(50, 0)
+        .build());
+    int count = 20;
+    Map<String, VolumeState> createdVolumes = new HashMap<>();
+
+    Thread allocatingThread = Thread.currentThread();
+    Thread interrupter = new Thread(() -> {
+      try {
+        Thread.sleep(75);
+      } catch (InterruptedException e) {
+        return;
+      }
+      allocatingThread.interrupt();
+    });
+    interrupter.start();
+    try {
+      ebsAllocator.createVolumes(createTemplate(), newInstanceIds(count), createdVolumes);
+      fail("Expected the creation to be interrupted");
+    } catch (InterruptedException e) {
+      // expected
+    } finally {
+      interrupter.join();
+      Thread.interrupted();
+    }
+
+    // Every volume created, including those in flight when interrupted, is reported
+    assertThat(createdVolumes).isNotEmpty();
+    assertEquals(cloud.getCallCount("CreateVolume"), createdVolumes.size());
+    assertThat(createdVolumes.size()).isLessThan(count * VOLUMES_PER_INSTANCE);
+  }
+
+  @Test
+  public void testAttachVolumesWhenAvailable() throws InterruptedException {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder()
+        .withVolumeCreateMillis(100)
+        .withVolumeAttachMillis(100)
+        .build());
+    int count = 10;
+    EC2InstanceTemplate template = createTemplate();
+
+    List<InstanceEbsVolumes> instanceVolumes = ebsAllocator.attachVolumesWhenAvailable(template,
+        ebsAllocator.createVolumes(template, runInstances(count)), count);
+
+    assertThat(instanceVolumes).hasSize(count);
+    collectVolumeIds(instanceVolumes, VolumeState.InUse);
+    // Each instance also has its root volume attached
+    assertEquals(count * (VOLUMES_PER_INSTANCE + 1), cloud.getVolumeCount(VolumeState.InUse));
+    assertEquals(count * VOLUMES_PER_INSTANCE, cloud.getCallCount("AttachVolume"));
+  }
+
+  @Test
+  public void testAttachVolumesSkipsUncreatedVolumes() throws InterruptedException {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder()
+        .withInjectedError("CreateVolume", "VolumeLimitExceeded", 1.0)
+        .build());
+    int count = 5;
+    EC2InstanceTemplate template = createTemplate();
+
+    List<InstanceEbsVolumes> instanceVolumes = ebsAllocator.attachVolumesWhenAvailable(template,
+        ebsAllocator.createVolumes(template, runInstances(count)), 1);
+
+    collectVolumeIds(instanceVolumes, VolumeState.Error);
+    assertEquals(0, cloud.getCallCount("DescribeVolumes"));
+    assertEquals(0, cloud.getCallCount("AttachVolume"));
+  }
+
+  @Test
+  public void testRefreshAndMarkDeleteOnTerminationInBatches() throws Exception {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder().build());
+    int count = 10;
+    EC2InstanceTemplate template = createTemplate();
+    List<InstanceEbsVolumes> instanceVolumes = ebsAllocator.attachVolumesWhenAvailable(template,
+        ebsAllocator.createVolumes(template, runInstances(count)), count);
+    long describeCount = cloud.getCallCount("DescribeVolumes");
+
+    instanceVolumes = ebsAllocator.getUpdatedVolumeInfo(instanceVolumes);
+    ebsAllocator.addDeleteOnTerminationFlag(instanceVolumes);
+
+    assertEquals(describeCount + 1, cloud.getCallCount("DescribeVolumes"));
+    assertEquals(count, cloud.getCallCount("ModifyInstanceAttribute"));
+    Set<String> volumeIds = collectVolumeIds(instanceVolumes, VolumeState.InUse);
+    for (Volume volume : cloud.newEC2Client().describeVolumes(
+        new DescribeVolumesRequest().withVolumeIds(volumeIds)).getVolumes()) {
+      assertTrue(Iterables.getOnlyElement(volume.getAttachments()).getDeleteOnTermination());
+    }
+  }
+
+  @Test
+  public void testMarkDeleteOnTerminationFailsVolumesOneAtATime() throws Exception {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder()
+        .withInjectedError("ModifyInstanceAttribute", "UnsupportedOperation", 1.0)
+        .build());
+    int count = 5;
+    EC2InstanceTemplate template = createTemplate();
+    List<InstanceEbsVolumes> instanceVolumes = ebsAllocator.attachVolumesWhenAvailable(template,
+        ebsAllocator.createVolumes(template, runInstances(count)), count);
+
+    instanceVolumes = ebsAllocator.addDeleteOnTerminationFlag(
+        ebsAllocator.getUpdatedVolumeInfo(instanceVolumes));
+
+    assertEquals(count * (VOLUMES_PER_INSTANCE + 1),
+        cloud.getCallCount("ModifyInstanceAttribute"));
+    collectVolumeIds(instanceVolumes, VolumeState.Error);
+  }
+
+  @Test
+  public void testDeleteVolumesDetachesAllVolumesUpFront() throws InterruptedException {
+    EBSAllocator ebsAllocator = createEbsAllocator(new FakeAwsBehavior.Builder()
+        .withVolumeAttachMillis(100)
+        .withVolumeDetachMillis(200)
+        .build());
+    int count = 10;
+    EC2InstanceTemplate template = createTemplate();
+    List<InstanceEbsVolumes> instanceVolumes = ebsAllocator.attachVolumesWhenAvailable(template,
+        ebsAllocator.createVolumes(template, runInstances(count)), count);
+    Map<String, VolumeState> volumesToDelete = new HashMap<>();
+    for (InstanceEbsVolumes instanceEbsVolumes : instanceVolumes) {
+      volumesToDelete.putAll(instanceEbsVolumes.getVolumeStates());
+    }
+    long describeCount = cloud.getCallCount("DescribeVolumes");
+
+    ebsAllocator.deleteVolumes(volumesToDelete);
+
+    assertEquals(count * VOLUMES_PER_INSTANCE, cloud.getCallCount("DetachVolume"));
+    assertEquals(count * VOLUMES_PER_INSTANCE, cloud.getCallCount("DeleteVolume"));
+    assertEquals(0, cloud.getFailedCallCount("DeleteVolume"));
+    // Every poll describes all the detaching volumes in a single request
+    assertThat(cloud.getCallCount("DescribeVolumes") - describeCount).isLessThan(10);
+    // Only the root volumes remain attached
+    assertEquals(count, cloud.getVolumeCount(VolumeState.InUse));
+  }
+
+  private EBSAllocator createEbsAllocator(FakeAwsBehavior behavior) {
+    cloud = new FakeAwsCloud(behavior);
+    return new EBSAllocator(cloud.newEC2Client(), new AWSTimeouts(null),
+        new AWSRequestLimits(null), mock(EC2TagHelper.class),
+        EBSDeviceMappings.getDefaultInstance(ImmutableMap.<String, String>of(),
+            DEFAULT_PLUGIN_LOCALIZATION_CONTEXT),
+        ImmutableSet.of(), true, WAIT_INTERVAL_MILLIS);
+  }
+
+  private Map<String, String> runInstances(int count) {
+    List<Instance> instances = cloud.newEC2Client().runInstances(new RunInstancesRequest()
+        .withImageId("ami-12345678")
+        .withInstanceType("m4.xlarge")
+        .withSubnetId("subnet-12345678")
+        .withMinCount(count)
+        .withMaxCount(count))
+        .getReservation()
+        .getInstances();
+    Map<String, String> ec2InstanceIdsByInstanceId = new TreeMap<>();
+    for (int i = 0; i < instances.size(); i++) {
+      ec2InstanceIdsByInstanceId.put("instance-" + i, instances.get(i).getInstanceId());
+    }
+    return ec2InstanceIdsByInstanceId;
+  }
+
+  private EC2InstanceTemplate createTemplate() {
+    EC2InstanceTemplate template = mock(EC2InstanceTemplate.class);
+    when(template.getAvailabilityZone())
+        .thenReturn(Optional.of(cloud.getBehavior().getAvailabilityZone()));
+    when(template.getEbsVolumeCount()).thenReturn(VOLUMES_PER_INSTANCE);
+    when(template.getEbsVolumeType()).thenReturn("gp2");
+    when(template.getEbsVolumeSizeGiB()).thenReturn(100);
+    when(template.getEbsIops()).thenReturn(Optional.absent());
+    when(template.isEnableEbsEncryption()).thenReturn(true);
+    when(template.getEbsKmsKeyId()).thenReturn(Optional.of("kms-key"));
+    when(template.getSystemDisks()).thenReturn(Collections.emptyList());
+    return template;
+  }
+
+  private static Map<String, String> newInstanceIds(int count) {
+    Map<String, String> ec2InstanceIdsByInstanceId = new TreeMap<>();
+    for (int i = 0; i < count; i++) {
+      ec2InstanceIdsByInstanceId.put("instance-" + i, "i-" + i);
+    }
+    return ec2InstanceIdsByInstanceId;
+  }
+
+  private static Set<String> collectVolumeIds(List<InstanceEbsVolumes> instanceVolumes,
+      VolumeState expectedState) {
+    ImmutableSet.Builder<String> volumeIds = ImmutableSet.builder();
+    for (InstanceEbsVolumes instanceEbsVolumes : instanceVolumes) {
+      assertEquals(VOLUMES_PER_INSTANCE, instanceEbsVolumes.getVolumeStates().size());
+      for (Map.Entry<String, VolumeState> entry
+          : instanceEbsVolumes.getVolumeStates().entrySet()) {
+        assertEquals(expectedState, entry.getValue());
+        volumeIds.add(entry.getKey());
+      }
+    }
+    return volumeIds.build();
+  }
+}
@@ -47,7 +47,7 @@ public class ConsoleOutputExtractorTest {
 
   @Test
   public void getHostKeyFingerprintsTests() {
-    assertThat(consoleOutputExtractor.hasHostKeyFingerprintBlock(VALID_OUTPUT)).isTrue();
+    assertThat(consoleOutputExtractor.newScan().scan(VALID_OUTPUT)).isNotNull();
     Set<String> hostKeyFingerprints = consoleOutputExtractor.getHostKeyFingerprints(VALID_OUTPUT);
     assertThat(hostKeyFingerprints).contains(
         "6d:99:6d:f1:d5:42:42:68:f1:5b:40:e9:ff:30:82:38",
@@ -59,14 +59,31 @@ public class ConsoleOutputExtractorTest {
   @Test(expected = IllegalArgumentException.class)
   public void getHostKeyFingerprintsTests_IllegalArgument() {
     String consoleOutput = "asdf";
-    assertThat(consoleOutputExtractor.hasHostKeyFingerprintBlock(consoleOutput)).isFalse();
+    assertThat(consoleOutputExtractor.newScan().scan(consoleOutput)).isNull();
     consoleOutputExtractor.getHostKeyFingerprints(consoleOutput);
   }
 
   @Test
   public void getHostKeyFingerprintsTests_EmptyBlock() {
-    assertThat(consoleOutputExtractor.hasHostKeyFingerprintBlock(EMPTY_FINGERPRINTS_BLOCK)).isTrue();
+    assertThat(consoleOutputExtractor.newScan().scan(EMPTY_FINGERPRINTS_BLOCK)).isNotNull();
     Set<String> fingerprints = consoleOutputExtractor.getHostKeyFingerprints(EMPTY_FINGERPRINTS_BLOCK);
     assertThat(fingerprints).isEmpty();
   }
+
+  @Test
+  public void scanResumesOnGrowingOutput() {
+    ConsoleOutputExtractor.Scan scan = consoleOutputExtractor.newScan();
+    Set<String> hostKeyFingerprints = null;
+    for (int length = 1; length <= VALID_OUTPUT.length() && hostKeyFingerprints == null; length++) {
+      hostKeyFingerprints = scan.scan(VALID_OUTPUT.substring(0, length));
+    }
+    assertThat(hostKeyFingerprints).isEqualTo(consoleOutputExtractor.getHostKeyFingerprints(VALID_OUTPUT));
+  }
+
+  @Test
+  public void scanRestartsOnTruncatedOutput() {
+    ConsoleOutputExtractor.Scan scan = consoleOutputExtractor.newScan();
+    assertThat(scan.scan("boot messages\n" + EMPTY_FINGERPRINTS_BLOCK)).isEmpty();
+    assertThat(scan.scan(VALID_OUTPUT)).hasSize(3);
+  }
 }
@@ -14,6 +14,7 @@
 
 package com.cloudera.director.aws.ec2.provider;
 
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.ALLOCATE_EBS_SEPARATELY;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.AVAILABILITY_ZONE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.BLOCK_DURATION_MINUTES;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_IOPS;
@@ -22,6 +23,9 @@ import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTempl
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_COUNT;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_SIZE_GIB;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.EBS_VOLUME_TYPE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_INSTANCE_TYPES;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_ON_DEMAND_BASE_CAPACITY;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_SUBNET_IDS;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IAM_PROFILE_NAME;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.KEY_NAME;
@@ -36,6 +40,7 @@ import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTempl
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TENANCY;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USER_DATA;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USER_DATA_UNENCODED;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_EC2_FLEET;
 import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_SPOT_INSTANCES;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.BOTH_USER_DATA_USED;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.HVM_VIRTUALIZATION;
@@ -55,6 +60,8 @@ import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigur
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_EBS_ENCRYPTION_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_EBS_VOLUME_COUNT_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_EBS_VOLUME_SIZE_FORMAT_MSG;
+import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_FLEET_INSTANCE_TYPE_EPHEMERAL_MSG;
+import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_FLEET_ON_DEMAND_BASE_CAPACITY_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_IAM_PROFILE_NAME_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_IOPS_FORMAT_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.INVALID_KMS_NOT_FOUND_MESSAGE;
@@ -63,6 +70,9 @@ import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigur
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.IOPS_REQUIRED_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.MAX_VOLUMES_PER_INSTANCE;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.MIN_ROOT_VOLUME_SIZE_GB;
+import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.NO_BLOCK_DURATION_WITH_FLEET_MSG;
+import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.NO_FLEET_SUBNETS_WITH_SEPARATE_EBS_MSG;
+import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.NO_FLEET_WITH_ASG_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.NO_SPOT_WITH_ASG_MSG;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.PARAVIRTUAL_VIRTUALIZATION;
 import static com.cloudera.director.aws.ec2.provider.EC2InstanceTemplateConfigurationValidator.ROOT_VOLUME_TYPES;
@@ -71,10 +81,15 @@ import static com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate.Compu
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.ec2.EphemeralDeviceMappings;
+import com.cloudera.director.aws.ec2.ImageMetadataCache;
+import com.cloudera.director.aws.ec2.KeyNameCache;
+import com.cloudera.director.aws.ec2.ValidationLookupCache;
 import com.cloudera.director.aws.ec2.VirtualizationMappings;
 import com.cloudera.director.aws.ec2.ebs.EBSMetadata;
 import com.cloudera.director.aws.ec2.ebs.EBSMetadata.EbsVolumeMetadata;
@@ -124,6 +139,7 @@ import com.google.common.collect.Sets;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -163,6 +179,9 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     ec2Provider = mock(EC2Provider.class);
     kmsClient = mock(AWSKMSClient.class);
     when(ec2Provider.getClient()).thenReturn(ec2Client);
+    when(ec2Provider.getImageMetadataCache()).thenReturn(new ImageMetadataCache());
+    when(ec2Provider.getKeyNameCache()).thenReturn(new KeyNameCache());
+    when(ec2Provider.getValidationLookupCache()).thenReturn(new ValidationLookupCache());
     when(ec2Provider.getVirtualizationMappings()).thenReturn(virtualizationMappings);
     when(ec2Provider.getEC2Filters()).thenReturn(ec2Filters);
     validator = new EC2InstanceTemplateConfigurationValidator(ec2Provider, ebsMetadata);
@@ -383,6 +402,20 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
         IMAGE_NAME);
   }
 
+  @Test
+  public void testCheckImage_IncompatibleFleetInstanceType() {
+    Image image = mockSingleCheckedImage();
+    mockImageAttributes(image, "x86_64", null, "available", "paravirtual", "ebs", null);
+    when(virtualizationMappings.apply(PARAVIRTUAL_VIRTUALIZATION))
+        .thenReturn(ImmutableList.of(TYPE_STRING));
+
+    checkImage(IMAGE_NAME, TYPE_STRING, ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        FLEET_INSTANCE_TYPES.unwrap().getConfigKey(), TYPE_STRING + ",m4.large"));
+    verifySingleError(FLEET_INSTANCE_TYPES, INVALID_AMI_INSTANCE_TYPE_COMPATIBILITY_MSG,
+        "m4.large", "paravirtual", IMAGE_NAME);
+  }
+
   @Test
   public void testCheckImage_RootDeviceType() {
     Image image = mockSingleCheckedImage();
@@ -550,6 +583,26 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     assertThat(req.getSubnetIds()).isEqualTo(Lists.newArrayList(subnetId));
   }
 
+  @Test
+  public void testCheckSubnetId_Cached() {
+    DescribeSubnetsResult dsResult = mock(DescribeSubnetsResult.class);
+    Subnet subnet = mock(Subnet.class);
+    when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class)))
+        .thenReturn(dsResult);
+    when(dsResult.getSubnets()).thenReturn(Collections.singletonList(subnet));
+    when(subnet.getVpcId()).thenReturn("test-vpc-id");
+
+    checkSubnetId("subnet");
+    checkSubnetId("subnet");
+    verifyClean();
+    verify(ec2Client, times(1)).describeSubnets(any(DescribeSubnetsRequest.class));
+
+    ec2Provider.getValidationLookupCache()
+        .invalidate(ValidationLookupCache.ResourceKind.SUBNET, null, null, "subnet");
+    checkSubnetId("subnet");
+    verify(ec2Client, times(2)).describeSubnets(any(DescribeSubnetsRequest.class));
+  }
+
   @Test
   public void testCheckSubnetId_NoSubnet() {
     DescribeSubnetsResult dsResult = mock(DescribeSubnetsResult.class);
@@ -573,6 +626,33 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     verifySingleError(SUBNET_ID);
   }
 
+  @Test
+  public void testCheckFleetSubnetIds() {
+    DescribeSubnetsResult dsResult = mock(DescribeSubnetsResult.class);
+    Subnet subnet = mock(Subnet.class);
+    when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class)))
+        .thenReturn(dsResult);
+    when(dsResult.getSubnets()).thenReturn(Collections.singletonList(subnet));
+    when(subnet.getVpcId()).thenReturn("test-vpc-id");
+
+    List<Map<String, String>> vpcSubnetMaps = checkFleetSubnetIds("subnet-1,subnet-2");
+    verifyClean();
+    assertThat(vpcSubnetMaps).containsExactly(
+        ImmutableMap.of("test-vpc-id", "subnet-1"),
+        ImmutableMap.of("test-vpc-id", "subnet-2"));
+  }
+
+  @Test
+  public void testCheckFleetSubnetIds_NoSubnet() {
+    DescribeSubnetsResult dsResult = mock(DescribeSubnetsResult.class);
+    when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class)))
+        .thenReturn(dsResult);
+    when(dsResult.getSubnets()).thenReturn(Collections.<Subnet>emptyList());
+
+    checkFleetSubnetIds("subnet");
+    verifySingleError(FLEET_SUBNET_IDS);
+  }
+
   @Test
   public void testCheckSecurityGroupsIds() {
     DescribeSecurityGroupsResult dsgResult = mock(DescribeSecurityGroupsResult.class);
@@ -769,6 +849,84 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     verifySingleError(USE_SPOT_INSTANCES, NO_SPOT_WITH_ASG_MSG);
   }
 
+  @Test
+  public void testValidateFleetParameters() {
+    checkFleetParameters(ImmutableMap.of(
+        BLOCK_DURATION_MINUTES.unwrap().getConfigKey(), "60",
+        FLEET_ON_DEMAND_BASE_CAPACITY.unwrap().getConfigKey(), "abc"));
+    verifyClean();
+
+    checkFleetParameters(ImmutableMap.of(USE_EC2_FLEET.unwrap().getConfigKey(), "true"));
+    verifyClean();
+
+    checkFleetParameters(ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        USE_SPOT_INSTANCES.unwrap().getConfigKey(), "true",
+        FLEET_ON_DEMAND_BASE_CAPACITY.unwrap().getConfigKey(), "0"));
+    verifyClean();
+  }
+
+  @Test
+  public void testValidateFleetParameters_FleetWithASG() {
+    checkFleetParameters(ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        AUTOMATIC.unwrap().getConfigKey(), "true"));
+    verifySingleError(USE_EC2_FLEET, NO_FLEET_WITH_ASG_MSG);
+  }
+
+  @Test
+  public void testValidateFleetParameters_BlockDuration() {
+    checkFleetParameters(ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        BLOCK_DURATION_MINUTES.unwrap().getConfigKey(), "60"));
+    verifySingleError(BLOCK_DURATION_MINUTES, NO_BLOCK_DURATION_WITH_FLEET_MSG);
+  }
+
+  @Test
+  public void testValidateFleetParameters_InvalidOnDemandBaseCapacity() {
+    for (String onDemandBaseCapacity : new String[] {"abc", "-1", "1.5"}) {
+      checkFleetParameters(ImmutableMap.of(
+          USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+          FLEET_ON_DEMAND_BASE_CAPACITY.unwrap().getConfigKey(), onDemandBaseCapacity));
+      verifySingleError(FLEET_ON_DEMAND_BASE_CAPACITY, INVALID_FLEET_ON_DEMAND_BASE_CAPACITY_MSG,
+          onDemandBaseCapacity);
+      resetAccumulator();
+    }
+  }
+
+  @Test
+  public void testValidateFleetParameters_InstanceStoreVolumeMismatch() {
+    when(ec2Provider.getEphemeralDeviceMappings()).thenReturn(
+        EphemeralDeviceMappings.getTestInstance(
+            ImmutableMap.of(TYPE_STRING, 0, "m4.large", 0, "m3.large", 1), localizationContext));
+
+    checkFleetParameters(ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        TYPE.unwrap().getConfigKey(), TYPE_STRING,
+        FLEET_INSTANCE_TYPES.unwrap().getConfigKey(), "m4.large,m3.large"));
+    verifySingleError(FLEET_INSTANCE_TYPES, INVALID_FLEET_INSTANCE_TYPE_EPHEMERAL_MSG,
+        "m3.large", 1, TYPE_STRING, 0);
+  }
+
+  @Test
+  public void testValidateFleetParameters_FleetSubnetsWithSeparateEbs() {
+    checkFleetParameters(ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        FLEET_SUBNET_IDS.unwrap().getConfigKey(), "subnet-a,subnet-b",
+        ALLOCATE_EBS_SEPARATELY.unwrap().getConfigKey(), "true",
+        EBS_KMS_KEY_ID.unwrap().getConfigKey(), "some-kms-key"));
+    verifySingleError(FLEET_SUBNET_IDS, NO_FLEET_SUBNETS_WITH_SEPARATE_EBS_MSG);
+  }
+
+  @Test
+  public void testValidateFleetParameters_FleetSubnetsWithEbsInInstanceRequest() {
+    checkFleetParameters(ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        FLEET_SUBNET_IDS.unwrap().getConfigKey(), "subnet-a,subnet-b",
+        EBS_KMS_KEY_ID.unwrap().getConfigKey(), "some-kms-key"));
+    verifyClean();
+  }
+
   @Test
   public void testValidateEbsVolume() {
     String volumeType = "st1";
@@ -862,6 +1020,22 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     verifySingleError(EBS_KMS_KEY_ID, INVALID_KMS_NOT_FOUND_MESSAGE);
   }
 
+  @Test
+  public void testValidateEbsKms_KeyNotFoundIsCached() {
+    setMockEbsMetadata("st1", 1, 1000);
+    NotFoundException notFound = new NotFoundException("Key not found");
+    notFound.setErrorCode("NotFoundException");
+    when(kmsClient.describeKey(any(DescribeKeyRequest.class))).thenThrow(notFound);
+
+    checkEbsVolume("st1", "1", "500", Optional.<String>absent(), "true", Optional.of("invalid-key"));
+    verifySingleError(EBS_KMS_KEY_ID, INVALID_KMS_NOT_FOUND_MESSAGE);
+
+    accumulator = new PluginExceptionConditionAccumulator();
+    checkEbsVolume("st1", "1", "500", Optional.<String>absent(), "true", Optional.of("invalid-key"));
+    verifySingleError(EBS_KMS_KEY_ID, INVALID_KMS_NOT_FOUND_MESSAGE);
+    verify(kmsClient, times(1)).describeKey(any(DescribeKeyRequest.class));
+  }
+
   @Test
   public void testValidateEbsIOPS_IopsNotRequired() {
     setMockEbsMetadata("st1", 10, 10000);
@@ -994,6 +1168,21 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     validator.checkImage(ec2Client, configuration, accumulator, localizationContext);
   }
 
+  /**
+   * Invokes checkImage with the specified configuration.
+   *
+   * @param amiName             the image name
+   * @param type                the instance type
+   * @param additionalConfigMap additional configuration parameters
+   */
+  protected void checkImage(String amiName, String type, Map<String, String> additionalConfigMap) {
+    Map<String, String> configMap = Maps.newHashMap(additionalConfigMap);
+    configMap.put(IMAGE.unwrap().getConfigKey(), amiName);
+    configMap.put(TYPE.unwrap().getConfigKey(), type);
+    Configured configuration = new SimpleConfiguration(configMap);
+    validator.checkImage(ec2Client, configuration, accumulator, localizationContext);
+  }
+
   /**
    * Invokes checkAvailabilityZone with the specified configuration.
    *
@@ -1117,6 +1306,21 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     validator.checkSubnetId(ec2Client, configuration, accumulator, localizationContext);
   }
 
+  /**
+   * Invokes checkFleetSubnetIds with the specified configuration.
+   *
+   * @param fleetSubnetIds the comma-separated EC2 Fleet subnet IDs
+   * @return the vpc id to subnet id mapping of each EC2 Fleet subnet
+   */
+  protected List<Map<String, String>> checkFleetSubnetIds(String fleetSubnetIds) {
+    Map<String, String> configMap = Maps.newHashMap();
+    configMap.put(USE_EC2_FLEET.unwrap().getConfigKey(), "true");
+    configMap.put(FLEET_SUBNET_IDS.unwrap().getConfigKey(), fleetSubnetIds);
+    Configured configuration = new SimpleConfiguration(configMap);
+    return validator.checkFleetSubnetIds(ec2Client, configuration, accumulator,
+        localizationContext);
+  }
+
   /**
    * Invokes checkSpotParameters with the specified configuration.
    *
@@ -1161,6 +1365,16 @@ public class EC2InstanceTemplateConfigurationValidatorTest {
     validator.checkSpotParameters(configuration, accumulator, localizationContext);
   }
 
+  /**
+   * Invokes checkFleetParameters with the specified configuration.
+   *
+   * @param configMap the configuration parameters
+   */
+  protected void checkFleetParameters(Map<String, String> configMap) {
+    Configured configuration = new SimpleConfiguration(configMap);
+    validator.checkFleetParameters(configuration, accumulator, localizationContext);
+  }
+
   /**
    * Invokes checkUserData with the specified configuration.
    *
@@ -0,0 +1,191 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.provider;
+
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_INSTANCE_TYPES;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_ON_DEMAND_BASE_CAPACITY;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.FLEET_SUBNET_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SECURITY_GROUP_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SUBNET_ID;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.TYPE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_EC2_FLEET;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.USE_SPOT_INSTANCES;
+import static com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.AUTOMATIC;
+import static com.cloudera.director.spi.v2.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static com.cloudera.director.spi.v2.model.util.SimpleResourceTemplate.SimpleResourceTemplateConfigurationPropertyToken.GROUP_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.cloudera.director.aws.ec2.EC2Instance;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
+import com.cloudera.director.aws.test.fake.FakeAwsBehavior;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud;
+import com.cloudera.director.spi.v2.model.InstanceState;
+import com.cloudera.director.spi.v2.model.InstanceStatus;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests allocating, finding and deleting instances at scale with {@link EC2Provider} against a
+ * {@link FakeAwsCloud}, and checks the number of API calls each operation makes.
+ */
+public class EC2ProviderFakeAwsTest {
+
+  private FakeAwsCloud cloud;
+  private EC2Provider ec2Provider;
+
+  @Before
+  public void setUp() {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withLatencyMillis(1, 4)
+        .build());
+    ec2Provider = new EC2ProviderFixture(cloud).createEc2Provider();
+  }
+
+  @After
+  public void tearDown() {
+    cloud.close();
+  }
+
+  @Test
+  public void testOnDemandLifecycle() throws InterruptedException {
+    int count = 500;
+    EC2InstanceTemplate template = createTemplate(ImmutableMap.of());
+    List<String> virtualInstanceIds = newVirtualInstanceIds(count);
+
+    Collection<EC2Instance> instances = ec2Provider.allocate(template, virtualInstanceIds, count);
+    assertThat(instances).hasSize(count);
+    // Instances are launched in groups of 100, and then each instance is tagged together with
+    // its volumes
+    assertEquals(count / 100, cloud.getCallCount("RunInstances"));
+    assertEquals(count, cloud.getCallCount("CreateTags"));
+    assertEquals(count, cloud.getInstanceCount(InstanceStateName.Running));
+
+    assertThat(ec2Provider.find(template, virtualInstanceIds)).hasSize(count);
+
+    Map<String, InstanceState> instanceStates =
+        ec2Provider.getInstanceState(template, virtualInstanceIds);
+    assertThat(instanceStates).hasSize(count);
+    for (InstanceState instanceState : instanceStates.values()) {
+      assertEquals(InstanceStatus.RUNNING, instanceState.getInstanceStatus());
+    }
+
+    Map<String, Set<String>> hostKeyFingerprints =
+        ec2Provider.getHostKeyFingerprints(template, virtualInstanceIds);
+    assertThat(hostKeyFingerprints).hasSize(count);
+    assertEquals(count, cloud.getCallCount("GetConsoleOutput"));
+
+    ec2Provider.delete(template, virtualInstanceIds);
+    assertEquals(0, cloud.getInstanceCount(InstanceStateName.Running));
+    assertEquals(1, cloud.getCallCount("TerminateInstances"));
+  }
+
+  @Test
+  public void testSpotAllocation() throws InterruptedException {
+    int count = 50;
+    EC2InstanceTemplate template =
+        createTemplate(ImmutableMap.of(USE_SPOT_INSTANCES.unwrap().getConfigKey(), "true"));
+    List<String> virtualInstanceIds = newVirtualInstanceIds(count);
+
+    assertThat(ec2Provider.allocate(template, virtualInstanceIds, count)).hasSize(count);
+    assertEquals(count, cloud.getCallCount("RequestSpotInstances"));
+    assertEquals(count, cloud.getInstanceCount(InstanceStateName.Running));
+
+    ec2Provider.delete(template, virtualInstanceIds);
+    assertEquals(0, cloud.getInstanceCount(InstanceStateName.Running));
+  }
+
+  @Test
+  public void testFleetAllocation() throws InterruptedException {
+    int count = 200;
+    EC2InstanceTemplate template = createTemplate(ImmutableMap.of(
+        USE_EC2_FLEET.unwrap().getConfigKey(), "true",
+        USE_SPOT_INSTANCES.unwrap().getConfigKey(), "true",
+        FLEET_INSTANCE_TYPES.unwrap().getConfigKey(), "m5.xlarge,r4.xlarge",
+        FLEET_SUBNET_IDS.unwrap().getConfigKey(), "subnet-87654321",
+        FLEET_ON_DEMAND_BASE_CAPACITY.unwrap().getConfigKey(), "20"));
+    List<String> virtualInstanceIds = newVirtualInstanceIds(count);
+
+    assertThat(ec2Provider.allocate(template, virtualInstanceIds, count)).hasSize(count);
+    // The whole group is requested at once, and the fleet is deleted without its instances
+    assertEquals(1, cloud.getCallCount("CreateFleet"));
+    assertEquals(1, cloud.getCallCount("DeleteFleets"));
+    assertEquals(1, cloud.getCallCount("CreateLaunchTemplate"));
+    assertEquals(1, cloud.getCallCount("DeleteLaunchTemplate"));
+    assertEquals(count, cloud.getInstanceCount(InstanceStateName.Running));
+
+    assertThat(ec2Provider.find(template, virtualInstanceIds)).hasSize(count);
+
+    ec2Provider.delete(template, virtualInstanceIds);
+    assertEquals(0, cloud.getInstanceCount(InstanceStateName.Running));
+  }
+
+  @Test
+  public void testAutoScalingGroupAllocation() throws InterruptedException {
+    int count = 200;
+    String groupId = UUID.randomUUID().toString();
+    EC2InstanceTemplate template = createTemplate(ImmutableMap.of(
+        AUTOMATIC.unwrap().getConfigKey(), "true",
+        GROUP_ID.unwrap().getConfigKey(), groupId));
+
+    Collection<EC2Instance> instances =
+        ec2Provider.allocate(template, newVirtualInstanceIds(count), count);
+    assertThat(instances).hasSize(count);
+    assertEquals(1, cloud.getCallCount("CreateLaunchTemplate"));
+    assertEquals(1, cloud.getCallCount("CreateAutoScalingGroup"));
+
+    List<String> instanceIds = new ArrayList<>(count);
+    for (EC2Instance instance : instances) {
+      instanceIds.add(instance.getId());
+    }
+    ec2Provider.delete(template, instanceIds);
+    assertEquals(0, cloud.getInstanceCount(InstanceStateName.Running));
+    assertEquals(1, cloud.getCallCount("DeleteLaunchTemplate"));
+  }
+
+  private EC2InstanceTemplate createTemplate(Map<String, String> additionalConfig) {
+    Map<String, String> config = new HashMap<>();
+    config.put(INSTANCE_NAME_PREFIX.unwrap().getConfigKey(), "fake");
+    config.put(IMAGE.unwrap().getConfigKey(), "ami-12345678");
+    config.put(SECURITY_GROUP_IDS.unwrap().getConfigKey(), "sg-12345678");
+    config.put(SUBNET_ID.unwrap().getConfigKey(), "subnet-12345678");
+    config.put(TYPE.unwrap().getConfigKey(), EC2ProviderFixture.INSTANCE_TYPE);
+    config.putAll(additionalConfig);
+    return ec2Provider.createResourceTemplate("fake-template", new SimpleConfiguration(config),
+        ImmutableMap.of());
+  }
+
+  private static List<String> newVirtualInstanceIds(int count) {
+    List<String> virtualInstanceIds = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      virtualInstanceIds.add(UUID.randomUUID().toString());
+    }
+    return virtualInstanceIds;
+  }
+}
@@ -17,11 +17,14 @@ package com.cloudera.director.aws.ec2.provider;
 import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.IMPORT_KEY_PAIR_IF_MISSING;
 import static com.cloudera.director.aws.ec2.EC2ProviderConfigurationPropertyToken.KEY_NAME_PREFIX;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.CustomTagMappings;
 import com.cloudera.director.aws.clientprovider.ClientProvider;
@@ -35,15 +38,25 @@ import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2Asyn
 import com.cloudera.director.aws.shaded.com.amazonaws.services.identitymanagement.AmazonIdentityManagementClient;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.kms.AWSKMSClient;
 import com.cloudera.director.aws.shaded.com.google.common.base.Optional;
+import com.cloudera.director.aws.shaded.com.google.common.collect.ImmutableMap;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud;
 import com.cloudera.director.spi.v2.model.Configured;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
 import com.cloudera.director.spi.v2.model.util.DefaultLocalizationContext;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
 
+import java.util.Collections;
 import java.util.Locale;
 
 public class EC2ProviderFixture {
 
+  /**
+   * The only instance type known to the mappings of fixtures backed by a fake cloud.
+   */
+  public static final String INSTANCE_TYPE = "m4.xlarge";
+
   private Configured configured;
   private EphemeralDeviceMappings edMappings;
   private EBSDeviceMappings ebsMappings;
@@ -105,21 +118,61 @@ public class EC2ProviderFixture {
     when(timeouts.getTimeout(any(String.class))).thenReturn(Optional.<Long>absent());
   }
 
+  /**
+   * Creates a fixture whose clients talk to the specified fake cloud. Unlike the default
+   * fixture, it uses a real (spied) configuration, mappings, filters, timeouts and tag
+   * mappings, so that providers it creates behave as they would against AWS.
+   *
+   * @param cloud the fake cloud
+   */
+  @SuppressWarnings("unchecked")
+  public EC2ProviderFixture(FakeAwsCloud cloud) {
+    localizationContext = new DefaultLocalizationContext(Locale.US, "test");
+    configured = spy(new SimpleConfiguration());
+    edMappings = EphemeralDeviceMappings.getTestInstance(ImmutableMap.of(INSTANCE_TYPE, 0),
+        localizationContext);
+    ebsMappings = EBSDeviceMappings.getDefaultInstance(ImmutableMap.<String, String>of(),
+        localizationContext);
+    ebsMetadata = EBSMetadata.getDefaultInstance(ImmutableMap.of("st1", "500-16384"),
+        localizationContext);
+    vMappings = VirtualizationMappings.getTestInstance(
+        ImmutableMap.of("hvm", Collections.singletonList(INSTANCE_TYPE)), localizationContext);
+    filters = AWSFilters.EMPTY_FILTERS;
+    timeouts = new AWSTimeouts(null);
+    tagMappings = new CustomTagMappings(ConfigFactory.empty());
+    networkRules = NetworkRules.EMPTY_RULES;
+    ec2ClientProvider = mock(ClientProvider.class);
+    autoScalingClientProvider = mock(ClientProvider.class);
+    iamClientProvider = mock(ClientProvider.class);
+    kmsClientProvider = mock(ClientProvider.class);
+
+    ec2Client = cloud.newEC2Client();
+    when(ec2ClientProvider.getClient(eq(configured), any(PluginExceptionConditionAccumulator.class),
+        any(LocalizationContext.class), eq(false)))
+        .thenReturn(ec2Client);
+
+    autoScalingClient = cloud.newAutoScalingClient();
+    when(autoScalingClientProvider.getClient(eq(configured), any(PluginExceptionConditionAccumulator.class),
+        any(LocalizationContext.class), eq(false)))
+        .thenReturn(autoScalingClient);
+  }
+
   public EC2Provider createEc2Provider() {
     return createEc2Provider(false, null);
   }
 
   public EC2Provider createEc2Provider(boolean importKeyPairIfMissing, String keyNamePrefix) {
     if (importKeyPairIfMissing) {
-      when(configured.getConfigurationValue(eq(IMPORT_KEY_PAIR_IF_MISSING), any(LocalizationContext.class)))
-          .thenReturn("true");
+      doReturn("true").when(configured)
+          .getConfigurationValue(eq(IMPORT_KEY_PAIR_IF_MISSING), any(LocalizationContext.class));
     }
     if (keyNamePrefix != null) {
-      when(configured.getConfigurationValue(eq(KEY_NAME_PREFIX), any(LocalizationContext.class)))
-          .thenReturn(keyNamePrefix);
+      doReturn(keyNamePrefix).when(configured)
+          .getConfigurationValue(eq(KEY_NAME_PREFIX), any(LocalizationContext.class));
     }
     return new EC2Provider(configured, edMappings, ebsMappings, ebsMetadata, vMappings,
-                           filters, timeouts, tagMappings, networkRules,
+                           filters, timeouts, new AWSRequestLimits(null), tagMappings,
+                           networkRules,
                            ec2ClientProvider, autoScalingClientProvider, iamClientProvider,
                            kmsClientProvider, true, localizationContext);
   }
@@ -22,6 +22,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -80,6 +81,7 @@ public class EC2ProviderKeyPairTest {
   public void setUp() {
     fixture = new EC2ProviderFixture();
     provider = fixture.createEc2Provider();
+    provider.getKeyNameCache().invalidateAll();
   }
 
   @Test
@@ -166,6 +168,37 @@ public class EC2ProviderKeyPairTest {
     assertThat(request.getKeyName()).isEqualTo(expectedKeyName);
   }
 
+  @Test
+  public void testEnhanceTemplateConfigurationCachesKeyName() throws Exception {
+    Configured configured = fixture.getConfigured();
+    when(configured.getConfigurationValue(eq(SSH_JCE_PRIVATE_KEY), any(LocalizationContext.class)))
+        .thenReturn(privateKeyString);
+    when(configured.getConfigurationValue(eq(SSH_JCE_PUBLIC_KEY), any(LocalizationContext.class)))
+        .thenReturn(publicKeyString);
+    when(configured.getConfiguration(any(LocalizationContext.class))).thenReturn(new HashMap<String, String>());
+
+    AmazonEC2Client ec2Client = fixture.getAmazonEc2Client();
+    DescribeKeyPairsResult result = mock(DescribeKeyPairsResult.class);
+    when(ec2Client.describeKeyPairs(any(DescribeKeyPairsRequest.class))).thenReturn(result);
+    when(result.getKeyPairs()).thenReturn(ImmutableList.<KeyPairInfo>of());
+
+    provider = fixture.createEc2Provider(true, "unittest-");
+    String expectedKeyName = "unittest-" + publicKeyFingerprint;
+    for (int i = 0; i < 3; i++) {
+      Configured enhancedConfiguration =
+          provider.enhanceTemplateConfiguration("testTemplate", configured, mock(LocalizationContext.class));
+      assertThat(enhancedConfiguration.getConfiguration(fixture.getLocalizationContext()))
+          .containsEntry(KEY_NAME.unwrap().getConfigKey(), expectedKeyName);
+    }
+    verify(ec2Client, times(1)).describeKeyPairs(any(DescribeKeyPairsRequest.class));
+    verify(ec2Client, times(1)).importKeyPair(any(ImportKeyPairRequest.class));
+
+    // A key reported missing is resolved again
+    provider.getKeyNameCache().invalidateKeyName(expectedKeyName);
+    provider.enhanceTemplateConfiguration("testTemplate", configured, mock(LocalizationContext.class));
+    verify(ec2Client, times(2)).describeKeyPairs(any(DescribeKeyPairsRequest.class));
+  }
+
   @Test
   public void testImportMissingKeyPairNotConfigured() throws Exception {
     Configured configured = fixture.getConfigured();
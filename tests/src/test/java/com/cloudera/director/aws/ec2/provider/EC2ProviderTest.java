@@ -19,12 +19,15 @@ import static java.util.Objects.requireNonNull;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.hamcrest.MockitoHamcrest.argThat;
 
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.CustomTagMappings;
 import com.cloudera.director.aws.Tags;
@@ -32,18 +35,24 @@ import com.cloudera.director.aws.clientprovider.ClientProvider;
 import com.cloudera.director.aws.ec2.EphemeralDeviceMappings;
 import com.cloudera.director.aws.ec2.VirtualizationMappings;
 import com.cloudera.director.aws.ec2.allocation.IdType;
+import com.cloudera.director.aws.ec2.allocation.InstanceStartOutcome;
 import com.cloudera.director.aws.ec2.ebs.EBSDeviceMappings;
 import com.cloudera.director.aws.ec2.ebs.EBSMetadata;
 import com.cloudera.director.aws.network.NetworkRules;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.AmazonAutoScalingAsyncClient;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2AsyncClient;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceAttributeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceAttributeResult;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceStatusResult;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.GetConsoleOutputRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.GetConsoleOutputResult;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceAttribute;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceState;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
 import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStatus;
@@ -66,12 +75,16 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
@@ -164,6 +177,7 @@ public class EC2ProviderTest {
         virtualizationMappings,
         awsFilters,
         awsTimeouts,
+        new AWSRequestLimits(null),
         customTagMappings,
         NetworkRules.EMPTY_RULES,
         ec2ClientProvider,
@@ -281,6 +295,80 @@ public class EC2ProviderTest {
     assertThat(handledInstances).containsOnlyOnce(expectedInstances);
   }
 
+  @Test
+  public void testForEachInstanceStreamsPages() throws Exception {
+    // This test verifies that non-terminal instances are handed off as their page arrives,
+    // while terminal instances are held until every page has been seen, and that the most
+    // recently launched of several terminal instances is retained.
+
+    final List<Instance> handledInstances = Lists.newArrayList();
+    Function<Instance, Void> instanceHandler =
+        instance -> { handledInstances.add(instance); return null; };
+
+    String virtualInstanceTag = ec2Provider.ec2TagHelper.getClouderaDirectorIdTagName();
+
+    Instance olderTerminated = new Instance().withInstanceId("i-0001")
+        .withTags(new Tag(virtualInstanceTag, "vid-0001"))
+        .withState(new InstanceState().withName("terminated"))
+        .withLaunchTime(new Date(1000L));
+    Instance newerTerminated = new Instance().withInstanceId("i-0002")
+        .withTags(new Tag(virtualInstanceTag, "vid-0001"))
+        .withState(new InstanceState().withName("terminated"))
+        .withLaunchTime(new Date(2000L));
+    Instance running = new Instance().withInstanceId("i-0003")
+        .withTags(new Tag(virtualInstanceTag, "vid-0002"))
+        .withState(new InstanceState().withName("running"));
+
+    DescribeInstancesResult firstResult = new DescribeInstancesResult()
+        .withReservations(new Reservation().withInstances(newerTerminated))
+        .withNextToken("next");
+    DescribeInstancesResult secondResult = new DescribeInstancesResult()
+        .withReservations(new Reservation().withInstances(olderTerminated, running));
+
+    when(ec2Client.describeInstances(any(DescribeInstancesRequest.class)))
+        .thenReturn(firstResult, secondResult);
+
+    ec2Provider.allocationHelper.forEachInstance(ImmutableList.of("vid-0001", "vid-0002"),
+        instanceHandler, IdType.VIRTUAL_INSTANCE_ID);
+
+    assertThat(handledInstances).containsExactly(running, newerTerminated);
+  }
+
+  @Test
+  public void testForEachInstanceInConcurrentChunks() throws Exception {
+    // This test verifies that lookups spanning several chunks of virtual instance ids
+    // are merged into a single deduplicated set of instances.
+
+    final List<Instance> handledInstances = Collections.synchronizedList(Lists.<Instance>newArrayList());
+    Function<Instance, Void> instanceHandler =
+        instance -> { handledInstances.add(instance); return null; };
+
+    List<String> virtualInstanceIds = Lists.newArrayList();
+    for (int i = 0; i < 450; i++) {
+      virtualInstanceIds.add(String.format("vid-%04d", i));
+    }
+
+    final String virtualInstanceTag = ec2Provider.ec2TagHelper.getClouderaDirectorIdTagName();
+
+    when(ec2Client.describeInstances(any(DescribeInstancesRequest.class))).thenAnswer(invocation -> {
+      DescribeInstancesRequest request = invocation.getArgument(0);
+      List<Instance> instances = Lists.newArrayList();
+      for (String virtualInstanceId : request.getFilters().get(0).getValues()) {
+        instances.add(new Instance().withInstanceId("i-" + virtualInstanceId)
+            .withTags(new Tag(virtualInstanceTag, virtualInstanceId))
+            .withState(new InstanceState().withName("running")));
+      }
+      return new DescribeInstancesResult()
+          .withReservations(new Reservation().withInstances(instances));
+    });
+
+    ec2Provider.allocationHelper.forEachInstance(virtualInstanceIds, instanceHandler,
+        IdType.VIRTUAL_INSTANCE_ID);
+
+    assertThat(handledInstances.size()).isEqualTo(virtualInstanceIds.size());
+    verify(ec2Client, times(3)).describeInstances(any(DescribeInstancesRequest.class));
+  }
+
   @Test
   public void testForEachInstanceByResult() throws Exception {
     final List<Instance> handledInstances = Lists.newArrayList();
@@ -376,6 +464,35 @@ public class EC2ProviderTest {
         ec2InstanceId, DateTime.now().plus(1000L));
   }
 
+  @Test(timeout=10000L)
+  public void testWaitUntilInstancesHaveStarted() throws Exception {
+    DescribeInstanceStatusResult instanceStatusResult = new DescribeInstanceStatusResult()
+        .withInstanceStatuses(
+            new InstanceStatus()
+                .withInstanceId("i-running")
+                .withInstanceState(new InstanceState().withName(InstanceStateName.Running.toString())),
+            new InstanceStatus()
+                .withInstanceId("i-terminated")
+                .withInstanceState(new InstanceState().withName(InstanceStateName.Terminated.toString())),
+            new InstanceStatus()
+                .withInstanceId("i-pending")
+                .withInstanceState(new InstanceState().withName(InstanceStateName.Pending.toString())));
+    when(ec2Client.describeInstanceStatus(any(DescribeInstanceStatusRequest.class)))
+        .thenReturn(instanceStatusResult);
+
+    Map<String, InstanceStartOutcome> outcomes =
+        ec2Provider.allocationHelper.waitUntilInstancesHaveStarted(
+            ImmutableList.of("i-running", "i-terminated", "i-pending"), DateTime.now().plus(1000L));
+
+    assertThat(outcomes).isEqualTo(ImmutableMap.of(
+        "i-running", InstanceStartOutcome.STARTED,
+        "i-terminated", InstanceStartOutcome.TERMINATED,
+        "i-pending", InstanceStartOutcome.TIMED_OUT));
+    // all instances are polled together rather than one request per instance
+    verify(ec2Client, atLeast(1)).describeInstanceStatus(argThat(
+        hasInstanceIds("i-running", "i-terminated", "i-pending")));
+  }
+
   @Test
   public void testFind() throws Exception {
     Instance instance1 = new Instance()
@@ -460,6 +577,65 @@ public class EC2ProviderTest {
     assertThat(vidToInstances.isEmpty()).isTrue();
   }
 
+  @Test
+  public void testFillMissingPropertiesCachesSriovNetSupport() throws Exception {
+    when(ec2Client.describeInstanceAttribute(any(DescribeInstanceAttributeRequest.class)))
+        .thenReturn(new DescribeInstanceAttributeResult()
+            .withInstanceAttribute(new InstanceAttribute().withSriovNetSupport("simple")));
+
+    List<Instance> instances = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      Instance instance = new Instance()
+          .withInstanceId("i-000" + i)
+          .withImageId("ami-12345678")
+          .withInstanceType("c4.large");
+      ec2Provider.fillMissingProperties(instance);
+      instances.add(instance);
+    }
+
+    for (Instance instance : instances) {
+      assertThat(instance.getSriovNetSupport()).isEqualTo("simple");
+    }
+    // one lookup per image and instance type, rather than one per instance
+    verify(ec2Client, times(1)).describeInstanceAttribute(any(DescribeInstanceAttributeRequest.class));
+  }
+
+  @Test(timeout=10000L)
+  public void testGetHostKeyFingerprintsPollsInstancesIndependently() throws Exception {
+    String virtualInstanceTag = ec2Provider.ec2TagHelper.getClouderaDirectorIdTagName();
+    when(ec2Client.describeInstances(any(DescribeInstancesRequest.class)))
+        .thenReturn(new DescribeInstancesResult().withReservations(new Reservation().withInstances(
+            new Instance().withInstanceId("i-early")
+                .withTags(new Tag(virtualInstanceTag, "vid-early"))
+                .withState(new InstanceState().withName("running")),
+            new Instance().withInstanceId("i-late")
+                .withTags(new Tag(virtualInstanceTag, "vid-late"))
+                .withState(new InstanceState().withName("running")))));
+
+    String fingerprint = "6d:99:6d:f1:d5:42:42:68:f1:5b:40:e9:ff:30:82:38";
+    String consoleOutput = "ec2: -----BEGIN SSH HOST KEY FINGERPRINTS-----\n" +
+        "ec2: 1024 " + fingerprint + " /etc/ssh/ssh_host_dsa_key.pub (DSA)\n" +
+        "ec2: -----END SSH HOST KEY FINGERPRINTS-----\n";
+    GetConsoleOutputResult fingerprintsResult = new GetConsoleOutputResult()
+        .withOutput(BaseEncoding.base64().encode(consoleOutput.getBytes(StandardCharsets.UTF_8)));
+    when(ec2Client.getConsoleOutput(argThat(hasConsoleOutputInstanceId("i-early"))))
+        .thenReturn(fingerprintsResult);
+    when(ec2Client.getConsoleOutput(argThat(hasConsoleOutputInstanceId("i-late"))))
+        .thenReturn(new GetConsoleOutputResult(), fingerprintsResult);
+
+    Map<String, Set<String>> fingerprintsById =
+        ec2Provider.getHostKeyFingerprints(null, ImmutableList.of("vid-early", "vid-late"));
+
+    assertThat(fingerprintsById).containsOnlyKeys("vid-early", "vid-late");
+    assertThat(fingerprintsById.get("vid-early")).containsOnly(fingerprint);
+    assertThat(fingerprintsById.get("vid-late")).containsOnly(fingerprint);
+    // the instance whose console output is available first is not polled again
+    verify(ec2Client, times(1))
+        .getConsoleOutput(argThat(hasConsoleOutputInstanceId("i-early")));
+    verify(ec2Client, times(2))
+        .getConsoleOutput(argThat(hasConsoleOutputInstanceId("i-late")));
+  }
+
   @Test
   public void testFindEmpty() throws Exception {
     List<Map.Entry<String, Instance>> vidToInstances = Lists.newArrayList(ec2Provider.allocationHelper.doFind(
@@ -484,6 +660,43 @@ public class EC2ProviderTest {
     return new DescribeInstancesRequestTokenMatcher(nextToken);
   }
 
+  public static TypeSafeMatcher<GetConsoleOutputRequest> hasConsoleOutputInstanceId(String instanceId) {
+    return new TypeSafeMatcher<GetConsoleOutputRequest>() {
+      @Override
+      protected boolean matchesSafely(GetConsoleOutputRequest getConsoleOutputRequest) {
+        return instanceId.equals(getConsoleOutputRequest.getInstanceId());
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("instanceId should be ").appendValue(instanceId);
+      }
+    };
+  }
+
+  public static DescribeInstanceStatusRequestIdsMatcher hasInstanceIds(String... instanceIds) {
+    return new DescribeInstanceStatusRequestIdsMatcher(Arrays.asList(instanceIds));
+  }
+
+  public static class DescribeInstanceStatusRequestIdsMatcher
+      extends TypeSafeMatcher<DescribeInstanceStatusRequest> {
+    private final List<String> instanceIds;
+
+    public DescribeInstanceStatusRequestIdsMatcher(List<String> instanceIds) {
+      this.instanceIds = requireNonNull(instanceIds, "instanceIds is null");
+    }
+
+    @Override
+    protected boolean matchesSafely(DescribeInstanceStatusRequest describeInstanceStatusRequest) {
+      return describeInstanceStatusRequest.getInstanceIds().containsAll(instanceIds);
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("instanceIds should contain ").appendValue(instanceIds);
+    }
+  }
+
   public static class DescribeInstancesRequestTokenMatcher extends TypeSafeMatcher<DescribeInstancesRequest> {
     private final String nextToken;
 
@@ -0,0 +1,115 @@
+// (c) Copyright 2017 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.ratelimit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveTokenBucketTest {
+
+  private AtomicLong now;
+  private AdaptiveTokenBucket bucket;
+
+  @Before
+  public void setUp() {
+    now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    bucket = new AdaptiveTokenBucket(2, 10, now::get);
+  }
+
+  private void advanceMillis(long millis) {
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  @Test
+  public void testBurstThenRefillRate() {
+    assertThat(bucket.reserve()).isEqualTo(0);
+    assertThat(bucket.reserve()).isEqualTo(0);
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+
+    advanceMillis(200);
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  @Test
+  public void testRefillIsCappedAtCapacity() {
+    bucket.reserve();
+    bucket.reserve();
+    advanceMillis(10000);
+    assertThat(bucket.reserve()).isEqualTo(0);
+    assertThat(bucket.reserve()).isEqualTo(0);
+    assertThat(bucket.reserve()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testThrottleHalvesRateAndDropsTokens() {
+    bucket.onThrottle();
+    assertThat(bucket.getRatePerSecond()).isEqualTo(5.0);
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+
+    // Throttles of calls made before the decrease do not decrease the rate again
+    bucket.onThrottle();
+    assertThat(bucket.getRatePerSecond()).isEqualTo(5.0);
+
+    advanceMillis(1000);
+    bucket.onThrottle();
+    assertThat(bucket.getRatePerSecond()).isEqualTo(2.5);
+  }
+
+  @Test
+  public void testRateHasFloor() {
+    for (int i = 0; i < 10; i++) {
+      bucket.onThrottle();
+      advanceMillis(1000);
+    }
+    assertThat(bucket.getRatePerSecond()).isEqualTo(0.5);
+  }
+
+  @Test
+  public void testSuccessGrowsRateUpToMaximum() {
+    bucket.onThrottle();
+    for (int i = 0; i < 10; i++) {
+      bucket.onSuccess();
+    }
+    assertThat(bucket.getRatePerSecond()).isEqualTo(6.0, offset(1e-9));
+
+    for (int i = 0; i < 100; i++) {
+      bucket.onSuccess();
+    }
+    assertThat(bucket.getRatePerSecond()).isEqualTo(10.0);
+  }
+
+  @Test
+  public void testRateGrowsAboveInitialRateUpToMaximum() {
+    bucket = new AdaptiveTokenBucket(2, 10, 20, now::get);
+    assertThat(bucket.getRatePerSecond()).isEqualTo(10.0);
+
+    for (int i = 0; i < 100; i++) {
+      bucket.onSuccess();
+    }
+    assertThat(bucket.getRatePerSecond()).isEqualTo(20.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaximumRateBelowInitialRate() {
+    new AdaptiveTokenBucket(2, 10, 5, now::get);
+  }
+}
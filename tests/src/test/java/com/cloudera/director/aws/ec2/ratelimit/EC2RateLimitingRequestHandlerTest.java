@@ -0,0 +1,147 @@
+// (c) Copyright 2017 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.ec2.ratelimit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.aws.AWSRequestLimits;
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.DefaultRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.Request;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.google.common.collect.ImmutableMap;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Test;
+
+public class EC2RateLimitingRequestHandlerTest {
+
+  private static final String US_WEST_2 = "ec2.us-west-2.amazonaws.com";
+
+  private static Request<RunInstancesRequest> runInstances(String host) {
+    Request<RunInstancesRequest> request =
+        new DefaultRequest<>(new RunInstancesRequest(), "AmazonEC2");
+    request.setEndpoint(URI.create("https://" + host));
+    request.addParameter("Action", "RunInstances");
+    return request;
+  }
+
+  private static AmazonServiceException throttled() {
+    AmazonServiceException e = new AmazonServiceException("Request limit exceeded.");
+    e.setErrorCode("RequestLimitExceeded");
+    e.setStatusCode(503);
+    return e;
+  }
+
+  @Test
+  public void testActionCategories() {
+    assertThat(EC2ActionCategory.of("DescribeInstances")).isEqualTo(EC2ActionCategory.DESCRIBE);
+    assertThat(EC2ActionCategory.of("GetConsoleOutput")).isEqualTo(EC2ActionCategory.DESCRIBE);
+    assertThat(EC2ActionCategory.of("CreateTags")).isEqualTo(EC2ActionCategory.MUTATE);
+    assertThat(EC2ActionCategory.of("RunInstances")).isEqualTo(EC2ActionCategory.RUN_TERMINATE);
+    assertThat(EC2ActionCategory.of("TerminateInstances"))
+        .isEqualTo(EC2ActionCategory.RUN_TERMINATE);
+  }
+
+  @Test
+  public void testThrottlesSlowDownTheirRegionAndCategoryOnly() {
+    EC2RateLimitingRequestHandler handler = new EC2RateLimitingRequestHandler();
+    Request<RunInstancesRequest> request = runInstances(US_WEST_2);
+
+    handler.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+    handler.afterAttempt(HandlerAfterAttemptContext.builder()
+        .withRequest(request)
+        .withException(throttled())
+        .build());
+
+    double maxRate = EC2ActionCategory.RUN_TERMINATE.getRefillRatePerSecond();
+    assertThat(handler.getBucket(US_WEST_2, EC2ActionCategory.RUN_TERMINATE).getRatePerSecond())
+        .isEqualTo(maxRate / 2);
+    assertThat(handler.getBucket(US_WEST_2, EC2ActionCategory.DESCRIBE).getRatePerSecond())
+        .isEqualTo(EC2ActionCategory.DESCRIBE.getRefillRatePerSecond());
+    assertThat(handler.getBucket("ec2.us-east-1.amazonaws.com", EC2ActionCategory.RUN_TERMINATE)
+        .getRatePerSecond())
+        .isEqualTo(maxRate);
+  }
+
+  @Test
+  public void testErrorsOtherThanThrottlingDoNotChangeRate() {
+    EC2RateLimitingRequestHandler handler = new EC2RateLimitingRequestHandler();
+    Request<RunInstancesRequest> request = runInstances(US_WEST_2);
+    AmazonServiceException e = new AmazonServiceException("Capacity");
+    e.setErrorCode("InsufficientInstanceCapacity");
+    e.setStatusCode(500);
+
+    handler.afterAttempt(HandlerAfterAttemptContext.builder()
+        .withRequest(request)
+        .withException(e)
+        .build());
+
+    assertThat(handler.getBucket(US_WEST_2, EC2ActionCategory.RUN_TERMINATE).getRatePerSecond())
+        .isEqualTo(EC2ActionCategory.RUN_TERMINATE.getRefillRatePerSecond());
+  }
+
+  @Test
+  public void testRateLimitsAreConfigurable() {
+    AWSRequestLimits limits = new AWSRequestLimits(ConfigFactory.parseMap(
+        ImmutableMap.<String, Object>of(
+            "ec2.rateLimits.runTerminate.capacity", 10,
+            "ec2.rateLimits.runTerminate.initialRatePerSecond", 4,
+            "ec2.rateLimits.runTerminate.maxRatePerSecond", 8)));
+    EC2RateLimitingRequestHandler handler =
+        new EC2RateLimitingRequestHandler("scope", limits, new ConcurrentHashMap<>());
+    Request<RunInstancesRequest> request = runInstances(US_WEST_2);
+
+    AdaptiveTokenBucket bucket = handler.getBucket(US_WEST_2, EC2ActionCategory.RUN_TERMINATE);
+    assertThat(bucket.getRatePerSecond()).isEqualTo(4.0);
+    for (int i = 0; i < 200; i++) {
+      handler.afterAttempt(HandlerAfterAttemptContext.builder().withRequest(request).build());
+    }
+    assertThat(bucket.getRatePerSecond()).isEqualTo(8.0);
+    assertThat(handler.getBucket(US_WEST_2, EC2ActionCategory.DESCRIBE).getRatePerSecond())
+        .isEqualTo(EC2ActionCategory.DESCRIBE.getRefillRatePerSecond());
+  }
+
+  @Test
+  public void testBucketsAreSharedPerCredentialsScope() {
+    ConcurrentMap<String, AdaptiveTokenBucket> buckets = new ConcurrentHashMap<>();
+    AWSRequestLimits limits = new AWSRequestLimits(null);
+    EC2RateLimitingRequestHandler handler =
+        new EC2RateLimitingRequestHandler("scope", limits, buckets);
+    EC2RateLimitingRequestHandler sameAccount =
+        new EC2RateLimitingRequestHandler("scope", limits, buckets);
+    EC2RateLimitingRequestHandler otherAccount =
+        new EC2RateLimitingRequestHandler("other-scope", limits, buckets);
+
+    handler.afterAttempt(HandlerAfterAttemptContext.builder()
+        .withRequest(runInstances(US_WEST_2))
+        .withException(throttled())
+        .build());
+
+    double maxRate = EC2ActionCategory.RUN_TERMINATE.getRefillRatePerSecond();
+    assertThat(sameAccount.getBucket(US_WEST_2, EC2ActionCategory.RUN_TERMINATE)
+        .getRatePerSecond())
+        .isEqualTo(maxRate / 2);
+    assertThat(otherAccount.getBucket(US_WEST_2, EC2ActionCategory.RUN_TERMINATE)
+        .getRatePerSecond())
+        .isEqualTo(maxRate);
+  }
+}
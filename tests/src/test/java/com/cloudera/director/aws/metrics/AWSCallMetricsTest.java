@@ -0,0 +1,142 @@
+// (c) Copyright 2017 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2AsyncClient;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class AWSCallMetricsTest {
+
+  private static AmazonServiceException serviceException(String errorCode, int statusCode) {
+    AmazonServiceException e = new AmazonServiceException(errorCode);
+    e.setErrorCode(errorCode);
+    e.setStatusCode(statusCode);
+    return e;
+  }
+
+  @Test
+  public void testRecordCalls() {
+    AWSCallMetrics callMetrics = new AWSCallMetrics(false);
+    OperationMetrics metrics = callMetrics.getOperationMetrics("ec2", "DescribeInstances");
+    assertThat(callMetrics.getOperationMetrics("ec2", "DescribeInstances")).isSameAs(metrics);
+
+    metrics.recordSuccess(TimeUnit.MILLISECONDS.toNanos(3));
+    metrics.recordSuccess(TimeUnit.MILLISECONDS.toNanos(7));
+    metrics.recordFailure(TimeUnit.MILLISECONDS.toNanos(40),
+        serviceException("InvalidInstanceID.NotFound", 400));
+    metrics.recordFailure(TimeUnit.MILLISECONDS.toNanos(40),
+        serviceException("RequestLimitExceeded", 503));
+    metrics.recordFailure(TimeUnit.MILLISECONDS.toNanos(40), new IllegalStateException());
+    metrics.recordUntimedCall();
+    metrics.recordRetry(serviceException("RequestLimitExceeded", 503));
+    metrics.recordRetry(serviceException("InternalError", 500));
+    metrics.recordBytes(100, 1000);
+    metrics.recordBytes(50, 0);
+    metrics.recordThrottle();
+
+    OperationMetricsSnapshot snapshot = metrics.snapshot();
+    assertThat(snapshot.getCalls()).isEqualTo(6);
+    assertThat(snapshot.getErrors()).isEqualTo(3);
+    assertThat(snapshot.getErrorsByCode()).isEqualTo(ImmutableMap.of(
+        "IllegalStateException", 1L,
+        "InvalidInstanceID.NotFound", 1L,
+        "RequestLimitExceeded", 1L));
+    // Only throttled attempts count, not the failures and retries that they cause
+    assertThat(snapshot.getThrottles()).isEqualTo(1);
+    assertThat(snapshot.getRetries()).isEqualTo(2);
+    assertThat(snapshot.getBytesSent()).isEqualTo(150);
+    assertThat(snapshot.getBytesReceived()).isEqualTo(1000);
+    assertThat(snapshot.getMeanLatencyMillis()).isEqualTo(26.0);
+    assertThat(snapshot.getMaxLatencyMillis()).isEqualTo(40.0);
+  }
+
+  @Test
+  public void testLatencyPercentiles() {
+    OperationMetrics metrics = new AWSCallMetrics(false).getOperationMetrics("ec2", "RunInstances");
+    assertThat(metrics.getP50LatencyMillis()).isEqualTo(0.0);
+
+    for (int i = 0; i < 98; i++) {
+      metrics.recordSuccess(TimeUnit.MICROSECONDS.toNanos(1500));
+    }
+    metrics.recordSuccess(TimeUnit.MILLISECONDS.toNanos(150));
+    metrics.recordSuccess(TimeUnit.MILLISECONDS.toNanos(150));
+
+    // Percentiles are reported as the upper bound of their bucket, capped at the maximum
+    assertThat(metrics.getP50LatencyMillis()).isEqualTo(2.0);
+    assertThat(metrics.getP90LatencyMillis()).isEqualTo(2.0);
+    assertThat(metrics.getP99LatencyMillis()).isEqualTo(150.0);
+    assertThat(metrics.getMaxLatencyMillis()).isEqualTo(150.0);
+  }
+
+  @Test
+  public void testOperationOfRequest() {
+    AWSCallMetrics callMetrics = new AWSCallMetrics(false);
+    OperationMetrics metrics = callMetrics.getOperationMetrics(new DescribeInstancesRequest());
+    assertThat(metrics.getService()).isEqualTo("ec2");
+    assertThat(metrics.getOperation()).isEqualTo("DescribeInstances");
+    assertThat(AWSCallMetrics.getServiceName(AmazonEC2AsyncClient.class)).isEqualTo("ec2");
+  }
+
+  @Test
+  public void testSnapshot() {
+    AWSCallMetrics callMetrics = new AWSCallMetrics(false);
+    callMetrics.getOperationMetrics("rds", "DescribeDBInstances").recordUntimedCall();
+    callMetrics.getOperationMetrics("ec2", "RunInstances").recordUntimedCall();
+    callMetrics.getOperationMetrics("ec2", "CreateTags");
+
+    SortedMap<String, OperationMetricsSnapshot> snapshot = callMetrics.snapshot();
+    assertThat(snapshot.keySet())
+        .containsExactly("ec2:CreateTags", "ec2:RunInstances", "rds:DescribeDBInstances");
+    assertThat(snapshot.get("ec2:RunInstances").getCalls()).isEqualTo(1);
+    assertThat(snapshot.get("ec2:CreateTags").getCalls()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRegisterMXBean() throws Exception {
+    String service = "test" + UUID.randomUUID().toString().replace("-", "");
+    OperationMetrics metrics =
+        new AWSCallMetrics(true).getOperationMetrics(service, "DescribeInstances");
+    metrics.recordFailure(0, serviceException("Throttling", 400));
+
+    Hashtable<String, String> properties = new Hashtable<>();
+    properties.put("type", AWSCallMetrics.JMX_TYPE);
+    properties.put("service", service);
+    properties.put("operation", "DescribeInstances");
+    ObjectName name = new ObjectName(AWSCallMetrics.JMX_DOMAIN, properties);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      assertThat(server.getAttribute(name, "Calls")).isEqualTo(1L);
+      assertThat(server.getAttribute(name, "Throttles")).isEqualTo(1L);
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
@@ -222,4 +222,45 @@ public class CidrBlockTest {
     Set<CidrBlock> blockSet = Sets.newHashSet(block1, block2);
     assertTrue(blockSet.size() == 1);
   }
+
+  @Test
+  public void testOverlapsIpV4() {
+    CidrBlock block = CidrBlock.fromString("10.0.0.0/16");
+    CidrBlock subBlock = CidrBlock.fromString("10.0.128.0/17");
+    CidrBlock disjointBlock = CidrBlock.fromString("10.1.0.0/16");
+    assertTrue(block.overlaps(subBlock));
+    assertTrue(subBlock.overlaps(block));
+    assertFalse(block.overlaps(disjointBlock));
+    assertFalse(disjointBlock.overlaps(subBlock));
+    assertTrue(CidrBlock.fromString("0.0.0.0/0").overlaps(disjointBlock));
+  }
+
+  @Test
+  public void testOverlapsIpV6() {
+    CidrBlock block = CidrBlock.fromString("2001:DB8:AC10:FE01::/64");
+    CidrBlock subBlock = CidrBlock.fromString("2001:DB8:AC10:FE01:2AC::/80");
+    CidrBlock disjointBlock = CidrBlock.fromString("2001:DB8:AC10:FE02::/64");
+    assertTrue(block.overlaps(subBlock));
+    assertTrue(subBlock.overlaps(block));
+    assertFalse(disjointBlock.overlaps(subBlock));
+    assertTrue(CidrBlock.fromString("::/0").overlaps(disjointBlock));
+  }
+
+  @Test
+  public void testMixedAddressFamilies() {
+    CidrBlock ipv4Block = CidrBlock.fromString("0.0.0.0/0");
+    CidrBlock ipv6Block = CidrBlock.fromString("::/0");
+    assertFalse(ipv4Block.contains(ipv6Block));
+    assertFalse(ipv6Block.overlaps(ipv4Block));
+    assertFalse(ipv4Block.contains(InetAddresses.forString("::1")));
+    assertFalse(ipv6Block.contains(InetAddresses.forString("1.2.3.4")));
+    assertFalse(ipv4Block.equals(ipv6Block));
+  }
+
+  @Test
+  public void testFromStringInternsBlocks() {
+    CidrBlock block = CidrBlock.fromString("172.31.0.0/16");
+    assertTrue(block == CidrBlock.fromString(new String("172.31.0.0/16")));
+    assertEquals("172.31.0.0/16", block.toString());
+  }
 }
@@ -0,0 +1,132 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudera.director.aws.shaded.com.google.common.collect.Range;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link NetworkRuleIndex}.
+ */
+public class NetworkRuleIndexTest {
+
+  private static final String[] PROTOCOLS = {"-1", "tcp", "udp", "6", "17", "icmp"};
+
+  @Test
+  public void testEmptyIndex() {
+    assertTrue(NetworkRuleIndex.EMPTY_INDEX.isEmpty());
+    assertTrue(NetworkRuleIndex.EMPTY_INDEX.getEnforcedRules("tcp", Range.singleton(22),
+        ImmutableList.of("0.0.0.0/0"), AccessType.ALLOW).isEmpty());
+  }
+
+  @Test
+  public void testEnforcedAndViolatedRules() {
+    NetworkRule allowSsh = Iterables.getOnlyElement(
+        rules("tcp", 22, "10.0.0.0/16", AccessType.ALLOW));
+    NetworkRule denyAll = Iterables.getOnlyElement(
+        rules("-1", -1, "10.0.1.0/24", AccessType.DENY));
+    NetworkRuleIndex index = NetworkRuleIndex.of(ImmutableList.of(allowSsh, denyAll));
+    assertEquals(2, index.size());
+
+    List<String> ipRanges = ImmutableList.of("10.0.0.0/8");
+    assertEquals(Sets.newHashSet(allowSsh),
+        index.getEnforcedRules("tcp", Range.closed(20, 30), ipRanges, AccessType.ALLOW));
+    assertTrue(index.getEnforcedRules("tcp", Range.closed(23, 30), ipRanges, AccessType.ALLOW)
+        .isEmpty());
+    assertEquals(Sets.newHashSet(denyAll),
+        index.getViolatedRules("udp", Range.singleton(53), ipRanges, AccessType.ALLOW));
+    assertTrue(index.getViolatedRules("udp", Range.singleton(53),
+        ImmutableList.of("10.1.0.0/16"), AccessType.ALLOW).isEmpty());
+  }
+
+  @Test
+  public void testMatchesRuleChecks() {
+    Random random = new Random(42L);
+    List<NetworkRule> rules = Lists.newArrayList();
+    for (int i = 0; i < 200; i++) {
+      String protocol = PROTOCOLS[random.nextInt(3)];
+      int port = random.nextInt(4) == 0 ? -1 : random.nextInt(100);
+      AccessType access = AccessType.values()[random.nextInt(AccessType.values().length)];
+      Iterables.addAll(rules, rules(protocol, port, randomCidr(random), access));
+    }
+    NetworkRuleIndex index = NetworkRuleIndex.of(rules);
+
+    for (int i = 0; i < 2000; i++) {
+      String protocol = PROTOCOLS[random.nextInt(PROTOCOLS.length)];
+      Range<Integer> ports = randomPortRange(random);
+      List<String> ipRanges = ImmutableList.of(randomCidr(random), randomCidr(random));
+      AccessType access = AccessType.values()[random.nextInt(AccessType.values().length)];
+
+      Set<NetworkRule> expectedEnforced = Sets.newHashSet();
+      Set<NetworkRule> expectedViolated = Sets.newHashSet();
+      for (NetworkRule rule : rules) {
+        if (rule.isEnforced(protocol, ports, ipRanges, access)) {
+          expectedEnforced.add(rule);
+        }
+        if (ports != null && rule.isViolated(protocol, ports, ipRanges, access)) {
+          expectedViolated.add(rule);
+        }
+      }
+      assertEquals(expectedEnforced, index.getEnforcedRules(protocol, ports, ipRanges, access));
+      if (ports != null) {
+        assertEquals(expectedViolated, index.getViolatedRules(protocol, ports, ipRanges, access));
+      }
+    }
+  }
+
+  private static Iterable<NetworkRule> rules(String protocol, int port, String ipRange,
+      AccessType access) {
+    Map<String, Object> config = ImmutableMap.of(
+        "protocol", protocol, "port", port, "ipRanges", ImmutableList.of(ipRange));
+    return NetworkRule.fromConfig(ConfigFactory.parseMap(config), access);
+  }
+
+  private static String randomCidr(Random random) {
+    if (random.nextInt(5) == 0) {
+      return String.format("2001:db8:%x::/%d", random.nextInt(4), 30 + random.nextInt(40));
+    }
+    return String.format("10.%d.%d.0/%d",
+        random.nextInt(4), random.nextInt(4), 8 + random.nextInt(25));
+  }
+
+  private static Range<Integer> randomPortRange(Random random) {
+    switch (random.nextInt(5)) {
+      case 0:
+        return null;
+      case 1:
+        return Range.singleton(-1);
+      case 2:
+        return Range.singleton(random.nextInt(100));
+      default:
+        int from = random.nextInt(100);
+        return Range.closed(from, from + random.nextInt(30));
+    }
+  }
+}
@@ -24,6 +24,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.cloudera.director.aws.AWSClientConfig;
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.CustomTagMappings;
 import com.cloudera.director.aws.STSRoles;
@@ -127,7 +128,8 @@ public class AWSProviderTest {
         configuration, ephemeralDeviceMappings, ebsDeviceMappings, ebsMetadata,
         virtualizationMappings, rdsEndpoints,
         rdsEncryptionInstanceClasses, awsClientConfig,
-        awsFilters, awsTimeouts, customTagMappings, NetworkRules.EMPTY_RULES,
+        awsFilters, awsTimeouts, new AWSRequestLimits(null), customTagMappings,
+        NetworkRules.EMPTY_RULES,
         STSRoles.DEFAULT, true, cloudLocalizationContext);
     assertSame(awsProviderMetadata, awsProvider.getProviderMetadata());
 
@@ -15,6 +15,7 @@
 package com.cloudera.director.aws.test;
 
 import com.cloudera.director.aws.AWSFilters;
+import com.cloudera.director.aws.AWSRequestLimits;
 import com.cloudera.director.aws.AWSTimeouts;
 import com.cloudera.director.aws.CustomTagMappings;
 import com.cloudera.director.aws.Tags;
@@ -172,7 +173,8 @@ public class EC2ProviderCommon {
   public static EC2Provider getEc2Provider(Configured configuration,
                                            AWSCredentialsProvider credentialsProvider) {
     return getEc2Provider(configuration, credentialsProvider,
-        new AmazonEC2ClientProvider(credentialsProvider, new ClientConfigurationFactory().getConfig()));
+        new AmazonEC2ClientProvider(credentialsProvider, new ClientConfigurationFactory().getConfig(),
+            new AWSRequestLimits(null)));
   }
 
   /**
@@ -219,6 +221,7 @@ public class EC2ProviderCommon {
         virtualizationMappings,
         awsFilters,
         awsTimeouts,
+        new AWSRequestLimits(null),
         customTagMappings,
         NetworkRules.EMPTY_RULES,
         amazonEC2ClientProvider,
@@ -0,0 +1,279 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.fake;
+
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.AUTO_SCALING_SERVICE;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.fill;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.newServiceException;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.ClientConfiguration;
+import com.cloudera.director.aws.shaded.com.amazonaws.auth.AnonymousAWSCredentials;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.AsyncHandler;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.AmazonAutoScalingAsyncClient;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.AlreadyExistsException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.AutoScalingGroup;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.CreateAutoScalingGroupRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.CreateAutoScalingGroupResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.DeleteAutoScalingGroupRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.DeleteAutoScalingGroupResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.LaunchTemplateSpecification;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.ResourceInUseException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.SuspendProcessesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.SuspendProcessesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.SuspendedProcess;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.Tag;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.autoscaling.model.TagDescription;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.FakeAutoScalingGroup;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.FakeInstance;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.LaunchSpec;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.Operation;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.Page;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * A fake Auto Scaling client backed by a {@link FakeAwsCloud}. Groups launch their desired
+ * capacity from an EC2 launch template created with the fake EC2 client of the same cloud.
+ * Operations that are not implemented fail fast without reaching AWS.
+ */
+public class FakeAmazonAutoScalingAsyncClient extends AmazonAutoScalingAsyncClient {
+
+  private final FakeAwsCloud cloud;
+
+  /**
+   * Creates a fake Auto Scaling client backed by the specified cloud.
+   *
+   * @param cloud the cloud
+   */
+  @SuppressWarnings("deprecation")
+  FakeAmazonAutoScalingAsyncClient(FakeAwsCloud cloud) {
+    super(new AnonymousAWSCredentials(), new ClientConfiguration(),
+        cloud.getAsyncExecutor());
+    this.cloud = cloud;
+    FakeAwsCloud.isolate(this);
+  }
+
+  public FakeAwsCloud getCloud() {
+    return cloud;
+  }
+
+  /**
+   * Does nothing, since the executor of asynchronous calls is shared by the clients of the
+   * cloud and is shut down by closing the cloud.
+   */
+  @Override
+  public void shutdown() {
+  }
+
+  @Override
+  public CreateAutoScalingGroupResult createAutoScalingGroup(
+      CreateAutoScalingGroupRequest request) {
+    return call("CreateAutoScalingGroup", now -> {
+      String name = request.getAutoScalingGroupName();
+      if (cloud.autoScalingGroups.containsKey(name)) {
+        throw fill(new AlreadyExistsException("AutoScalingGroup by this name already exists"),
+            AUTO_SCALING_SERVICE, "AlreadyExists");
+      }
+      LaunchTemplateSpecification launchTemplate = request.getLaunchTemplate();
+      LaunchSpec templateSpec = (launchTemplate == null)
+          ? null : cloud.launchTemplates.get(launchTemplate.getLaunchTemplateName());
+      if (templateSpec == null) {
+        throw error("ValidationError", "The specified launch template does not exist.");
+      }
+      int minSize = request.getMinSize();
+      int maxSize = request.getMaxSize();
+      int desiredCapacity = (request.getDesiredCapacity() == null)
+          ? minSize : request.getDesiredCapacity();
+      if (minSize < 0 || minSize > desiredCapacity || desiredCapacity > maxSize) {
+        throw error("ValidationError", "Desired capacity:" + desiredCapacity
+            + " must be between the specified min size:" + minSize + " and max size:" + maxSize);
+      }
+
+      LaunchSpec spec = new LaunchSpec();
+      spec.imageId = templateSpec.imageId;
+      spec.instanceType = templateSpec.instanceType;
+      spec.keyName = templateSpec.keyName;
+      spec.ebsOptimized = templateSpec.ebsOptimized;
+      spec.securityGroupIds = templateSpec.securityGroupIds;
+      spec.blockDeviceMappings = templateSpec.blockDeviceMappings;
+      spec.subnetId = (request.getVPCZoneIdentifier() == null)
+          ? templateSpec.subnetId : request.getVPCZoneIdentifier().split(",")[0].trim();
+      spec.availabilityZone = request.getAvailabilityZones().isEmpty()
+          ? templateSpec.availabilityZone : request.getAvailabilityZones().get(0);
+      spec.placementGroup = (request.getPlacementGroup() == null)
+          ? templateSpec.placementGroup : request.getPlacementGroup();
+
+      FakeAutoScalingGroup group = new FakeAutoScalingGroup(name,
+          launchTemplate.getLaunchTemplateName(), spec, minSize, maxSize, desiredCapacity, now);
+      for (Tag tag : request.getTags()) {
+        if (Boolean.TRUE.equals(tag.getPropagateAtLaunch())) {
+          group.tags.put(tag.getKey(), (tag.getValue() == null) ? "" : tag.getValue());
+        }
+      }
+      cloud.autoScalingGroups.put(name, group);
+      return new CreateAutoScalingGroupResult();
+    });
+  }
+
+  @Override
+  public Future<CreateAutoScalingGroupResult> createAutoScalingGroupAsync(
+      CreateAutoScalingGroupRequest request,
+      AsyncHandler<CreateAutoScalingGroupRequest, CreateAutoScalingGroupResult> handler) {
+    return cloud.callAsync(request, handler, () -> createAutoScalingGroup(request));
+  }
+
+  @Override
+  public DescribeAutoScalingGroupsResult describeAutoScalingGroups(
+      DescribeAutoScalingGroupsRequest request) {
+    return call("DescribeAutoScalingGroups", now -> {
+      Page page = cloud.paginate(AUTO_SCALING_SERVICE, request.getNextToken(),
+          request.getMaxRecords(), () -> {
+            List<String> names = new ArrayList<>();
+            for (FakeAutoScalingGroup group : cloud.autoScalingGroups.values()) {
+              if (request.getAutoScalingGroupNames().isEmpty()
+                  || request.getAutoScalingGroupNames().contains(group.name)) {
+                names.add(group.name);
+              }
+            }
+            return names;
+          });
+
+      List<AutoScalingGroup> groups = new ArrayList<>(page.ids.size());
+      for (String name : page.ids) {
+        groups.add(toAutoScalingGroup(cloud.autoScalingGroups.get(name), now));
+      }
+      return new DescribeAutoScalingGroupsResult()
+          .withAutoScalingGroups(groups)
+          .withNextToken(page.nextToken);
+    });
+  }
+
+  @Override
+  public Future<DescribeAutoScalingGroupsResult> describeAutoScalingGroupsAsync(
+      DescribeAutoScalingGroupsRequest request,
+      AsyncHandler<DescribeAutoScalingGroupsRequest, DescribeAutoScalingGroupsResult> handler) {
+    return cloud.callAsync(request, handler, () -> describeAutoScalingGroups(request));
+  }
+
+  @Override
+  public DeleteAutoScalingGroupResult deleteAutoScalingGroup(
+      DeleteAutoScalingGroupRequest request) {
+    return call("DeleteAutoScalingGroup", now -> {
+      FakeAutoScalingGroup group = getGroup(request.getAutoScalingGroupName());
+      List<String> activeInstanceIds = group.getActiveInstanceIds(cloud, now);
+      if (!activeInstanceIds.isEmpty() && !Boolean.TRUE.equals(request.getForceDelete())) {
+        throw fill(new ResourceInUseException("You cannot delete an AutoScalingGroup while there"
+            + " are instances or pending Spot instance request(s) still in the group."),
+            AUTO_SCALING_SERVICE, "ResourceInUse");
+      }
+      for (String instanceId : activeInstanceIds) {
+        cloud.terminateInstance(cloud.instances.get(instanceId), now);
+      }
+      cloud.autoScalingGroups.remove(group.name);
+      return new DeleteAutoScalingGroupResult();
+    });
+  }
+
+  @Override
+  public Future<DeleteAutoScalingGroupResult> deleteAutoScalingGroupAsync(
+      DeleteAutoScalingGroupRequest request,
+      AsyncHandler<DeleteAutoScalingGroupRequest, DeleteAutoScalingGroupResult> handler) {
+    return cloud.callAsync(request, handler, () -> deleteAutoScalingGroup(request));
+  }
+
+  @Override
+  public SuspendProcessesResult suspendProcesses(SuspendProcessesRequest request) {
+    return call("SuspendProcesses", now -> {
+      FakeAutoScalingGroup group = getGroup(request.getAutoScalingGroupName());
+      group.suspendedProcesses.addAll(request.getScalingProcesses());
+      return new SuspendProcessesResult();
+    });
+  }
+
+  @Override
+  public Future<SuspendProcessesResult> suspendProcessesAsync(SuspendProcessesRequest request,
+      AsyncHandler<SuspendProcessesRequest, SuspendProcessesResult> handler) {
+    return cloud.callAsync(request, handler, () -> suspendProcesses(request));
+  }
+
+  private <T> T call(String action, Operation<T> operation) {
+    return cloud.call(AUTO_SCALING_SERVICE, action, operation);
+  }
+
+  private static AmazonServiceException error(String errorCode, String message) {
+    return newServiceException(AUTO_SCALING_SERVICE, errorCode, message);
+  }
+
+  private FakeAutoScalingGroup getGroup(String name) {
+    FakeAutoScalingGroup group = cloud.autoScalingGroups.get(name);
+    if (group == null) {
+      throw error("ValidationError", "AutoScalingGroup name not found - " + name);
+    }
+    return group;
+  }
+
+  private AutoScalingGroup toAutoScalingGroup(FakeAutoScalingGroup group, long now) {
+    List<Instance> instances = new ArrayList<>();
+    for (String instanceId : group.getActiveInstanceIds(cloud, now)) {
+      FakeInstance instance = cloud.instances.get(instanceId);
+      instances.add(new Instance()
+          .withInstanceId(instance.id)
+          .withAvailabilityZone(instance.availabilityZone)
+          .withLifecycleState(instance.getState(now) == InstanceStateName.Running
+              ? "InService" : "Pending")
+          .withHealthStatus("Healthy")
+          .withLaunchTemplate(new LaunchTemplateSpecification()
+              .withLaunchTemplateName(group.launchTemplateName))
+          .withProtectedFromScaleIn(false));
+    }
+    List<SuspendedProcess> suspendedProcesses = new ArrayList<>();
+    for (String processName : group.suspendedProcesses) {
+      suspendedProcesses.add(new SuspendedProcess()
+          .withProcessName(processName)
+          .withSuspensionReason("User suspended"));
+    }
+    List<TagDescription> tags = new ArrayList<>();
+    for (Map.Entry<String, String> tag : group.tags.entrySet()) {
+      tags.add(new TagDescription()
+          .withResourceType("auto-scaling-group")
+          .withResourceId(group.name)
+          .withKey(tag.getKey())
+          .withValue(tag.getValue())
+          .withPropagateAtLaunch(true));
+    }
+    return new AutoScalingGroup()
+        .withAutoScalingGroupName(group.name)
+        .withLaunchTemplate(new LaunchTemplateSpecification()
+            .withLaunchTemplateName(group.launchTemplateName))
+        .withMinSize(group.minSize)
+        .withMaxSize(group.maxSize)
+        .withDesiredCapacity(group.desiredCapacity)
+        .withVPCZoneIdentifier(group.launchSpec.subnetId)
+        .withPlacementGroup(group.launchSpec.placementGroup)
+        .withCreatedTime(new Date(group.createdAt))
+        .withInstances(instances)
+        .withSuspendedProcesses(suspendedProcesses)
+        .withTags(tags);
+  }
+}
@@ -0,0 +1,1577 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.fake;
+
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.EC2_SERVICE;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.ROOT_DEVICE_NAME;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.ROOT_VOLUME_SIZE_GIB;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.VPC_ID;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.newServiceException;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.ClientConfiguration;
+import com.cloudera.director.aws.shaded.com.amazonaws.auth.AnonymousAWSCredentials;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.AsyncHandler;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.AmazonEC2AsyncClient;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.ActiveInstance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.AttachVolumeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.AttachVolumeResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.AvailabilityZone;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CancelSpotInstanceRequestsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CancelSpotInstanceRequestsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CancelledSpotInstanceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateFleetRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateFleetResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateLaunchTemplateRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateLaunchTemplateResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateVolumeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateVolumeResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetError;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetErrorCode;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetErrorItem;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetSuccessItem;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteFleetsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteLaunchTemplateRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteLaunchTemplateResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteVolumeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DeleteVolumeResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeAvailabilityZonesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeAvailabilityZonesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeFleetInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeFleetInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceAttributeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceAttributeResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceStatusResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeKeyPairsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeKeyPairsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeNetworkAclsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeNetworkAclsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribePlacementGroupsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribePlacementGroupsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeSecurityGroupsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeSpotInstanceRequestsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeSubnetsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeSubnetsResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeVolumesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DetachVolumeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DetachVolumeResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.EbsInstanceBlockDevice;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Filter;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetLaunchTemplateConfigRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetLaunchTemplateOverridesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.FleetStateCode;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.GetConsoleOutputRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.GetConsoleOutputResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.GroupIdentifier;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Image;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.ImportKeyPairRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.ImportKeyPairResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceAttribute;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceAttributeName;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceBlockDeviceMapping;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceBlockDeviceMappingSpecification;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceNetworkInterfaceSpecification;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceState;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateChange;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStatus;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStatusSummary;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.KeyPairInfo;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.LaunchSpecification;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.LaunchTemplate;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.LaunchTemplateBlockDeviceMappingRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.LaunchTemplateInstanceNetworkInterfaceSpecificationRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.LaunchTemplateTagSpecificationRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.ModifyInstanceAttributeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.ModifyInstanceAttributeResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.NetworkAcl;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.NetworkAclAssociation;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.NetworkAclEntry;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Placement;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.PlacementGroup;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RequestLaunchTemplateData;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RequestSpotInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RequestSpotInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Reservation;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.ResourceType;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.SecurityGroup;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.SpotInstanceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.SpotInstanceStatus;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.StateReason;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Subnet;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Tag;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.TagSpecification;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.TerminateInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Volume;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.VolumeAttachment;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.FakeFleet;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.FakeInstance;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.FakeSpotRequest;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.FakeVolume;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.LaunchSpec;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.Operation;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.Page;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * A fake EC2 client backed by a {@link FakeAwsCloud}. It implements the operations used by the
+ * plugin; the other operations fail fast without reaching AWS.
+ *
+ * <p>Images, subnets, security groups, placement groups and availability zones with well-formed
+ * identifiers always exist, and network ACLs allow all traffic.</p>
+ */
+public class FakeAmazonEC2AsyncClient extends AmazonEC2AsyncClient {
+
+  /**
+   * The account that owns all resources.
+   */
+  private static final String OWNER_ID = "123456789012";
+
+  /**
+   * How long Spot instance requests are valid when the request does not say otherwise.
+   */
+  private static final long DEFAULT_SPOT_REQUEST_VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  /**
+   * The instance state codes, by state.
+   */
+  private static final Map<InstanceStateName, Integer> INSTANCE_STATE_CODES =
+      new HashMap<InstanceStateName, Integer>() {
+        {
+          put(InstanceStateName.Pending, 0);
+          put(InstanceStateName.Running, 16);
+          put(InstanceStateName.ShuttingDown, 32);
+          put(InstanceStateName.Terminated, 48);
+          put(InstanceStateName.Stopping, 64);
+          put(InstanceStateName.Stopped, 80);
+        }
+      };
+
+  private final FakeAwsCloud cloud;
+
+  /**
+   * Creates a fake EC2 client backed by the specified cloud.
+   *
+   * @param cloud the cloud
+   */
+  @SuppressWarnings("deprecation")
+  FakeAmazonEC2AsyncClient(FakeAwsCloud cloud) {
+    super(new AnonymousAWSCredentials(), new ClientConfiguration(),
+        cloud.getAsyncExecutor());
+    this.cloud = cloud;
+    FakeAwsCloud.isolate(this);
+  }
+
+  public FakeAwsCloud getCloud() {
+    return cloud;
+  }
+
+  /**
+   * Does nothing, since the executor of asynchronous calls is shared by the clients of the
+   * cloud and is shut down by closing the cloud.
+   */
+  @Override
+  public void shutdown() {
+  }
+
+  @Override
+  public RunInstancesResult runInstances(RunInstancesRequest request) {
+    return call("RunInstances", now -> {
+      String clientToken = request.getClientToken();
+      if (clientToken != null && cloud.resourceIdsByClientToken.containsKey(clientToken)) {
+        return new RunInstancesResult().withReservation(
+            toReservation(cloud.resourceIdsByClientToken.get(clientToken), now));
+      }
+
+      int minCount = (request.getMinCount() == null) ? 1 : request.getMinCount();
+      int maxCount = (request.getMaxCount() == null) ? minCount : request.getMaxCount();
+      if (minCount < 1 || maxCount < minCount) {
+        throw error("InvalidParameterValue",
+            "Invalid count: MinCount " + minCount + ", MaxCount " + maxCount);
+      }
+      checkImageId(request.getImageId());
+      int availableCapacity = cloud.getAvailableCapacity();
+      if (availableCapacity < minCount) {
+        throw error("InsufficientInstanceCapacity",
+            "We currently do not have sufficient " + request.getInstanceType() + " capacity.");
+      }
+
+      LaunchSpec spec = toLaunchSpec(request);
+      Map<String, String> instanceTags =
+          toTagMap(request.getTagSpecifications(), ResourceType.Instance);
+      Map<String, String> volumeTags =
+          toTagMap(request.getTagSpecifications(), ResourceType.Volume);
+      checkTagCount(instanceTags.size());
+      checkTagCount(volumeTags.size());
+
+      String reservationId = cloud.newId("r");
+      List<String> instanceIds = new ArrayList<>();
+      for (int i = 0; i < Math.min(maxCount, availableCapacity); i++) {
+        FakeInstance instance =
+            cloud.launchInstance(spec, reservationId, now, instanceTags, volumeTags);
+        instance.launchIndex = i;
+        instance.clientToken = clientToken;
+        instanceIds.add(instance.id);
+      }
+      if (clientToken != null) {
+        cloud.resourceIdsByClientToken.put(clientToken, instanceIds);
+      }
+      return new RunInstancesResult().withReservation(toReservation(instanceIds, now));
+    });
+  }
+
+  @Override
+  public Future<RunInstancesResult> runInstancesAsync(RunInstancesRequest request,
+      AsyncHandler<RunInstancesRequest, RunInstancesResult> handler) {
+    return cloud.callAsync(request, handler, () -> runInstances(request));
+  }
+
+  @Override
+  public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
+    return call("DescribeInstances", now -> {
+      Page page = paginate(request.getInstanceIds(), request.getNextToken(),
+          request.getMaxResults(), () -> {
+            Collection<String> instanceIds = request.getInstanceIds().isEmpty()
+                ? getVisibleInstanceIds(now)
+                : resolveInstanceIds(request.getInstanceIds(), now);
+            List<String> matchingIds = new ArrayList<>(instanceIds.size());
+            for (String instanceId : instanceIds) {
+              FakeInstance instance = cloud.instances.get(instanceId);
+              if (matches(request.getFilters(), instance.tags, getAttributes(instance, now))) {
+                matchingIds.add(instanceId);
+              }
+            }
+            return matchingIds;
+          });
+      return new DescribeInstancesResult()
+          .withReservations(toReservations(page.ids, now))
+          .withNextToken(page.nextToken);
+    });
+  }
+
+  @Override
+  public Future<DescribeInstancesResult> describeInstancesAsync(DescribeInstancesRequest request,
+      AsyncHandler<DescribeInstancesRequest, DescribeInstancesResult> handler) {
+    return cloud.callAsync(request, handler, () -> describeInstances(request));
+  }
+
+  @Override
+  public DescribeInstanceStatusResult describeInstanceStatus(
+      DescribeInstanceStatusRequest request) {
+    return call("DescribeInstanceStatus", now -> {
+      boolean includeAllInstances = Boolean.TRUE.equals(request.getIncludeAllInstances());
+      Page page = paginate(request.getInstanceIds(), request.getNextToken(),
+          request.getMaxResults(), () -> {
+            Collection<String> instanceIds = request.getInstanceIds().isEmpty()
+                ? getVisibleInstanceIds(now)
+                : resolveInstanceIds(request.getInstanceIds(), now);
+            List<String> matchingIds = new ArrayList<>(instanceIds.size());
+            for (String instanceId : instanceIds) {
+              FakeInstance instance = cloud.instances.get(instanceId);
+              if ((includeAllInstances || instance.getState(now) == InstanceStateName.Running)
+                  && matches(request.getFilters(), instance.tags, getAttributes(instance, now))) {
+                matchingIds.add(instanceId);
+              }
+            }
+            return matchingIds;
+          });
+
+      List<InstanceStatus> statuses = new ArrayList<>(page.ids.size());
+      for (String instanceId : page.ids) {
+        FakeInstance instance = cloud.instances.get(instanceId);
+        InstanceStateName state = instance.getState(now);
+        InstanceStatusSummary summary = new InstanceStatusSummary()
+            .withStatus(state == InstanceStateName.Running ? "ok" : "not-applicable");
+        statuses.add(new InstanceStatus()
+            .withInstanceId(instanceId)
+            .withAvailabilityZone(instance.availabilityZone)
+            .withInstanceState(toInstanceState(state))
+            .withInstanceStatus(summary)
+            .withSystemStatus(summary));
+      }
+      return new DescribeInstanceStatusResult()
+          .withInstanceStatuses(statuses)
+          .withNextToken(page.nextToken);
+    });
+  }
+
+  @Override
+  public Future<DescribeInstanceStatusResult> describeInstanceStatusAsync(
+      DescribeInstanceStatusRequest request,
+      AsyncHandler<DescribeInstanceStatusRequest, DescribeInstanceStatusResult> handler) {
+    return cloud.callAsync(request, handler, () -> describeInstanceStatus(request));
+  }
+
+  @Override
+  public TerminateInstancesResult terminateInstances(TerminateInstancesRequest request) {
+    return call("TerminateInstances", now -> {
+      List<InstanceStateChange> stateChanges = new ArrayList<>();
+      for (String instanceId : resolveInstanceIds(request.getInstanceIds(), now)) {
+        FakeInstance instance = cloud.instances.get(instanceId);
+        InstanceStateName previousState = instance.getState(now);
+        cloud.terminateInstance(instance, now);
+        stateChanges.add(new InstanceStateChange()
+            .withInstanceId(instanceId)
+            .withPreviousState(toInstanceState(previousState))
+            .withCurrentState(toInstanceState(instance.getState(now))));
+      }
+      return new TerminateInstancesResult().withTerminatingInstances(stateChanges);
+    });
+  }
+
+  @Override
+  public Future<TerminateInstancesResult> terminateInstancesAsync(
+      TerminateInstancesRequest request,
+      AsyncHandler<TerminateInstancesRequest, TerminateInstancesResult> handler) {
+    return cloud.callAsync(request, handler, () -> terminateInstances(request));
+  }
+
+  @Override
+  public DescribeInstanceAttributeResult describeInstanceAttribute(
+      DescribeInstanceAttributeRequest request) {
+    return call("DescribeInstanceAttribute", now -> {
+      FakeInstance instance = getInstance(request.getInstanceId(), now);
+      InstanceAttribute attribute = new InstanceAttribute().withInstanceId(instance.id);
+      switch (InstanceAttributeName.fromValue(request.getAttribute())) {
+        case BlockDeviceMapping:
+          attribute.withBlockDeviceMappings(toInstanceBlockDeviceMappings(instance, now));
+          break;
+        case InstanceType:
+          attribute.withInstanceType(instance.spec.instanceType);
+          break;
+        case EbsOptimized:
+          attribute.withEbsOptimized(instance.spec.ebsOptimized);
+          break;
+        case RootDeviceName:
+          attribute.withRootDeviceName(ROOT_DEVICE_NAME);
+          break;
+        default:
+          break;
+      }
+      return new DescribeInstanceAttributeResult().withInstanceAttribute(attribute);
+    });
+  }
+
+  @Override
+  public Future<DescribeInstanceAttributeResult> describeInstanceAttributeAsync(
+      DescribeInstanceAttributeRequest request,
+      AsyncHandler<DescribeInstanceAttributeRequest, DescribeInstanceAttributeResult> handler) {
+    return cloud.callAsync(request, handler, () -> describeInstanceAttribute(request));
+  }
+
+  @Override
+  public ModifyInstanceAttributeResult modifyInstanceAttribute(
+      ModifyInstanceAttributeRequest request) {
+    return call("ModifyInstanceAttribute", now -> {
+      FakeInstance instance = getInstance(request.getInstanceId(), now);
+      for (InstanceBlockDeviceMappingSpecification mapping : request.getBlockDeviceMappings()) {
+        String volumeId = instance.volumeIdsByDeviceName.get(mapping.getDeviceName());
+        FakeVolume volume = (volumeId == null) ? null : cloud.volumes.get(volumeId);
+        if (volume == null || !volume.isAttachedTo(instance.id, now)) {
+          throw error("InvalidInstanceAttributeValue",
+              "No device is currently mapped at " + mapping.getDeviceName());
+        }
+        if (mapping.getEbs() != null && mapping.getEbs().getDeleteOnTermination() != null) {
+          volume.deleteOnTermination = mapping.getEbs().getDeleteOnTermination();
+        }
+      }
+      return new ModifyInstanceAttributeResult();
+    });
+  }
+
+  @Override
+  public Future<ModifyInstanceAttributeResult> modifyInstanceAttributeAsync(
+      ModifyInstanceAttributeRequest request,
+      AsyncHandler<ModifyInstanceAttributeRequest, ModifyInstanceAttributeResult> handler) {
+    return cloud.callAsync(request, handler, () -> modifyInstanceAttribute(request));
+  }
+
+  @Override
+  public GetConsoleOutputResult getConsoleOutput(GetConsoleOutputRequest request) {
+    return call("GetConsoleOutput", now -> {
+      FakeInstance instance = getInstance(request.getInstanceId(), now);
+      GetConsoleOutputResult result = new GetConsoleOutputResult()
+          .withInstanceId(instance.id)
+          .withTimestamp(new Date(now));
+      if (instance.getState(now) == InstanceStateName.Running) {
+        String fingerprint = toColonSeparatedHex(Hashing.md5()
+            .hashString(instance.id, StandardCharsets.UTF_8).asBytes());
+        String output = "ec2: -----BEGIN SSH HOST KEY FINGERPRINTS-----\n"
+            + "ec2: 2048 " + fingerprint + " /etc/ssh/ssh_host_rsa_key.pub (RSA)\n"
+            + "ec2: -----END SSH HOST KEY FINGERPRINTS-----\n";
+        result.withOutput(BaseEncoding.base64().encode(output.getBytes(StandardCharsets.UTF_8)));
+      }
+      return result;
+    });
+  }
+
+  @Override
+  public RequestSpotInstancesResult requestSpotInstances(RequestSpotInstancesRequest request) {
+    return call("RequestSpotInstances", now -> {
+      String clientToken = request.getClientToken();
+      List<String> spotRequestIds;
+      if (clientToken != null && cloud.resourceIdsByClientToken.containsKey(clientToken)) {
+        spotRequestIds = cloud.resourceIdsByClientToken.get(clientToken);
+      } else {
+        LaunchSpec spec = toLaunchSpec(request.getLaunchSpecification());
+        checkImageId(spec.imageId);
+        int instanceCount = (request.getInstanceCount() == null) ? 1 : request.getInstanceCount();
+        Double spotPrice = (request.getSpotPrice() == null)
+            ? null : Double.valueOf(request.getSpotPrice());
+        long validUntil = (request.getValidUntil() == null)
+            ? now + DEFAULT_SPOT_REQUEST_VALIDITY_MILLIS : request.getValidUntil().getTime();
+
+        spotRequestIds = new ArrayList<>(instanceCount);
+        for (int i = 0; i < instanceCount; i++) {
+          FakeSpotRequest spotRequest =
+              new FakeSpotRequest(cloud.newId("sir"), spec, spotPrice, validUntil, now);
+          cloud.addSpotRequest(spotRequest);
+          spotRequestIds.add(spotRequest.id);
+        }
+        if (clientToken != null) {
+          cloud.resourceIdsByClientToken.put(clientToken, spotRequestIds);
+        }
+      }
+
+      List<SpotInstanceRequest> spotInstanceRequests = new ArrayList<>(spotRequestIds.size());
+      for (String spotRequestId : spotRequestIds) {
+        spotInstanceRequests.add(toSpotInstanceRequest(cloud.spotRequests.get(spotRequestId)));
+      }
+      return new RequestSpotInstancesResult().withSpotInstanceRequests(spotInstanceRequests);
+    });
+  }
+
+  @Override
+  public Future<RequestSpotInstancesResult> requestSpotInstancesAsync(
+      RequestSpotInstancesRequest request,
+      AsyncHandler<RequestSpotInstancesRequest, RequestSpotInstancesResult> handler) {
+    return cloud.callAsync(request, handler, () -> requestSpotInstances(request));
+  }
+
+  @Override
+  public DescribeSpotInstanceRequestsResult describeSpotInstanceRequests(
+      DescribeSpotInstanceRequestsRequest request) {
+    return call("DescribeSpotInstanceRequests", now -> {
+      Collection<String> spotRequestIds = request.getSpotInstanceRequestIds().isEmpty()
+          ? getVisibleSpotRequestIds(now)
+          : resolveSpotRequestIds(request.getSpotInstanceRequestIds(), now);
+      List<SpotInstanceRequest> spotInstanceRequests = new ArrayList<>(spotRequestIds.size());
+      for (String spotRequestId : spotRequestIds) {
+        FakeSpotRequest spotRequest = cloud.spotRequests.get(spotRequestId);
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("spot-instance-request-id", spotRequest.id);
+        attributes.put("state", spotRequest.state);
+        attributes.put("status-code", spotRequest.statusCode);
+        attributes.put("instance-id", spotRequest.instanceId);
+        if (matches(request.getFilters(), spotRequest.tags, attributes)) {
+          spotInstanceRequests.add(toSpotInstanceRequest(spotRequest));
+        }
+      }
+      return new DescribeSpotInstanceRequestsResult()
+          .withSpotInstanceRequests(spotInstanceRequests);
+    });
+  }
+
+  @Override
+  public Future<DescribeSpotInstanceRequestsResult> describeSpotInstanceRequestsAsync(
+      DescribeSpotInstanceRequestsRequest request,
+      AsyncHandler<DescribeSpotInstanceRequestsRequest, DescribeSpotInstanceRequestsResult>
+          handler) {
+    return cloud.callAsync(request, handler, () -> describeSpotInstanceRequests(request));
+  }
+
+  @Override
+  public CancelSpotInstanceRequestsResult cancelSpotInstanceRequests(
+      CancelSpotInstanceRequestsRequest request) {
+    return call("CancelSpotInstanceRequests", now -> {
+      List<CancelledSpotInstanceRequest> cancelled = new ArrayList<>();
+      for (String spotRequestId : resolveSpotRequestIds(request.getSpotInstanceRequestIds(), now)) {
+        FakeSpotRequest spotRequest = cloud.spotRequests.get(spotRequestId);
+        if ("open".equals(spotRequest.state)) {
+          spotRequest.setState("cancelled", "canceled-before-fulfillment", now);
+        } else if ("active".equals(spotRequest.state)) {
+          spotRequest.setState("cancelled", "request-canceled-and-instance-running", now);
+        }
+        cancelled.add(new CancelledSpotInstanceRequest()
+            .withSpotInstanceRequestId(spotRequestId)
+            .withState(spotRequest.state));
+      }
+      return new CancelSpotInstanceRequestsResult().withCancelledSpotInstanceRequests(cancelled);
+    });
+  }
+
+  @Override
+  public Future<CancelSpotInstanceRequestsResult> cancelSpotInstanceRequestsAsync(
+      CancelSpotInstanceRequestsRequest request,
+      AsyncHandler<CancelSpotInstanceRequestsRequest, CancelSpotInstanceRequestsResult> handler) {
+    return cloud.callAsync(request, handler, () -> cancelSpotInstanceRequests(request));
+  }
+
+  @Override
+  public CreateTagsResult createTags(CreateTagsRequest request) {
+    return call("CreateTags", now -> {
+      List<String> resourceIds = request.getResources();
+      if (resourceIds.size() > cloud.getBehavior().getMaxTagResourcesPerRequest()) {
+        throw error("InvalidParameterValue", "Too many resources: " + resourceIds.size());
+      }
+
+      // Validate every resource before tagging any of them
+      List<Map<String, String>> resourceTags = new ArrayList<>(resourceIds.size());
+      for (String resourceId : resourceIds) {
+        Map<String, String> tags = getTagsOfResource(resourceId, now);
+        Set<String> keys = new LinkedHashSet<>(tags.keySet());
+        for (Tag tag : request.getTags()) {
+          keys.add(tag.getKey());
+        }
+        checkTagCount(keys.size());
+        resourceTags.add(tags);
+      }
+
+      for (Map<String, String> tags : resourceTags) {
+        for (Tag tag : request.getTags()) {
+          tags.put(tag.getKey(), (tag.getValue() == null) ? "" : tag.getValue());
+        }
+      }
+      return new CreateTagsResult();
+    });
+  }
+
+  @Override
+  public Future<CreateTagsResult> createTagsAsync(CreateTagsRequest request,
+      AsyncHandler<CreateTagsRequest, CreateTagsResult> handler) {
+    return cloud.callAsync(request, handler, () -> createTags(request));
+  }
+
+  @Override
+  public CreateVolumeResult createVolume(CreateVolumeRequest request) {
+    return call("CreateVolume", now -> {
+      if (request.getAvailabilityZone() == null) {
+        throw error("MissingParameter", "The request must contain the parameter AvailabilityZone");
+      }
+      if (request.getSize() == null) {
+        throw error("MissingParameter", "The request must contain the parameter size");
+      }
+      FakeVolume volume = new FakeVolume(cloud.newId("vol"), request.getSize(),
+          (request.getVolumeType() == null) ? "standard" : request.getVolumeType(),
+          Boolean.TRUE.equals(request.getEncrypted()), request.getAvailabilityZone(), now,
+          "creating");
+      volume.state.then(now + cloud.getBehavior().getVolumeCreateMillis(), "available");
+      volume.iops = request.getIops();
+      volume.kmsKeyId = request.getKmsKeyId();
+      Map<String, String> tags = toTagMap(request.getTagSpecifications(), ResourceType.Volume);
+      checkTagCount(tags.size());
+      volume.tags.putAll(tags);
+      cloud.volumes.put(volume.id, volume);
+      return new CreateVolumeResult().withVolume(toVolume(volume, now));
+    });
+  }
+
+  @Override
+  public Future<CreateVolumeResult> createVolumeAsync(CreateVolumeRequest request,
+      AsyncHandler<CreateVolumeRequest, CreateVolumeResult> handler) {
+    return cloud.callAsync(request, handler, () -> createVolume(request));
+  }
+
+  @Override
+  public DescribeVolumesResult describeVolumes(DescribeVolumesRequest request) {
+    return call("DescribeVolumes", now -> {
+      Page page = paginate(request.getVolumeIds(), request.getNextToken(),
+          request.getMaxResults(), () -> {
+            Collection<String> volumeIds = request.getVolumeIds().isEmpty()
+                ? getVisibleVolumeIds(now)
+                : resolveVolumeIds(request.getVolumeIds(), now);
+            List<String> matchingIds = new ArrayList<>(volumeIds.size());
+            for (String volumeId : volumeIds) {
+              FakeVolume volume = cloud.volumes.get(volumeId);
+              if (matches(request.getFilters(), volume.tags, getAttributes(volume, now))) {
+                matchingIds.add(volumeId);
+              }
+            }
+            return matchingIds;
+          });
+
+      List<Volume> volumes = new ArrayList<>(page.ids.size());
+      for (String volumeId : page.ids) {
+        volumes.add(toVolume(cloud.volumes.get(volumeId), now));
+      }
+      return new DescribeVolumesResult().withVolumes(volumes).withNextToken(page.nextToken);
+    });
+  }
+
+  @Override
+  public Future<DescribeVolumesResult> describeVolumesAsync(DescribeVolumesRequest request,
+      AsyncHandler<DescribeVolumesRequest, DescribeVolumesResult> handler) {
+    return cloud.callAsync(request, handler, () -> describeVolumes(request));
+  }
+
+  @Override
+  public AttachVolumeResult attachVolume(AttachVolumeRequest request) {
+    return call("AttachVolume", now -> {
+      FakeVolume volume = getVolume(request.getVolumeId(), now);
+      FakeInstance instance = getInstance(request.getInstanceId(), now);
+      String volumeState = volume.state.get(now);
+      if ("in-use".equals(volumeState)) {
+        throw error("VolumeInUse", volume.id + " is already attached to an instance");
+      }
+      if (!"available".equals(volumeState)) {
+        throw error("IncorrectState", volume.id + " is not 'available'.");
+      }
+      if (instance.getState(now) != InstanceStateName.Running) {
+        throw error("IncorrectInstanceState", "Instance '" + instance.id
+            + "' is not 'running'.");
+      }
+      if (!volume.availabilityZone.equals(instance.availabilityZone)) {
+        throw error("InvalidVolume.ZoneMismatch", "The volume '" + volume.id
+            + "' is not in the same availability zone as instance '" + instance.id + "'");
+      }
+      String deviceName = request.getDevice();
+      String attachedVolumeId = instance.volumeIdsByDeviceName.get(deviceName);
+      if (attachedVolumeId != null
+          && cloud.volumes.get(attachedVolumeId).isAttachedTo(instance.id, now)) {
+        throw error("InvalidParameterValue",
+            "Attachment point " + deviceName + " is already in use");
+      }
+
+      volume.attach(instance.id, deviceName, now,
+          now + cloud.getBehavior().getVolumeAttachMillis());
+      instance.volumeIdsByDeviceName.put(deviceName, volume.id);
+      return new AttachVolumeResult().withAttachment(toVolumeAttachment(volume, now));
+    });
+  }
+
+  @Override
+  public Future<AttachVolumeResult> attachVolumeAsync(AttachVolumeRequest request,
+      AsyncHandler<AttachVolumeRequest, AttachVolumeResult> handler) {
+    return cloud.callAsync(request, handler, () -> attachVolume(request));
+  }
+
+  @Override
+  public DetachVolumeResult detachVolume(DetachVolumeRequest request) {
+    return call("DetachVolume", now -> {
+      FakeVolume volume = getVolume(request.getVolumeId(), now);
+      String attachmentState = volume.getAttachmentState(now);
+      if (attachmentState == null || "detached".equals(attachmentState)) {
+        throw error("IncorrectState", "Volume '" + volume.id + "' is in the '"
+            + volume.state.get(now) + "' state.");
+      }
+      if (request.getInstanceId() != null
+          && !request.getInstanceId().equals(volume.attachedInstanceId)) {
+        throw error("InvalidAttachment.NotFound", "The volume '" + volume.id
+            + "' is not attached to instance '" + request.getInstanceId() + "'");
+      }
+      if (!"detaching".equals(attachmentState)) {
+        long detachedAt = now + cloud.getBehavior().getVolumeDetachMillis();
+        volume.attachmentState.reset(now, "detaching").then(detachedAt, "detached");
+        volume.state.reset(now, "in-use").then(detachedAt, "available");
+      }
+      return new DetachVolumeResult().withAttachment(toVolumeAttachment(volume, now));
+    });
+  }
+
+  @Override
+  public Future<DetachVolumeResult> detachVolumeAsync(DetachVolumeRequest request,
+      AsyncHandler<DetachVolumeRequest, DetachVolumeResult> handler) {
+    return cloud.callAsync(request, handler, () -> detachVolume(request));
+  }
+
+  @Override
+  public DeleteVolumeResult deleteVolume(DeleteVolumeRequest request) {
+    return call("DeleteVolume", now -> {
+      FakeVolume volume = getVolume(request.getVolumeId(), now);
+      String volumeState = volume.state.get(now);
+      if ("in-use".equals(volumeState)) {
+        throw error("VolumeInUse", "Volume " + volume.id + " is currently attached to "
+            + volume.attachedInstanceId);
+      }
+      if ("available".equals(volumeState) || "error".equals(volumeState)
+          || "creating".equals(volumeState)) {
+        volume.state.reset(now, "deleting")
+            .then(now + cloud.getBehavior().getVolumeDeleteMillis(), "deleted");
+      }
+      return new DeleteVolumeResult();
+    });
+  }
+
+  @Override
+  public Future<DeleteVolumeResult> deleteVolumeAsync(DeleteVolumeRequest request,
+      AsyncHandler<DeleteVolumeRequest, DeleteVolumeResult> handler) {
+    return cloud.callAsync(request, handler, () -> deleteVolume(request));
+  }
+
+  @Override
+  public DescribeImagesResult describeImages(DescribeImagesRequest request) {
+    return call("DescribeImages", now -> {
+      List<Image> images = new ArrayList<>();
+      for (String imageId : request.getImageIds()) {
+        checkImageId(imageId);
+        images.add(new Image()
+            .withImageId(imageId)
+            .withName("fake-" + imageId)
+            .withOwnerId(OWNER_ID)
+            .withState("available")
+            .withArchitecture("x86_64")
+            .withHypervisor("xen")
+            .withVirtualizationType("hvm")
+            .withRootDeviceName(ROOT_DEVICE_NAME)
+            .withRootDeviceType("ebs")
+            .withBlockDeviceMappings(new BlockDeviceMapping()
+                .withDeviceName(ROOT_DEVICE_NAME)
+                .withEbs(new EbsBlockDevice()
+                    .withSnapshotId("snap-" + imageId.substring("ami-".length()))
+                    .withVolumeSize(ROOT_VOLUME_SIZE_GIB)
+                    .withVolumeType("gp2")
+                    .withDeleteOnTermination(true)
+                    .withEncrypted(false))));
+      }
+      return new DescribeImagesResult().withImages(images);
+    });
+  }
+
+  @Override
+  public DescribeSubnetsResult describeSubnets(DescribeSubnetsRequest request) {
+    return call("DescribeSubnets", now -> {
+      List<Subnet> subnets = new ArrayList<>();
+      for (String subnetId : request.getSubnetIds()) {
+        checkId(subnetId, "subnet", "InvalidSubnetID.Malformed");
+        subnets.add(new Subnet()
+            .withSubnetId(subnetId)
+            .withVpcId(VPC_ID)
+            .withAvailabilityZone(cloud.getBehavior().getAvailabilityZone())
+            .withCidrBlock("10.0.0.0/8")
+            .withAvailableIpAddressCount(1 << 24)
+            .withMapPublicIpOnLaunch(false)
+            .withState("available"));
+      }
+      return new DescribeSubnetsResult().withSubnets(subnets);
+    });
+  }
+
+  @Override
+  public DescribeSecurityGroupsResult describeSecurityGroups(
+      DescribeSecurityGroupsRequest request) {
+    return call("DescribeSecurityGroups", now -> {
+      List<SecurityGroup> securityGroups = new ArrayList<>();
+      for (String groupId : request.getGroupIds()) {
+        checkId(groupId, "sg", "InvalidGroupId.Malformed");
+        securityGroups.add(new SecurityGroup()
+            .withGroupId(groupId)
+            .withGroupName(groupId)
+            .withDescription("fake security group")
+            .withOwnerId(OWNER_ID)
+            .withVpcId(VPC_ID));
+      }
+      return new DescribeSecurityGroupsResult().withSecurityGroups(securityGroups);
+    });
+  }
+
+  @Override
+  public DescribeNetworkAclsResult describeNetworkAcls(DescribeNetworkAclsRequest request) {
+    return call("DescribeNetworkAcls", now -> {
+      List<NetworkAclAssociation> associations = new ArrayList<>();
+      for (Filter filter : request.getFilters()) {
+        if ("association.subnet-id".equals(filter.getName())) {
+          for (String subnetId : filter.getValues()) {
+            associations.add(new NetworkAclAssociation().withSubnetId(subnetId));
+          }
+        }
+      }
+      NetworkAcl networkAcl = new NetworkAcl()
+          .withNetworkAclId("acl-0123456789abcdef0")
+          .withVpcId(VPC_ID)
+          .withIsDefault(true)
+          .withAssociations(associations)
+          .withEntries(
+              newNetworkAclEntry(100, "allow", false),
+              newNetworkAclEntry(32767, "deny", false),
+              newNetworkAclEntry(100, "allow", true),
+              newNetworkAclEntry(32767, "deny", true));
+      return new DescribeNetworkAclsResult().withNetworkAcls(networkAcl);
+    });
+  }
+
+  @Override
+  public DescribePlacementGroupsResult describePlacementGroups(
+      DescribePlacementGroupsRequest request) {
+    return call("DescribePlacementGroups", now -> {
+      List<PlacementGroup> placementGroups = new ArrayList<>();
+      for (String groupName : request.getGroupNames()) {
+        placementGroups.add(new PlacementGroup()
+            .withGroupName(groupName)
+            .withStrategy("cluster")
+            .withState("available"));
+      }
+      return new DescribePlacementGroupsResult().withPlacementGroups(placementGroups);
+    });
+  }
+
+  @Override
+  public DescribeAvailabilityZonesResult describeAvailabilityZones(
+      DescribeAvailabilityZonesRequest request) {
+    return call("DescribeAvailabilityZones", now -> {
+      String region = cloud.getBehavior().getRegion();
+      List<String> zoneNames = request.getZoneNames().isEmpty()
+          ? Arrays.asList(region + "a", region + "b", region + "c")
+          : request.getZoneNames();
+      List<AvailabilityZone> zones = new ArrayList<>(zoneNames.size());
+      for (String zoneName : zoneNames) {
+        if (!zoneName.startsWith(region)) {
+          throw error("InvalidParameterValue", "Invalid availability zone: [" + zoneName + "]");
+        }
+        zones.add(new AvailabilityZone()
+            .withZoneName(zoneName)
+            .withRegionName(region)
+            .withState("available"));
+      }
+      return new DescribeAvailabilityZonesResult().withAvailabilityZones(zones);
+    });
+  }
+
+  @Override
+  public DescribeKeyPairsResult describeKeyPairs(DescribeKeyPairsRequest request) {
+    return call("DescribeKeyPairs", now -> {
+      for (String keyName : request.getKeyNames()) {
+        if (!cloud.keyPairFingerprints.containsKey(keyName)) {
+          throw error("InvalidKeyPair.NotFound", "The key pair '" + keyName
+              + "' does not exist");
+        }
+      }
+      List<KeyPairInfo> keyPairs = new ArrayList<>();
+      for (Map.Entry<String, String> entry : cloud.keyPairFingerprints.entrySet()) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("key-name", entry.getKey());
+        attributes.put("fingerprint", entry.getValue());
+        if ((request.getKeyNames().isEmpty() || request.getKeyNames().contains(entry.getKey()))
+            && matches(request.getFilters(), Collections.emptyMap(), attributes)) {
+          keyPairs.add(new KeyPairInfo()
+              .withKeyName(entry.getKey())
+              .withKeyFingerprint(entry.getValue()));
+        }
+      }
+      return new DescribeKeyPairsResult().withKeyPairs(keyPairs);
+    });
+  }
+
+  @Override
+  public ImportKeyPairResult importKeyPair(ImportKeyPairRequest request) {
+    return call("ImportKeyPair", now -> {
+      String keyName = request.getKeyName();
+      if (cloud.keyPairFingerprints.containsKey(keyName)) {
+        throw error("InvalidKeyPair.Duplicate", "The keypair '" + keyName + "' already exists.");
+      }
+      String fingerprint = toColonSeparatedHex(Hashing.md5()
+          .hashString(request.getPublicKeyMaterial(), StandardCharsets.UTF_8).asBytes());
+      cloud.keyPairFingerprints.put(keyName, fingerprint);
+      return new ImportKeyPairResult().withKeyName(keyName).withKeyFingerprint(fingerprint);
+    });
+  }
+
+  @Override
+  public CreateLaunchTemplateResult createLaunchTemplate(CreateLaunchTemplateRequest request) {
+    return call("CreateLaunchTemplate", now -> {
+      String name = request.getLaunchTemplateName();
+      if (cloud.launchTemplates.containsKey(name)) {
+        throw error("InvalidLaunchTemplateName.AlreadyExistsException",
+            "Launch template name already in use.");
+      }
+      cloud.launchTemplates.put(name, toLaunchSpec(request.getLaunchTemplateData()));
+      return new CreateLaunchTemplateResult().withLaunchTemplate(new LaunchTemplate()
+          .withLaunchTemplateName(name)
+          .withLaunchTemplateId(cloud.newId("lt"))
+          .withCreateTime(new Date(now))
+          .withDefaultVersionNumber(1L)
+          .withLatestVersionNumber(1L));
+    });
+  }
+
+  @Override
+  public DeleteLaunchTemplateResult deleteLaunchTemplate(DeleteLaunchTemplateRequest request) {
+    return call("DeleteLaunchTemplate", now -> {
+      String name = request.getLaunchTemplateName();
+      if (cloud.launchTemplates.remove(name) == null) {
+        throw error("InvalidLaunchTemplateName.NotFoundException",
+            "The specified launch template, with template name " + name + ", does not exist.");
+      }
+      return new DeleteLaunchTemplateResult().withLaunchTemplate(new LaunchTemplate()
+          .withLaunchTemplateName(name));
+    });
+  }
+
+  @Override
+  public CreateFleetResult createFleet(CreateFleetRequest request) {
+    return call("CreateFleet", now -> {
+      String clientToken = request.getClientToken();
+      if (clientToken != null && cloud.resourceIdsByClientToken.containsKey(clientToken)) {
+        return new CreateFleetResult()
+            .withFleetId(cloud.resourceIdsByClientToken.get(clientToken).get(0));
+      }
+
+      List<LaunchSpec> launchSpecs = new ArrayList<>();
+      List<Double> maxPrices = new ArrayList<>();
+      for (FleetLaunchTemplateConfigRequest config : request.getLaunchTemplateConfigs()) {
+        String name = config.getLaunchTemplateSpecification().getLaunchTemplateName();
+        LaunchSpec spec = cloud.launchTemplates.get(name);
+        if (spec == null) {
+          throw error("InvalidLaunchTemplateName.NotFoundException",
+              "The specified launch template, with template name " + name + ", does not exist.");
+        }
+        checkImageId(spec.imageId);
+        if (config.getOverrides().isEmpty()) {
+          launchSpecs.add(spec);
+          maxPrices.add(null);
+        }
+        for (FleetLaunchTemplateOverridesRequest override : config.getOverrides()) {
+          launchSpecs.add(spec.override(override.getInstanceType(), override.getSubnetId()));
+          maxPrices.add((override.getMaxPrice() == null)
+              ? null : Double.valueOf(override.getMaxPrice()));
+        }
+      }
+      if (launchSpecs.isEmpty()) {
+        throw error("InvalidParameterValue", "No launch template configurations specified.");
+      }
+
+      Integer onDemandTargetCapacity =
+          request.getTargetCapacitySpecification().getOnDemandTargetCapacity();
+      int totalTargetCapacity = request.getTargetCapacitySpecification().getTotalTargetCapacity();
+      int onDemandCount = (onDemandTargetCapacity == null) ? 0 : onDemandTargetCapacity;
+      Long validUntil = (request.getValidUntil() == null)
+          ? null : request.getValidUntil().getTime();
+
+      FakeFleet fleet = new FakeFleet(cloud.newId("fleet"), launchSpecs, maxPrices,
+          onDemandCount, totalTargetCapacity - onDemandCount, validUntil, now);
+      cloud.fleets.put(fleet.id, fleet);
+      if (clientToken != null) {
+        cloud.resourceIdsByClientToken.put(clientToken, Collections.singletonList(fleet.id));
+      }
+      return new CreateFleetResult().withFleetId(fleet.id);
+    });
+  }
+
+  @Override
+  public DescribeFleetInstancesResult describeFleetInstances(
+      DescribeFleetInstancesRequest request) {
+    return call("DescribeFleetInstances", now -> {
+      FakeFleet fleet = cloud.fleets.get(request.getFleetId());
+      if (fleet == null || !cloud.isVisible(fleet.createdAt, now)) {
+        throw error("InvalidFleetId.NotFound",
+            "The fleet ID '" + request.getFleetId() + "' does not exist");
+      }
+      Page page = cloud.paginate(EC2_SERVICE, request.getNextToken(), request.getMaxResults(),
+          () -> {
+            List<String> activeInstanceIds = new ArrayList<>();
+            for (String instanceId : fleet.instanceIds) {
+              if (cloud.instances.get(instanceId).isActive(now)) {
+                activeInstanceIds.add(instanceId);
+              }
+            }
+            return activeInstanceIds;
+          });
+      List<ActiveInstance> activeInstances = new ArrayList<>(page.ids.size());
+      for (String instanceId : page.ids) {
+        FakeInstance instance = cloud.instances.get(instanceId);
+        activeInstances.add(new ActiveInstance()
+            .withInstanceId(instance.id)
+            .withInstanceType(instance.spec.instanceType));
+      }
+      return new DescribeFleetInstancesResult()
+          .withFleetId(fleet.id)
+          .withActiveInstances(activeInstances)
+          .withNextToken(page.nextToken);
+    });
+  }
+
+  @Override
+  public DeleteFleetsResult deleteFleets(DeleteFleetsRequest request) {
+    return call("DeleteFleets", now -> {
+      boolean terminateInstances = Boolean.TRUE.equals(request.getTerminateInstances());
+      DeleteFleetsResult result = new DeleteFleetsResult();
+      for (String fleetId : request.getFleetIds()) {
+        FakeFleet fleet = cloud.fleets.get(fleetId);
+        if (fleet == null) {
+          result.withUnsuccessfulFleetDeletions(new DeleteFleetErrorItem()
+              .withFleetId(fleetId)
+              .withError(new DeleteFleetError()
+                  .withCode(DeleteFleetErrorCode.FleetIdDoesNotExist)
+                  .withMessage("The fleet ID '" + fleetId + "' does not exist")));
+          continue;
+        }
+        fleet.state = "deleted";
+        if (terminateInstances) {
+          for (String instanceId : fleet.instanceIds) {
+            cloud.terminateInstance(cloud.instances.get(instanceId), now);
+          }
+        }
+        result.withSuccessfulFleetDeletions(new DeleteFleetSuccessItem()
+            .withFleetId(fleetId)
+            .withPreviousFleetState(FleetStateCode.Active)
+            .withCurrentFleetState(terminateInstances
+                ? FleetStateCode.DeletedTerminating
+                : FleetStateCode.DeletedRunning));
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Converts a launch template to a launch specification.
+   *
+   * @param data the launch template data
+   * @return the launch specification
+   */
+  static LaunchSpec toLaunchSpec(RequestLaunchTemplateData data) {
+    LaunchSpec spec = new LaunchSpec();
+    spec.imageId = data.getImageId();
+    spec.instanceType = data.getInstanceType();
+    spec.keyName = data.getKeyName();
+    spec.ebsOptimized = Boolean.TRUE.equals(data.getEbsOptimized());
+    if (!data.getNetworkInterfaces().isEmpty()) {
+      LaunchTemplateInstanceNetworkInterfaceSpecificationRequest networkInterface =
+          data.getNetworkInterfaces().get(0);
+      spec.subnetId = networkInterface.getSubnetId();
+      spec.securityGroupIds = networkInterface.getGroups();
+    }
+    if (data.getPlacement() != null) {
+      spec.availabilityZone = data.getPlacement().getAvailabilityZone();
+      spec.placementGroup = data.getPlacement().getGroupName();
+    }
+    List<BlockDeviceMapping> mappings = new ArrayList<>();
+    for (LaunchTemplateBlockDeviceMappingRequest mapping : data.getBlockDeviceMappings()) {
+      BlockDeviceMapping blockDeviceMapping = new BlockDeviceMapping()
+          .withDeviceName(mapping.getDeviceName())
+          .withVirtualName(mapping.getVirtualName())
+          .withNoDevice(mapping.getNoDevice());
+      if (mapping.getEbs() != null) {
+        blockDeviceMapping.withEbs(new EbsBlockDevice()
+            .withVolumeSize(mapping.getEbs().getVolumeSize())
+            .withVolumeType(mapping.getEbs().getVolumeType())
+            .withEncrypted(mapping.getEbs().getEncrypted())
+            .withDeleteOnTermination(mapping.getEbs().getDeleteOnTermination()));
+      }
+      mappings.add(blockDeviceMapping);
+    }
+    spec.blockDeviceMappings = mappings;
+    spec.instanceTags = toLaunchTemplateTagMap(data.getTagSpecifications(), ResourceType.Instance);
+    spec.volumeTags = toLaunchTemplateTagMap(data.getTagSpecifications(), ResourceType.Volume);
+    return spec;
+  }
+
+  private <T> T call(String action, Operation<T> operation) {
+    return cloud.call(EC2_SERVICE, action, operation);
+  }
+
+  /**
+   * Returns a page of query results. As in EC2, requests that list resource IDs are not
+   * paginated.
+   */
+  private Page paginate(List<String> requestedIds, String nextToken, Integer maxResults,
+      Supplier<List<String>> query) {
+    if (!requestedIds.isEmpty()) {
+      return new Page(query.get(), null);
+    }
+    return cloud.paginate(EC2_SERVICE, nextToken, maxResults, query);
+  }
+
+  private static AmazonServiceException error(String errorCode, String message) {
+    return newServiceException(EC2_SERVICE, errorCode, message);
+  }
+
+  private static void checkId(String id, String prefix, String malformedErrorCode) {
+    if (id == null || !id.startsWith(prefix + "-") || id.length() == prefix.length() + 1) {
+      throw error(malformedErrorCode, "Invalid id: \"" + id + "\"");
+    }
+  }
+
+  private static void checkImageId(String imageId) {
+    checkId(imageId, "ami", "InvalidAMIID.Malformed");
+  }
+
+  private void checkTagCount(int tagCount) {
+    if (tagCount > cloud.getBehavior().getMaxTagsPerResource()) {
+      throw error("TagLimitExceeded", "The maximum number of Tags for a resource has been"
+          + " reached.");
+    }
+  }
+
+  private static LaunchSpec toLaunchSpec(RunInstancesRequest request) {
+    LaunchSpec spec = new LaunchSpec();
+    spec.imageId = request.getImageId();
+    spec.instanceType = request.getInstanceType();
+    spec.keyName = request.getKeyName();
+    spec.ebsOptimized = Boolean.TRUE.equals(request.getEbsOptimized());
+    spec.subnetId = request.getSubnetId();
+    spec.securityGroupIds = request.getSecurityGroupIds();
+    setNetworkInterface(spec, request.getNetworkInterfaces());
+    if (request.getPlacement() != null) {
+      spec.availabilityZone = request.getPlacement().getAvailabilityZone();
+      spec.placementGroup = request.getPlacement().getGroupName();
+    }
+    spec.blockDeviceMappings = request.getBlockDeviceMappings();
+    return spec;
+  }
+
+  private static LaunchSpec toLaunchSpec(LaunchSpecification launchSpecification) {
+    LaunchSpec spec = new LaunchSpec();
+    spec.imageId = launchSpecification.getImageId();
+    spec.instanceType = launchSpecification.getInstanceType();
+    spec.keyName = launchSpecification.getKeyName();
+    spec.ebsOptimized = Boolean.TRUE.equals(launchSpecification.getEbsOptimized());
+    spec.subnetId = launchSpecification.getSubnetId();
+    setNetworkInterface(spec, launchSpecification.getNetworkInterfaces());
+    if (launchSpecification.getPlacement() != null) {
+      spec.availabilityZone = launchSpecification.getPlacement().getAvailabilityZone();
+      spec.placementGroup = launchSpecification.getPlacement().getGroupName();
+    }
+    spec.blockDeviceMappings = launchSpecification.getBlockDeviceMappings();
+    return spec;
+  }
+
+  private static void setNetworkInterface(LaunchSpec spec,
+      List<InstanceNetworkInterfaceSpecification> networkInterfaces) {
+    if (!networkInterfaces.isEmpty()) {
+      InstanceNetworkInterfaceSpecification networkInterface = networkInterfaces.get(0);
+      if (networkInterface.getSubnetId() != null) {
+        spec.subnetId = networkInterface.getSubnetId();
+      }
+      if (!networkInterface.getGroups().isEmpty()) {
+        spec.securityGroupIds = networkInterface.getGroups();
+      }
+    }
+  }
+
+  private static Map<String, String> toTagMap(List<TagSpecification> tagSpecifications,
+      ResourceType resourceType) {
+    Map<String, String> tags = new LinkedHashMap<>();
+    for (TagSpecification tagSpecification : tagSpecifications) {
+      if (resourceType.toString().equals(tagSpecification.getResourceType())) {
+        for (Tag tag : tagSpecification.getTags()) {
+          tags.put(tag.getKey(), (tag.getValue() == null) ? "" : tag.getValue());
+        }
+      }
+    }
+    return tags;
+  }
+
+  private static Map<String, String> toLaunchTemplateTagMap(
+      List<LaunchTemplateTagSpecificationRequest> tagSpecifications, ResourceType resourceType) {
+    Map<String, String> tags = new LinkedHashMap<>();
+    for (LaunchTemplateTagSpecificationRequest tagSpecification : tagSpecifications) {
+      if (resourceType.toString().equals(tagSpecification.getResourceType())) {
+        for (Tag tag : tagSpecification.getTags()) {
+          tags.put(tag.getKey(), (tag.getValue() == null) ? "" : tag.getValue());
+        }
+      }
+    }
+    return tags;
+  }
+
+  private static List<Tag> toTags(Map<String, String> tags) {
+    List<Tag> result = new ArrayList<>(tags.size());
+    for (Map.Entry<String, String> entry : tags.entrySet()) {
+      result.add(new Tag(entry.getKey(), entry.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns whether a resource matches all the specified filters. Filter values may contain
+   * {@code *} and {@code ?} wildcards.
+   *
+   * @param filters    the filters
+   * @param tags       the tags of the resource
+   * @param attributes the filterable attributes of the resource
+   * @return whether the resource matches all the filters
+   */
+  private static boolean matches(List<Filter> filters, Map<String, String> tags,
+      Map<String, String> attributes) {
+    for (Filter filter : filters) {
+      String name = filter.getName();
+      boolean matches = false;
+      if (name.startsWith("tag:")) {
+        matches = matchesAny(filter.getValues(), tags.get(name.substring("tag:".length())));
+      } else if ("tag-key".equals(name)) {
+        for (String key : tags.keySet()) {
+          matches |= matchesAny(filter.getValues(), key);
+        }
+      } else if (attributes.containsKey(name)) {
+        matches = matchesAny(filter.getValues(), attributes.get(name));
+      } else {
+        throw error("InvalidParameterValue", "The filter '" + name + "' is invalid");
+      }
+      if (!matches) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesAny(List<String> patterns, String value) {
+    if (value == null) {
+      return false;
+    }
+    for (String pattern : patterns) {
+      if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0) {
+        if (pattern.equals(value)) {
+          return true;
+        }
+      } else {
+        String regex = Pattern.quote(pattern)
+            .replace("*", "\\E.*\\Q")
+            .replace("?", "\\E.\\Q");
+        if (value.matches(regex)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static Map<String, String> getAttributes(FakeInstance instance, long now) {
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put("instance-id", instance.id);
+    attributes.put("instance-state-name", instance.getState(now).toString());
+    attributes.put("instance-type", instance.spec.instanceType);
+    attributes.put("image-id", instance.spec.imageId);
+    attributes.put("subnet-id", instance.spec.subnetId);
+    attributes.put("vpc-id", VPC_ID);
+    attributes.put("availability-zone", instance.availabilityZone);
+    attributes.put("private-ip-address", instance.privateIpAddress);
+    attributes.put("key-name", instance.spec.keyName);
+    attributes.put("reservation-id", instance.reservationId);
+    attributes.put("client-token", instance.clientToken);
+    attributes.put("spot-instance-request-id", instance.spotInstanceRequestId);
+    return attributes;
+  }
+
+  private static Map<String, String> getAttributes(FakeVolume volume, long now) {
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put("volume-id", volume.id);
+    attributes.put("status", volume.state.get(now));
+    attributes.put("volume-type", volume.volumeType);
+    attributes.put("size", Integer.toString(volume.size));
+    attributes.put("availability-zone", volume.availabilityZone);
+    String attachmentState = volume.getAttachmentState(now);
+    if (attachmentState != null && !"detached".equals(attachmentState)) {
+      attributes.put("attachment.instance-id", volume.attachedInstanceId);
+      attributes.put("attachment.device", volume.attachedDeviceName);
+      attributes.put("attachment.status", attachmentState);
+    } else {
+      attributes.put("attachment.instance-id", null);
+      attributes.put("attachment.device", null);
+      attributes.put("attachment.status", null);
+    }
+    return attributes;
+  }
+
+  private List<String> getVisibleInstanceIds(long now) {
+    List<String> instanceIds = new ArrayList<>(cloud.instances.size());
+    for (FakeInstance instance : cloud.instances.values()) {
+      if (cloud.isVisible(instance.createdAt, now)) {
+        instanceIds.add(instance.id);
+      }
+    }
+    return instanceIds;
+  }
+
+  private List<String> getVisibleVolumeIds(long now) {
+    List<String> volumeIds = new ArrayList<>(cloud.volumes.size());
+    for (FakeVolume volume : cloud.volumes.values()) {
+      if (cloud.isVisible(volume.createdAt, now) && !volume.isDeleted(now)) {
+        volumeIds.add(volume.id);
+      }
+    }
+    return volumeIds;
+  }
+
+  private List<String> getVisibleSpotRequestIds(long now) {
+    List<String> spotRequestIds = new ArrayList<>(cloud.spotRequests.size());
+    for (FakeSpotRequest spotRequest : cloud.spotRequests.values()) {
+      if (cloud.isVisible(spotRequest.createdAt, now)) {
+        spotRequestIds.add(spotRequest.id);
+      }
+    }
+    return spotRequestIds;
+  }
+
+  /**
+   * Resolves instance IDs, failing if any of them is malformed, unknown or not visible yet.
+   */
+  private Collection<String> resolveInstanceIds(Collection<String> instanceIds, long now) {
+    Set<String> resolvedIds = new LinkedHashSet<>(instanceIds.size());
+    List<String> missingIds = new ArrayList<>();
+    for (String instanceId : instanceIds) {
+      checkId(instanceId, "i", "InvalidInstanceID.Malformed");
+      FakeInstance instance = cloud.instances.get(instanceId);
+      if (instance == null || !cloud.isVisible(instance.createdAt, now)) {
+        missingIds.add(instanceId);
+      } else {
+        resolvedIds.add(instanceId);
+      }
+    }
+    if (!missingIds.isEmpty()) {
+      throw error("InvalidInstanceID.NotFound", "The instance IDs '"
+          + Joiner.on(", ").join(missingIds) + "' do not exist");
+    }
+    return resolvedIds;
+  }
+
+  private Collection<String> resolveVolumeIds(Collection<String> volumeIds, long now) {
+    Set<String> resolvedIds = new LinkedHashSet<>(volumeIds.size());
+    for (String volumeId : volumeIds) {
+      resolvedIds.add(getVolume(volumeId, now).id);
+    }
+    return resolvedIds;
+  }
+
+  private Collection<String> resolveSpotRequestIds(Collection<String> spotRequestIds, long now) {
+    Set<String> resolvedIds = new LinkedHashSet<>(spotRequestIds.size());
+    for (String spotRequestId : spotRequestIds) {
+      checkId(spotRequestId, "sir", "InvalidSpotInstanceRequestID.Malformed");
+      FakeSpotRequest spotRequest = cloud.spotRequests.get(spotRequestId);
+      if (spotRequest == null || !cloud.isVisible(spotRequest.createdAt, now)) {
+        throw error("InvalidSpotInstanceRequestID.NotFound", "The spot instance request ID '"
+            + spotRequestId + "' does not exist");
+      }
+      resolvedIds.add(spotRequestId);
+    }
+    return resolvedIds;
+  }
+
+  private FakeInstance getInstance(String instanceId, long now) {
+    return cloud.instances.get(getOnlyId(resolveInstanceIds(
+        Collections.singletonList(instanceId), now)));
+  }
+
+  private FakeVolume getVolume(String volumeId, long now) {
+    checkId(volumeId, "vol", "InvalidParameterValue");
+    FakeVolume volume = cloud.volumes.get(volumeId);
+    if (volume == null || !cloud.isVisible(volume.createdAt, now) || volume.isDeleted(now)) {
+      throw error("InvalidVolume.NotFound", "The volume '" + volumeId + "' does not exist.");
+    }
+    return volume;
+  }
+
+  private static String getOnlyId(Collection<String> ids) {
+    return ids.iterator().next();
+  }
+
+  private Map<String, String> getTagsOfResource(String resourceId, long now) {
+    if (resourceId.startsWith("i-")) {
+      return getInstance(resourceId, now).tags;
+    } else if (resourceId.startsWith("vol-")) {
+      return getVolume(resourceId, now).tags;
+    } else if (resourceId.startsWith("sir-")) {
+      return cloud.spotRequests.get(getOnlyId(resolveSpotRequestIds(
+          Collections.singletonList(resourceId), now))).tags;
+    }
+    throw error("InvalidID", "The ID '" + resourceId + "' is not valid");
+  }
+
+  private Reservation toReservation(List<String> instanceIds, long now) {
+    List<Reservation> reservations = toReservations(instanceIds, now);
+    return reservations.isEmpty() ? new Reservation() : reservations.get(0);
+  }
+
+  private List<Reservation> toReservations(List<String> instanceIds, long now) {
+    Map<String, Reservation> reservations = new LinkedHashMap<>();
+    for (String instanceId : instanceIds) {
+      FakeInstance instance = cloud.instances.get(instanceId);
+      Reservation reservation = reservations.get(instance.reservationId);
+      if (reservation == null) {
+        reservation = new Reservation()
+            .withReservationId(instance.reservationId)
+            .withOwnerId(OWNER_ID);
+        reservations.put(instance.reservationId, reservation);
+      }
+      reservation.getInstances().add(toInstance(instance, now));
+    }
+    return new ArrayList<>(reservations.values());
+  }
+
+  private Instance toInstance(FakeInstance instance, long now) {
+    List<GroupIdentifier> securityGroups = new ArrayList<>();
+    for (String securityGroupId : instance.spec.securityGroupIds) {
+      securityGroups.add(new GroupIdentifier()
+          .withGroupId(securityGroupId)
+          .withGroupName(securityGroupId));
+    }
+    Instance result = new Instance()
+        .withInstanceId(instance.id)
+        .withAmiLaunchIndex(instance.launchIndex)
+        .withClientToken(instance.clientToken)
+        .withImageId(instance.spec.imageId)
+        .withInstanceType(instance.spec.instanceType)
+        .withKeyName(instance.spec.keyName)
+        .withState(toInstanceState(instance.getState(now)))
+        .withLaunchTime(new Date(instance.createdAt))
+        .withPlacement(new Placement()
+            .withAvailabilityZone(instance.availabilityZone)
+            .withGroupName(instance.spec.placementGroup)
+            .withTenancy("default"))
+        .withPrivateIpAddress(instance.privateIpAddress)
+        .withPrivateDnsName("ip-" + instance.privateIpAddress.replace('.', '-') + "."
+            + cloud.getBehavior().getRegion() + ".compute.internal")
+        .withSubnetId(instance.spec.subnetId)
+        .withVpcId(VPC_ID)
+        .withSecurityGroups(securityGroups)
+        .withArchitecture("x86_64")
+        .withHypervisor("xen")
+        .withVirtualizationType("hvm")
+        .withRootDeviceName(ROOT_DEVICE_NAME)
+        .withRootDeviceType("ebs")
+        .withEbsOptimized(instance.spec.ebsOptimized)
+        .withSourceDestCheck(true)
+        .withBlockDeviceMappings(toInstanceBlockDeviceMappings(instance, now))
+        .withTags(toTags(instance.tags));
+    if (instance.spotInstanceRequestId != null) {
+      result.withSpotInstanceRequestId(instance.spotInstanceRequestId)
+          .withInstanceLifecycle("spot");
+    }
+    if (instance.stateReasonCode != null) {
+      result.withStateReason(new StateReason()
+          .withCode(instance.stateReasonCode)
+          .withMessage(instance.stateReasonCode + ": User initiated shutdown"));
+    }
+    return result;
+  }
+
+  private static InstanceState toInstanceState(InstanceStateName state) {
+    return new InstanceState()
+        .withName(state)
+        .withCode(INSTANCE_STATE_CODES.get(state));
+  }
+
+  private List<InstanceBlockDeviceMapping> toInstanceBlockDeviceMappings(FakeInstance instance,
+      long now) {
+    List<InstanceBlockDeviceMapping> mappings = new ArrayList<>();
+    for (Map.Entry<String, String> entry : instance.volumeIdsByDeviceName.entrySet()) {
+      FakeVolume volume = cloud.volumes.get(entry.getValue());
+      if (volume.isAttachedTo(instance.id, now)) {
+        mappings.add(new InstanceBlockDeviceMapping()
+            .withDeviceName(entry.getKey())
+            .withEbs(new EbsInstanceBlockDevice()
+                .withVolumeId(volume.id)
+                .withStatus(volume.getAttachmentState(now))
+                .withAttachTime(new Date(volume.attachTime))
+                .withDeleteOnTermination(volume.deleteOnTermination)));
+      }
+    }
+    return mappings;
+  }
+
+  private Volume toVolume(FakeVolume volume, long now) {
+    Volume result = new Volume()
+        .withVolumeId(volume.id)
+        .withSize(volume.size)
+        .withVolumeType(volume.volumeType)
+        .withIops(volume.iops)
+        .withEncrypted(volume.encrypted)
+        .withKmsKeyId(volume.kmsKeyId)
+        .withAvailabilityZone(volume.availabilityZone)
+        .withState(volume.state.get(now))
+        .withCreateTime(new Date(volume.createdAt))
+        .withTags(toTags(volume.tags));
+    String attachmentState = volume.getAttachmentState(now);
+    if (attachmentState != null && !"detached".equals(attachmentState)) {
+      result.withAttachments(toVolumeAttachment(volume, now));
+    }
+    return result;
+  }
+
+  private static VolumeAttachment toVolumeAttachment(FakeVolume volume, long now) {
+    return new VolumeAttachment()
+        .withVolumeId(volume.id)
+        .withInstanceId(volume.attachedInstanceId)
+        .withDevice(volume.attachedDeviceName)
+        .withState(volume.getAttachmentState(now))
+        .withAttachTime(new Date(volume.attachTime))
+        .withDeleteOnTermination(volume.deleteOnTermination);
+  }
+
+  private SpotInstanceRequest toSpotInstanceRequest(FakeSpotRequest spotRequest) {
+    SpotInstanceRequest result = new SpotInstanceRequest()
+        .withSpotInstanceRequestId(spotRequest.id)
+        .withState(spotRequest.state)
+        .withStatus(new SpotInstanceStatus()
+            .withCode(spotRequest.statusCode)
+            .withMessage(spotRequest.statusCode)
+            .withUpdateTime(new Date(spotRequest.statusUpdatedAt)))
+        .withType("one-time")
+        .withCreateTime(new Date(spotRequest.createdAt))
+        .withValidUntil(new Date(spotRequest.validUntil))
+        .withLaunchSpecification(new LaunchSpecification()
+            .withImageId(spotRequest.launchSpec.imageId)
+            .withInstanceType(spotRequest.launchSpec.instanceType)
+            .withSubnetId(spotRequest.launchSpec.subnetId))
+        .withInstanceId(spotRequest.instanceId)
+        .withTags(toTags(spotRequest.tags));
+    if (spotRequest.spotPrice != null) {
+      result.withSpotPrice(spotRequest.spotPrice.toString());
+    }
+    if (spotRequest.instanceId != null) {
+      result.withLaunchedAvailabilityZone(
+          cloud.instances.get(spotRequest.instanceId).availabilityZone);
+    }
+    return result;
+  }
+
+  private static NetworkAclEntry newNetworkAclEntry(int ruleNumber, String ruleAction,
+      boolean egress) {
+    return new NetworkAclEntry()
+        .withRuleNumber(ruleNumber)
+        .withRuleAction(ruleAction)
+        .withEgress(egress)
+        .withProtocol("-1")
+        .withCidrBlock("0.0.0.0/0");
+  }
+
+  private static String toColonSeparatedHex(byte[] bytes) {
+    return BaseEncoding.base16().lowerCase().withSeparator(":", 2).encode(bytes);
+  }
+}
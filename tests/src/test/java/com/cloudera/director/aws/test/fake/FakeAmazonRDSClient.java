@@ -0,0 +1,202 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.fake;
+
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.RDS_SERVICE;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.fill;
+import static com.cloudera.director.aws.test.fake.FakeAwsCloud.newServiceException;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.ClientConfiguration;
+import com.cloudera.director.aws.shaded.com.amazonaws.auth.AnonymousAWSCredentials;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.AmazonRDSClient;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.CreateDBInstanceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DBInstance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DBInstanceAlreadyExistsException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DBInstanceNotFoundException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DeleteDBInstanceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.Endpoint;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.Tag;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.FakeDbInstance;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.Operation;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud.Page;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A fake RDS client backed by a {@link FakeAwsCloud}. It models the lifecycle of DB instances
+ * and reports missing instances with the typed exceptions thrown by the real client.
+ * Operations that are not implemented fail fast without reaching AWS.
+ */
+public class FakeAmazonRDSClient extends AmazonRDSClient {
+
+  /**
+   * The default port of DB instances that do not specify one.
+   */
+  private static final int DEFAULT_PORT = 3306;
+
+  private final FakeAwsCloud cloud;
+
+  /**
+   * Creates a fake RDS client backed by the specified cloud.
+   *
+   * @param cloud the cloud
+   */
+  @SuppressWarnings("deprecation")
+  FakeAmazonRDSClient(FakeAwsCloud cloud) {
+    super(new AnonymousAWSCredentials(), new ClientConfiguration());
+    this.cloud = cloud;
+    FakeAwsCloud.isolate(this);
+  }
+
+  public FakeAwsCloud getCloud() {
+    return cloud;
+  }
+
+  @Override
+  public DBInstance createDBInstance(CreateDBInstanceRequest request) {
+    return call("CreateDBInstance", now -> {
+      String id = request.getDBInstanceIdentifier();
+      FakeDbInstance existing = cloud.dbInstances.get(id);
+      if (existing != null && !"deleted".equals(existing.status.get(now))) {
+        throw fill(new DBInstanceAlreadyExistsException("DB Instance already exists"),
+            RDS_SERVICE, "DBInstanceAlreadyExists");
+      }
+      if (request.getAllocatedStorage() == null) {
+        throw error("InvalidParameterValue", "Invalid storage size for engine name "
+            + request.getEngine());
+      }
+      FakeDbInstance dbInstance = new FakeDbInstance(id, request.getDBInstanceClass(),
+          request.getEngine(), request.getEngineVersion(), request.getAllocatedStorage(),
+          (request.getAvailabilityZone() == null)
+              ? cloud.getBehavior().getAvailabilityZone() : request.getAvailabilityZone(),
+          (request.getPort() == null) ? DEFAULT_PORT : request.getPort(),
+          now, cloud.getBehavior().getDbInstanceCreateMillis());
+      for (Tag tag : request.getTags()) {
+        dbInstance.tags.put(tag.getKey(), (tag.getValue() == null) ? "" : tag.getValue());
+      }
+      cloud.dbInstances.put(id, dbInstance);
+      return toDBInstance(dbInstance, now);
+    });
+  }
+
+  @Override
+  public DescribeDBInstancesResult describeDBInstances(DescribeDBInstancesRequest request) {
+    return call("DescribeDBInstances", now -> {
+      String id = request.getDBInstanceIdentifier();
+      if (id != null) {
+        return new DescribeDBInstancesResult().withDBInstances(
+            toDBInstance(getDbInstance(id, now), now));
+      }
+
+      Page page = cloud.paginate(RDS_SERVICE, request.getMarker(), request.getMaxRecords(),
+          () -> {
+            List<String> ids = new ArrayList<>();
+            for (FakeDbInstance dbInstance : cloud.dbInstances.values()) {
+              if (isVisible(dbInstance, now)) {
+                ids.add(dbInstance.id);
+              }
+            }
+            return ids;
+          });
+      List<DBInstance> dbInstances = new ArrayList<>(page.ids.size());
+      for (String dbInstanceId : page.ids) {
+        dbInstances.add(toDBInstance(cloud.dbInstances.get(dbInstanceId), now));
+      }
+      return new DescribeDBInstancesResult()
+          .withDBInstances(dbInstances)
+          .withMarker(page.nextToken);
+    });
+  }
+
+  @Override
+  public DBInstance deleteDBInstance(DeleteDBInstanceRequest request) {
+    return call("DeleteDBInstance", now -> {
+      FakeDbInstance dbInstance = getDbInstance(request.getDBInstanceIdentifier(), now);
+      if (!Boolean.TRUE.equals(request.getSkipFinalSnapshot())
+          && request.getFinalDBSnapshotIdentifier() == null) {
+        throw error("InvalidParameterCombination", "FinalDBSnapshotIdentifier is required"
+            + " unless SkipFinalSnapshot is specified.");
+      }
+      String status = dbInstance.status.get(now);
+      if ("deleting".equals(status)) {
+        throw error("InvalidDBInstanceState", "Instance " + dbInstance.id
+            + " is already being deleted.");
+      }
+      dbInstance.status.reset(now, "deleting")
+          .then(now + cloud.getBehavior().getDbInstanceDeleteMillis(), "deleted");
+      return toDBInstance(dbInstance, now);
+    });
+  }
+
+  private <T> T call(String action, Operation<T> operation) {
+    return cloud.call(RDS_SERVICE, action, operation);
+  }
+
+  private static AmazonServiceException error(String errorCode, String message) {
+    return newServiceException(RDS_SERVICE, errorCode, message);
+  }
+
+  private boolean isVisible(FakeDbInstance dbInstance, long now) {
+    return cloud.isVisible(dbInstance.createdAt, now)
+        && !"deleted".equals(dbInstance.status.get(now));
+  }
+
+  private FakeDbInstance getDbInstance(String id, long now) {
+    FakeDbInstance dbInstance = cloud.dbInstances.get(id);
+    if (dbInstance == null || !isVisible(dbInstance, now)) {
+      throw fill(new DBInstanceNotFoundException("DBInstance " + id + " not found."),
+          RDS_SERVICE, "DBInstanceNotFound");
+    }
+    return dbInstance;
+  }
+
+  private DBInstance toDBInstance(FakeDbInstance dbInstance, long now) {
+    String status = dbInstance.status.get(now);
+    DBInstance result = new DBInstance()
+        .withDBInstanceIdentifier(dbInstance.id)
+        .withDBInstanceClass(dbInstance.dbInstanceClass)
+        .withEngine(dbInstance.engine)
+        .withEngineVersion(dbInstance.engineVersion)
+        .withAllocatedStorage(dbInstance.allocatedStorage)
+        .withAvailabilityZone(dbInstance.availabilityZone)
+        .withDBInstanceStatus(status)
+        .withInstanceCreateTime(new Date(dbInstance.createdAt))
+        .withDBSecurityGroups(Collections.emptyList());
+    if ("available".equals(status)) {
+      result.withEndpoint(new Endpoint()
+          .withAddress(toEndpointAddress(dbInstance.id))
+          .withPort(dbInstance.port));
+    }
+    return result;
+  }
+
+  /**
+   * Returns a stable IP literal for the endpoint of a DB instance. Callers resolve endpoint
+   * addresses, so a host name would need DNS and fail in an offline test.
+   *
+   * @param dbInstanceId the DB instance ID
+   * @return the endpoint address
+   */
+  private static String toEndpointAddress(String dbInstanceId) {
+    int hash = dbInstanceId.hashCode();
+    return "10.254." + ((hash >>> 8) & 0xff) + "." + (hash & 0xff);
+  }
+}
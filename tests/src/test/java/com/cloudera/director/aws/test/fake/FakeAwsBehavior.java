@@ -0,0 +1,526 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.fake;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes how a {@link FakeAwsCloud} behaves: how long calls and state transitions take,
+ * how long new resources stay invisible, how calls are throttled and which errors are
+ * injected. All durations are in milliseconds of wall clock time. The defaults describe an
+ * instantaneous, unthrottled and consistent cloud with unlimited capacity.
+ */
+public final class FakeAwsBehavior {
+
+  /**
+   * The default behavior.
+   */
+  public static final FakeAwsBehavior DEFAULT_BEHAVIOR = new Builder().build();
+
+  /**
+   * An error injected into calls to an action.
+   */
+  public static final class InjectedError {
+
+    private final String errorCode;
+    private final double probability;
+
+    private InjectedError(String errorCode, double probability) {
+      this.errorCode = errorCode;
+      this.probability = probability;
+    }
+
+    /**
+     * Returns the AWS error code of the injected error.
+     *
+     * @return the AWS error code of the injected error
+     */
+    public String getErrorCode() {
+      return errorCode;
+    }
+
+    /**
+     * Returns the probability that a call fails with the injected error.
+     *
+     * @return the probability that a call fails with the injected error
+     */
+    public double getProbability() {
+      return probability;
+    }
+  }
+
+  private final String region;
+  private final long latencyMillis;
+  private final long latencyJitterMillis;
+  private final long consistencyDelayMillis;
+  private final long instanceStartMillis;
+  private final long instanceTerminateMillis;
+  private final long volumeCreateMillis;
+  private final long volumeAttachMillis;
+  private final long volumeDetachMillis;
+  private final long volumeDeleteMillis;
+  private final long spotFulfillmentMillis;
+  private final double spotPrice;
+  private final long autoScalingLaunchMillis;
+  private final long dbInstanceCreateMillis;
+  private final long dbInstanceDeleteMillis;
+  private final int instanceCapacity;
+  private final int pageSize;
+  private final int maxTagsPerResource;
+  private final int maxTagResourcesPerRequest;
+  private final double requestsPerSecond;
+  private final int requestBurst;
+  private final Map<String, InjectedError> injectedErrors;
+  private final long seed;
+  private final int asyncThreads;
+
+  private FakeAwsBehavior(Builder builder) {
+    this.region = builder.region;
+    this.latencyMillis = builder.latencyMillis;
+    this.latencyJitterMillis = builder.latencyJitterMillis;
+    this.consistencyDelayMillis = builder.consistencyDelayMillis;
+    this.instanceStartMillis = builder.instanceStartMillis;
+    this.instanceTerminateMillis = builder.instanceTerminateMillis;
+    this.volumeCreateMillis = builder.volumeCreateMillis;
+    this.volumeAttachMillis = builder.volumeAttachMillis;
+    this.volumeDetachMillis = builder.volumeDetachMillis;
+    this.volumeDeleteMillis = builder.volumeDeleteMillis;
+    this.spotFulfillmentMillis = builder.spotFulfillmentMillis;
+    this.spotPrice = builder.spotPrice;
+    this.autoScalingLaunchMillis = builder.autoScalingLaunchMillis;
+    this.dbInstanceCreateMillis = builder.dbInstanceCreateMillis;
+    this.dbInstanceDeleteMillis = builder.dbInstanceDeleteMillis;
+    this.instanceCapacity = builder.instanceCapacity;
+    this.pageSize = builder.pageSize;
+    this.maxTagsPerResource = builder.maxTagsPerResource;
+    this.maxTagResourcesPerRequest = builder.maxTagResourcesPerRequest;
+    this.requestsPerSecond = builder.requestsPerSecond;
+    this.requestBurst = builder.requestBurst;
+    this.injectedErrors = ImmutableMap.copyOf(builder.injectedErrors);
+    this.seed = builder.seed;
+    this.asyncThreads = builder.asyncThreads;
+  }
+
+  /**
+   * Returns the region, whose name prefixes the availability zones.
+   *
+   * @return the region
+   */
+  public String getRegion() {
+    return region;
+  }
+
+  /**
+   * Returns the availability zone in which subnets and resources are placed by default.
+   *
+   * @return the default availability zone
+   */
+  public String getAvailabilityZone() {
+    return region + "a";
+  }
+
+  /**
+   * Returns the fixed latency added to every call.
+   *
+   * @return the fixed latency added to every call
+   */
+  public long getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  /**
+   * Returns the maximum random latency added to every call on top of the fixed latency.
+   *
+   * @return the maximum random latency added to every call
+   */
+  public long getLatencyJitterMillis() {
+    return latencyJitterMillis;
+  }
+
+  /**
+   * Returns how long newly created resources are not visible to describe calls and tagging.
+   *
+   * @return how long newly created resources are not visible
+   */
+  public long getConsistencyDelayMillis() {
+    return consistencyDelayMillis;
+  }
+
+  /**
+   * Returns how long instances stay pending before running.
+   *
+   * @return how long instances stay pending
+   */
+  public long getInstanceStartMillis() {
+    return instanceStartMillis;
+  }
+
+  /**
+   * Returns how long instances stay shutting down before being terminated.
+   *
+   * @return how long instances stay shutting down
+   */
+  public long getInstanceTerminateMillis() {
+    return instanceTerminateMillis;
+  }
+
+  /**
+   * Returns how long volumes stay creating before being available.
+   *
+   * @return how long volumes stay creating
+   */
+  public long getVolumeCreateMillis() {
+    return volumeCreateMillis;
+  }
+
+  /**
+   * Returns how long volume attachments stay attaching before being attached.
+   *
+   * @return how long volume attachments stay attaching
+   */
+  public long getVolumeAttachMillis() {
+    return volumeAttachMillis;
+  }
+
+  /**
+   * Returns how long volume attachments stay detaching before being detached.
+   *
+   * @return how long volume attachments stay detaching
+   */
+  public long getVolumeDetachMillis() {
+    return volumeDetachMillis;
+  }
+
+  /**
+   * Returns how long volumes stay deleting before being deleted.
+   *
+   * @return how long volumes stay deleting
+   */
+  public long getVolumeDeleteMillis() {
+    return volumeDeleteMillis;
+  }
+
+  /**
+   * Returns how long Spot instance requests stay open before being fulfilled.
+   *
+   * @return how long Spot instance requests stay open
+   */
+  public long getSpotFulfillmentMillis() {
+    return spotFulfillmentMillis;
+  }
+
+  /**
+   * Returns the Spot price in USD per hour. Requests bidding less stay open as price too low.
+   *
+   * @return the Spot price in USD per hour
+   */
+  public double getSpotPrice() {
+    return spotPrice;
+  }
+
+  /**
+   * Returns how long after its creation an Auto Scaling group launches its instances.
+   *
+   * @return how long after its creation an Auto Scaling group launches its instances
+   */
+  public long getAutoScalingLaunchMillis() {
+    return autoScalingLaunchMillis;
+  }
+
+  /**
+   * Returns how long DB instances stay creating before being available.
+   *
+   * @return how long DB instances stay creating
+   */
+  public long getDbInstanceCreateMillis() {
+    return dbInstanceCreateMillis;
+  }
+
+  /**
+   * Returns how long DB instances stay deleting before being deleted.
+   *
+   * @return how long DB instances stay deleting
+   */
+  public long getDbInstanceDeleteMillis() {
+    return dbInstanceDeleteMillis;
+  }
+
+  /**
+   * Returns the maximum number of instances that can be pending or running at once.
+   *
+   * @return the maximum number of instances that can be pending or running at once
+   */
+  public int getInstanceCapacity() {
+    return instanceCapacity;
+  }
+
+  /**
+   * Returns the maximum number of items returned per page by paginated describe calls.
+   *
+   * @return the maximum number of items returned per page
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns the maximum number of tags per resource.
+   *
+   * @return the maximum number of tags per resource
+   */
+  public int getMaxTagsPerResource() {
+    return maxTagsPerResource;
+  }
+
+  /**
+   * Returns the maximum number of resources in a single create tags call.
+   *
+   * @return the maximum number of resources in a single create tags call
+   */
+  public int getMaxTagResourcesPerRequest() {
+    return maxTagResourcesPerRequest;
+  }
+
+  /**
+   * Returns the sustained number of calls per second allowed for each action, or zero if
+   * calls are not throttled.
+   *
+   * @return the sustained number of calls per second allowed for each action
+   */
+  public double getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  /**
+   * Returns the number of calls to each action that can be made in a burst before throttling.
+   *
+   * @return the number of calls that can be made in a burst
+   */
+  public int getRequestBurst() {
+    return requestBurst;
+  }
+
+  /**
+   * Returns the errors injected into calls, by action name.
+   *
+   * @return the errors injected into calls, by action name
+   */
+  public Map<String, InjectedError> getInjectedErrors() {
+    return injectedErrors;
+  }
+
+  /**
+   * Returns the seed of the random numbers used for latency jitter and error injection.
+   *
+   * @return the random seed
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Returns the number of threads executing asynchronous calls.
+   *
+   * @return the number of threads executing asynchronous calls
+   */
+  public int getAsyncThreads() {
+    return asyncThreads;
+  }
+
+  /**
+   * Builder for {@link FakeAwsBehavior}.
+   */
+  public static final class Builder {
+    private String region = "us-west-2";
+    private long latencyMillis;
+    private long latencyJitterMillis;
+    private long consistencyDelayMillis;
+    private long instanceStartMillis;
+    private long instanceTerminateMillis;
+    private long volumeCreateMillis;
+    private long volumeAttachMillis;
+    private long volumeDetachMillis;
+    private long volumeDeleteMillis;
+    private long spotFulfillmentMillis;
+    private double spotPrice;
+    private long autoScalingLaunchMillis;
+    private long dbInstanceCreateMillis;
+    private long dbInstanceDeleteMillis;
+    private int instanceCapacity = Integer.MAX_VALUE;
+    private int pageSize = 1000;
+    private int maxTagsPerResource = 50;
+    private int maxTagResourcesPerRequest = 1000;
+    private double requestsPerSecond;
+    private int requestBurst = 100;
+    private final Map<String, InjectedError> injectedErrors = new HashMap<>();
+    private long seed = 1L;
+    private int asyncThreads = 50;
+
+    public Builder withRegion(String region) {
+      this.region = requireNonNull(region, "region is null");
+      return this;
+    }
+
+    public Builder withLatencyMillis(long latencyMillis, long latencyJitterMillis) {
+      checkArgument(latencyMillis >= 0 && latencyJitterMillis >= 0, "negative latency");
+      this.latencyMillis = latencyMillis;
+      this.latencyJitterMillis = latencyJitterMillis;
+      return this;
+    }
+
+    public Builder withConsistencyDelayMillis(long consistencyDelayMillis) {
+      this.consistencyDelayMillis = checkDuration(consistencyDelayMillis);
+      return this;
+    }
+
+    public Builder withInstanceStartMillis(long instanceStartMillis) {
+      this.instanceStartMillis = checkDuration(instanceStartMillis);
+      return this;
+    }
+
+    public Builder withInstanceTerminateMillis(long instanceTerminateMillis) {
+      this.instanceTerminateMillis = checkDuration(instanceTerminateMillis);
+      return this;
+    }
+
+    public Builder withVolumeCreateMillis(long volumeCreateMillis) {
+      this.volumeCreateMillis = checkDuration(volumeCreateMillis);
+      return this;
+    }
+
+    public Builder withVolumeAttachMillis(long volumeAttachMillis) {
+      this.volumeAttachMillis = checkDuration(volumeAttachMillis);
+      return this;
+    }
+
+    public Builder withVolumeDetachMillis(long volumeDetachMillis) {
+      this.volumeDetachMillis = checkDuration(volumeDetachMillis);
+      return this;
+    }
+
+    public Builder withVolumeDeleteMillis(long volumeDeleteMillis) {
+      this.volumeDeleteMillis = checkDuration(volumeDeleteMillis);
+      return this;
+    }
+
+    public Builder withSpotFulfillmentMillis(long spotFulfillmentMillis) {
+      this.spotFulfillmentMillis = checkDuration(spotFulfillmentMillis);
+      return this;
+    }
+
+    public Builder withSpotPrice(double spotPrice) {
+      checkArgument(spotPrice >= 0, "negative spotPrice");
+      this.spotPrice = spotPrice;
+      return this;
+    }
+
+    public Builder withAutoScalingLaunchMillis(long autoScalingLaunchMillis) {
+      this.autoScalingLaunchMillis = checkDuration(autoScalingLaunchMillis);
+      return this;
+    }
+
+    public Builder withDbInstanceCreateMillis(long dbInstanceCreateMillis) {
+      this.dbInstanceCreateMillis = checkDuration(dbInstanceCreateMillis);
+      return this;
+    }
+
+    public Builder withDbInstanceDeleteMillis(long dbInstanceDeleteMillis) {
+      this.dbInstanceDeleteMillis = checkDuration(dbInstanceDeleteMillis);
+      return this;
+    }
+
+    public Builder withInstanceCapacity(int instanceCapacity) {
+      checkArgument(instanceCapacity >= 0, "negative instanceCapacity");
+      this.instanceCapacity = instanceCapacity;
+      return this;
+    }
+
+    public Builder withPageSize(int pageSize) {
+      checkArgument(pageSize > 0, "pageSize must be positive");
+      this.pageSize = pageSize;
+      return this;
+    }
+
+    public Builder withMaxTagsPerResource(int maxTagsPerResource) {
+      checkArgument(maxTagsPerResource > 0, "maxTagsPerResource must be positive");
+      this.maxTagsPerResource = maxTagsPerResource;
+      return this;
+    }
+
+    public Builder withMaxTagResourcesPerRequest(int maxTagResourcesPerRequest) {
+      checkArgument(maxTagResourcesPerRequest > 0, "maxTagResourcesPerRequest must be positive");
+      this.maxTagResourcesPerRequest = maxTagResourcesPerRequest;
+      return this;
+    }
+
+    /**
+     * Throttles each action with a token bucket refilled at the specified rate.
+     *
+     * @param requestsPerSecond the sustained number of calls per second, or zero to disable
+     *                          throttling
+     * @param requestBurst      the number of calls that can be made in a burst
+     * @return this builder
+     */
+    public Builder withThrottling(double requestsPerSecond, int requestBurst) {
+      checkArgument(requestsPerSecond >= 0, "negative requestsPerSecond");
+      checkArgument(requestBurst > 0, "requestBurst must be positive");
+      this.requestsPerSecond = requestsPerSecond;
+      this.requestBurst = requestBurst;
+      return this;
+    }
+
+    /**
+     * Makes calls to the specified action fail with the specified error code with the
+     * specified probability.
+     *
+     * @param action      the action name, such as {@code RunInstances}
+     * @param errorCode   the AWS error code
+     * @param probability the probability that a call fails
+     * @return this builder
+     */
+    public Builder withInjectedError(String action, String errorCode, double probability) {
+      checkArgument(probability >= 0 && probability <= 1, "probability must be in [0, 1]");
+      injectedErrors.put(requireNonNull(action, "action is null"),
+          new InjectedError(requireNonNull(errorCode, "errorCode is null"), probability));
+      return this;
+    }
+
+    public Builder withSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Builder withAsyncThreads(int asyncThreads) {
+      checkArgument(asyncThreads > 0, "asyncThreads must be positive");
+      this.asyncThreads = asyncThreads;
+      return this;
+    }
+
+    public FakeAwsBehavior build() {
+      return new FakeAwsBehavior(this);
+    }
+
+    private static long checkDuration(long millis) {
+      checkArgument(millis >= 0, "negative duration");
+      return millis;
+    }
+  }
+}
@@ -0,0 +1,1148 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.fake;
+
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AbortedException;
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonWebServiceClient;
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonWebServiceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.AsyncHandler;
+import com.cloudera.director.aws.shaded.com.amazonaws.handlers.RequestHandler2;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.VolumeState;
+import com.cloudera.director.aws.test.fake.FakeAwsBehavior.InjectedError;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory stand-in for the EC2, Auto Scaling and RDS services, shared by the fake clients
+ * it creates. It models instance, volume, Spot instance request, EC2 Fleet, Auto Scaling group
+ * and DB instance state machines against the wall clock, tag filters, pagination, eventual
+ * consistency, throttling and call latency as described by its {@link FakeAwsBehavior}, and
+ * counts the calls made to each action so that tests can measure how many API calls an
+ * operation needs.
+ *
+ * <p>State transitions are evaluated lazily whenever a call is made, so the cloud does not
+ * need any background threads. Calls are serialized on the cloud, except for their latency,
+ * which is spent outside the lock so that concurrent calls overlap as they would against AWS.
+ * Unlike the real SDK clients, the fake clients do not retry throttled or failed calls.</p>
+ */
+public final class FakeAwsCloud implements Closeable {
+
+  static final String EC2_SERVICE = "AmazonEC2";
+  static final String AUTO_SCALING_SERVICE = "AmazonAutoScaling";
+  static final String RDS_SERVICE = "AmazonRDS";
+
+  /**
+   * The endpoint of the fake clients. Nothing listens on it, so no request could reach AWS
+   * even if it got past the fail-fast request handler.
+   */
+  private static final String UNREACHABLE_ENDPOINT = "http://127.0.0.1:1";
+
+  /**
+   * The error code returned when a call is throttled, by service.
+   */
+  private static final Map<String, String> THROTTLING_ERROR_CODES = ImmutableMap.of(
+      EC2_SERVICE, "RequestLimitExceeded",
+      AUTO_SCALING_SERVICE, "Throttling",
+      RDS_SERVICE, "Throttling");
+
+  /**
+   * The VPC of all subnets and security groups.
+   */
+  static final String VPC_ID = "vpc-0123456789abcdef0";
+
+  /**
+   * The root device name of all images.
+   */
+  static final String ROOT_DEVICE_NAME = "/dev/sda1";
+
+  /**
+   * The root volume size of all images, in GiB.
+   */
+  static final int ROOT_VOLUME_SIZE_GIB = 8;
+
+  /**
+   * An operation performed on the cloud state at a point in time.
+   *
+   * @param <T> the type of result
+   */
+  interface Operation<T> {
+
+    /**
+     * Performs the operation.
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @return the result
+     */
+    T apply(long now);
+  }
+
+  private final FakeAwsBehavior behavior;
+  private final ExecutorService asyncExecutor;
+  private final Random random;
+  private final ConcurrentMap<String, AtomicLong> callCounts = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> throttledCallCounts = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> failedCallCounts = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Queue<Long>> callLatencies = new ConcurrentHashMap<>();
+  private final Map<String, TokenBucket> tokenBuckets = new HashMap<>();
+
+  // The following state is guarded by this cloud.
+  private long sequence;
+  private int activeInstanceCount;
+  private final Map<String, List<String>> pageCursors = new HashMap<>();
+  final Map<String, FakeInstance> instances = new LinkedHashMap<>();
+  final Map<String, FakeVolume> volumes = new LinkedHashMap<>();
+  final Map<String, FakeSpotRequest> spotRequests = new LinkedHashMap<>();
+  final Map<String, List<String>> resourceIdsByClientToken = new HashMap<>();
+  final Map<String, LaunchSpec> launchTemplates = new LinkedHashMap<>();
+  final Map<String, FakeFleet> fleets = new LinkedHashMap<>();
+  final Map<String, FakeAutoScalingGroup> autoScalingGroups = new LinkedHashMap<>();
+  final Map<String, FakeDbInstance> dbInstances = new LinkedHashMap<>();
+  final Map<String, String> keyPairFingerprints = new LinkedHashMap<>();
+  private final Set<String> openSpotRequestIds = new LinkedHashSet<>();
+
+  /**
+   * Creates a fake cloud with the default behavior.
+   */
+  public FakeAwsCloud() {
+    this(FakeAwsBehavior.DEFAULT_BEHAVIOR);
+  }
+
+  /**
+   * Creates a fake cloud with the specified behavior.
+   *
+   * @param behavior the behavior
+   */
+  public FakeAwsCloud(FakeAwsBehavior behavior) {
+    this.behavior = requireNonNull(behavior, "behavior is null");
+    this.random = new Random(behavior.getSeed());
+    this.asyncExecutor = Executors.newFixedThreadPool(behavior.getAsyncThreads(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("fake-aws-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  public FakeAwsBehavior getBehavior() {
+    return behavior;
+  }
+
+  /**
+   * Creates a fake EC2 client backed by this cloud.
+   *
+   * @return a fake EC2 client backed by this cloud
+   */
+  public FakeAmazonEC2AsyncClient newEC2Client() {
+    return new FakeAmazonEC2AsyncClient(this);
+  }
+
+  /**
+   * Creates a fake Auto Scaling client backed by this cloud.
+   *
+   * @return a fake Auto Scaling client backed by this cloud
+   */
+  public FakeAmazonAutoScalingAsyncClient newAutoScalingClient() {
+    return new FakeAmazonAutoScalingAsyncClient(this);
+  }
+
+  /**
+   * Creates a fake RDS client backed by this cloud.
+   *
+   * @return a fake RDS client backed by this cloud
+   */
+  public FakeAmazonRDSClient newRDSClient() {
+    return new FakeAmazonRDSClient(this);
+  }
+
+  /**
+   * Returns the number of calls made to the specified action, including throttled and failed
+   * calls.
+   *
+   * @param action the action name, such as {@code DescribeInstances}
+   * @return the number of calls made to the action
+   */
+  public long getCallCount(String action) {
+    return get(callCounts, action);
+  }
+
+  /**
+   * Returns the number of calls made to each action that was called.
+   *
+   * @return the number of calls made to each action, sorted by action name
+   */
+  public SortedMap<String, Long> getCallCounts() {
+    return snapshot(callCounts);
+  }
+
+  /**
+   * Returns the total number of calls made to all actions.
+   *
+   * @return the total number of calls made to all actions
+   */
+  public long getTotalCallCount() {
+    return sum(callCounts);
+  }
+
+  /**
+   * Returns the number of calls made to the specified action that were throttled.
+   *
+   * @param action the action name
+   * @return the number of calls made to the action that were throttled
+   */
+  public long getThrottledCallCount(String action) {
+    return get(throttledCallCounts, action);
+  }
+
+  /**
+   * Returns the total number of calls that were throttled.
+   *
+   * @return the total number of calls that were throttled
+   */
+  public long getTotalThrottledCallCount() {
+    return sum(throttledCallCounts);
+  }
+
+  /**
+   * Returns the number of calls made to the specified action that failed with an error other
+   * than throttling.
+   *
+   * @param action the action name
+   * @return the number of calls made to the action that failed
+   */
+  public long getFailedCallCount(String action) {
+    return get(failedCallCounts, action);
+  }
+
+  /**
+   * Returns the latencies of the calls made to each action, as observed by the caller. A call's
+   * latency includes the configured latency and any time spent waiting for other calls to be
+   * served by the cloud.
+   *
+   * @return the latencies of the calls made to each action in nanoseconds, in call completion
+   * order, sorted by action name
+   */
+  public SortedMap<String, List<Long>> getCallLatenciesNanos() {
+    ImmutableSortedMap.Builder<String, List<Long>> builder = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Queue<Long>> entry : callLatencies.entrySet()) {
+      builder.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Resets all call counts and latencies.
+   */
+  public void resetCallCounts() {
+    callCounts.clear();
+    throttledCallCounts.clear();
+    failedCallCounts.clear();
+    callLatencies.clear();
+  }
+
+  /**
+   * Returns the number of instances currently in the specified state.
+   *
+   * @param state the instance state
+   * @return the number of instances currently in the state
+   */
+  public synchronized int getInstanceCount(InstanceStateName state) {
+    long now = System.currentTimeMillis();
+    advance(now);
+    int count = 0;
+    for (FakeInstance instance : instances.values()) {
+      if (instance.getState(now) == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of volumes currently in the specified state.
+   *
+   * @param state the volume state
+   * @return the number of volumes currently in the state
+   */
+  public synchronized int getVolumeCount(VolumeState state) {
+    long now = System.currentTimeMillis();
+    int count = 0;
+    for (FakeVolume volume : volumes.values()) {
+      if (state.toString().equals(volume.state.get(now))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Shuts down the threads executing asynchronous calls.
+   */
+  @Override
+  public void close() {
+    asyncExecutor.shutdownNow();
+  }
+
+  /**
+   * Makes a call to an action: counts it, waits for the configured latency, throttles it or
+   * injects an error if so configured, and otherwise performs the operation on the cloud state.
+   * The latency of the call is recorded whatever its outcome.
+   *
+   * @param service   the service name
+   * @param action    the action name
+   * @param operation the operation
+   * @param <T>       the type of result
+   * @return the result of the operation
+   */
+  <T> T call(String service, String action, Operation<T> operation) {
+    increment(callCounts, action);
+    long startNanos = System.nanoTime();
+    try {
+      return doCall(service, action, operation);
+    } finally {
+      callLatencies.computeIfAbsent(action, key -> new ConcurrentLinkedQueue<>())
+          .add(System.nanoTime() - startNanos);
+    }
+  }
+
+  private <T> T doCall(String service, String action, Operation<T> operation) {
+    sleepLatency();
+
+    if (!tryAcquire(action)) {
+      increment(throttledCallCounts, action);
+      AmazonServiceException e = newServiceException(service,
+          THROTTLING_ERROR_CODES.get(service), "Rate exceeded");
+      e.setStatusCode(503);
+      throw e;
+    }
+
+    InjectedError injectedError = behavior.getInjectedErrors().get(action);
+    if (injectedError != null && nextDouble() < injectedError.getProbability()) {
+      increment(failedCallCounts, action);
+      throw newServiceException(service, injectedError.getErrorCode(), "Injected error");
+    }
+
+    try {
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        advance(now);
+        return operation.apply(now);
+      }
+    } catch (AmazonServiceException e) {
+      increment(failedCallCounts, action);
+      throw e;
+    }
+  }
+
+  /**
+   * Executes a call asynchronously, notifying the specified handler, if any, of its outcome.
+   *
+   * @param request the request
+   * @param handler the asynchronous handler, or {@code null}
+   * @param call    the call
+   * @param <R>     the type of request
+   * @param <T>     the type of result
+   * @return the future result
+   */
+  <R extends AmazonWebServiceRequest, T> Future<T> callAsync(R request,
+      AsyncHandler<R, T> handler, Callable<T> call) {
+    return asyncExecutor.submit(() -> {
+      T result;
+      try {
+        result = call.call();
+      } catch (Exception e) {
+        if (handler != null) {
+          handler.onError(e);
+        }
+        throw e;
+      }
+      if (handler != null) {
+        handler.onSuccess(request, result);
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Returns the executor of asynchronous calls.
+   *
+   * @return the executor of asynchronous calls
+   */
+  ExecutorService getAsyncExecutor() {
+    return asyncExecutor;
+  }
+
+  /**
+   * Isolates the specified fake client from AWS. Operations that the fake does not override
+   * fail fast with an {@code UnsupportedOperationException} before any request is built, and
+   * the client is pointed at an unreachable endpoint.
+   *
+   * @param client the fake client
+   */
+  static void isolate(AmazonWebServiceClient client) {
+    client.setEndpoint(UNREACHABLE_ENDPOINT);
+    client.addRequestHandler(new RequestHandler2() {
+      @Override
+      public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        throw new UnsupportedOperationException(client.getClass().getSimpleName()
+            + " does not implement " + request.getClass().getSimpleName());
+      }
+    });
+  }
+
+  /**
+   * Creates a client error with the specified code for the specified service.
+   *
+   * @param service   the service name
+   * @param errorCode the error code
+   * @param message   the error message
+   * @return the error
+   */
+  static AmazonServiceException newServiceException(String service, String errorCode,
+      String message) {
+    return fill(new AmazonServiceException(message), service, errorCode);
+  }
+
+  /**
+   * Fills in a client error with the specified code for the specified service.
+   *
+   * @param exception the error
+   * @param service   the service name
+   * @param errorCode the error code
+   * @param <E>       the type of error
+   * @return the error
+   */
+  static <E extends AmazonServiceException> E fill(E exception, String service,
+      String errorCode) {
+    exception.setServiceName(service);
+    exception.setErrorCode(errorCode);
+    exception.setErrorType(AmazonServiceException.ErrorType.Client);
+    exception.setStatusCode(400);
+    exception.setRequestId(UUID.randomUUID().toString());
+    return exception;
+  }
+
+  /**
+   * Returns a new unique resource ID with the specified prefix.
+   *
+   * @param prefix the prefix, such as {@code i} or {@code vol}
+   * @return a new unique resource ID
+   */
+  String newId(String prefix) {
+    return String.format("%s-%017x", prefix, ++sequence);
+  }
+
+  /**
+   * Returns whether a resource created at the specified time is visible yet.
+   *
+   * @param createdAt the creation time of the resource
+   * @param now       the current time
+   * @return whether the resource is visible
+   */
+  boolean isVisible(long createdAt, long now) {
+    return now - createdAt >= behavior.getConsistencyDelayMillis();
+  }
+
+  /**
+   * Returns the number of additional instances that can be launched.
+   *
+   * @return the number of additional instances that can be launched
+   */
+  int getAvailableCapacity() {
+    return Math.max(0, behavior.getInstanceCapacity() - activeInstanceCount);
+  }
+
+  /**
+   * Launches an instance with root and EBS volumes attached as specified.
+   *
+   * @param spec          the launch specification
+   * @param reservationId the reservation ID
+   * @param now           the current time
+   * @param instanceTags  the instance tags
+   * @param volumeTags    the tags of the volumes created with the instance
+   * @return the instance
+   */
+  FakeInstance launchInstance(LaunchSpec spec, String reservationId, long now,
+      Map<String, String> instanceTags, Map<String, String> volumeTags) {
+    String availabilityZone = (spec.availabilityZone == null)
+        ? behavior.getAvailabilityZone() : spec.availabilityZone;
+    FakeInstance instance = new FakeInstance(newId("i"), reservationId, spec, availabilityZone,
+        nextPrivateIpAddress(), now, behavior.getInstanceStartMillis());
+    instance.tags.putAll(instanceTags);
+
+    boolean hasRootMapping = false;
+    for (BlockDeviceMapping mapping : spec.blockDeviceMappings) {
+      hasRootMapping |= ROOT_DEVICE_NAME.equals(mapping.getDeviceName());
+    }
+    if (!hasRootMapping) {
+      attachLaunchVolume(instance, ROOT_DEVICE_NAME, ROOT_VOLUME_SIZE_GIB, "gp2", true, false,
+          now, volumeTags);
+    }
+    for (BlockDeviceMapping mapping : spec.blockDeviceMappings) {
+      if (mapping.getEbs() != null && mapping.getNoDevice() == null) {
+        Integer size = mapping.getEbs().getVolumeSize();
+        Boolean deleteOnTermination = mapping.getEbs().getDeleteOnTermination();
+        Boolean encrypted = mapping.getEbs().getEncrypted();
+        attachLaunchVolume(instance, mapping.getDeviceName(),
+            (size == null) ? ROOT_VOLUME_SIZE_GIB : size,
+            (mapping.getEbs().getVolumeType() == null) ? "gp2" : mapping.getEbs().getVolumeType(),
+            deleteOnTermination == null || deleteOnTermination,
+            encrypted != null && encrypted,
+            now, volumeTags);
+      }
+    }
+
+    instances.put(instance.id, instance);
+    activeInstanceCount++;
+    return instance;
+  }
+
+  /**
+   * Terminates an instance, detaching its volumes and deleting those that are deleted on
+   * termination. Terminating an instance that is already shutting down has no effect.
+   *
+   * @param instance the instance
+   * @param now      the current time
+   */
+  void terminateInstance(FakeInstance instance, long now) {
+    if (!instance.isActive(now)) {
+      return;
+    }
+    long terminatedAt = now + behavior.getInstanceTerminateMillis();
+    instance.state.reset(now, InstanceStateName.ShuttingDown)
+        .then(terminatedAt, InstanceStateName.Terminated);
+    instance.stateReasonCode = "Client.UserInitiatedShutdown";
+    activeInstanceCount--;
+
+    for (String volumeId : instance.volumeIdsByDeviceName.values()) {
+      FakeVolume volume = volumes.get(volumeId);
+      if (volume == null || !volume.isAttachedTo(instance.id, now)) {
+        continue;
+      }
+      volume.attachmentState.reset(now, "detaching").then(terminatedAt, "detached");
+      if (volume.deleteOnTermination) {
+        volume.state.reset(now, "in-use")
+            .then(terminatedAt, "deleting")
+            .then(terminatedAt + behavior.getVolumeDeleteMillis(), "deleted");
+      } else {
+        volume.state.reset(now, "in-use").then(terminatedAt, "available");
+      }
+    }
+
+    if (instance.spotInstanceRequestId != null) {
+      FakeSpotRequest spotRequest = spotRequests.get(instance.spotInstanceRequestId);
+      if (spotRequest != null && "active".equals(spotRequest.state)) {
+        spotRequest.setState("closed", "instance-terminated-by-user", now);
+      }
+    }
+  }
+
+  /**
+   * Returns a page of the specified query results, remembering the rest of the results under
+   * the returned next token. Subsequent pages are requested with the next token alone.
+   *
+   * @param service    the service name
+   * @param nextToken  the next token of a previous page, or {@code null} for the first page
+   * @param maxResults the maximum number of results requested, or {@code null}
+   * @param query      the query returning the IDs of all results
+   * @return the page
+   */
+  Page paginate(String service, String nextToken, Integer maxResults,
+      Supplier<List<String>> query) {
+    List<String> ids;
+    if (nextToken != null) {
+      ids = pageCursors.remove(nextToken);
+      if (ids == null) {
+        throw newServiceException(service, "InvalidParameterValue",
+            "Invalid pagination token: " + nextToken);
+      }
+    } else {
+      ids = query.get();
+    }
+
+    int pageSize = behavior.getPageSize();
+    if (maxResults != null && maxResults > 0) {
+      pageSize = Math.min(pageSize, maxResults);
+    }
+    if (ids.size() <= pageSize) {
+      return new Page(ids, null);
+    }
+
+    String token = "token-" + (++sequence);
+    pageCursors.put(token, new ArrayList<>(ids.subList(pageSize, ids.size())));
+    return new Page(new ArrayList<>(ids.subList(0, pageSize)), token);
+  }
+
+  /**
+   * Advances the Spot instance requests, EC2 Fleets and Auto Scaling groups whose progress
+   * launches instances.
+   *
+   * @param now the current time
+   */
+  private void advance(long now) {
+    for (Iterator<String> iterator = openSpotRequestIds.iterator(); iterator.hasNext(); ) {
+      FakeSpotRequest spotRequest = spotRequests.get(iterator.next());
+      if (!"open".equals(spotRequest.state)) {
+        iterator.remove();
+      } else if (spotRequest.validUntil != null && now > spotRequest.validUntil) {
+        spotRequest.setState("closed", "schedule-expired", now);
+        iterator.remove();
+      } else if (now >= spotRequest.createdAt + behavior.getSpotFulfillmentMillis()) {
+        if (spotRequest.spotPrice != null && spotRequest.spotPrice < behavior.getSpotPrice()) {
+          spotRequest.setState("open", "price-too-low", now);
+        } else if (getAvailableCapacity() == 0) {
+          spotRequest.setState("open", "capacity-not-available", now);
+        } else {
+          FakeInstance instance = launchInstance(spotRequest.launchSpec, newId("r"), now,
+              Collections.emptyMap(), Collections.emptyMap());
+          instance.spotInstanceRequestId = spotRequest.id;
+          spotRequest.instanceId = instance.id;
+          spotRequest.setState("active", "fulfilled", now);
+          iterator.remove();
+        }
+      }
+    }
+
+    for (FakeFleet fleet : fleets.values()) {
+      if (!"active".equals(fleet.state)) {
+        continue;
+      }
+      if (fleet.validUntil != null && now > fleet.validUntil) {
+        fleet.state = "expired";
+        continue;
+      }
+      // On-Demand capacity is launched right away, Spot capacity once it is fulfilled
+      int onDemandLaunchable = Math.min(fleet.onDemandTargetCapacity - fleet.onDemandInstanceCount,
+          getAvailableCapacity());
+      for (int i = 0; i < onDemandLaunchable; i++) {
+        launchFleetInstance(fleet, fleet.launchSpecs.get(fleet.instanceIds.size()
+            % fleet.launchSpecs.size()), now);
+        fleet.onDemandInstanceCount++;
+      }
+      if (now < fleet.createdAt + behavior.getSpotFulfillmentMillis()) {
+        continue;
+      }
+      List<LaunchSpec> spotLaunchSpecs = new ArrayList<>();
+      for (int i = 0; i < fleet.launchSpecs.size(); i++) {
+        Double maxPrice = fleet.maxPrices.get(i);
+        if (maxPrice == null || maxPrice >= behavior.getSpotPrice()) {
+          spotLaunchSpecs.add(fleet.launchSpecs.get(i));
+        }
+      }
+      if (spotLaunchSpecs.isEmpty()) {
+        continue;
+      }
+      int spotLaunchable = Math.min(fleet.spotTargetCapacity - fleet.spotInstanceCount,
+          getAvailableCapacity());
+      for (int i = 0; i < spotLaunchable; i++) {
+        launchFleetInstance(fleet, spotLaunchSpecs.get(fleet.instanceIds.size()
+            % spotLaunchSpecs.size()), now);
+        fleet.spotInstanceCount++;
+      }
+    }
+
+    for (FakeAutoScalingGroup group : autoScalingGroups.values()) {
+      if (now < group.createdAt + behavior.getAutoScalingLaunchMillis()) {
+        continue;
+      }
+      int missing = group.desiredCapacity - group.getActiveInstanceIds(this, now).size();
+      int launchable = Math.min(missing, getAvailableCapacity());
+      for (int i = 0; i < launchable; i++) {
+        FakeInstance instance =
+            launchInstance(group.launchSpec, newId("r"), now, group.tags, group.tags);
+        instance.autoScalingGroupName = group.name;
+        group.instanceIds.add(instance.id);
+      }
+    }
+  }
+
+  private void launchFleetInstance(FakeFleet fleet, LaunchSpec spec, long now) {
+    FakeInstance instance =
+        launchInstance(spec, newId("r"), now, spec.instanceTags, spec.volumeTags);
+    instance.fleetId = fleet.id;
+    fleet.instanceIds.add(instance.id);
+  }
+
+  private String nextPrivateIpAddress() {
+    long n = sequence + 4;
+    return String.format("10.%d.%d.%d", (n >> 16) & 0xff, (n >> 8) & 0xff, n & 0xff);
+  }
+
+  private void sleepLatency() {
+    long latencyMillis = behavior.getLatencyMillis();
+    if (behavior.getLatencyJitterMillis() > 0) {
+      latencyMillis += (long) (nextDouble() * (behavior.getLatencyJitterMillis() + 1));
+    }
+    if (latencyMillis > 0) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AbortedException(e);
+      }
+    }
+  }
+
+  private boolean tryAcquire(String action) {
+    if (behavior.getRequestsPerSecond() <= 0) {
+      return true;
+    }
+    synchronized (tokenBuckets) {
+      TokenBucket bucket = tokenBuckets.get(action);
+      if (bucket == null) {
+        bucket = new TokenBucket(behavior.getRequestsPerSecond(), behavior.getRequestBurst());
+        tokenBuckets.put(action, bucket);
+      }
+      return bucket.tryAcquire(System.nanoTime());
+    }
+  }
+
+  private double nextDouble() {
+    synchronized (random) {
+      return random.nextDouble();
+    }
+  }
+
+  private static void increment(ConcurrentMap<String, AtomicLong> counts, String action) {
+    counts.computeIfAbsent(action, key -> new AtomicLong()).incrementAndGet();
+  }
+
+  private static long get(ConcurrentMap<String, AtomicLong> counts, String action) {
+    AtomicLong count = counts.get(action);
+    return (count == null) ? 0 : count.get();
+  }
+
+  private static long sum(ConcurrentMap<String, AtomicLong> counts) {
+    long sum = 0;
+    for (AtomicLong count : counts.values()) {
+      sum += count.get();
+    }
+    return sum;
+  }
+
+  private static SortedMap<String, Long> snapshot(ConcurrentMap<String, AtomicLong> counts) {
+    ImmutableSortedMap.Builder<String, Long> builder = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+      builder.put(entry.getKey(), entry.getValue().get());
+    }
+    return builder.build();
+  }
+
+  private void attachLaunchVolume(FakeInstance instance, String deviceName, int size,
+      String volumeType, boolean deleteOnTermination, boolean encrypted, long now,
+      Map<String, String> volumeTags) {
+    FakeVolume volume = new FakeVolume(newId("vol"), size, volumeType, encrypted,
+        instance.availabilityZone, now, "in-use");
+    volume.tags.putAll(volumeTags);
+    volume.attach(instance.id, deviceName, now, now);
+    volume.deleteOnTermination = deleteOnTermination;
+    volumes.put(volume.id, volume);
+    instance.volumeIdsByDeviceName.put(deviceName, volume.id);
+  }
+
+  /**
+   * A page of results.
+   */
+  static final class Page {
+    final List<String> ids;
+    final String nextToken;
+
+    Page(List<String> ids, String nextToken) {
+      this.ids = ids;
+      this.nextToken = nextToken;
+    }
+  }
+
+  /**
+   * The states of a resource over time. Each state holds from its time until the time of the
+   * next state.
+   *
+   * @param <S> the type of state
+   */
+  static final class Timeline<S> {
+    private final List<Long> times = new ArrayList<>(4);
+    private final List<S> states = new ArrayList<>(4);
+
+    Timeline(long time, S state) {
+      then(time, state);
+    }
+
+    /**
+     * Appends a state starting at the specified time.
+     */
+    Timeline<S> then(long time, S state) {
+      times.add(time);
+      states.add(state);
+      return this;
+    }
+
+    /**
+     * Discards the states scheduled after the specified time, and appends a state starting
+     * at that time.
+     */
+    Timeline<S> reset(long time, S state) {
+      for (int i = times.size() - 1; i > 0 && times.get(i) > time; i--) {
+        times.remove(i);
+        states.remove(i);
+      }
+      return then(time, state);
+    }
+
+    /**
+     * Returns the state at the specified time.
+     */
+    S get(long time) {
+      for (int i = times.size() - 1; i > 0; i--) {
+        if (times.get(i) <= time) {
+          return states.get(i);
+        }
+      }
+      return states.get(0);
+    }
+  }
+
+  /**
+   * The parameters of an instance launch.
+   */
+  static final class LaunchSpec {
+    String imageId;
+    String instanceType;
+    String subnetId;
+    List<String> securityGroupIds = Collections.emptyList();
+    String keyName;
+    String availabilityZone;
+    String placementGroup;
+    boolean ebsOptimized;
+    List<BlockDeviceMapping> blockDeviceMappings = Collections.emptyList();
+    Map<String, String> instanceTags = Collections.emptyMap();
+    Map<String, String> volumeTags = Collections.emptyMap();
+
+    /**
+     * Returns a copy of this launch specification with the specified instance type and subnet,
+     * where specified.
+     *
+     * @param overrideInstanceType the instance type, or {@code null}
+     * @param overrideSubnetId     the subnet ID, or {@code null}
+     * @return the launch specification
+     */
+    LaunchSpec override(String overrideInstanceType, String overrideSubnetId) {
+      LaunchSpec spec = new LaunchSpec();
+      spec.imageId = imageId;
+      spec.instanceType = (overrideInstanceType == null) ? instanceType : overrideInstanceType;
+      spec.subnetId = (overrideSubnetId == null) ? subnetId : overrideSubnetId;
+      spec.securityGroupIds = securityGroupIds;
+      spec.keyName = keyName;
+      spec.availabilityZone = availabilityZone;
+      spec.placementGroup = placementGroup;
+      spec.ebsOptimized = ebsOptimized;
+      spec.blockDeviceMappings = blockDeviceMappings;
+      spec.instanceTags = instanceTags;
+      spec.volumeTags = volumeTags;
+      return spec;
+    }
+  }
+
+  /**
+   * An EC2 instance.
+   */
+  static final class FakeInstance {
+    final String id;
+    final String reservationId;
+    final LaunchSpec spec;
+    final String availabilityZone;
+    final String privateIpAddress;
+    final long createdAt;
+    final Timeline<InstanceStateName> state;
+    final Map<String, String> tags = new LinkedHashMap<>();
+    final Map<String, String> volumeIdsByDeviceName = new LinkedHashMap<>();
+    String stateReasonCode;
+    String spotInstanceRequestId;
+    int launchIndex;
+    String clientToken;
+    String fleetId;
+    String autoScalingGroupName;
+
+    FakeInstance(String id, String reservationId, LaunchSpec spec, String availabilityZone,
+        String privateIpAddress, long now, long startMillis) {
+      this.id = id;
+      this.reservationId = reservationId;
+      this.spec = spec;
+      this.availabilityZone = availabilityZone;
+      this.privateIpAddress = privateIpAddress;
+      this.createdAt = now;
+      this.state = new Timeline<>(now, InstanceStateName.Pending)
+          .then(now + startMillis, InstanceStateName.Running);
+    }
+
+    InstanceStateName getState(long now) {
+      return state.get(now);
+    }
+
+    boolean isActive(long now) {
+      InstanceStateName currentState = state.get(now);
+      return currentState == InstanceStateName.Pending
+          || currentState == InstanceStateName.Running;
+    }
+  }
+
+  /**
+   * An EBS volume.
+   */
+  static final class FakeVolume {
+    final String id;
+    final int size;
+    final String volumeType;
+    final boolean encrypted;
+    final String availabilityZone;
+    final long createdAt;
+    final Timeline<String> state;
+    final Map<String, String> tags = new LinkedHashMap<>();
+    Integer iops;
+    String kmsKeyId;
+    String attachedInstanceId;
+    String attachedDeviceName;
+    long attachTime;
+    Timeline<String> attachmentState;
+    boolean deleteOnTermination;
+
+    FakeVolume(String id, int size, String volumeType, boolean encrypted,
+        String availabilityZone, long now, String initialState) {
+      this.id = id;
+      this.size = size;
+      this.volumeType = volumeType;
+      this.encrypted = encrypted;
+      this.availabilityZone = availabilityZone;
+      this.createdAt = now;
+      this.state = new Timeline<>(now, initialState);
+    }
+
+    void attach(String instanceId, String deviceName, long now, long attachedAt) {
+      attachedInstanceId = instanceId;
+      attachedDeviceName = deviceName;
+      attachTime = now;
+      deleteOnTermination = false;
+      attachmentState = new Timeline<>(now, "attaching").then(attachedAt, "attached");
+      state.reset(now, "in-use");
+    }
+
+    String getAttachmentState(long now) {
+      return (attachmentState == null) ? null : attachmentState.get(now);
+    }
+
+    boolean isAttachedTo(String instanceId, long now) {
+      String currentAttachmentState = getAttachmentState(now);
+      return instanceId.equals(attachedInstanceId)
+          && currentAttachmentState != null && !"detached".equals(currentAttachmentState);
+    }
+
+    boolean isDeleted(long now) {
+      return "deleted".equals(state.get(now));
+    }
+  }
+
+  /**
+   * A Spot instance request.
+   */
+  static final class FakeSpotRequest {
+    final String id;
+    final LaunchSpec launchSpec;
+    final Double spotPrice;
+    final Long validUntil;
+    final long createdAt;
+    final Map<String, String> tags = new LinkedHashMap<>();
+    String state;
+    String statusCode;
+    long statusUpdatedAt;
+    String instanceId;
+
+    FakeSpotRequest(String id, LaunchSpec launchSpec, Double spotPrice, Long validUntil,
+        long now) {
+      this.id = id;
+      this.launchSpec = launchSpec;
+      this.spotPrice = spotPrice;
+      this.validUntil = validUntil;
+      this.createdAt = now;
+      setState("open", "pending-evaluation", now);
+    }
+
+    void setState(String state, String statusCode, long now) {
+      this.state = state;
+      this.statusCode = statusCode;
+      this.statusUpdatedAt = now;
+    }
+  }
+
+  /**
+   * Registers a new open Spot instance request.
+   *
+   * @param spotRequest the Spot instance request
+   */
+  void addSpotRequest(FakeSpotRequest spotRequest) {
+    spotRequests.put(spotRequest.id, spotRequest);
+    openSpotRequestIds.add(spotRequest.id);
+  }
+
+  /**
+   * A one-time EC2 Fleet request. The fleet launches its instances with its launch
+   * specifications in turn.
+   */
+  static final class FakeFleet {
+    final String id;
+    final List<LaunchSpec> launchSpecs;
+    final List<Double> maxPrices;
+    final int onDemandTargetCapacity;
+    final int spotTargetCapacity;
+    final Long validUntil;
+    final long createdAt;
+    final List<String> instanceIds = new ArrayList<>();
+    String state = "active";
+    int onDemandInstanceCount;
+    int spotInstanceCount;
+
+    FakeFleet(String id, List<LaunchSpec> launchSpecs, List<Double> maxPrices,
+        int onDemandTargetCapacity, int spotTargetCapacity, Long validUntil, long now) {
+      this.id = id;
+      this.launchSpecs = launchSpecs;
+      this.maxPrices = maxPrices;
+      this.onDemandTargetCapacity = onDemandTargetCapacity;
+      this.spotTargetCapacity = spotTargetCapacity;
+      this.validUntil = validUntil;
+      this.createdAt = now;
+    }
+  }
+
+  /**
+   * An Auto Scaling group.
+   */
+  static final class FakeAutoScalingGroup {
+    final String name;
+    final String launchTemplateName;
+    final LaunchSpec launchSpec;
+    final int minSize;
+    final int maxSize;
+    final int desiredCapacity;
+    final long createdAt;
+    final Map<String, String> tags = new LinkedHashMap<>();
+    final List<String> instanceIds = new ArrayList<>();
+    final Set<String> suspendedProcesses = new LinkedHashSet<>();
+
+    FakeAutoScalingGroup(String name, String launchTemplateName, LaunchSpec launchSpec,
+        int minSize, int maxSize, int desiredCapacity, long now) {
+      this.name = name;
+      this.launchTemplateName = launchTemplateName;
+      this.launchSpec = launchSpec;
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.desiredCapacity = desiredCapacity;
+      this.createdAt = now;
+    }
+
+    List<String> getActiveInstanceIds(FakeAwsCloud cloud, long now) {
+      List<String> activeInstanceIds = new ArrayList<>(instanceIds.size());
+      for (String instanceId : instanceIds) {
+        if (cloud.instances.get(instanceId).isActive(now)) {
+          activeInstanceIds.add(instanceId);
+        }
+      }
+      return activeInstanceIds;
+    }
+  }
+
+  /**
+   * An RDS DB instance.
+   */
+  static final class FakeDbInstance {
+    final String id;
+    final String dbInstanceClass;
+    final String engine;
+    final String engineVersion;
+    final int allocatedStorage;
+    final String availabilityZone;
+    final int port;
+    final long createdAt;
+    final Timeline<String> status;
+    final Map<String, String> tags = new LinkedHashMap<>();
+
+    FakeDbInstance(String id, String dbInstanceClass, String engine, String engineVersion,
+        int allocatedStorage, String availabilityZone, int port, long now, long createMillis) {
+      this.id = id;
+      this.dbInstanceClass = dbInstanceClass;
+      this.engine = engine;
+      this.engineVersion = engineVersion;
+      this.allocatedStorage = allocatedStorage;
+      this.availabilityZone = availabilityZone;
+      this.port = port;
+      this.createdAt = now;
+      this.status = new Timeline<>(now, "creating").then(now + createMillis, "available");
+    }
+  }
+
+  /**
+   * A token bucket limiting the call rate of an action.
+   */
+  private static final class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    private TokenBucket(double tokensPerSecond, int capacity) {
+      this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.capacity = capacity;
+      this.tokens = capacity;
+      this.lastRefillNanos = System.nanoTime();
+    }
+
+    private boolean tryAcquire(long nowNanos) {
+      tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * tokensPerNano);
+      lastRefillNanos = nowNanos;
+      if (tokens < 1) {
+        return false;
+      }
+      tokens -= 1;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,406 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.fake;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.cloudera.director.aws.shaded.com.amazonaws.AmazonServiceException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.AttachVolumeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.CreateVolumeRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeSpotInstanceRequestsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.DescribeVpcsRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Filter;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Instance;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.LaunchSpecification;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RequestSpotInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Reservation;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.ResourceType;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.SpotInstanceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Tag;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.TagSpecification;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.Volume;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.VolumeState;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.CreateDBInstanceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DBInstanceNotFoundException;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DeleteDBInstanceRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DescribeDBClustersRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.google.common.collect.Iterables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests {@link FakeAwsCloud} and its fake clients.
+ */
+public class FakeAwsCloudTest {
+
+  private FakeAwsCloud cloud;
+
+  @After
+  public void tearDown() {
+    if (cloud != null) {
+      cloud.close();
+    }
+  }
+
+  @Test
+  public void testUnimplementedOperationsFailFast() {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder().build());
+    try {
+      cloud.newEC2Client().describeVpcs(new DescribeVpcsRequest());
+      fail("Expected unimplemented operation to fail");
+    } catch (UnsupportedOperationException e) {
+      assertThat(e.getMessage()).contains("DescribeVpcsRequest");
+    }
+    try {
+      cloud.newRDSClient().describeDBClusters(new DescribeDBClustersRequest());
+      fail("Expected unimplemented operation to fail");
+    } catch (UnsupportedOperationException e) {
+      assertThat(e.getMessage()).contains("DescribeDBClustersRequest");
+    }
+  }
+
+  @Test
+  public void testRunAndDescribeInstancesWithPagination() {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withPageSize(7)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    RunInstancesResult result = client.runInstances(newRunInstancesRequest(20, "group", "a"));
+    assertEquals(20, result.getReservation().getInstances().size());
+    client.runInstances(newRunInstancesRequest(5, "group", "b"));
+
+    List<Instance> instances = new ArrayList<>();
+    int pages = 0;
+    String nextToken = null;
+    do {
+      DescribeInstancesResult page = client.describeInstances(new DescribeInstancesRequest()
+          .withFilters(new Filter().withName("tag:group").withValues("a"))
+          .withNextToken(nextToken));
+      for (Reservation reservation : page.getReservations()) {
+        instances.addAll(reservation.getInstances());
+      }
+      nextToken = page.getNextToken();
+      pages++;
+    } while (nextToken != null);
+
+    assertEquals(20, instances.size());
+    assertEquals(3, pages);
+    assertEquals(pages, cloud.getCallCount("DescribeInstances"));
+    assertEquals(25, cloud.getInstanceCount(InstanceStateName.Running));
+    for (Instance instance : instances) {
+      assertNotNull(instance.getPrivateIpAddress());
+      assertEquals("/dev/sda1",
+          Iterables.getOnlyElement(instance.getBlockDeviceMappings()).getDeviceName());
+    }
+  }
+
+  @Test
+  public void testClientTokenIsIdempotent() {
+    cloud = new FakeAwsCloud();
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    RunInstancesRequest request = newRunInstancesRequest(3, "group", "a")
+        .withClientToken("token");
+    List<Instance> first = client.runInstances(request).getReservation().getInstances();
+    List<Instance> second = client.runInstances(request).getReservation().getInstances();
+
+    assertEquals(3, first.size());
+    assertEquals(first.get(0).getInstanceId(), second.get(0).getInstanceId());
+    assertEquals(3, cloud.getInstanceCount(InstanceStateName.Running));
+    assertEquals("token", first.get(0).getClientToken());
+    assertEquals(3, client.describeInstances(new DescribeInstancesRequest()
+        .withFilters(new Filter().withName("client-token").withValues("token")))
+        .getReservations().get(0).getInstances().size());
+  }
+
+  @Test
+  public void testInstanceStateTransitionsAndConsistencyDelay() throws InterruptedException {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withConsistencyDelayMillis(200)
+        .withInstanceStartMillis(200)
+        .withInstanceTerminateMillis(200)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    String instanceId = Iterables.getOnlyElement(client.runInstances(
+        newRunInstancesRequest(1, "group", "a")).getReservation().getInstances())
+        .getInstanceId();
+    assertErrorCode("InvalidInstanceID.NotFound", () -> client.describeInstanceStatus(
+        new DescribeInstanceStatusRequest().withInstanceIds(instanceId)));
+    assertErrorCode("InvalidInstanceID.Malformed", () -> client.describeInstances(
+        new DescribeInstancesRequest().withInstanceIds("bogus")));
+
+    TimeUnit.MILLISECONDS.sleep(250);
+    assertEquals(InstanceStateName.Running.toString(), getInstance(client, instanceId)
+        .getState().getName());
+
+    client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceId));
+    assertEquals(InstanceStateName.ShuttingDown.toString(), getInstance(client, instanceId)
+        .getState().getName());
+    TimeUnit.MILLISECONDS.sleep(250);
+    assertEquals(InstanceStateName.Terminated.toString(), getInstance(client, instanceId)
+        .getState().getName());
+    assertEquals("Client.UserInitiatedShutdown",
+        getInstance(client, instanceId).getStateReason().getCode());
+  }
+
+  @Test
+  public void testInsufficientCapacity() {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withInstanceCapacity(10)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    RunInstancesRequest request = newRunInstancesRequest(4, "group", "a").withMaxCount(8);
+    assertEquals(8, client.runInstances(request).getReservation().getInstances().size());
+    assertEquals(2, client.runInstances(request.withMinCount(1))
+        .getReservation().getInstances().size());
+    assertErrorCode("InsufficientInstanceCapacity", () -> client.runInstances(request));
+    assertEquals(1, cloud.getFailedCallCount("RunInstances"));
+  }
+
+  @Test
+  public void testThrottling() {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withThrottling(1, 5)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    int throttled = 0;
+    for (int i = 0; i < 10; i++) {
+      try {
+        client.describeInstances(new DescribeInstancesRequest());
+      } catch (AmazonServiceException e) {
+        assertEquals("RequestLimitExceeded", e.getErrorCode());
+        throttled++;
+      }
+    }
+    assertThat(throttled).isGreaterThanOrEqualTo(4);
+    assertEquals(throttled, cloud.getThrottledCallCount("DescribeInstances"));
+    assertEquals(10, cloud.getTotalCallCount());
+  }
+
+  @Test
+  public void testInjectedErrors() {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withInjectedError("CreateTags", "InternalError", 1.0)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    String instanceId = Iterables.getOnlyElement(client.runInstances(
+        newRunInstancesRequest(1, "group", "a")).getReservation().getInstances())
+        .getInstanceId();
+    assertErrorCode("InternalError", () -> client.createTags(new CreateTagsRequest()
+        .withResources(instanceId)
+        .withTags(new Tag("key", "value"))));
+  }
+
+  @Test
+  public void testTagLimits() {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withMaxTagsPerResource(3)
+        .withMaxTagResourcesPerRequest(2)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    List<String> instanceIds = new ArrayList<>();
+    for (Instance instance : client.runInstances(newRunInstancesRequest(3, "group", "a"))
+        .getReservation().getInstances()) {
+      instanceIds.add(instance.getInstanceId());
+    }
+    assertErrorCode("InvalidParameterValue", () -> client.createTags(new CreateTagsRequest()
+        .withResources(instanceIds)
+        .withTags(new Tag("key", "value"))));
+    assertErrorCode("TagLimitExceeded", () -> client.createTags(new CreateTagsRequest()
+        .withResources(instanceIds.subList(0, 2))
+        .withTags(new Tag("k1", "v"), new Tag("k2", "v"), new Tag("k3", "v"))));
+
+    client.createTags(new CreateTagsRequest()
+        .withResources(instanceIds.subList(0, 2))
+        .withTags(new Tag("k1", "v"), new Tag("k2", "v")));
+    assertEquals(3, getInstance(client, instanceIds.get(0)).getTags().size());
+  }
+
+  @Test
+  public void testVolumeLifecycle() throws InterruptedException {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withVolumeCreateMillis(100)
+        .withVolumeAttachMillis(100)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    String instanceId = Iterables.getOnlyElement(client.runInstances(
+        newRunInstancesRequest(1, "group", "a")).getReservation().getInstances())
+        .getInstanceId();
+    String volumeId = client.createVolume(new CreateVolumeRequest()
+        .withAvailabilityZone(cloud.getBehavior().getAvailabilityZone())
+        .withSize(100)
+        .withVolumeType("gp2")
+        .withTagSpecifications(new TagSpecification()
+            .withResourceType(ResourceType.Volume)
+            .withTags(new Tag("group", "a"))))
+        .getVolume().getVolumeId();
+    assertEquals("creating", getVolume(client, volumeId).getState());
+    assertErrorCode("IncorrectState", () -> client.attachVolume(new AttachVolumeRequest()
+        .withVolumeId(volumeId).withInstanceId(instanceId).withDevice("/dev/sdf")));
+
+    TimeUnit.MILLISECONDS.sleep(150);
+    client.attachVolume(new AttachVolumeRequest()
+        .withVolumeId(volumeId).withInstanceId(instanceId).withDevice("/dev/sdf"));
+    assertEquals("attaching",
+        Iterables.getOnlyElement(getVolume(client, volumeId).getAttachments()).getState());
+    TimeUnit.MILLISECONDS.sleep(150);
+    assertEquals("attached",
+        Iterables.getOnlyElement(getVolume(client, volumeId).getAttachments()).getState());
+
+    assertEquals(1, client.describeVolumes(new DescribeVolumesRequest()
+        .withFilters(new Filter().withName("tag:group").withValues("a"))).getVolumes().size());
+    assertEquals(2, cloud.getVolumeCount(VolumeState.InUse));
+  }
+
+  @Test
+  public void testSpotInstanceRequestFulfillment() throws InterruptedException {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withSpotFulfillmentMillis(100)
+        .withSpotPrice(0.5)
+        .build());
+    FakeAmazonEC2AsyncClient client = cloud.newEC2Client();
+
+    LaunchSpecification launchSpecification = new LaunchSpecification()
+        .withImageId("ami-12345678")
+        .withInstanceType("m4.xlarge")
+        .withSubnetId("subnet-12345678");
+    String lowBidId = Iterables.getOnlyElement(client.requestSpotInstances(
+        new RequestSpotInstancesRequest()
+            .withSpotPrice("0.1")
+            .withLaunchSpecification(launchSpecification))
+        .getSpotInstanceRequests()).getSpotInstanceRequestId();
+    String highBidId = Iterables.getOnlyElement(client.requestSpotInstances(
+        new RequestSpotInstancesRequest()
+            .withSpotPrice("1.0")
+            .withLaunchSpecification(launchSpecification))
+        .getSpotInstanceRequests()).getSpotInstanceRequestId();
+
+    TimeUnit.MILLISECONDS.sleep(150);
+    SpotInstanceRequest lowBid = getSpotRequest(client, lowBidId);
+    assertEquals("open", lowBid.getState());
+    assertEquals("price-too-low", lowBid.getStatus().getCode());
+    assertNull(lowBid.getInstanceId());
+
+    SpotInstanceRequest highBid = getSpotRequest(client, highBidId);
+    assertEquals("active", highBid.getState());
+    assertEquals("fulfilled", highBid.getStatus().getCode());
+    assertEquals(highBidId,
+        getInstance(client, highBid.getInstanceId()).getSpotInstanceRequestId());
+  }
+
+  @Test
+  public void testDbInstanceLifecycle() throws InterruptedException {
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withDbInstanceCreateMillis(100)
+        .withDbInstanceDeleteMillis(100)
+        .build());
+    FakeAmazonRDSClient client = cloud.newRDSClient();
+
+    client.createDBInstance(new CreateDBInstanceRequest()
+        .withDBInstanceIdentifier("db")
+        .withDBInstanceClass("db.m3.medium")
+        .withEngine("mysql")
+        .withAllocatedStorage(10));
+    assertEquals("creating", getDbInstanceStatus(client, "db"));
+    TimeUnit.MILLISECONDS.sleep(150);
+    assertEquals("available", getDbInstanceStatus(client, "db"));
+
+    client.deleteDBInstance(new DeleteDBInstanceRequest()
+        .withDBInstanceIdentifier("db")
+        .withSkipFinalSnapshot(true));
+    assertEquals("deleting", getDbInstanceStatus(client, "db"));
+    TimeUnit.MILLISECONDS.sleep(150);
+    try {
+      getDbInstanceStatus(client, "db");
+      fail("Expected DBInstanceNotFoundException");
+    } catch (DBInstanceNotFoundException e) {
+      assertEquals("DBInstanceNotFound", e.getErrorCode());
+    }
+  }
+
+  private static RunInstancesRequest newRunInstancesRequest(int count, String tagKey,
+      String tagValue) {
+    return new RunInstancesRequest()
+        .withImageId("ami-12345678")
+        .withInstanceType("m4.xlarge")
+        .withSubnetId("subnet-12345678")
+        .withSecurityGroupIds("sg-12345678")
+        .withMinCount(count)
+        .withMaxCount(count)
+        .withTagSpecifications(new TagSpecification()
+            .withResourceType(ResourceType.Instance)
+            .withTags(new Tag(tagKey, tagValue)));
+  }
+
+  private static Instance getInstance(FakeAmazonEC2AsyncClient client, String instanceId) {
+    return Iterables.getOnlyElement(Iterables.getOnlyElement(client.describeInstances(
+        new DescribeInstancesRequest().withInstanceIds(instanceId))
+        .getReservations()).getInstances());
+  }
+
+  private static Volume getVolume(FakeAmazonEC2AsyncClient client, String volumeId) {
+    return Iterables.getOnlyElement(client.describeVolumes(
+        new DescribeVolumesRequest().withVolumeIds(volumeId)).getVolumes());
+  }
+
+  private static SpotInstanceRequest getSpotRequest(FakeAmazonEC2AsyncClient client,
+      String spotInstanceRequestId) {
+    return Iterables.getOnlyElement(client.describeSpotInstanceRequests(
+        new DescribeSpotInstanceRequestsRequest()
+            .withSpotInstanceRequestIds(spotInstanceRequestId))
+        .getSpotInstanceRequests());
+  }
+
+  private static String getDbInstanceStatus(FakeAmazonRDSClient client, String id) {
+    return Iterables.getOnlyElement(client.describeDBInstances(
+        new DescribeDBInstancesRequest().withDBInstanceIdentifier(id)).getDBInstances())
+        .getDBInstanceStatus();
+  }
+
+  private static void assertErrorCode(String errorCode, Runnable call) {
+    try {
+      call.run();
+      fail("Expected " + errorCode);
+    } catch (AmazonServiceException e) {
+      assertEquals(errorCode, e.getErrorCode());
+    }
+  }
+}
@@ -0,0 +1,268 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.load;
+
+import static com.cloudera.director.aws.AWSLauncher.DEFAULT_PLUGIN_LOCALIZATION_CONTEXT;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.IMAGE;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SECURITY_GROUP_IDS;
+import static com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken.SUBNET_ID;
+import static com.cloudera.director.aws.rds.RDSInstanceTemplate.RDSInstanceTemplateConfigurationPropertyToken.ALLOCATED_STORAGE;
+import static com.cloudera.director.aws.rds.RDSInstanceTemplate.RDSInstanceTemplateConfigurationPropertyToken.BACKUP_RETENTION_PERIOD;
+import static com.cloudera.director.aws.rds.RDSInstanceTemplate.RDSInstanceTemplateConfigurationPropertyToken.DB_SUBNET_GROUP_NAME;
+import static com.cloudera.director.aws.rds.RDSInstanceTemplate.RDSInstanceTemplateConfigurationPropertyToken.INSTANCE_CLASS;
+import static com.cloudera.director.aws.rds.RDSInstanceTemplate.RDSInstanceTemplateConfigurationPropertyToken.SKIP_FINAL_SNAPSHOT;
+import static com.cloudera.director.aws.rds.RDSInstanceTemplate.RDSInstanceTemplateConfigurationPropertyToken.VPC_SECURITY_GROUP_IDS;
+import static com.cloudera.director.spi.v2.database.DatabaseServerInstanceTemplate.DatabaseServerInstanceTemplateConfigurationPropertyToken.ADMIN_PASSWORD;
+import static com.cloudera.director.spi.v2.database.DatabaseServerInstanceTemplate.DatabaseServerInstanceTemplateConfigurationPropertyToken.ADMIN_USERNAME;
+import static com.cloudera.director.spi.v2.model.InstanceTemplate.InstanceTemplateConfigurationPropertyToken.INSTANCE_NAME_PREFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.cloudera.director.aws.CustomTagMappings;
+import com.cloudera.director.aws.clientprovider.ClientProvider;
+import com.cloudera.director.aws.ec2.EC2Instance;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate;
+import com.cloudera.director.aws.ec2.EC2InstanceTemplate.EC2InstanceTemplateConfigurationPropertyToken;
+import com.cloudera.director.aws.ec2.provider.EC2Provider;
+import com.cloudera.director.aws.ec2.provider.EC2ProviderFixture;
+import com.cloudera.director.aws.rds.RDSEncryptionInstanceClasses;
+import com.cloudera.director.aws.rds.RDSInstanceTemplate;
+import com.cloudera.director.aws.rds.provider.RDSProvider;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.InstanceStateName;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.cloudera.director.aws.shaded.com.amazonaws.services.rds.AmazonRDSClient;
+import com.cloudera.director.aws.test.fake.FakeAwsBehavior;
+import com.cloudera.director.aws.test.fake.FakeAwsCloud;
+import com.cloudera.director.aws.test.load.LoadTestBudgets.Scenario;
+import com.cloudera.director.spi.v2.database.DatabaseServerInstanceTemplate.DatabaseServerInstanceTemplateConfigurationPropertyToken;
+import com.cloudera.director.spi.v2.database.DatabaseType;
+import com.cloudera.director.spi.v2.model.Configured;
+import com.cloudera.director.spi.v2.model.InstanceState;
+import com.cloudera.director.spi.v2.model.InstanceStatus;
+import com.cloudera.director.spi.v2.model.LocalizationContext;
+import com.cloudera.director.spi.v2.model.exception.PluginExceptionConditionAccumulator;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the lifecycle of a cluster through {@link EC2Provider} and {@link RDSProvider} against a
+ * {@link FakeAwsCloud}: it creates the cluster, finds it, polls its state and host key
+ * fingerprints, grows, shrinks and repairs it, deletes it, and creates, polls and deletes its
+ * DB instances. Each phase is measured and checked against the budgets in
+ * {@link LoadTestBudgets}, and the test fails if any phase exceeds its budget.
+ *
+ * <p>Scenarios marked large in the budgets only run when the
+ * {@value LoadTestBudgets#LARGE_SCENARIOS_PROPERTY} system property is {@code true}.</p>
+ */
+@RunWith(Parameterized.class)
+public class ClusterLifecycleLoadTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClusterLifecycleLoadTest.class);
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> data() {
+    List<Object[]> data = new ArrayList<>();
+    for (Scenario scenario : LoadTestBudgets.load().getScenarios()) {
+      data.add(new Object[]{scenario});
+    }
+    return data;
+  }
+
+  private final Scenario scenario;
+
+  private FakeAwsCloud cloud;
+  private EC2Provider ec2Provider;
+  private RDSProvider rdsProvider;
+  private PhaseRecorder recorder;
+
+  public ClusterLifecycleLoadTest(Scenario scenario) {
+    this.scenario = scenario;
+  }
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    assumeTrue(!scenario.isLarge()
+        || Boolean.getBoolean(LoadTestBudgets.LARGE_SCENARIOS_PROPERTY));
+
+    cloud = new FakeAwsCloud(new FakeAwsBehavior.Builder()
+        .withLatencyMillis(1, 4)
+        .build());
+    ec2Provider = new EC2ProviderFixture(cloud).createEc2Provider();
+
+    ClientProvider<AmazonRDSClient> rdsClientProvider = mock(ClientProvider.class);
+    when(rdsClientProvider.getClient(any(Configured.class),
+        any(PluginExceptionConditionAccumulator.class), any(LocalizationContext.class),
+        anyBoolean())).thenReturn(cloud.newRDSClient());
+    rdsProvider = new RDSProvider(
+        new SimpleConfiguration(),
+        RDSEncryptionInstanceClasses.getTestInstance(ImmutableList.of("db.m3.large"),
+            DEFAULT_PLUGIN_LOCALIZATION_CONTEXT),
+        rdsClientProvider,
+        mock(ClientProvider.class),
+        new CustomTagMappings(null),
+        DEFAULT_PLUGIN_LOCALIZATION_CONTEXT);
+
+    recorder = new PhaseRecorder(cloud);
+  }
+
+  @After
+  public void tearDown() {
+    if (cloud != null) {
+      cloud.close();
+    }
+  }
+
+  @Test
+  public void testClusterLifecycle() throws InterruptedException {
+    EC2InstanceTemplate template = createEc2Template();
+    List<String> cluster = newIds(scenario.getNodes());
+
+    recorder.record("create", () ->
+        assertThat(ec2Provider.allocate(template, cluster, cluster.size()))
+            .hasSize(cluster.size()));
+    Map<String, String> ec2InstanceIds = new HashMap<>();
+    recorder.record("find", () -> {
+      for (EC2Instance instance : ec2Provider.find(template, cluster)) {
+        ec2InstanceIds.put(instance.getId(), instance.unwrap().getInstanceId());
+      }
+      assertEquals(cluster.size(), ec2InstanceIds.size());
+    });
+    recorder.record("state", () ->
+        assertThat(ec2Provider.getInstanceState(template, cluster)).hasSize(cluster.size()));
+    recorder.record("fingerprints", () ->
+        assertThat(ec2Provider.getHostKeyFingerprints(template, cluster))
+            .hasSize(cluster.size()));
+
+    List<String> grown = newIds(scenario.getGrow());
+    recorder.record("grow", () ->
+        assertThat(ec2Provider.allocate(template, grown, grown.size())).hasSize(grown.size()));
+    cluster.addAll(grown);
+
+    List<String> shrunk = new ArrayList<>(cluster.subList(0, scenario.getShrink()));
+    recorder.record("shrink", () -> ec2Provider.delete(template, shrunk));
+    cluster.removeAll(shrunk);
+
+    // Fail some instances behind the provider's back before repairing the cluster.
+    List<String> failed = new ArrayList<>(cluster.subList(0, scenario.getRepair()));
+    List<String> failedEc2InstanceIds = new ArrayList<>(failed.size());
+    for (String virtualInstanceId : failed) {
+      failedEc2InstanceIds.add(ec2InstanceIds.get(virtualInstanceId));
+    }
+    if (!failedEc2InstanceIds.isEmpty()) {
+      cloud.newEC2Client().terminateInstances(
+          new TerminateInstancesRequest().withInstanceIds(failedEc2InstanceIds));
+    }
+    List<String> replacements = newIds(failed.size());
+    recorder.record("repair", () -> {
+      List<String> unhealthy = new ArrayList<>();
+      for (Map.Entry<String, InstanceState> entry
+          : ec2Provider.getInstanceState(template, cluster).entrySet()) {
+        if (entry.getValue().getInstanceStatus() != InstanceStatus.RUNNING) {
+          unhealthy.add(entry.getKey());
+        }
+      }
+      assertThat(unhealthy).containsOnlyElementsOf(failed).hasSameSizeAs(failed);
+      ec2Provider.delete(template, unhealthy);
+      assertThat(ec2Provider.allocate(template, replacements, replacements.size()))
+          .hasSize(replacements.size());
+    });
+    cluster.removeAll(failed);
+    cluster.addAll(replacements);
+
+    recorder.record("delete", () -> ec2Provider.delete(template, cluster));
+    assertEquals(0, cloud.getInstanceCount(InstanceStateName.Running));
+
+    RDSInstanceTemplate dbTemplate = createRdsTemplate();
+    List<String> dbInstances = new ArrayList<>(scenario.getDbInstances());
+    for (int i = 0; i < scenario.getDbInstances(); i++) {
+      dbInstances.add("load-db" + UUID.randomUUID());
+    }
+    recorder.record("rds-create", () ->
+        assertThat(rdsProvider.allocate(dbTemplate, dbInstances, dbInstances.size()))
+            .hasSize(dbInstances.size()));
+    recorder.record("rds-state", () ->
+        assertThat(rdsProvider.getInstanceState(dbTemplate, dbInstances))
+            .hasSize(dbInstances.size()));
+    recorder.record("rds-delete", () -> rdsProvider.delete(dbTemplate, dbInstances));
+
+    List<String> violations = new ArrayList<>();
+    StringBuilder summary = new StringBuilder();
+    for (PhaseReport report : recorder.getReports()) {
+      summary.append(System.lineSeparator()).append(report);
+      violations.addAll(scenario.getPhaseBudget(report.getPhase()).check(report));
+    }
+    LOG.info("Load test scenario {}:{}", scenario, summary);
+    assertThat(violations).as("Budget violations of scenario %s", scenario).isEmpty();
+  }
+
+  private EC2InstanceTemplate createEc2Template() {
+    Map<String, String> config = new HashMap<>();
+    config.put(INSTANCE_NAME_PREFIX.unwrap().getConfigKey(), "load");
+    config.put(IMAGE.unwrap().getConfigKey(), "ami-12345678");
+    config.put(SECURITY_GROUP_IDS.unwrap().getConfigKey(), "sg-12345678");
+    config.put(SUBNET_ID.unwrap().getConfigKey(), "subnet-12345678");
+    config.put(EC2InstanceTemplateConfigurationPropertyToken.TYPE.unwrap().getConfigKey(),
+        EC2ProviderFixture.INSTANCE_TYPE);
+    return ec2Provider.createResourceTemplate("load-template", new SimpleConfiguration(config),
+        ImmutableMap.of());
+  }
+
+  private RDSInstanceTemplate createRdsTemplate() {
+    Map<String, String> config = new HashMap<>();
+    config.put(INSTANCE_NAME_PREFIX.unwrap().getConfigKey(), "load");
+    config.put(DatabaseServerInstanceTemplateConfigurationPropertyToken.TYPE.unwrap().getConfigKey(),
+        DatabaseType.MYSQL.name());
+    config.put(ADMIN_USERNAME.unwrap().getConfigKey(), "admin");
+    config.put(ADMIN_PASSWORD.unwrap().getConfigKey(), "password");
+    config.put(ALLOCATED_STORAGE.unwrap().getConfigKey(), "5");
+    config.put(INSTANCE_CLASS.unwrap().getConfigKey(), "db.m3.medium");
+    config.put(DB_SUBNET_GROUP_NAME.unwrap().getConfigKey(), "default");
+    config.put(VPC_SECURITY_GROUP_IDS.unwrap().getConfigKey(), "sg-12345678");
+    config.put(BACKUP_RETENTION_PERIOD.unwrap().getConfigKey(), "0");
+    config.put(SKIP_FINAL_SNAPSHOT.unwrap().getConfigKey(), "true");
+    return rdsProvider.createResourceTemplate("load-db-template", new SimpleConfiguration(config),
+        ImmutableMap.of());
+  }
+
+  private static List<String> newIds(int count) {
+    List<String> ids = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ids.add(UUID.randomUUID().toString());
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,272 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.load;
+
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.aws.shaded.com.typesafe.config.Config;
+import com.cloudera.director.aws.shaded.com.typesafe.config.ConfigFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * The load test scenarios and the budgets each of their phases must stay within. The budgets are
+ * read from the {@code load-test-budgets.conf} test resource, or from the HOCON file named by the
+ * {@value #BUDGETS_FILE_PROPERTY} system property.
+ *
+ * <p>A phase budget may limit the wall time of the phase, the median and 99th percentile latency
+ * of its API calls, its peak heap usage, its total number of API calls and the number of calls to
+ * individual actions. Limits that a phase does not specify are taken from the phase defaults, and
+ * limits that neither specifies are not checked.</p>
+ */
+public final class LoadTestBudgets {
+
+  /**
+   * The system property naming a budgets file that replaces the default budgets.
+   */
+  public static final String BUDGETS_FILE_PROPERTY = "test.aws.load.budgets";
+
+  /**
+   * The system property that enables the large scenarios.
+   */
+  public static final String LARGE_SCENARIOS_PROPERTY = "test.aws.load.large";
+
+  private static final String DEFAULT_BUDGETS_RESOURCE = "load-test-budgets.conf";
+  private static final String ROOT_PATH = "load-test";
+  private static final String PHASE_DEFAULTS_PATH = "phase-defaults";
+  private static final String SCENARIOS_PATH = "scenarios";
+
+  /**
+   * Loads the budgets from the file named by the {@value #BUDGETS_FILE_PROPERTY} system property,
+   * or from the default budgets resource if it is not set.
+   *
+   * @return the budgets
+   */
+  public static LoadTestBudgets load() {
+    String budgetsFile = System.getProperty(BUDGETS_FILE_PROPERTY);
+    Config config = (budgetsFile == null)
+        ? ConfigFactory.parseResourcesAnySyntax(DEFAULT_BUDGETS_RESOURCE)
+        : ConfigFactory.parseFile(new File(budgetsFile));
+    return new LoadTestBudgets(config.resolve());
+  }
+
+  private final List<Scenario> scenarios;
+
+  /**
+   * Creates budgets from the specified configuration.
+   *
+   * @param config the configuration
+   */
+  public LoadTestBudgets(Config config) {
+    Config root = config.getConfig(ROOT_PATH);
+    Config phaseDefaults = root.hasPath(PHASE_DEFAULTS_PATH)
+        ? root.getConfig(PHASE_DEFAULTS_PATH) : ConfigFactory.empty();
+    Config scenariosConfig = root.getConfig(SCENARIOS_PATH);
+
+    List<Scenario> scenarios = new ArrayList<>();
+    for (String name : scenariosConfig.root().keySet()) {
+      scenarios.add(new Scenario(name, scenariosConfig.getConfig(quote(name)), phaseDefaults));
+    }
+    scenarios.sort(Comparator.comparingInt(Scenario::getNodes));
+    this.scenarios = ImmutableList.copyOf(scenarios);
+  }
+
+  /**
+   * Returns the scenarios, in increasing order of size.
+   *
+   * @return the scenarios
+   */
+  public List<Scenario> getScenarios() {
+    return scenarios;
+  }
+
+  private static String quote(String key) {
+    return '"' + key + '"';
+  }
+
+  /**
+   * A load test scenario: the size of the cluster and of the changes made to it, and the budgets
+   * of its phases.
+   */
+  public static final class Scenario {
+
+    private final String name;
+    private final int nodes;
+    private final int grow;
+    private final int shrink;
+    private final int repair;
+    private final int dbInstances;
+    private final boolean large;
+    private final Config phases;
+    private final Config phaseDefaults;
+
+    private Scenario(String name, Config config, Config phaseDefaults) {
+      this.name = requireNonNull(name, "name is null");
+      this.nodes = config.getInt("nodes");
+      this.grow = config.getInt("grow");
+      this.shrink = config.getInt("shrink");
+      this.repair = config.getInt("repair");
+      this.dbInstances = config.getInt("dbInstances");
+      this.large = config.hasPath("large") && config.getBoolean("large");
+      this.phases = config.hasPath("phases") ? config.getConfig("phases") : ConfigFactory.empty();
+      this.phaseDefaults = phaseDefaults;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the number of nodes in the cluster when it is created.
+     *
+     * @return the number of nodes in the cluster when it is created
+     */
+    public int getNodes() {
+      return nodes;
+    }
+
+    /**
+     * Returns the number of nodes added when the cluster grows.
+     *
+     * @return the number of nodes added when the cluster grows
+     */
+    public int getGrow() {
+      return grow;
+    }
+
+    /**
+     * Returns the number of nodes removed when the cluster shrinks.
+     *
+     * @return the number of nodes removed when the cluster shrinks
+     */
+    public int getShrink() {
+      return shrink;
+    }
+
+    /**
+     * Returns the number of nodes that fail and are replaced when the cluster is repaired.
+     *
+     * @return the number of nodes replaced when the cluster is repaired
+     */
+    public int getRepair() {
+      return repair;
+    }
+
+    /**
+     * Returns the number of DB instances created alongside the cluster.
+     *
+     * @return the number of DB instances
+     */
+    public int getDbInstances() {
+      return dbInstances;
+    }
+
+    /**
+     * Returns whether the scenario is large, and only runs when the
+     * {@value LoadTestBudgets#LARGE_SCENARIOS_PROPERTY} system property is set.
+     *
+     * @return whether the scenario is large
+     */
+    public boolean isLarge() {
+      return large;
+    }
+
+    /**
+     * Returns the budget of the specified phase.
+     *
+     * @param phase the phase name
+     * @return the budget of the phase
+     */
+    public PhaseBudget getPhaseBudget(String phase) {
+      Config phaseConfig = phases.hasPath(quote(phase))
+          ? phases.getConfig(quote(phase)) : ConfigFactory.empty();
+      return new PhaseBudget(phaseConfig.withFallback(phaseDefaults));
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * The limits a phase must stay within.
+   */
+  public static final class PhaseBudget {
+
+    private static final String MAX_CALLS_PATH = "maxCalls";
+
+    private final Config config;
+    private final SortedMap<String, Long> maxCalls;
+
+    private PhaseBudget(Config config) {
+      this.config = config;
+      ImmutableSortedMap.Builder<String, Long> maxCalls = ImmutableSortedMap.naturalOrder();
+      if (config.hasPath(MAX_CALLS_PATH)) {
+        Config maxCallsConfig = config.getConfig(MAX_CALLS_PATH);
+        for (String action : maxCallsConfig.root().keySet()) {
+          maxCalls.put(action, maxCallsConfig.getLong(quote(action)));
+        }
+      }
+      this.maxCalls = maxCalls.build();
+    }
+
+    /**
+     * Checks a phase report against this budget.
+     *
+     * @param report the phase report
+     * @return a description of each limit the phase exceeded, empty if it stayed within budget
+     */
+    public List<String> check(PhaseReport report) {
+      List<String> violations = new ArrayList<>();
+      check(violations, report, "maxWallTimeMillis", report.getWallTimeMillis());
+      check(violations, report, "maxP50LatencyMillis", report.getP50LatencyMillis());
+      check(violations, report, "maxP99LatencyMillis", report.getP99LatencyMillis());
+      check(violations, report, "maxPeakHeapMb", report.getPeakHeapBytes() / (double) (1 << 20));
+      check(violations, report, "maxTotalCalls", report.getTotalCallCount());
+      for (Map.Entry<String, Long> entry : maxCalls.entrySet()) {
+        long calls = report.getCallCount(entry.getKey());
+        if (calls > entry.getValue()) {
+          violations.add(String.format("%s: %d calls exceed the budget %s.%s = %d",
+              report.getPhase(), calls, MAX_CALLS_PATH, entry.getKey(), entry.getValue()));
+        }
+      }
+      return violations;
+    }
+
+    private void check(List<String> violations, PhaseReport report, String limit,
+        double actual) {
+      if (config.hasPath(limit)) {
+        double max = config.getDouble(limit);
+        if (actual > max) {
+          violations.add(String.format("%s: %s exceeds the budget %s = %s",
+              report.getPhase(), format(actual), limit, format(max)));
+        }
+      }
+    }
+
+    private static String format(double value) {
+      return (value == Math.rint(value))
+          ? Long.toString((long) value) : String.format("%.2f", value);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.load;
+
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.aws.test.fake.FakeAwsCloud;
+import com.google.common.base.Stopwatch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the phases of a load test against a {@link FakeAwsCloud} and measures each of them.
+ */
+public class PhaseRecorder {
+
+  /**
+   * The work done in a phase.
+   */
+  public interface Phase {
+
+    /**
+     * Runs the phase.
+     *
+     * @throws InterruptedException if the phase is interrupted
+     */
+    void run() throws InterruptedException;
+  }
+
+  private final FakeAwsCloud cloud;
+  private final List<PhaseReport> reports = new ArrayList<>();
+
+  /**
+   * Creates a phase recorder for phases that call the specified cloud.
+   *
+   * @param cloud the cloud
+   */
+  public PhaseRecorder(FakeAwsCloud cloud) {
+    this.cloud = requireNonNull(cloud, "cloud is null");
+  }
+
+  /**
+   * Runs and measures a phase. Only the calls the phase makes to the cloud are counted, so any
+   * setup done between phases does not count against the next phase.
+   *
+   * @param name  the phase name
+   * @param phase the phase
+   * @return the report of the phase
+   * @throws InterruptedException if the phase is interrupted
+   */
+  public PhaseReport record(String name, Phase phase) throws InterruptedException {
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        heapPools.add(pool);
+      }
+    }
+    cloud.resetCallCounts();
+    for (MemoryPoolMXBean pool : heapPools) {
+      pool.resetPeakUsage();
+    }
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    phase.run();
+    long wallTimeMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    // The pools peak at different times, so their sum overestimates the peak heap usage slightly.
+    long peakHeapBytes = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      peakHeapBytes += pool.getPeakUsage().getUsed();
+    }
+
+    PhaseReport report = new PhaseReport(name, wallTimeMillis, cloud.getCallLatenciesNanos(),
+        peakHeapBytes, cloud.getCallCounts());
+    reports.add(report);
+    return report;
+  }
+
+  /**
+   * Returns the reports of the phases recorded so far, in the order they ran.
+   *
+   * @return the reports of the phases recorded so far
+   */
+  public List<PhaseReport> getReports() {
+    return reports;
+  }
+}
@@ -0,0 +1,144 @@
+// (c) Copyright 2018 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.director.aws.test.load;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The measurements taken during one phase of a load test: its wall time, the latency of the API
+ * calls it made, the number of calls it made to each action and the peak heap usage.
+ */
+public final class PhaseReport {
+
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final String phase;
+  private final long wallTimeMillis;
+  private final double p50LatencyMillis;
+  private final double p99LatencyMillis;
+  private final long peakHeapBytes;
+  private final SortedMap<String, Long> callCounts;
+
+  /**
+   * Creates a phase report.
+   *
+   * @param phase              the phase name
+   * @param wallTimeMillis     the wall time of the phase, in milliseconds
+   * @param callLatenciesNanos the latencies of the calls made during the phase by action, in
+   *                           nanoseconds
+   * @param peakHeapBytes      the peak heap usage during the phase, in bytes
+   * @param callCounts         the number of calls made to each action during the phase
+   */
+  public PhaseReport(String phase, long wallTimeMillis,
+      Map<String, List<Long>> callLatenciesNanos, long peakHeapBytes,
+      Map<String, Long> callCounts) {
+    this.phase = requireNonNull(phase, "phase is null");
+    this.wallTimeMillis = wallTimeMillis;
+    List<Long> latencies = new ArrayList<>();
+    for (Collection<Long> actionLatencies : callLatenciesNanos.values()) {
+      latencies.addAll(actionLatencies);
+    }
+    Collections.sort(latencies);
+    this.p50LatencyMillis = percentile(latencies, 50) / NANOS_PER_MILLI;
+    this.p99LatencyMillis = percentile(latencies, 99) / NANOS_PER_MILLI;
+    this.peakHeapBytes = peakHeapBytes;
+    this.callCounts = ImmutableSortedMap.copyOf(callCounts);
+  }
+
+  public String getPhase() {
+    return phase;
+  }
+
+  public long getWallTimeMillis() {
+    return wallTimeMillis;
+  }
+
+  public double getP50LatencyMillis() {
+    return p50LatencyMillis;
+  }
+
+  public double getP99LatencyMillis() {
+    return p99LatencyMillis;
+  }
+
+  public long getPeakHeapBytes() {
+    return peakHeapBytes;
+  }
+
+  /**
+   * Returns the number of calls made to each action during the phase.
+   *
+   * @return the number of calls made to each action, sorted by action name
+   */
+  public SortedMap<String, Long> getCallCounts() {
+    return callCounts;
+  }
+
+  /**
+   * Returns the number of calls made to the specified action during the phase.
+   *
+   * @param action the action name
+   * @return the number of calls made to the action
+   */
+  public long getCallCount(String action) {
+    Long count = callCounts.get(action);
+    return (count == null) ? 0 : count;
+  }
+
+  /**
+   * Returns the total number of calls made during the phase.
+   *
+   * @return the total number of calls made during the phase
+   */
+  public long getTotalCallCount() {
+    long total = 0;
+    for (long count : callCounts.values()) {
+      total += count;
+    }
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%-16s wall=%6d ms  p50=%7.2f ms  p99=%7.2f ms  heap=%5d MB  calls=%5d %s",
+        phase, wallTimeMillis, p50LatencyMillis, p99LatencyMillis, peakHeapBytes >> 20,
+        getTotalCallCount(), callCounts);
+  }
+
+  /**
+   * Returns the specified percentile of sorted values with the nearest-rank method.
+   *
+   * @param sortedValues the values, in ascending order
+   * @param percentile   the percentile, between 0 and 100
+   * @return the percentile, or 0 if there are no values
+   */
+  static long percentile(List<Long> sortedValues, int percentile) {
+    if (sortedValues.isEmpty()) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.size());
+    return sortedValues.get(Math.max(rank, 1) - 1);
+  }
+}